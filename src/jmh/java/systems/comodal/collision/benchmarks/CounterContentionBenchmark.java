@@ -0,0 +1,104 @@
+package systems.comodal.collision.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import systems.comodal.collision.cache.AtomicLogCounters;
+
+/**
+ * Each thread increments the counters of its own hash bucket, neighboring those of the other
+ * threads, so any contention is false sharing of counter cache lines.  Counters are kept below
+ * their initial count so that every increment writes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 10)
+public class CounterContentionBenchmark {
+
+  private static final int BUCKET_SIZE = 8;
+  private static final int NUM_BUCKETS = 1 << 6;
+  private static final int INITIAL_COUNT = 32;
+  private static final AtomicInteger NEXT_BUCKET = new AtomicInteger();
+  @Param({
+      "Packed",
+      "Padded"
+  })
+  private Layout layout;
+  private AtomicLogCounters counters;
+
+  @Setup
+  public void setup() {
+    this.counters = layout.create();
+  }
+
+  private int increment(final ThreadState threadState) {
+    final int counterIndex = threadState.counterOffset + (threadState.index++ & (BUCKET_SIZE - 1));
+    counters.increment(counterIndex);
+    final int count = counters.getOpaque(counterIndex);
+    if (count >= INITIAL_COUNT) {
+      counters.setOpaque(counterIndex, 0);
+    }
+    return count;
+  }
+
+  @Benchmark
+  @Threads(1)
+  public int threads01(final ThreadState threadState) {
+    return increment(threadState);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public int threads04(final ThreadState threadState) {
+    return increment(threadState);
+  }
+
+  @Benchmark
+  @Threads(16)
+  public int threads16(final ThreadState threadState) {
+    return increment(threadState);
+  }
+
+  @Benchmark
+  @Threads(48)
+  public int threads48(final ThreadState threadState) {
+    return increment(threadState);
+  }
+
+  public enum Layout {
+    Packed {
+      @Override
+      AtomicLogCounters create() {
+        return AtomicLogCounters.create(NUM_BUCKETS * BUCKET_SIZE, INITIAL_COUNT, 1 << 20, 1);
+      }
+    },
+    Padded {
+      @Override
+      AtomicLogCounters create() {
+        return AtomicLogCounters
+            .createPadded(NUM_BUCKETS * BUCKET_SIZE, BUCKET_SIZE, INITIAL_COUNT, 1 << 20, 1);
+      }
+    };
+
+    abstract AtomicLogCounters create();
+  }
+
+  @State(Scope.Thread)
+  public static class ThreadState {
+
+    final int counterOffset = (NEXT_BUCKET.getAndIncrement() & (NUM_BUCKETS - 1)) * BUCKET_SIZE;
+    int index;
+  }
+}
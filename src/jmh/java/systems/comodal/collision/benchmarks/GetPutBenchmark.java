@@ -31,7 +31,10 @@ public class GetPutBenchmark {
   @Param({
       "Cache2k",
       "Caffeine",
-      "Collision"
+      "Collision",
+      "CollisionSampled",
+      "CollisionPacked",
+      "CollisionTwoChoice"
   })
   private CacheFactory cacheType;
   private GetPutCache<Long, Boolean> cache;
@@ -141,6 +144,71 @@ public class GetPutBenchmark {
             return cache.getIfPresent(key);
           }
 
+          @Override
+          public V put(final K key, final V val) {
+            return cache.putReplace(key, val);
+          }
+        };
+      }
+    },
+    CollisionSampled {
+      @Override
+      <K, V> GetPutCache<K, V> create(final int capacity) {
+        final CollisionCache<K, V> cache = CollisionCache
+            .<V>withCapacity(capacity)
+            .setStrictCapacity(true)
+            .setCounterSampleRate(16)
+            .buildSparse(3.0);
+        return new GetPutCache<>() {
+
+          @Override
+          public V get(final K key) {
+            return cache.getIfPresent(key);
+          }
+
+          @Override
+          public V put(final K key, final V val) {
+            return cache.putReplace(key, val);
+          }
+        };
+      }
+    },
+    CollisionPacked {
+      @Override
+      <K, V> GetPutCache<K, V> create(final int capacity) {
+        final CollisionCache<K, V> cache = CollisionCache
+            .<V>withCapacity(capacity)
+            .setStrictCapacity(true)
+            .buildPacked();
+        return new GetPutCache<>() {
+
+          @Override
+          public V get(final K key) {
+            return cache.getIfPresent(key);
+          }
+
+          @Override
+          public V put(final K key, final V val) {
+            return cache.putReplace(key, val);
+          }
+        };
+      }
+    },
+    CollisionTwoChoice {
+      @Override
+      <K, V> GetPutCache<K, V> create(final int capacity) {
+        final CollisionCache<K, V> cache = CollisionCache
+            .<V>withCapacity(capacity)
+            .setStrictCapacity(true)
+            .setTwoChoicePlacement(true)
+            .buildPacked();
+        return new GetPutCache<>() {
+
+          @Override
+          public V get(final K key) {
+            return cache.getIfPresent(key);
+          }
+
           @Override
           public V put(final K key, final V val) {
             return cache.putReplace(key, val);
@@ -0,0 +1,130 @@
+package systems.comodal.collision.benchmarks;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import systems.comodal.collision.cache.CollisionCache;
+import systems.comodal.collision.cache.LoadingCollisionBuilder;
+
+/**
+ * Samples get latency against a loader with a heavy tail, most sleeping loads take 2ms but one in
+ * a hundred takes 120ms, to compare the latency percentiles of plain and hedged loads.
+ */
+@State(Scope.Benchmark)
+@Threads(32)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 10)
+public class HedgedLoadBenchmark {
+
+  static final int SIZE = 1 << 20;
+  static final int MASK = SIZE - 1;
+  static final int ITEMS = SIZE / 3;
+  private static final int CAPACITY = 1 << 16;
+  private static final double SLEEP_RAND = 10 / 1000.0;
+  private static final double TAIL_RAND = 1 / 100.0;
+  @Param({
+      "Collision",
+      "Collision_Hedged",
+      "Collision_Hedged_P99"
+  })
+  private BenchmarkFunctionFactory cacheType;
+  private ExecutorService executor;
+  private Function<Long, Long> benchmarkFunction;
+  private Long[] keys = new Long[SIZE];
+
+  private static void amortizedHeavyTailSleep() {
+    try {
+      if (Math.random() < SLEEP_RAND) {
+        Thread.sleep(Math.random() < TAIL_RAND ? 120 : 2);
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static LoadingCollisionBuilder<Long, Long, Long> startCollision() {
+    return CollisionCache
+        .withCapacity(CAPACITY, Long.class)
+        .setStrictCapacity(true)
+        .setLoader(key -> {
+          amortizedHeavyTailSleep();
+          return key;
+        }, (key, num) -> num);
+  }
+
+  @Setup
+  public void setup() {
+    this.executor = Executors.newCachedThreadPool();
+    this.benchmarkFunction = cacheType.create(executor);
+    final ScrambledZipfGenerator generator = new ScrambledZipfGenerator(ITEMS);
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = generator.nextValue();
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Benchmark
+  public Long getSpread(final ThreadState threadState) {
+    return benchmarkFunction.apply(keys[threadState.index++ & MASK]);
+  }
+
+  public enum BenchmarkFunctionFactory {
+    Collision {
+      @Override
+      public Function<Long, Long> create(final ExecutorService executor) {
+        final CollisionCache<Long, Long> cache = startCollision().buildSparse();
+        System.out.println(cache);
+        return cache::getAggressive;
+      }
+    },
+    Collision_Hedged {
+      @Override
+      public Function<Long, Long> create(final ExecutorService executor) {
+        final CollisionCache<Long, Long> cache = startCollision()
+            .setHedgedLoads(Duration.ofMillis(10), executor)
+            .buildSparse();
+        System.out.println(cache);
+        return cache::getAggressive;
+      }
+    },
+    Collision_Hedged_P99 {
+      @Override
+      public Function<Long, Long> create(final ExecutorService executor) {
+        final CollisionCache<Long, Long> cache = startCollision()
+            .setHedgedLoads(0.99, executor)
+            .buildSparse();
+        System.out.println(cache);
+        return cache::getAggressive;
+      }
+    };
+
+    public abstract Function<Long, Long> create(final ExecutorService executor);
+  }
+
+  @State(Scope.Thread)
+  public static class ThreadState {
+
+    int index = ThreadLocalRandom.current().nextInt();
+  }
+}
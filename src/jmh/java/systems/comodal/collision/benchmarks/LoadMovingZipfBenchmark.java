@@ -31,7 +31,10 @@ public class LoadMovingZipfBenchmark {
       "Cache2k",
       "Caffeine",
       "Collision",
-      "Collision_Aggressive"
+      "Collision_Aggressive",
+      "Collision_Aging",
+      "Collision_Packed",
+      "Collision_TwoChoice"
   })
   private LoadStaticZipfBenchmark.BenchmarkFunctionFactory cacheType;
   private Function<Long, Long> benchmarkFunction;
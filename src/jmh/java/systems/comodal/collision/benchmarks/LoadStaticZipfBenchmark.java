@@ -1,6 +1,7 @@
 package systems.comodal.collision.benchmarks;
 
 import com.github.benmanes.caffeine.cache.LoadingCache;
+import java.time.Duration;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
@@ -45,7 +46,9 @@ public class LoadStaticZipfBenchmark {
       "Cache2k",
       "Caffeine",
       "Collision",
-      "Collision_Aggressive"
+      "Collision_Aggressive",
+      "Collision_Packed",
+      "Collision_TwoChoice"
   })
   private BenchmarkFunctionFactory cacheType;
   private Function<Long, Long> benchmarkFunction;
@@ -187,6 +190,35 @@ public class LoadStaticZipfBenchmark {
         System.out.println(cache);
         return cache::getAggressive;
       }
+    },
+    Collision_Aging {
+      @Override
+      public Function<Long, Long> create() {
+        final CollisionCache<Long, Long> cache = startCollision()
+            .setCounterAgingPeriod(Duration.ofSeconds(1))
+            .buildSparse(5.0);
+        System.out.println(cache);
+        return key -> cache.get(key, LOADER);
+      }
+    },
+    Collision_Packed {
+      @Override
+      public Function<Long, Long> create() {
+        final CollisionCache<Long, Long> cache = startCollision()
+            .buildPacked();
+        System.out.println(cache);
+        return key -> cache.get(key, LOADER);
+      }
+    },
+    Collision_TwoChoice {
+      @Override
+      public Function<Long, Long> create() {
+        final CollisionCache<Long, Long> cache = startCollision()
+            .setTwoChoicePlacement(true)
+            .buildPacked();
+        System.out.println(cache);
+        return key -> cache.get(key, LOADER);
+      }
     };
 
     public abstract Function<Long, Long> create();
@@ -1,3 +1,5 @@
 module systems.comodal.collision {
+  requires static java.management;
+  requires static jdk.jfr;
   exports systems.comodal.collision.cache;
 }
\ No newline at end of file
@@ -0,0 +1,158 @@
+package systems.comodal.collision.cache;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Hill climbs the initial count and max counter value of the LFU counters from a sample of the
+ * hit rate, similar to how W-TinyLFU adapts its window size.  Each step adjusts one of the two
+ * parameters in its current direction, and reverses that direction if the hit rate over the
+ * following step drops.  Steps are taken by whichever thread completes a sample window, so no
+ * background thread is needed.
+ *
+ * @author James P. Edwards
+ */
+final class AdaptiveStatsCounter implements StatsCounter {
+
+  static final int SAMPLE_MASK = 64 - 1;
+  static final int SAMPLES_PER_STEP = 1 << 10;
+  static final int MIN_MAX_COUNTER_VAL = 1 << 8;
+  static final int MAX_MAX_COUNTER_VAL = 1 << 30;
+  static final int MAX_INIT_COUNT = 32;
+
+  private final AtomicLogCounters counters;
+  private final StatsCounter delegate;
+  private final AtomicLong sampledRequests = new AtomicLong();
+  private final AtomicLong sampledHits = new AtomicLong();
+  private final int maxInitCount;
+  private int initCount;
+  private int maxCounterVal;
+  private int initCountDirection = 1;
+  private int maxCounterValDirection = 1;
+  private boolean adjustedInitCount;
+  private double previousHitRate = -1;
+
+  AdaptiveStatsCounter(final AtomicLogCounters counters, final int initCount,
+      final int maxCounterVal, final StatsCounter delegate) {
+    this.counters = counters;
+    this.delegate = delegate;
+    this.maxInitCount = Math.min(MAX_INIT_COUNT, counters.getMaxCount() - 1);
+    this.initCount = Math.min(initCount, maxInitCount);
+    this.maxCounterVal = Math.max(MIN_MAX_COUNTER_VAL,
+        Math.min(MAX_MAX_COUNTER_VAL, Integer.highestOneBit(maxCounterVal - 1) << 1));
+  }
+
+  private static boolean sample() {
+    return (ThreadLocalRandom.current().nextInt() & SAMPLE_MASK) == 0;
+  }
+
+  private void recordRequest(final boolean hit) {
+    if (hit) {
+      sampledHits.getAndIncrement();
+    }
+    if (sampledRequests.incrementAndGet() % SAMPLES_PER_STEP == 0) {
+      step(sampledHits.getAndSet(0));
+    }
+  }
+
+  /**
+   * @param hits the number of sampled hits in the last window of sampled requests.
+   */
+  synchronized void step(final long hits) {
+    final double hitRate = (double) hits / SAMPLES_PER_STEP;
+    if (previousHitRate >= 0 && hitRate < previousHitRate) {
+      if (adjustedInitCount) {
+        initCountDirection = -initCountDirection;
+      } else {
+        maxCounterValDirection = -maxCounterValDirection;
+      }
+    }
+    previousHitRate = hitRate;
+    adjustedInitCount = !adjustedInitCount;
+    if (adjustedInitCount) {
+      final int next = initCount + initCountDirection;
+      if (next < 0 || next > maxInitCount) {
+        initCountDirection = -initCountDirection;
+      }
+      initCount += initCountDirection;
+    } else {
+      if (maxCounterValDirection > 0
+          ? maxCounterVal >= MAX_MAX_COUNTER_VAL : maxCounterVal <= MIN_MAX_COUNTER_VAL) {
+        maxCounterValDirection = -maxCounterValDirection;
+      }
+      maxCounterVal = maxCounterValDirection > 0 ? maxCounterVal << 1 : maxCounterVal >> 1;
+    }
+    counters.tune(initCount, maxCounterVal);
+  }
+
+  synchronized int getInitCount() {
+    return initCount;
+  }
+
+  synchronized int getMaxCounterVal() {
+    return maxCounterVal;
+  }
+
+  @Override
+  public void recordHit() {
+    delegate.recordHit();
+    if (sample()) {
+      recordRequest(true);
+    }
+  }
+
+  @Override
+  public void recordMiss() {
+    delegate.recordMiss();
+    if (sample()) {
+      recordRequest(false);
+    }
+  }
+
+  @Override
+  public <K, I> I load(final K key, final Function<K, I> loader) {
+    if (sample()) {
+      recordRequest(false);
+    }
+    return delegate.load(key, loader);
+  }
+
+  @Override
+  public <K, I> I reload(final K key, final Function<K, I> loader) {
+    return delegate.reload(key, loader);
+  }
+
+  @Override
+  public void recordEviction(final int count) {
+    delegate.recordEviction(count);
+  }
+
+  @Override
+  public void recordRejectedAdmission() {
+    delegate.recordRejectedAdmission();
+  }
+
+  @Override
+  public long lockRequested() {
+    return delegate.lockRequested();
+  }
+
+  @Override
+  public void lockAcquired(final int bucket, final long lockRequested) {
+    delegate.lockAcquired(bucket, lockRequested);
+  }
+
+  @Override
+  public CacheStats snapshot() {
+    return delegate.snapshot();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "AdaptiveStatsCounter{initCount=" + initCount
+        + ", maxCounterVal=" + maxCounterVal
+        + ", previousHitRate=" + previousHitRate
+        + ", delegate=" + delegate + '}';
+  }
+}
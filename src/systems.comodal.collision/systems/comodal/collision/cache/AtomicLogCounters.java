@@ -5,37 +5,164 @@ import java.lang.invoke.VarHandle;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
- * Provides atomic operations for 8-bit logarithmic counters backed by a byte array.
+ * Provides atomic operations for 4, 8 or 16-bit logarithmic counters backed by a byte or short
+ * array.
  *
  * @author James P. Edwards
  */
-public final class AtomicLogCounters {
+public abstract class AtomicLogCounters {
 
+  /**
+   * The max count for 8-bit counters.
+   */
   static final int MAX_COUNT = 0xff;
+  /**
+   * Two cache lines, as adjacent line prefetchers may pull lines in pairs.
+   */
+  static final int PADDED_BUCKET_SHIFT = 7;
+  /**
+   * The number of counters halved by each step of an aging sweep.
+   */
+  static final int AGING_CHUNK_SIZE = 1 << 10;
+  /**
+   * The largest array length supported by common JVMs.
+   */
+  static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
 
-  private static final VarHandle COUNTERS = MethodHandles.arrayElementVarHandle(byte[].class);
+  private static final VarHandle BYTES = MethodHandles.arrayElementVarHandle(byte[].class);
+  private static final VarHandle SHORTS = MethodHandles.arrayElementVarHandle(short[].class);
+  private static final VarHandle NEXT_AGING;
 
-  private final byte[] counters;
-  private final byte initialCount;
-  private final double[] thresholds;
+  static {
+    try {
+      NEXT_AGING = MethodHandles.lookup()
+          .findVarHandle(AtomicLogCounters.class, "nextAgingNanos", long.class);
+    } catch (final ReflectiveOperationException ex) {
+      throw new ExceptionInInitializerError(ex);
+    }
+  }
+
+  private final int numCounters;
+  private final int bucketShift;
+  private final int bucketMask;
+  private final int strideShift;
+  private final int maxCount;
+  private final int sampleMask;
+  private volatile Tuning tuning;
+  private int agingChunks;
+  private long agingPeriodNanos;
+  private long agingIntervalNanos;
+  private long agingOrigin;
+  private volatile long nextAgingNanos;
 
-  private AtomicLogCounters(final byte[] counters, final int initialCount,
-      final double[] thresholds) {
-    this.counters = counters;
-    this.initialCount = (byte) initialCount;
-    this.thresholds = thresholds;
+  private AtomicLogCounters(final int numCounters, final int bucketShift, final int strideShift,
+      final int maxCount, final int initialCount, final double incrementScale,
+      final int sampleMask) {
+    this.numCounters = numCounters;
+    this.bucketShift = bucketShift;
+    this.bucketMask = (1 << bucketShift) - 1;
+    this.strideShift = strideShift;
+    this.maxCount = maxCount;
+    this.sampleMask = sampleMask;
+    this.tuning = new Tuning(Math.min(initialCount, maxCount), incrementScale);
   }
 
   public static AtomicLogCounters create(final int numCounters, final int initialCount,
       final int maxCounterVal) {
-    final int pow2LogFactor = calcLogFactorShift(maxCounterVal);
-    final byte[] counters = new byte[numCounters];
-    final double[] thresholds = new double[MAX_COUNT];
-    thresholds[0] = 1.0;
-    for (int i = 1; i < MAX_COUNT; i++) {
-      thresholds[i] = 1.0 / ((long) i << pow2LogFactor);
+    return create(numCounters, initialCount, maxCounterVal, 1);
+  }
+
+  /**
+   * @param numCounters the number of counters.
+   * @param initialCount the count for newly initialized counters.
+   * @param maxCounterVal the relative max count.
+   * @param sampleRate a power of two, only about one in this many increments is attempted, and
+   * the probability of each attempt succeeding is scaled up by this factor to compensate.
+   * @return 8-bit counters backed by a byte array.
+   */
+  public static AtomicLogCounters create(final int numCounters, final int initialCount,
+      final int maxCounterVal, final int sampleRate) {
+    return create(Byte.SIZE, numCounters, 0, initialCount, maxCounterVal, sampleRate);
+  }
+
+  /**
+   * Places the counters for each hash bucket at the start of their own 128 byte block, so that
+   * increments to neighboring buckets never write to the same cache line.  Costs
+   * {@code 128 / bucketSize} times the memory of a packed layout for small buckets, and fails if
+   * the blocks would not fit in a single array, at about 16 million buckets.
+   *
+   * @param numCounters the number of counters, a multiple of the bucket size.
+   * @param bucketSize the power of two number of counters for each hash bucket.
+   * @param initialCount the count for newly initialized counters.
+   * @param maxCounterVal the relative max count.
+   * @param sampleRate a power of two, see {@link #create(int, int, int, int) create}.
+   * @return 8-bit counters backed by a padded byte array.
+   */
+  public static AtomicLogCounters createPadded(final int numCounters, final int bucketSize,
+      final int initialCount, final int maxCounterVal, final int sampleRate) {
+    return create(Byte.SIZE, numCounters, bucketSize, initialCount, maxCounterVal, sampleRate);
+  }
+
+  /**
+   * 4-bit counters halve the memory of 8-bit counters but can only tell 16 levels of frequency
+   * apart, while 16-bit counters double it to rank hot entries more finely.  Whatever the width,
+   * a counter saturates after roughly {@code maxCounterVal} increments.
+   *
+   * @param counterBits 4, 8 or 16.
+   * @param numCounters the number of counters, a multiple of the bucket size if padded.
+   * @param paddedBucketSize the power of two number of counters for each hash bucket to give
+   * their own 128 byte block, or 0 to pack counters.
+   * @param initialCount the count for newly initialized counters, limited to the max count.
+   * @param maxCounterVal the relative max count.
+   * @param sampleRate a power of two, see {@link #create(int, int, int, int) create}.
+   * @return counters of the given width.
+   */
+  public static AtomicLogCounters create(final int counterBits, final int numCounters,
+      final int paddedBucketSize, final int initialCount, final int maxCounterVal,
+      final int sampleRate) {
+    if (counterBits != 4 && counterBits != Byte.SIZE && counterBits != Short.SIZE) {
+      throw new IllegalStateException("Counters must be 4, 8 or 16 bits.");
+    }
+    if (Integer.bitCount(sampleRate) != 1) {
+      throw new IllegalStateException("The counter sample rate must be a power of two.");
+    }
+    final int bucketShift;
+    final int strideShift;
+    if (paddedBucketSize == 0) {
+      bucketShift = 0;
+      strideShift = 0;
+    } else if (Integer.bitCount(paddedBucketSize) != 1) {
+      throw new IllegalStateException("The bucket size must be a power of two.");
+    } else {
+      bucketShift = Integer.numberOfTrailingZeros(paddedBucketSize);
+      final int paddedCountersShift = PADDED_BUCKET_SHIFT + 3
+          - Integer.numberOfTrailingZeros(counterBits);
+      strideShift = Math.max(bucketShift, paddedCountersShift);
+    }
+    final long paddedLength = ((long) numCounters >> bucketShift) << strideShift;
+    if (paddedLength > MAX_ARRAY_LENGTH) {
+      throw new IllegalStateException(
+          "Padded counters need " + paddedLength + " slots, more than fit in an array.");
     }
-    return new AtomicLogCounters(counters, initialCount, thresholds);
+    final int arrayLength = (int) paddedLength;
+    final int maxCount = (1 << counterBits) - 1;
+    final double incrementScale = incrementScale(maxCounterVal, counterBits, sampleRate);
+    switch (counterBits) {
+      case 4:
+        return new NibbleCounters(new byte[(arrayLength + 1) >> 1], numCounters, bucketShift,
+            strideShift, maxCount, initialCount, incrementScale, sampleRate - 1);
+      case Short.SIZE:
+        return new ShortCounters(new short[arrayLength], numCounters, bucketShift,
+            strideShift, maxCount, initialCount, incrementScale, sampleRate - 1);
+      default:
+        return new ByteCounters(new byte[arrayLength], numCounters, bucketShift,
+            strideShift, maxCount, initialCount, incrementScale, sampleRate - 1);
+    }
+  }
+
+  private static double incrementScale(final int maxCounterVal, final int counterBits,
+      final int sampleRate) {
+    return sampleRate * Math.scalb(1.0, -calcLogFactorShift(maxCounterVal, counterBits));
   }
 
   /**
@@ -43,68 +170,162 @@ public final class AtomicLogCounters {
    * factor to decrease the probability of a counter increment as the counter increases.
    *
    * @param maxCount The relative max count.  Once a counter is incremented this many times its
-   * value should be 255.
-   * @return The power of two multiplication factor as the number of bits to shift.
+   * value should be at its max, e.g. 255 for 8-bit counters.
+   * @param counterBits the width of each counter.
+   * @return The power of two multiplication factor as the number of bits to shift, which is
+   * negative if counters are wide relative to maxCount.
    */
-  private static int calcLogFactorShift(final int maxCount) {
-    // Divide next highest power of 2 by 32,768... (256^2 / 2).
+  private static int calcLogFactorShift(final int maxCount, final int counterBits) {
+    // Divide next highest power of 2 by (2^counterBits)^2 / 2, e.g. 32,768 for 8-bit counters.
     // Then get the number of bits to shift for efficiency in future calculations.
-    // The result of this factor will cause the count to be 255 after maxCount increments.
-    return Integer.numberOfTrailingZeros(Integer.highestOneBit(maxCount - 1) >> 14);
+    // The result of this factor will cause the count to saturate after maxCount increments.
+    final int nextPow2Shift = Integer.SIZE - Integer.numberOfLeadingZeros(maxCount - 1);
+    return nextPow2Shift - ((counterBits << 1) - 1);
   }
 
   public int getNumCounters() {
-    return counters.length;
+    return numCounters;
   }
 
-  public void initializeOpaque(final int index) {
-    COUNTERS.setOpaque(counters, index, initialCount);
+  /**
+   * @return the value of a saturated counter, 15, 255 or 65,535.
+   */
+  public int getMaxCount() {
+    return maxCount;
+  }
+
+  /**
+   * @param index logical counter index.
+   * @return the index into the backing array, which differs from the logical index if padded.
+   */
+  private int offset(final int index) {
+    return ((index >>> bucketShift) << strideShift) | (index & bucketMask);
+  }
+
+  abstract int getOpaqueAt(final int offset);
+
+  abstract void setOpaqueAt(final int offset, final int count);
+
+  /**
+   * @return the witness count, which equals the expected count if the exchange succeeded.
+   */
+  abstract int compareAndExchangeAt(final int offset, final int expected, final int count);
+
+  abstract long arrayBytes();
+
+  /**
+   * Replaces the initial count and max counter value together, so that concurrent increments
+   * see either the previous or the new pair.  Existing counts are left as is.
+   *
+   * @param initialCount the count for newly initialized counters, limited to the max count.
+   * @param maxCounterVal the relative max count.
+   */
+  void tune(final int initialCount, final int maxCounterVal) {
+    final int counterBits = Integer.SIZE - Integer.numberOfLeadingZeros(maxCount);
+    this.tuning = new Tuning(Math.min(initialCount, maxCount),
+        incrementScale(maxCounterVal, counterBits, sampleMask + 1));
   }
 
-  public void setOpaque(final int index, final int initialCount) {
-    COUNTERS.setOpaque(counters, index, (byte) initialCount);
+  public final void initializeOpaque(final int index) {
+    setOpaqueAt(offset(index), tuning.initialCount);
+  }
+
+  public final void setOpaque(final int index, final int initialCount) {
+    setOpaqueAt(offset(index), initialCount);
   }
 
 
-  public int getOpaque(final int index) {
-    return ((int) COUNTERS.getOpaque(counters, index)) & MAX_COUNT;
+  public final int getOpaque(final int index) {
+    return getOpaqueAt(offset(index));
   }
 
   /**
    * Probabilistically increments a relatively large counter, represented from
-   * {@code initialCount} to 255.  The probability of an increment decreases at a rate of
-   * {@code (1 / (counters[index] * maxRelativeCount / (256^2 / 2)))}.
+   * {@code initialCount} to the max count.  The probability of an increment decreases at a rate
+   * of {@code (1 / (counters[index] * maxRelativeCount / ((maxCount + 1)^2 / 2)))}.
+   *
+   * <p>If sampling, only about one in {@code sampleRate} calls, chosen by the calling thread's
+   * random number generator, reads or writes the counter.  This keeps concurrent hits to the same
+   * entries from contending for the cache lines holding their counters.
    *
    * @param index counter array index to increment.
    */
-  public void increment(final int index) {
-    int witness = (int) COUNTERS.getOpaque(counters, index);
-    int count = witness & MAX_COUNT;
-    if (count == MAX_COUNT) {
+  public final void increment(final int index) {
+    if (sampleMask != 0 && (ThreadLocalRandom.current().nextInt() & sampleMask) != 0) {
+      return;
+    }
+    final int offset = offset(index);
+    int count = getOpaqueAt(offset);
+    if (count == maxCount) {
       return;
     }
-    int expected;
-    while (count <= initialCount) {
-      expected = witness;
-      witness = (int) COUNTERS
-          .compareAndExchange(counters, index, (byte) expected, (byte) (count + 1));
-      if (expected == witness || (count = witness & MAX_COUNT) == MAX_COUNT) {
+    final Tuning tuning = this.tuning;
+    int witness;
+    while (count <= tuning.initialCount) {
+      witness = compareAndExchangeAt(offset, count, count + 1);
+      if (witness == count || (count = witness) == maxCount) {
         return;
       }
     }
-    if (thresholds[count] < ThreadLocalRandom.current().nextFloat()) {
+    if (ThreadLocalRandom.current().nextFloat() * count > tuning.incrementScale) {
       return;
     }
     for (; ; ) {
-      expected = witness;
-      witness = (int) COUNTERS
-          .compareAndExchange(counters, index, (byte) expected, (byte) (count + 1));
-      if (expected == witness || (count = witness & MAX_COUNT) == MAX_COUNT) {
+      witness = compareAndExchangeAt(offset, count, count + 1);
+      if (witness == count || (count = witness) == maxCount) {
         return;
       }
     }
   }
 
+  /**
+   * Enables an aging sweep which halves every counter once per period, so that entries which
+   * were popular under a past workload can be evicted by a new one.  Rather than using a
+   * background thread, the sweep is amortized across {@link #age() age} calls, each halving at
+   * most one chunk of counters once the next chunk is due.  Must be called before the counters
+   * are shared.
+   *
+   * @param periodNanos the time to halve every counter.
+   */
+  void setAgingPeriod(final long periodNanos) {
+    this.agingChunks = Math.max(1, numCounters / AGING_CHUNK_SIZE);
+    this.agingPeriodNanos = periodNanos;
+    this.agingIntervalNanos = Math.max(1, periodNanos / agingChunks);
+    this.agingOrigin = System.nanoTime();
+    this.nextAgingNanos = agingOrigin + agingIntervalNanos;
+  }
+
+  /**
+   * @return the aging period in nanoseconds, or zero if not aging.
+   */
+  long getAgingPeriod() {
+    return agingPeriodNanos;
+  }
+
+  /**
+   * Halves the next chunk of counters if it is due.  If more than a full period has passed since
+   * the last chunk was due, whole sweeps are skipped rather than halving counters repeatedly.
+   */
+  final void age() {
+    if (agingIntervalNanos == 0) {
+      return;
+    }
+    final long next = nextAgingNanos;
+    final long now = System.nanoTime();
+    if (now - next < 0) {
+      return;
+    }
+    final long skippedSweeps = (now - next) / agingPeriodNanos;
+    final long following = next + agingIntervalNanos * (skippedSweeps * agingChunks + 1);
+    if (!NEXT_AGING.compareAndSet(this, next, following)) {
+      return;
+    }
+    final int chunk = (int) (((next - agingOrigin) / agingIntervalNanos) % agingChunks);
+    final int chunkSize = numCounters / agingChunks;
+    final int from = chunk * chunkSize;
+    decay(from, chunk == agingChunks - 1 ? numCounters : from + chunkSize);
+  }
+
   /**
    * Divides all values by two within the ranges [from skip) and (skip, to).
    *
@@ -112,25 +333,186 @@ public final class AtomicLogCounters {
    * @param to exclusive max index for the counters to decay.
    * @param skip Skips decay for this index because it corresponds to a new entry.
    */
-  void decay(final int from, final int to, final int skip) {
+  final void decay(final int from, final int to, final int skip) {
     decay(from, skip);
     decay(skip + 1, to);
   }
 
-  void decay(final int from, final int to) {
+  final void decay(final int from, final int to) {
     for (int counterIndex = from; counterIndex < to; ++counterIndex) {
-      final int count = ((int) COUNTERS.getOpaque(counters, counterIndex)) & MAX_COUNT;
+      final int offset = offset(counterIndex);
+      final int count = getOpaqueAt(offset);
       if (count == 0) {
         continue;
       }
       // Counter misses may occur between these two calls.
-      COUNTERS.setOpaque(counters, counterIndex, (byte) (count >> 1));
+      setOpaqueAt(offset, count >> 1);
     }
   }
 
+  /**
+   * @return the estimated bytes retained by the counters.
+   */
+  final long estimatedBytes() {
+    return arrayBytes();
+  }
+
   @Override
   public String toString() {
-    return "AtomicLogCounters{numCounters=" + counters.length
-        + ", initialCount=" + initialCount + '}';
+    return "AtomicLogCounters{numCounters=" + numCounters
+        + ", maxCount=" + maxCount
+        + ", padded=" + (strideShift != bucketShift)
+        + ", initialCount=" + tuning.initialCount
+        + ", sampleRate=" + (sampleMask + 1)
+        + ", agingPeriodNanos=" + agingPeriodNanos + '}';
+  }
+
+  private static final class Tuning {
+
+    private final int initialCount;
+    private final double incrementScale;
+
+    private Tuning(final int initialCount, final double incrementScale) {
+      this.initialCount = initialCount;
+      this.incrementScale = incrementScale;
+    }
+  }
+
+  private static final class ByteCounters extends AtomicLogCounters {
+
+    private final byte[] counters;
+
+    private ByteCounters(final byte[] counters, final int numCounters, final int bucketShift,
+        final int strideShift, final int maxCount, final int initialCount,
+        final double incrementScale, final int sampleMask) {
+      super(numCounters, bucketShift, strideShift, maxCount, initialCount, incrementScale,
+          sampleMask);
+      this.counters = counters;
+    }
+
+    @Override
+    int getOpaqueAt(final int offset) {
+      return ((int) BYTES.getOpaque(counters, offset)) & MAX_COUNT;
+    }
+
+    @Override
+    void setOpaqueAt(final int offset, final int count) {
+      BYTES.setOpaque(counters, offset, (byte) count);
+    }
+
+    @Override
+    int compareAndExchangeAt(final int offset, final int expected, final int count) {
+      return ((int) BYTES.compareAndExchange(counters, offset, (byte) expected, (byte) count))
+          & MAX_COUNT;
+    }
+
+    @Override
+    long arrayBytes() {
+      return CacheDiagnostics.arrayBytes(counters.length, Byte.BYTES);
+    }
+  }
+
+  private static final class ShortCounters extends AtomicLogCounters {
+
+    private static final int MASK = 0xffff;
+
+    private final short[] counters;
+
+    private ShortCounters(final short[] counters, final int numCounters, final int bucketShift,
+        final int strideShift, final int maxCount, final int initialCount,
+        final double incrementScale, final int sampleMask) {
+      super(numCounters, bucketShift, strideShift, maxCount, initialCount, incrementScale,
+          sampleMask);
+      this.counters = counters;
+    }
+
+    @Override
+    int getOpaqueAt(final int offset) {
+      return ((int) SHORTS.getOpaque(counters, offset)) & MASK;
+    }
+
+    @Override
+    void setOpaqueAt(final int offset, final int count) {
+      SHORTS.setOpaque(counters, offset, (short) count);
+    }
+
+    @Override
+    int compareAndExchangeAt(final int offset, final int expected, final int count) {
+      return ((int) SHORTS.compareAndExchange(counters, offset, (short) expected, (short) count))
+          & MASK;
+    }
+
+    @Override
+    long arrayBytes() {
+      return CacheDiagnostics.arrayBytes(counters.length, Short.BYTES);
+    }
+  }
+
+  /**
+   * Packs two counters into each byte, even offsets in the low nibble.  As neighboring counters
+   * share a byte every write is a compare and exchange of the whole byte.
+   */
+  private static final class NibbleCounters extends AtomicLogCounters {
+
+    private static final int MASK = 0xf;
+
+    private final byte[] counters;
+
+    private NibbleCounters(final byte[] counters, final int numCounters, final int bucketShift,
+        final int strideShift, final int maxCount, final int initialCount,
+        final double incrementScale, final int sampleMask) {
+      super(numCounters, bucketShift, strideShift, maxCount, initialCount, incrementScale,
+          sampleMask);
+      this.counters = counters;
+    }
+
+    private static int shift(final int offset) {
+      return (offset & 1) << 2;
+    }
+
+    @Override
+    int getOpaqueAt(final int offset) {
+      return ((int) BYTES.getOpaque(counters, offset >>> 1) >>> shift(offset)) & MASK;
+    }
+
+    @Override
+    void setOpaqueAt(final int offset, final int count) {
+      final int byteIndex = offset >>> 1;
+      final int shift = shift(offset);
+      int witness = (int) BYTES.getOpaque(counters, byteIndex);
+      for (int expected; ; ) {
+        expected = witness;
+        final int next = (expected & ~(MASK << shift)) | (count << shift);
+        witness = (int) BYTES.compareAndExchange(counters, byteIndex, (byte) expected, (byte) next);
+        if (expected == witness) {
+          return;
+        }
+      }
+    }
+
+    @Override
+    int compareAndExchangeAt(final int offset, final int expected, final int count) {
+      final int byteIndex = offset >>> 1;
+      final int shift = shift(offset);
+      int witness = (int) BYTES.getOpaque(counters, byteIndex);
+      for (int expectedByte; ; ) {
+        final int current = (witness >>> shift) & MASK;
+        if (current != expected) {
+          return current;
+        }
+        expectedByte = witness;
+        final int next = (expectedByte & ~(MASK << shift)) | (count << shift);
+        witness = (int) BYTES
+            .compareAndExchange(counters, byteIndex, (byte) expectedByte, (byte) next);
+        if (expectedByte == witness) {
+          return expected;
+        }
+      }
+    }
+
+    @Override
+    long arrayBytes() {
+      return CacheDiagnostics.arrayBytes(counters.length, Byte.BYTES);
+    }
   }
 }
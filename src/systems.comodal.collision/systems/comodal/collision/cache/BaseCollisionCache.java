@@ -1,9 +1,8 @@
 package systems.comodal.collision.cache;
 
-import static systems.comodal.collision.cache.AtomicLogCounters.MAX_COUNT;
-
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.VarHandle;
+import java.util.List;
 import java.util.function.BiFunction;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
@@ -26,7 +25,9 @@ abstract class BaseCollisionCache<K, L, V> implements LoadingCollisionCache<K, L
   final int mask;
   final IntFunction<V[]> getBucket;
   final AtomicLogCounters counters;
+  final ExpiryTimes<K, V> expiry;
   final ToIntFunction<K> hashCoder;
+  final StatsCounter stats;
   final BiPredicate<K, V> isValForKey;
   private final Class<V> valueType;
   private final Function<K, L> loader;
@@ -38,8 +39,10 @@ abstract class BaseCollisionCache<K, L, V> implements LoadingCollisionCache<K, L
       final V[][] hashTable,
       final IntFunction<V[]> getBucket,
       final AtomicLogCounters counters,
+      final ExpiryTimes<K, V> expiry,
       final ToIntFunction<K> hashCoder,
       final BiPredicate<K, V> isValForKey,
+      final StatsCounter stats,
       final Function<K, L> loader,
       final BiFunction<K, L, V> mapper) {
     this.valueType = valueType;
@@ -48,14 +51,26 @@ abstract class BaseCollisionCache<K, L, V> implements LoadingCollisionCache<K, L
     this.mask = hashTable.length - 1;
     this.getBucket = getBucket;
     this.counters = counters;
+    this.expiry = expiry;
     this.hashCoder = hashCoder;
+    this.stats = stats;
     this.isValForKey = isValForKey;
     this.loader = loader;
     this.mapper = mapper;
-    this.loadAndMap = key -> {
-      final L loaded = loader.apply(key);
-      return loaded == null ? null : mapper.apply(key, loaded);
-    };
+    if (expiry != null && expiry.isMeasuringLoads()) {
+      this.loadAndMap = key -> {
+        final long start = System.nanoTime();
+        final L loaded = loader.apply(key);
+        final V val = loaded == null ? null : mapper.apply(key, loaded);
+        expiry.recordLoad(System.nanoTime() - start);
+        return val;
+      };
+    } else {
+      this.loadAndMap = key -> {
+        final L loaded = loader.apply(key);
+        return loaded == null ? null : mapper.apply(key, loaded);
+      };
+    }
   }
 
   /**
@@ -97,7 +112,18 @@ abstract class BaseCollisionCache<K, L, V> implements LoadingCollisionCache<K, L
         return checkDecayAndSwap(counterOffset, collisions, key, loadAndMap);
       }
       if (isValForKey.test(key, collision)) {
-        counters.increment(counterOffset + index);
+        if (isExpired(counterOffset + index)) {
+          if (serveStale(counterOffset + index, key)) {
+            return collision;
+          }
+          return loadExpired(counterOffset + index, collisions, index, collision, key, loadAndMap);
+        }
+        increment(counterOffset + index);
+        if (expiry != null && expiry.isEarlyRecompute(counterOffset + index)) {
+          return recomputeEarly(counterOffset + index, collisions, index, collision, key,
+              loadAndMap);
+        }
+        refreshIfDue(counterOffset + index, key);
         return collision;
       }
       if (++index == collisions.length) {
@@ -106,6 +132,85 @@ abstract class BaseCollisionCache<K, L, V> implements LoadingCollisionCache<K, L
     }
   }
 
+  /**
+   * Recomputes a value ahead of its expiration deadline.  If configured to refresh, the reload is
+   * submitted to the refresh executor and the current value is returned, otherwise the value is
+   * loaded by the calling thread.  Without synchronization, concurrent callers may each decide to
+   * recompute, but that is unlikely by design.
+   *
+   * @param counterIndex counter index corresponding to the current value.
+   * @param collisions values sitting in a hash bucket.
+   * @param index collision index of the current value.
+   * @param current the current value.
+   * @param key used for table hash and entry equality.
+   * @param loadAndMap loads a new value to cache.
+   * @return a value for the corresponding key.
+   */
+  private V recomputeEarly(final int counterIndex, final V[] collisions, final int index,
+      final V current, final K key, final Function<K, V> loadAndMap) {
+    if (expiry.isRefreshing()) {
+      expiry.refresh(key, this::reload);
+      return current;
+    }
+    final V val = reload(key, loadAndMap);
+    return val == null ? current
+        : swapExpired(counterIndex, collisions, index, current, key, val);
+  }
+
+  /**
+   * Loads a new value for an expired entry synchronized behind its hash bucket.  If the expired
+   * entry has since been replaced or moved the lookup is retried.
+   *
+   * @param counterIndex counter index corresponding to the expired value.
+   * @param collisions values sitting in a hash bucket.
+   * @param index collision index of the expired value.
+   * @param expired the expired value.
+   * @param key used for table hash and entry equality.
+   * @param loadAndMap loads a new value to cache.
+   * @return a value for the corresponding key.
+   */
+  private V loadExpired(final int counterIndex, final V[] collisions, final int index,
+      final V expired, final K key, final Function<K, V> loadAndMap) {
+    final long requested = lockRequested();
+    synchronized (collisions) {
+      lockAcquired(counterIndex, requested);
+      if (COLLISIONS.getOpaque(collisions, index) == expired) {
+        return swapExpired(counterIndex, collisions, index, expired, key,
+            load(key, loadAndMap));
+      }
+    }
+    return get(key, loadAndMap);
+  }
+
+  /**
+   * Swaps a newly loaded value in place of an expired or early recomputed value.  If the load
+   * failed, the expired value is left in place with a zero count so that it will be the first to be
+   * evicted.
+   *
+   * @param counterIndex counter index corresponding to the expired value.
+   * @param collisions values sitting in a hash bucket.
+   * @param index collision index of the expired value.
+   * @param expired the expired value.
+   * @param key used for table hash and entry equality.
+   * @param val the newly loaded value, may be null.
+   * @return the value in the cache after this call.
+   */
+  @SuppressWarnings("unchecked")
+  final V swapExpired(final int counterIndex, final V[] collisions, final int index,
+      final V expired, final K key, final V val) {
+    if (val == null) {
+      counters.setOpaque(counterIndex, 0);
+      return null;
+    }
+    final V witness = (V) COLLISIONS.compareAndExchange(collisions, index, expired, val);
+    if (witness == expired) {
+      replaced(expired, val);
+      expiry.written(counterIndex, key, val);
+      return val;
+    }
+    return witness != null && isValForKey.test(key, witness) ? witness : val;
+  }
+
   /**
    * Checks for an existing entry synchronized behind the current collision hash bucket using
    * opaque memory access semantics.  If an entry does not exist, a value is loaded and the
@@ -143,18 +248,22 @@ abstract class BaseCollisionCache<K, L, V> implements LoadingCollisionCache<K, L
    * @param counterOffset beginning counter array index corresponding to collision values.
    * @param maxCounterIndex Max counter index for known non null collision values.
    * @param collisions values sitting in a hash bucket.
+   * @param key the key for the value.
    * @param val The value to put in place of the least frequently used value.
+   * @return the evicted value.
    */
-  final void decayAndSwap(final int counterOffset, final int maxCounterIndex, final V[] collisions,
-      final V val) {
+  @SuppressWarnings("unchecked")
+  final V decayAndSwap(final int counterOffset, final int maxCounterIndex, final V[] collisions,
+      final K key, final V val) {
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
     do {
-      int count = counters.getOpaque(counterIndex);
+      int count = count(counterIndex);
       if (count == 0) {
-        COLLISIONS.setOpaque(collisions, counterIndex - counterOffset, val);
-        counters.initializeOpaque(counterIndex);
+        final V evicted = (V) COLLISIONS
+            .getAndSet(collisions, counterIndex - counterOffset, val);
+        initialize(counterIndex, key, val);
         while (++counterIndex < maxCounterIndex) {
           count = counters.getOpaque(counterIndex);
           if (count == 0) {
@@ -162,7 +271,7 @@ abstract class BaseCollisionCache<K, L, V> implements LoadingCollisionCache<K, L
           }
           counters.setOpaque(counterIndex, count >> 1);
         }
-        return;
+        return evicted(evicted, 0);
       }
       // Counter misses may occur between these two calls.
       counters.setOpaque(counterIndex, count >> 1);
@@ -171,8 +280,9 @@ abstract class BaseCollisionCache<K, L, V> implements LoadingCollisionCache<K, L
         minCounterIndex = counterIndex;
       }
     } while (++counterIndex < maxCounterIndex);
-    COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, val);
-    counters.initializeOpaque(counterIndex);
+    final V evicted = (V) COLLISIONS.getAndSet(collisions, minCounterIndex - counterOffset, val);
+    initialize(minCounterIndex, key, val);
+    return evicted(evicted, minCount);
   }
 
   /**
@@ -187,14 +297,23 @@ abstract class BaseCollisionCache<K, L, V> implements LoadingCollisionCache<K, L
     do {
       final V val = (V) COLLISIONS.getOpaque(collisions, index);
       if (val == null) {
-        return null;
+        return missed();
       }
       if (isValForKey.test(key, val)) {
-        counters.increment((hash << maxCollisionsShift) + index);
+        final int counterIndex = (hash << maxCollisionsShift) + index;
+        if (isExpired(counterIndex)) {
+          if (serveStale(counterIndex, key)) {
+            return val;
+          }
+          counters.setOpaque(counterIndex, 0);
+          return missed();
+        }
+        increment(counterIndex);
+        refreshIfDue(counterIndex, key);
         return val;
       }
     } while (++index < collisions.length);
-    return null;
+    return missed();
   }
 
   /**
@@ -206,7 +325,8 @@ abstract class BaseCollisionCache<K, L, V> implements LoadingCollisionCache<K, L
     if (val == null) {
       throw new NullPointerException("Cannot cache a null val.");
     }
-    final V[] collisions = getBucket.apply(hashCoder.applyAsInt(key) & mask);
+    final int hash = hashCoder.applyAsInt(key) & mask;
+    final V[] collisions = getBucket.apply(hash);
     int index = 0;
     do {
       final V collision = (V) COLLISIONS.getOpaque(collisions, index);
@@ -219,6 +339,8 @@ abstract class BaseCollisionCache<K, L, V> implements LoadingCollisionCache<K, L
       if (isValForKey.test(key, collision)) {
         final V witness = (V) COLLISIONS.compareAndExchange(collisions, index, collision, val);
         if (witness == collision) {
+          replaced(collision, val);
+          written((hash << maxCollisionsShift) + index, key, val);
           return val;
         }
         if (isValForKey.test(key, witness)) {
@@ -229,6 +351,156 @@ abstract class BaseCollisionCache<K, L, V> implements LoadingCollisionCache<K, L
     return null;
   }
 
+  /**
+   * Called after a value has been swapped in place of an existing value for the same key.
+   *
+   * @param evicted the value that was replaced.
+   * @param val the value now cached.
+   */
+  void replaced(final V evicted, final V val) {
+  }
+
+  final boolean isExpired(final int counterIndex) {
+    return expiry != null && expiry.isExpired(counterIndex);
+  }
+
+  /**
+   * @param counterIndex counter index corresponding to a collision value.
+   * @return the count for the value, or zero if it has expired.
+   */
+  final int count(final int counterIndex) {
+    return isExpired(counterIndex) ? 0 : counters.getOpaque(counterIndex);
+  }
+
+  /**
+   * Initializes the counter and expiration deadline for a newly cached value.
+   */
+  final void initialize(final int counterIndex, final K key, final V val) {
+    counters.initializeOpaque(counterIndex);
+    counters.age();
+    if (expiry != null) {
+      expiry.written(counterIndex, key, val);
+    }
+  }
+
+  /**
+   * Resets the expiration deadline for a value replaced in place.
+   */
+  final void written(final int counterIndex, final K key, final V val) {
+    if (expiry != null) {
+      expiry.written(counterIndex, key, val);
+    }
+  }
+
+  final void increment(final int counterIndex) {
+    stats.recordHit();
+    counters.increment(counterIndex);
+    if (expiry != null) {
+      expiry.accessed(counterIndex);
+    }
+  }
+
+  /**
+   * Records a miss for a read which found no value without loading one.
+   *
+   * @return null
+   */
+  final V missed() {
+    stats.recordMiss();
+    return null;
+  }
+
+  /**
+   * Loads a value for a missing or expired key, recording the miss and load if
+   * configured to.
+   */
+  final <I> I load(final K key, final Function<K, I> loader) {
+    return stats.load(key, loader);
+  }
+
+  /**
+   * Loads a new value for a key whose read was already recorded as a hit, such as a refresh or an
+   * early recompute, recording the load without a miss if configured to.
+   */
+  final <I> I reload(final K key, final Function<K, I> loader) {
+    return stats.reload(key, loader);
+  }
+
+  /**
+   * Called before synchronizing on a hash bucket, see {@link #lockAcquired lockAcquired}.
+   *
+   * @return a token to pass to lockAcquired.
+   */
+  final long lockRequested() {
+    return stats.lockRequested();
+  }
+
+  /**
+   * Called first thing after synchronizing on a hash bucket to record any time spent waiting.
+   *
+   * @param counterIndex any counter index within the hash bucket.
+   * @param lockRequested the token returned by {@link #lockRequested lockRequested}.
+   */
+  final void lockAcquired(final int counterIndex, final long lockRequested) {
+    stats.lockAcquired(counterIndex >> maxCollisionsShift, lockRequested);
+  }
+
+  final V evicted(final V evicted, final int count) {
+    if (evicted != null) {
+      stats.recordEviction(count);
+    }
+    return evicted;
+  }
+
+  /**
+   * Asynchronously reloads and replaces the value for a key if its value is past its refresh
+   * deadline.
+   *
+   * @param counterIndex counter index corresponding to the value for the key.
+   * @param key used for table hash and entry equality.
+   */
+  final void refreshIfDue(final int counterIndex, final K key) {
+    if (expiry != null && expiry.isRefreshDue(counterIndex)) {
+      expiry.refresh(key, this::reload);
+    }
+  }
+
+  /**
+   * Only valid for expired values.  Asynchronously reloads the value for a key if its value is
+   * within the stale grace period.
+   *
+   * @param counterIndex counter index corresponding to the expired value.
+   * @param key used for table hash and entry equality.
+   * @return true if the stale value should be served.
+   */
+  final boolean serveStale(final int counterIndex, final K key) {
+    if (expiry.isStale(counterIndex)) {
+      stats.recordHit();
+      expiry.refresh(key, this::reload);
+      return true;
+    }
+    return false;
+  }
+
+  private void reload(final K key) {
+    final V val = reload(key, loadAndMap);
+    if (val != null) {
+      replace(key, val);
+    }
+  }
+
+  /**
+   * Moves the decayed counter and expiration deadline for a value shifted down one slot.
+   *
+   * @param counterIndex counter index the value is shifted from.
+   */
+  final void shift(final int counterIndex) {
+    counters.setOpaque(counterIndex - 1, counters.getOpaque(counterIndex) >> 1);
+    if (expiry != null) {
+      expiry.move(counterIndex, counterIndex - 1);
+    }
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -248,11 +520,62 @@ abstract class BaseCollisionCache<K, L, V> implements LoadingCollisionCache<K, L
         });
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final CacheStats stats() {
+    return stats.snapshot();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final CacheDiagnostics diagnostics() {
+    final long tableBytes = CacheDiagnostics
+        .arrayBytes(hashTable.length, CacheDiagnostics.REFERENCE_BYTES)
+        + counters.estimatedBytes()
+        + (expiry == null ? 0 : expiry.estimatedBytes());
+    final int maxCount = counters.getMaxCount();
+    return IntStream.range(0, hashTable.length)
+        .parallel()
+        .collect(() -> new CacheDiagnostics.Scan(1 << maxCollisionsShift, maxCount),
+            (scan, i) -> scan.bucket(hashTable[i], i << maxCollisionsShift, counters, 0),
+            CacheDiagnostics.Scan::merge)
+        .toDiagnostics(tableBytes);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public final List<HotEntry<K, V>> hotEntries(final int k) {
+    return IntStream.range(0, hashTable.length)
+        .parallel()
+        .collect(() -> new HotEntry.TopK<K, V>(k), (top, i) -> {
+          final V[] collisions = (V[]) COLLISIONS.getOpaque(hashTable, i);
+          if (collisions == null) {
+            return;
+          }
+          final int counterOffset = i << maxCollisionsShift;
+          for (int index = 0; index < collisions.length; ++index) {
+            final V val = (V) COLLISIONS.getOpaque(collisions, index);
+            if (val != null && !isExpired(counterOffset + index)) {
+              top.offer(null, val, count(counterOffset + index));
+            }
+          }
+        }, HotEntry.TopK::merge)
+        .toList();
+  }
+
   @Override
   public String toString() {
     return "CollisionCache{valueType=" + valueType
         + ", maxCollisions=" + (1 << maxCollisionsShift)
         + ", hashTableLength=" + hashTable.length
-        + ", counters=" + counters + '}';
+        + ", counters=" + counters
+        + ", expiry=" + expiry + '}';
   }
 }
@@ -1,9 +1,8 @@
 package systems.comodal.collision.cache;
 
-import static systems.comodal.collision.cache.AtomicLogCounters.MAX_COUNT;
-
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.VarHandle;
+import java.util.List;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.IntFunction;
@@ -25,7 +24,10 @@ abstract class BaseEntryCollisionCache<K, L, V> implements LoadingCollisionCache
   final int mask;
   final IntFunction<KeyVal<K, V>[]> getBucket;
   final AtomicLogCounters counters;
+  final ExpiryTimes<K, V> expiry;
+  final OverflowStash<K, V> stash;
   final ToIntFunction<K> hashCoder;
+  final StatsCounter stats;
   private final Function<K, L> loader;
   private final BiFunction<K, L, V> mapper;
   private final Function<K, V> loadAndMap;
@@ -35,7 +37,10 @@ abstract class BaseEntryCollisionCache<K, L, V> implements LoadingCollisionCache
       final KeyVal<K, V>[][] hashTable,
       final IntFunction<KeyVal<K, V>[]> getBucket,
       final AtomicLogCounters counters,
+      final ExpiryTimes<K, V> expiry,
+      final OverflowStash<K, V> stash,
       final ToIntFunction<K> hashCoder,
+      final StatsCounter stats,
       final Function<K, L> loader,
       final BiFunction<K, L, V> mapper) {
     this.maxCollisionsShift = maxCollisionsShift;
@@ -43,13 +48,26 @@ abstract class BaseEntryCollisionCache<K, L, V> implements LoadingCollisionCache
     this.mask = hashTable.length - 1;
     this.getBucket = getBucket;
     this.counters = counters;
+    this.expiry = expiry;
+    this.stash = stash;
     this.hashCoder = hashCoder;
+    this.stats = stats;
     this.loader = loader;
     this.mapper = mapper;
-    this.loadAndMap = key -> {
-      final L loaded = loader.apply(key);
-      return loaded == null ? null : mapper.apply(key, loaded);
-    };
+    if (expiry != null && expiry.isMeasuringLoads()) {
+      this.loadAndMap = key -> {
+        final long start = System.nanoTime();
+        final L loaded = loader.apply(key);
+        final V val = loaded == null ? null : mapper.apply(key, loaded);
+        expiry.recordLoad(System.nanoTime() - start);
+        return val;
+      };
+    } else {
+      this.loadAndMap = key -> {
+        final L loaded = loader.apply(key);
+        return loaded == null ? null : mapper.apply(key, loaded);
+      };
+    }
   }
 
   /**
@@ -91,7 +109,18 @@ abstract class BaseEntryCollisionCache<K, L, V> implements LoadingCollisionCache
         return checkDecayAndSwap(counterOffset, collisions, key, loadAndMap);
       }
       if (key.equals(collision.key)) {
-        counters.increment(counterOffset + index);
+        if (isExpired(counterOffset + index)) {
+          if (serveStale(counterOffset + index, key)) {
+            return collision.val;
+          }
+          return loadExpired(counterOffset + index, collisions, index, collision, key, loadAndMap);
+        }
+        increment(counterOffset + index);
+        if (expiry != null && expiry.isEarlyRecompute(counterOffset + index)) {
+          return recomputeEarly(counterOffset + index, collisions, index, collision, key,
+              loadAndMap);
+        }
+        refreshIfDue(counterOffset + index, key);
         return collision.val;
       }
       if (++index == collisions.length) {
@@ -100,6 +129,86 @@ abstract class BaseEntryCollisionCache<K, L, V> implements LoadingCollisionCache
     }
   }
 
+  /**
+   * Recomputes a value ahead of its expiration deadline.  If configured to refresh, the reload is
+   * submitted to the refresh executor and the current value is returned, otherwise the value is
+   * loaded by the calling thread.  Without synchronization, concurrent callers may each decide to
+   * recompute, but that is unlikely by design.
+   *
+   * @param counterIndex counter index corresponding to the current entry.
+   * @param collisions entrys sitting in a hash bucket.
+   * @param index collision index of the current entry.
+   * @param current the current entry.
+   * @param key used for table hash and entry equality.
+   * @param loadAndMap loads a new value to cache.
+   * @return a value for the corresponding key.
+   */
+  private V recomputeEarly(final int counterIndex, final KeyVal<K, V>[] collisions, final int index,
+      final KeyVal<K, V> current, final K key, final Function<K, V> loadAndMap) {
+    if (expiry.isRefreshing()) {
+      expiry.refresh(key, this::reload);
+      return current.val;
+    }
+    final V val = reload(key, loadAndMap);
+    return val == null ? current.val
+        : swapExpired(counterIndex, collisions, index, current, key, val);
+  }
+
+  /**
+   * Loads a new value for an expired entry synchronized behind its hash bucket.  If the expired
+   * entry has since been replaced or moved the lookup is retried.
+   *
+   * @param counterIndex counter index corresponding to the expired entry.
+   * @param collisions entries sitting in a hash bucket.
+   * @param index collision index of the expired entry.
+   * @param expired the expired entry.
+   * @param key used for table hash and entry equality.
+   * @param loadAndMap loads a new value to cache.
+   * @return a value for the corresponding key.
+   */
+  private V loadExpired(final int counterIndex, final KeyVal<K, V>[] collisions, final int index,
+      final KeyVal<K, V> expired, final K key, final Function<K, V> loadAndMap) {
+    final long requested = lockRequested();
+    synchronized (collisions) {
+      lockAcquired(counterIndex, requested);
+      if (COLLISIONS.getOpaque(collisions, index) == expired) {
+        return swapExpired(counterIndex, collisions, index, expired, key,
+            load(key, loadAndMap));
+      }
+    }
+    return get(key, loadAndMap);
+  }
+
+  /**
+   * Swaps a newly loaded value in place of an expired or early recomputed entry.  If the load
+   * failed, the expired entry is left in place with a zero count so that it will be the first to be
+   * evicted.
+   *
+   * @param counterIndex counter index corresponding to the expired entry.
+   * @param collisions entries sitting in a hash bucket.
+   * @param index collision index of the expired entry.
+   * @param expired the expired entry.
+   * @param key used for table hash and entry equality.
+   * @param val the newly loaded value, may be null.
+   * @return the value in the cache after this call.
+   */
+  @SuppressWarnings("unchecked")
+  final V swapExpired(final int counterIndex, final KeyVal<K, V>[] collisions, final int index,
+      final KeyVal<K, V> expired, final K key, final V val) {
+    if (val == null) {
+      counters.setOpaque(counterIndex, 0);
+      return null;
+    }
+    final KeyVal<K, V> witness = (KeyVal<K, V>) COLLISIONS
+        .compareAndExchange(collisions, index, expired, new KeyVal<>(key, val));
+    if (witness == expired) {
+      replaced(expired, val);
+      expiry.written(counterIndex, key, val);
+      return val;
+    }
+    return witness != null && key.equals(witness.key) ? witness.val : val;
+  }
+
   /**
    * Checks for an existing entry synchronized behind the current collision hash bucket using
    * opaque memory access semantics.  If an entry does not exist, a value is loaded and the
@@ -138,17 +247,20 @@ abstract class BaseEntryCollisionCache<K, L, V> implements LoadingCollisionCache
    * @param maxCounterIndex Max counter index for known non null collision values.
    * @param collisions values sitting in a hash bucket.
    * @param entry The value to put in place of the least frequently used value.
+   * @return the evicted value.
    */
-  final void decayAndSwap(final int counterOffset, final int maxCounterIndex,
+  @SuppressWarnings("unchecked")
+  final KeyVal<K, V> decayAndSwap(final int counterOffset, final int maxCounterIndex,
       final KeyVal<K, V>[] collisions, final KeyVal<K, V> entry) {
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
     do {
-      int count = counters.getOpaque(counterIndex);
+      int count = count(counterIndex);
       if (count == 0) {
-        COLLISIONS.setOpaque(collisions, counterIndex - counterOffset, entry);
-        counters.initializeOpaque(counterIndex);
+        final KeyVal<K, V> evicted = (KeyVal<K, V>) COLLISIONS
+            .getAndSet(collisions, counterIndex - counterOffset, entry);
+        initialize(counterIndex, entry);
         while (++counterIndex < maxCounterIndex) {
           count = counters.getOpaque(counterIndex);
           if (count == 0) {
@@ -156,7 +268,8 @@ abstract class BaseEntryCollisionCache<K, L, V> implements LoadingCollisionCache
           }
           counters.setOpaque(counterIndex, count >> 1);
         }
-        return;
+        stash(evicted, counterOffset, 0);
+        return evicted(evicted, 0);
       }
       // Counter misses may occur between these two calls.
       counters.setOpaque(counterIndex, count >> 1);
@@ -165,8 +278,11 @@ abstract class BaseEntryCollisionCache<K, L, V> implements LoadingCollisionCache
         minCounterIndex = counterIndex;
       }
     } while (++counterIndex < maxCounterIndex);
-    COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, entry);
-    counters.initializeOpaque(minCounterIndex);
+    final KeyVal<K, V> evicted = (KeyVal<K, V>) COLLISIONS
+        .getAndSet(collisions, minCounterIndex - counterOffset, entry);
+    initialize(minCounterIndex, entry);
+    stash(evicted, counterOffset, minCount);
+    return evicted(evicted, minCount);
   }
 
   /**
@@ -181,14 +297,25 @@ abstract class BaseEntryCollisionCache<K, L, V> implements LoadingCollisionCache
     do {
       final KeyVal<K, V> entry = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
       if (entry == null) {
-        return null;
+        final V stashed = stashed(key, hash);
+        return stashed == null ? missed() : stashed;
       }
       if (key.equals(entry.key)) {
-        counters.increment((hash << maxCollisionsShift) + index);
+        final int counterIndex = (hash << maxCollisionsShift) + index;
+        if (isExpired(counterIndex)) {
+          if (serveStale(counterIndex, key)) {
+            return entry.val;
+          }
+          counters.setOpaque(counterIndex, 0);
+          return missed();
+        }
+        increment(counterIndex);
+        refreshIfDue(counterIndex, key);
         return entry.val;
       }
     } while (++index < collisions.length);
-    return null;
+    final V stashed = stashed(key, hash);
+    return stashed == null ? missed() : stashed;
   }
 
   /**
@@ -197,12 +324,13 @@ abstract class BaseEntryCollisionCache<K, L, V> implements LoadingCollisionCache
   @Override
   @SuppressWarnings("unchecked")
   public final V replace(final K key, final V val) {
-    final KeyVal<K, V>[] collisions = getBucket.apply(hashCoder.applyAsInt(key) & mask);
+    final int hash = hashCoder.applyAsInt(key) & mask;
+    final KeyVal<K, V>[] collisions = getBucket.apply(hash);
     int index = 0;
     do {
       final KeyVal<K, V> entry = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
       if (entry == null) {
-        return null;
+        return stash == null ? null : stash.replace(key, hash, val);
       }
       if (entry.val == val) {
         return val;
@@ -211,6 +339,8 @@ abstract class BaseEntryCollisionCache<K, L, V> implements LoadingCollisionCache
         final KeyVal<K, V> witness = (KeyVal<K, V>) COLLISIONS
             .compareAndExchange(collisions, index, entry, new KeyVal<>(key, val));
         if (witness == entry) {
+          replaced(entry, val);
+          written((hash << maxCollisionsShift) + index, key, val);
           return val;
         }
         if (key.equals(witness.key)) {
@@ -218,9 +348,204 @@ abstract class BaseEntryCollisionCache<K, L, V> implements LoadingCollisionCache
         }
       }
     } while (++index < collisions.length);
+    return stash == null ? null : stash.replace(key, hash, val);
+  }
+
+  /**
+   * Called after a value has been swapped in place of an existing entry for the same key.
+   *
+   * @param evicted the entry that was replaced.
+   * @param val the value now cached.
+   */
+  void replaced(final KeyVal<K, V> evicted, final V val) {
+  }
+
+  final boolean isExpired(final int counterIndex) {
+    return expiry != null && expiry.isExpired(counterIndex);
+  }
+
+  /**
+   * @param counterIndex counter index corresponding to a collision entry.
+   * @return the count for the entry, or zero if it has expired.
+   */
+  final int count(final int counterIndex) {
+    return isExpired(counterIndex) ? 0 : counters.getOpaque(counterIndex);
+  }
+
+  /**
+   * Initializes the counter and expiration deadline for a newly cached entry.
+   */
+  final void initialize(final int counterIndex, final K key, final V val) {
+    counters.initializeOpaque(counterIndex);
+    counters.age();
+    if (expiry != null) {
+      expiry.written(counterIndex, key, val);
+    }
+  }
+
+  final void initialize(final int counterIndex, final KeyVal<K, V> entry) {
+    initialize(counterIndex, entry.key, entry.val);
+  }
+
+  /**
+   * Resets the expiration deadline for an entry replaced in place.
+   */
+  final void written(final int counterIndex, final K key, final V val) {
+    if (expiry != null) {
+      expiry.written(counterIndex, key, val);
+    }
+  }
+
+  final void increment(final int counterIndex) {
+    stats.recordHit();
+    counters.increment(counterIndex);
+    if (expiry != null) {
+      expiry.accessed(counterIndex);
+    }
+  }
+
+  /**
+   * Records a miss for a read which found no value without loading one.
+   *
+   * @return null
+   */
+  final V missed() {
+    stats.recordMiss();
     return null;
   }
 
+  /**
+   * Loads a value for a missing or expired key, recording the miss and load if
+   * configured to.
+   */
+  final <I> I load(final K key, final Function<K, I> loader) {
+    return stats.load(key, loader);
+  }
+
+  /**
+   * Loads a new value for a key whose read was already recorded as a hit, such as a refresh or an
+   * early recompute, recording the load without a miss if configured to.
+   */
+  final <I> I reload(final K key, final Function<K, I> loader) {
+    return stats.reload(key, loader);
+  }
+
+  /**
+   * Called before synchronizing on a hash bucket, see {@link #lockAcquired lockAcquired}.
+   *
+   * @return a token to pass to lockAcquired.
+   */
+  final long lockRequested() {
+    return stats.lockRequested();
+  }
+
+  /**
+   * Called first thing after synchronizing on a hash bucket to record any time spent waiting.
+   *
+   * @param counterIndex any counter index within the hash bucket.
+   * @param lockRequested the token returned by {@link #lockRequested lockRequested}.
+   */
+  final void lockAcquired(final int counterIndex, final long lockRequested) {
+    stats.lockAcquired(counterIndex >> maxCollisionsShift, lockRequested);
+  }
+
+  final KeyVal<K, V> evicted(final KeyVal<K, V> evicted, final int count) {
+    if (evicted != null) {
+      stats.recordEviction(count);
+    }
+    return evicted;
+  }
+
+  /**
+   * Moves an entry evicted from a full hash bucket to the overflow stash, if configured.
+   *
+   * @param evicted the evicted entry, may be null.
+   * @param counterOffset beginning counter array index for the hash bucket.
+   * @param count the count of the evicted entry.
+   */
+  final void stash(final KeyVal<K, V> evicted, final int counterOffset, final int count) {
+    if (stash != null && evicted != null) {
+      stash.put(evicted, counterOffset >> maxCollisionsShift, count);
+    }
+  }
+
+  /**
+   * Consults the overflow stash, if configured, after a lookup misses its hash bucket.
+   *
+   * @param key used for stored key equality.
+   * @param hash the hash bucket index for the key.
+   * @return the stashed value for the key, or null.
+   */
+  final V stashed(final K key, final int hash) {
+    if (stash == null) {
+      return null;
+    }
+    final V val = stash.get(key, hash);
+    if (val != null) {
+      stats.recordHit();
+    }
+    return val;
+  }
+
+  /**
+   * Drops any stashed entry for a key newly cached in its hash bucket, so that a stale value can
+   * not be served once the new entry is evicted.
+   */
+  final void unstash(final K key, final int hash) {
+    if (stash != null) {
+      stash.remove(key, hash);
+    }
+  }
+
+  /**
+   * Asynchronously reloads and replaces the value for a key if its entry is past its refresh
+   * deadline.
+   *
+   * @param counterIndex counter index corresponding to the entry for the key.
+   * @param key used for table hash and entry equality.
+   */
+  final void refreshIfDue(final int counterIndex, final K key) {
+    if (expiry != null && expiry.isRefreshDue(counterIndex)) {
+      expiry.refresh(key, this::reload);
+    }
+  }
+
+  /**
+   * Only valid for expired entrys.  Asynchronously reloads the value for a key if its entry is
+   * within the stale grace period.
+   *
+   * @param counterIndex counter index corresponding to the expired entry.
+   * @param key used for table hash and entry equality.
+   * @return true if the stale value should be served.
+   */
+  final boolean serveStale(final int counterIndex, final K key) {
+    if (expiry.isStale(counterIndex)) {
+      stats.recordHit();
+      expiry.refresh(key, this::reload);
+      return true;
+    }
+    return false;
+  }
+
+  private void reload(final K key) {
+    final V val = reload(key, loadAndMap);
+    if (val != null) {
+      replace(key, val);
+    }
+  }
+
+  /**
+   * Moves the decayed counter and expiration deadline for an entry shifted down one slot.
+   *
+   * @param counterIndex counter index the entry is shifted from.
+   */
+  final void shift(final int counterIndex) {
+    counters.setOpaque(counterIndex - 1, counters.getOpaque(counterIndex) >> 1);
+    if (expiry != null) {
+      expiry.move(counterIndex, counterIndex - 1);
+    }
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -238,12 +563,170 @@ abstract class BaseEntryCollisionCache<K, L, V> implements LoadingCollisionCache
             COLLISIONS.setOpaque(collisions, index++, null);
           } while (index < collisions.length);
         });
+    if (stash != null) {
+      stash.clear();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final CacheStats stats() {
+    return stats.snapshot();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final CacheDiagnostics diagnostics() {
+    final long tableBytes = CacheDiagnostics
+        .arrayBytes(hashTable.length, CacheDiagnostics.REFERENCE_BYTES)
+        + counters.estimatedBytes()
+        + (expiry == null ? 0 : expiry.estimatedBytes())
+        + (stash == null ? 0 : stash.estimatedBytes());
+    final int maxCount = counters.getMaxCount();
+    return IntStream.range(0, hashTable.length)
+        .parallel()
+        .collect(() -> new CacheDiagnostics.Scan(1 << maxCollisionsShift, maxCount),
+            (scan, i) -> scan.bucket(hashTable[i], i << maxCollisionsShift, counters,
+                CacheDiagnostics.KEY_VAL_BYTES),
+            CacheDiagnostics.Scan::merge)
+        .toDiagnostics(tableBytes);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public final List<HotEntry<K, V>> hotEntries(final int k) {
+    return IntStream.range(0, hashTable.length)
+        .parallel()
+        .collect(() -> new HotEntry.TopK<K, V>(k), (top, i) -> {
+          final KeyVal<K, V>[] collisions = (KeyVal<K, V>[]) COLLISIONS.getOpaque(hashTable, i);
+          if (collisions == null) {
+            return;
+          }
+          final int counterOffset = i << maxCollisionsShift;
+          for (int index = 0; index < collisions.length; ++index) {
+            final KeyVal<K, V> entry = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
+            if (entry != null && !isExpired(counterOffset + index)) {
+              top.offer(entry.key, entry.val, count(counterOffset + index));
+            }
+          }
+        }, HotEntry.TopK::merge)
+        .toList();
+  }
+
+  final int getNumBuckets() {
+    return hashTable.length;
+  }
+
+  /**
+   * Moves every entry within a range of hash buckets to another cache, carrying over its count.
+   * Each bucket is moved while holding its lock, so removals cannot interleave, and each entry is
+   * put in the other cache before it is removed from this one, so lookups which check the other
+   * cache first always find it.  Only the exact entry copied is removed; if a lock-free write
+   * swaps in a new entry first, the new entry is moved instead.  Buckets are emptied from their
+   * last index down and re-checked, as a lock-free insert may land in an index already passed.
+   *
+   * @param fromBucket the first hash bucket to move, inclusive.
+   * @param toBucket the last hash bucket to move, exclusive.
+   * @param to the cache to move entries to.
+   */
+  @SuppressWarnings("unchecked")
+  final void transfer(final int fromBucket, final int toBucket,
+      final BaseEntryCollisionCache<K, L, V> to) {
+    for (int bucket = fromBucket; bucket < toBucket; ++bucket) {
+      final KeyVal<K, V>[] collisions = (KeyVal<K, V>[]) COLLISIONS.getVolatile(hashTable, bucket);
+      if (collisions == null) {
+        continue;
+      }
+      final int counterOffset = bucket << maxCollisionsShift;
+      synchronized (collisions) {
+        for (boolean moved = true; moved; ) {
+          moved = false;
+          for (int index = collisions.length - 1; index >= 0; --index) {
+            KeyVal<K, V> entry = (KeyVal<K, V>) COLLISIONS.getVolatile(collisions, index);
+            while (entry != null) {
+              to.transferred(entry.key, entry.val, counters.getOpaque(counterOffset + index));
+              final KeyVal<K, V> witness = (KeyVal<K, V>) COLLISIONS
+                  .compareAndExchange(collisions, index, entry, null);
+              entry = witness == entry ? null : witness;
+              moved = true;
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks the hash bucket of a key without recording stats, touching counters or consulting the
+   * overflow stash.
+   *
+   * @param key used for table hash and entry equality.
+   * @return true if the key is in its hash bucket.
+   */
+  @SuppressWarnings("unchecked")
+  final boolean contains(final K key) {
+    final KeyVal<K, V>[] collisions = getBucket.apply(hashCoder.applyAsInt(key) & mask);
+    for (int index = 0; index < collisions.length; ++index) {
+      final KeyVal<K, V> entry = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
+      if (entry == null) {
+        return false;
+      }
+      if (key.equals(entry.key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Moves the hash bucket of a key to another cache, see
+   * {@link #transfer(int, int, BaseEntryCollisionCache) transfer}.
+   *
+   * @param key used for table hash.
+   * @param to the cache to move entries to.
+   */
+  final void transfer(final K key, final BaseEntryCollisionCache<K, L, V> to) {
+    final int bucket = hashCoder.applyAsInt(key) & mask;
+    transfer(bucket, bucket + 1, to);
+  }
+
+  /**
+   * Puts an entry moved from another cache, unless the key has been written to since, and carries
+   * over its count.
+   *
+   * @param key used for table hash and entry equality.
+   * @param val the value of the moved entry.
+   * @param count the count of the moved entry.
+   */
+  @SuppressWarnings("unchecked")
+  final void transferred(final K key, final V val, final int count) {
+    if (putIfAbsent(key, val) != val) {
+      return;
+    }
+    final int hash = hashCoder.applyAsInt(key) & mask;
+    final KeyVal<K, V>[] collisions = getBucket.apply(hash);
+    for (int index = 0; index < collisions.length; ++index) {
+      final KeyVal<K, V> entry = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
+      if (entry != null && key.equals(entry.key)) {
+        counters.setOpaque((hash << maxCollisionsShift) + index, count);
+        return;
+      }
+    }
   }
 
   @Override
   public String toString() {
     return "CollisionCache{maxCollisions=" + (1 << maxCollisionsShift)
         + ", hashTableLength=" + hashTable.length
-        + ", counters=" + counters + '}';
+        + ", counters=" + counters
+        + ", expiry=" + expiry
+        + ", stash=" + stash + '}';
   }
 }
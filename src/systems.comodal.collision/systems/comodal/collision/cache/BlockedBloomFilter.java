@@ -0,0 +1,143 @@
+package systems.comodal.collision.cache;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+/**
+ * A concurrent bloom filter which sets all bits for a key within a single 512-bit block, the size
+ * of a typical cache line, so that each query or insertion touches a single cache line.  The
+ * false positive rate is slightly higher than a standard bloom filter of the same size.
+ *
+ * @param <K> the type of keys used to map to values
+ * @author James P. Edwards
+ */
+public final class BlockedBloomFilter<K> implements MembershipFilter<K> {
+
+  private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+  private static final int BLOCK_BITS = 512;
+  private static final int WORDS_PER_BLOCK_SHIFT = 3;
+  /**
+   * Keeps the word array length within a positive int.
+   */
+  static final int MAX_BLOCKS = 1 << (30 - WORDS_PER_BLOCK_SHIFT);
+  private static final ToLongFunction<?> DEFAULT_HASHER = Object::hashCode;
+
+  private final long[] words;
+  private final int blockMask;
+  private final int numHashes;
+  private final ToLongFunction<K> hasher;
+
+  private BlockedBloomFilter(final int numBlocks, final int numHashes,
+      final ToLongFunction<K> hasher) {
+    this.words = new long[numBlocks << WORDS_PER_BLOCK_SHIFT];
+    this.blockMask = numBlocks - 1;
+    this.numHashes = numHashes;
+    this.hasher = hasher;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <K> BlockedBloomFilter<K> create(final long expectedInsertions,
+      final double falsePositiveRate) {
+    return create(expectedInsertions, falsePositiveRate, (ToLongFunction<K>) DEFAULT_HASHER);
+  }
+
+  /**
+   * @param expectedInsertions the expected number of distinct keys.
+   * @param falsePositiveRate the desired false positive rate, between 0 and 1 exclusive.
+   * @param hasher computes a hash for a key, which is further mixed.
+   * @return a new empty filter.
+   */
+  public static <K> BlockedBloomFilter<K> create(final long expectedInsertions,
+      final double falsePositiveRate, final ToLongFunction<K> hasher) {
+    if (expectedInsertions <= 0) {
+      throw new IllegalStateException("Expected insertions must be > 0.");
+    }
+    if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+      throw new IllegalStateException("False positive rate must be between 0 and 1.");
+    }
+    final double ln2 = Math.log(2);
+    final double numBits = -expectedInsertions * Math.log(falsePositiveRate) / (ln2 * ln2);
+    final int numHashes = (int) Math.max(1, Math.min(16,
+        Math.round(numBits / expectedInsertions * ln2)));
+    return new BlockedBloomFilter<>(numBlocks(numBits), numHashes, hasher);
+  }
+
+  /**
+   * @param numBits the desired number of bits.
+   * @return the power of two number of blocks needed to hold the bits, clamped to
+   * {@link #MAX_BLOCKS}.
+   */
+  static int numBlocks(final double numBits) {
+    final long minBlocks = (long) Math.ceil(numBits / BLOCK_BITS);
+    return minBlocks >= MAX_BLOCKS ? MAX_BLOCKS
+        : Math.max(1, Integer.highestOneBit((int) Math.max(1, minBlocks) - 1) << 1);
+  }
+
+  /**
+   * Creates a filter and adds each key from the stream, which may be parallel.
+   *
+   * @param keys the full universe of keys known to exist.
+   * @param expectedInsertions the expected number of distinct keys.
+   * @param falsePositiveRate the desired false positive rate, between 0 and 1 exclusive.
+   * @return a new filter containing all keys.
+   */
+  public static <K> BlockedBloomFilter<K> create(final Stream<K> keys,
+      final long expectedInsertions, final double falsePositiveRate) {
+    final BlockedBloomFilter<K> filter = create(expectedInsertions, falsePositiveRate);
+    keys.forEach(filter::add);
+    return filter;
+  }
+
+  /**
+   * Murmur3 64-bit finalizer.
+   */
+  private static long mix(long hash) {
+    hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+    hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return hash ^ (hash >>> 33);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean mightContain(final K key) {
+    final long hash = mix(hasher.applyAsLong(key));
+    final int offset = ((int) (hash >>> 35) & blockMask) << WORDS_PER_BLOCK_SHIFT;
+    final int h1 = (int) hash;
+    final int h2 = (int) (hash >>> 16) | 1;
+    for (int i = 0, bit = h1; i < numHashes; ++i, bit += h2) {
+      final int index = offset + ((bit >>> 6) & ((1 << WORDS_PER_BLOCK_SHIFT) - 1));
+      if (((long) WORDS.getOpaque(words, index) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void add(final K key) {
+    final long hash = mix(hasher.applyAsLong(key));
+    final int offset = ((int) (hash >>> 35) & blockMask) << WORDS_PER_BLOCK_SHIFT;
+    final int h1 = (int) hash;
+    final int h2 = (int) (hash >>> 16) | 1;
+    for (int i = 0, bit = h1; i < numHashes; ++i, bit += h2) {
+      final int index = offset + ((bit >>> 6) & ((1 << WORDS_PER_BLOCK_SHIFT) - 1));
+      final long mask = 1L << bit;
+      if (((long) WORDS.getOpaque(words, index) & mask) == 0) {
+        WORDS.getAndBitwiseOr(words, index, mask);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "BlockedBloomFilter{numBlocks=" + (blockMask + 1)
+        + ", numHashes=" + numHashes + '}';
+  }
+}
@@ -0,0 +1,249 @@
+package systems.comodal.collision.cache;
+
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Limits concurrent loads with a {@link LoadBulkhead LoadBulkhead}.  The delegate cache is built
+ * with a {@link #limitLoader limited loader}, so that a permit is only acquired around each call
+ * to a loader, and hits, including cached nulls, never contend for permits.  A load rejected by a
+ * {@link LoadBulkhead.Policy#FAIL_FAST fail fast} bulkhead throws past the delegate without
+ * caching anything, and is answered here with any value still present, or else the fallback.
+ *
+ * @param <K> the type of keys used to map to values
+ * @param <L> the type of loaded values before being mapped to type V
+ * @param <V> the type of mapped values
+ * @author James P. Edwards
+ */
+final class BulkheadCollisionCache<K, L, V> implements LoadingCollisionCache<K, L, V> {
+
+  /**
+   * Thrown by a limited loader when its load is rejected.  Shared as it carries no state.
+   */
+  private static final RuntimeException REJECTED = new RuntimeException("Load rejected.", null,
+      false, false) {
+  };
+
+  private final LoadingCollisionCache<K, L, V> delegate;
+  private final LoadBulkhead bulkhead;
+  private final boolean atomic;
+  private final BiFunction<K, L, V> mapper;
+  private final Function<K, V> fallback;
+
+  BulkheadCollisionCache(final LoadingCollisionCache<K, L, V> delegate,
+      final LoadBulkhead bulkhead,
+      final BiFunction<K, L, V> mapper,
+      final Function<K, V> fallback) {
+    this.delegate = delegate;
+    this.bulkhead = bulkhead;
+    this.atomic = bulkhead.getPolicy() == LoadBulkhead.Policy.ATOMIC;
+    this.mapper = mapper;
+    this.fallback = fallback;
+  }
+
+  /**
+   * The delegate cache should be built with the returned loader.
+   *
+   * @param loader the registered loader.
+   * @param bulkhead acquired around each load.
+   * @return a loader which holds a permit while loading, and throws if one is not granted.
+   */
+  static <K, I> Function<K, I> limitLoader(final Function<K, I> loader,
+      final LoadBulkhead bulkhead) {
+    return key -> {
+      if (!bulkhead.acquire()) {
+        throw REJECTED;
+      }
+      try {
+        return loader.apply(key);
+      } finally {
+        bulkhead.release();
+      }
+    };
+  }
+
+  private V rejected(final K key) {
+    final V val = delegate.getIfPresent(key);
+    return val != null || fallback == null ? val : fallback.apply(key);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V get(final K key) {
+    try {
+      return delegate.get(key);
+    } catch (final RuntimeException ex) {
+      if (ex == REJECTED) {
+        return rejected(key);
+      }
+      throw ex;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V get(final K key, final Function<K, V> loadAndMap) {
+    try {
+      return delegate.get(key, limitLoader(loadAndMap, bulkhead));
+    } catch (final RuntimeException ex) {
+      if (ex == REJECTED) {
+        return rejected(key);
+      }
+      throw ex;
+    }
+  }
+
+  /**
+   * Under the {@link LoadBulkhead.Policy#ATOMIC atomic} policy, once all permits are in use
+   * aggressive gets are sent through the atomic get path, so that concurrent misses for the same
+   * key wait behind its hash bucket for a single load rather than each queueing their own.
+   */
+  @Override
+  public V getAggressive(final K key) {
+    try {
+      return atomic && bulkhead.divert() ? delegate.get(key) : delegate.getAggressive(key);
+    } catch (final RuntimeException ex) {
+      if (ex == REJECTED) {
+        return rejected(key);
+      }
+      throw ex;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V getAggressive(final K key, final Function<K, L> loader) {
+    return getAggressive(key, loader, mapper);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <I> V getAggressive(final K key, final Function<K, I> loader,
+      final BiFunction<K, I, V> mapper) {
+    final Function<K, I> limited = limitLoader(loader, bulkhead);
+    try {
+      if (atomic && bulkhead.divert()) {
+        return delegate.get(key, k -> {
+          final I loaded = limited.apply(k);
+          return loaded == null ? null : mapper.apply(k, loaded);
+        });
+      }
+      return delegate.getAggressive(key, limited, mapper);
+    } catch (final RuntimeException ex) {
+      if (ex == REJECTED) {
+        return rejected(key);
+      }
+      throw ex;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V putReplace(final K key, final V val) {
+    return delegate.putReplace(key, val);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V replace(final K key, final V val) {
+    return delegate.replace(key, val);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V putIfAbsent(final K key, final V val) {
+    return delegate.putIfAbsent(key, val);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V putIfSpaceAbsent(final K key, final V val) {
+    return delegate.putIfSpaceAbsent(key, val);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V putIfSpaceReplace(final K key, final V val) {
+    return delegate.putIfSpaceReplace(key, val);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V getIfPresent(final K key) {
+    return delegate.getIfPresent(key);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean remove(final K key) {
+    return delegate.remove(key);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public CacheStats stats() {
+    return delegate.stats();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public CacheDiagnostics diagnostics() {
+    return delegate.diagnostics();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public List<HotEntry<K, V>> hotEntries(final int k) {
+    return delegate.hotEntries(k);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void setCapacity(final int capacity) {
+    delegate.setCapacity(capacity);
+  }
+
+  @Override
+  public String toString() {
+    return "BulkheadCollisionCache{bulkhead=" + bulkhead + ", delegate=" + delegate + '}';
+  }
+}
@@ -0,0 +1,153 @@
+package systems.comodal.collision.cache;
+
+import java.util.Arrays;
+
+/**
+ * A snapshot of how entries are distributed across the hash table, to help choose a bucket size,
+ * sparse factor and hash coder.  Taken without locking, so concurrent writes may skew counts
+ * slightly.
+ *
+ * @author James P. Edwards
+ */
+public final class CacheDiagnostics {
+
+  static final int ARRAY_HEADER_BYTES = 16;
+  static final int REFERENCE_BYTES = 4;
+  static final int KEY_VAL_BYTES = 24;
+
+  private final long[] bucketFillHistogram;
+  private final long[] counterHistogram;
+  private final long estimatedBytes;
+
+  private CacheDiagnostics(final long[] bucketFillHistogram, final long[] counterHistogram,
+      final long estimatedBytes) {
+    this.bucketFillHistogram = bucketFillHistogram;
+    this.counterHistogram = counterHistogram;
+    this.estimatedBytes = estimatedBytes;
+  }
+
+  /**
+   * @param length the length of the array.
+   * @param elementBytes the size of each element in bytes.
+   * @return the size of an array in bytes, assuming compressed object pointers.
+   */
+  static long arrayBytes(final int length, final int elementBytes) {
+    return (ARRAY_HEADER_BYTES + (long) length * elementBytes + 7) & ~7L;
+  }
+
+  /**
+   * @return the number of buckets by the number of entries they hold, indexed from zero to the
+   * bucket size.
+   */
+  public long[] getBucketFillHistogram() {
+    return bucketFillHistogram.clone();
+  }
+
+  /**
+   * @return the number of entries by the value of their LFU counter, indexed from 0 to the max
+   * count for the counter width, e.g. 255 for 8-bit counters.
+   */
+  public long[] getCounterHistogram() {
+    return counterHistogram.clone();
+  }
+
+  public long getNumBuckets() {
+    return Arrays.stream(bucketFillHistogram).sum();
+  }
+
+  public long getNumEntries() {
+    return Arrays.stream(counterHistogram).sum();
+  }
+
+  /**
+   * @return the number of entries whose counter is saturated at the max count.  Many saturated
+   * counters suggest maxCounterVal is too low, or counters too narrow, to tell popular entries
+   * apart.
+   */
+  public long getSaturatedCounters() {
+    return counterHistogram[counterHistogram.length - 1];
+  }
+
+  /**
+   * @return the fraction of buckets without any entries.
+   */
+  public double getEmptyBucketFraction() {
+    final long numBuckets = getNumBuckets();
+    return numBuckets == 0 ? 0.0 : (double) bucketFillHistogram[0] / numBuckets;
+  }
+
+  /**
+   * @return the estimated bytes retained by the hash table, counters and expiration times,
+   * assuming compressed object pointers, excluding the keys and values themselves.
+   */
+  public long getEstimatedBytes() {
+    return estimatedBytes;
+  }
+
+  @Override
+  public String toString() {
+    return "CacheDiagnostics{numBuckets=" + getNumBuckets()
+        + ", numEntries=" + getNumEntries()
+        + ", bucketFillHistogram=" + Arrays.toString(bucketFillHistogram)
+        + ", emptyBucketFraction=" + getEmptyBucketFraction()
+        + ", saturatedCounters=" + getSaturatedCounters()
+        + ", estimatedBytes=" + estimatedBytes + '}';
+  }
+
+  /**
+   * Accumulates a scan of hash buckets, one per thread of a parallel scan.
+   */
+  static final class Scan {
+
+    private final long[] bucketFillHistogram;
+    private final long[] counterHistogram;
+    private long bucketBytes;
+
+    Scan(final int maxCollisions, final int maxCount) {
+      this.bucketFillHistogram = new long[maxCollisions + 1];
+      this.counterHistogram = new long[maxCount + 1];
+    }
+
+    /**
+     * @param collisions a hash bucket, may be null if lazily initialized.
+     * @param counterOffset beginning counter array index corresponding to collision values.
+     * @param counters the counters for all entries.
+     * @param entryBytes the size of any wrapper around each entry.
+     */
+    void bucket(final Object[] collisions, final int counterOffset,
+        final AtomicLogCounters counters, final int entryBytes) {
+      if (collisions == null) {
+        ++bucketFillHistogram[0];
+        return;
+      }
+      bucketBytes += arrayBytes(collisions.length, REFERENCE_BYTES);
+      int fill = 0;
+      for (int index = 0; index < collisions.length; ++index) {
+        if (BaseCollisionCache.COLLISIONS.getOpaque(collisions, index) != null) {
+          ++fill;
+          ++counterHistogram[counters.getOpaque(counterOffset + index)];
+        }
+      }
+      ++bucketFillHistogram[fill];
+      bucketBytes += (long) fill * entryBytes;
+    }
+
+    void merge(final Scan other) {
+      for (int i = 0; i < bucketFillHistogram.length; ++i) {
+        bucketFillHistogram[i] += other.bucketFillHistogram[i];
+      }
+      for (int i = 0; i < counterHistogram.length; ++i) {
+        counterHistogram[i] += other.counterHistogram[i];
+      }
+      bucketBytes += other.bucketBytes;
+    }
+
+    /**
+     * @param tableBytes the bytes retained by everything other than the buckets.
+     */
+    CacheDiagnostics toDiagnostics(final long tableBytes) {
+      return new CacheDiagnostics(bucketFillHistogram, counterHistogram,
+          tableBytes + bucketBytes);
+    }
+  }
+}
@@ -0,0 +1,202 @@
+package systems.comodal.collision.cache;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A capacity budget shared by multiple sparse caches, so that capacity goes to the caches which
+ * use it rather than each cache being sized for its own worst case.  Each member cache is still
+ * limited by its own capacity, but while the group is within budget a member may grow beyond its
+ * fair share of the group, i.e., the group capacity divided by the number of members.
+ *
+ * <p>Once the group is over budget, members over their fair share decay and drop entries as they
+ * write, like a single cache over capacity, while writes by members under their fair share are
+ * still admitted.  Those admissions trigger a single background task which sweeps the hash buckets
+ * of whichever member is furthest over its fair share, decaying counters and dropping zero count
+ * entries, until the group is back within budget.  Sweeping runs off of the writing thread, so
+ * no member ever holds a hash bucket lock of another member.
+ *
+ * <p>Capacity is measured in entries, or in the weight of entries if members are weighed, in
+ * which case every member should weigh entries in the same unit.
+ *
+ * @author James P. Edwards
+ */
+public final class CacheGroup {
+
+  /**
+   * Hash buckets swept per member per round.
+   */
+  static final int SHED_BUCKETS = 1 << 4;
+  /**
+   * Rounds without any reduction in size before sweeping gives up until the next admission.
+   */
+  private static final int MAX_IDLE_ROUNDS = 1 << 10;
+
+  /**
+   * Caches which can be built as members of a group.
+   */
+  interface Member {
+
+    /**
+     * @return the size of this member, updated as entries are added and dropped.
+     */
+    LongAdder getSize();
+
+    /**
+     * Decays and drops entries from the next {@link CacheGroup#SHED_BUCKETS} hash buckets of a
+     * rotating hand while over capacity.
+     */
+    void shed();
+  }
+
+  private static final class Registration {
+
+    private final WeakReference<Member> cache;
+    private final LongAdder size;
+
+    private Registration(final Member cache) {
+      this.cache = new WeakReference<>(cache);
+      this.size = cache.getSize();
+    }
+  }
+
+  private final long capacity;
+  private final LongAdder size;
+  private final AtomicBoolean shedding;
+  private volatile Registration[] members;
+
+  private CacheGroup(final long capacity) {
+    this.capacity = capacity;
+    this.size = new LongAdder();
+    this.shedding = new AtomicBoolean();
+    this.members = new Registration[0];
+  }
+
+  /**
+   * @param capacity the maximum number of entries, or total weight, across all member caches.
+   * @return a new group without any members.
+   */
+  public static CacheGroup create(final long capacity) {
+    if (capacity <= 0) {
+      throw new IllegalStateException("Group capacity must be > 0.");
+    }
+    return new CacheGroup(capacity);
+  }
+
+  synchronized void register(final Member cache) {
+    final Registration[] members = Arrays.copyOf(this.members, this.members.length + 1);
+    members[members.length - 1] = new Registration(cache);
+    this.members = members;
+  }
+
+  /**
+   * Removes members which have been garbage collected along with their size.
+   */
+  private synchronized void expunge() {
+    this.members = Arrays.stream(members).filter(member -> {
+      if (member.cache.get() == null) {
+        size.add(-member.size.sum());
+        return false;
+      }
+      return true;
+    }).toArray(Registration[]::new);
+  }
+
+  /**
+   * Tracks the size of the group as members add and drop entries, and starts sweeping members
+   * over their fair share if an admission puts the group over budget.
+   *
+   * @param weight the weight added, or removed if negative.
+   */
+  void add(final long weight) {
+    size.add(weight);
+    if (weight > 0 && size.sum() > capacity && shedding.compareAndSet(false, true)) {
+      ForkJoinPool.commonPool().execute(this::shed);
+    }
+  }
+
+  /**
+   * @param memberSize the current size of a member.
+   * @return true if the group is over budget and the member is over its fair share.
+   */
+  boolean isOverCapacity(final long memberSize) {
+    return memberSize > getFairShare() && size.sum() > capacity;
+  }
+
+  private void shed() {
+    try {
+      long previousSize = size.sum();
+      for (int idleRounds = 0; previousSize > capacity && idleRounds < MAX_IDLE_ROUNDS; ) {
+        final Member victim = mostOverFairShare();
+        if (victim == null) {
+          return;
+        }
+        victim.shed();
+        final long size = this.size.sum();
+        idleRounds = size < previousSize ? 0 : idleRounds + 1;
+        previousSize = size;
+      }
+    } finally {
+      shedding.set(false);
+    }
+  }
+
+  /**
+   * @return the member furthest over its fair share, or null if there is none.
+   */
+  private Member mostOverFairShare() {
+    final long fairShare = getFairShare();
+    Member victim = null;
+    long maxOver = 0;
+    boolean expunge = false;
+    for (final Registration member : members) {
+      final Member cache = member.cache.get();
+      if (cache == null) {
+        expunge = true;
+        continue;
+      }
+      final long over = member.size.sum() - fairShare;
+      if (over > maxOver) {
+        maxOver = over;
+        victim = cache;
+      }
+    }
+    if (expunge) {
+      expunge();
+    }
+    return victim;
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @return the group capacity divided evenly between its members.
+   */
+  public long getFairShare() {
+    final int numMembers = members.length;
+    return numMembers == 0 ? capacity : capacity / numMembers;
+  }
+
+  /**
+   * @return the number of entries, or total weight, across all member caches.
+   */
+  public long size() {
+    return size.sum();
+  }
+
+  public int getNumMembers() {
+    return members.length;
+  }
+
+  @Override
+  public String toString() {
+    return "CacheGroup{capacity=" + capacity
+        + ", size=" + size.sum()
+        + ", numMembers=" + members.length + '}';
+  }
+}
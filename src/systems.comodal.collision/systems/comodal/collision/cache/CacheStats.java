@@ -0,0 +1,123 @@
+package systems.comodal.collision.cache;
+
+/**
+ * An immutable snapshot of cache statistics.  Counts only reflect operations performed while
+ * statistics were being {@link CollisionBuilder#setRecordStats recorded}.
+ *
+ * @author James P. Edwards
+ */
+public final class CacheStats {
+
+  static final CacheStats EMPTY = new CacheStats(0, 0, 0, 0, 0, 0, 0, 0);
+
+  private final long hitCount;
+  private final long missCount;
+  private final long loadSuccessCount;
+  private final long loadFailureCount;
+  private final long loadNullCount;
+  private final long totalLoadNanos;
+  private final long evictionCount;
+  private final long rejectedAdmissionCount;
+
+  CacheStats(final long hitCount,
+      final long missCount,
+      final long loadSuccessCount,
+      final long loadFailureCount,
+      final long loadNullCount,
+      final long totalLoadNanos,
+      final long evictionCount,
+      final long rejectedAdmissionCount) {
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.loadSuccessCount = loadSuccessCount;
+    this.loadFailureCount = loadFailureCount;
+    this.loadNullCount = loadNullCount;
+    this.totalLoadNanos = totalLoadNanos;
+    this.evictionCount = evictionCount;
+    this.rejectedAdmissionCount = rejectedAdmissionCount;
+  }
+
+  /**
+   * @return the number of reads which found a value, including stale values.
+   */
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * @return the number of reads which did not find a value, whether or not they went on to load
+   * one.
+   */
+  public long getMissCount() {
+    return missCount;
+  }
+
+  public long getRequestCount() {
+    return hitCount + missCount;
+  }
+
+  /**
+   * @return the ratio of hits to requests, or 1.0 if there have been no requests.
+   */
+  public double getHitRate() {
+    final long requestCount = getRequestCount();
+    return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+  }
+
+  public long getLoadSuccessCount() {
+    return loadSuccessCount;
+  }
+
+  /**
+   * @return the number of loads which threw.
+   */
+  public long getLoadFailureCount() {
+    return loadFailureCount;
+  }
+
+  /**
+   * @return the number of loads which returned null, including misses for keys rejected by a
+   * membership filter without calling the loader.
+   */
+  public long getLoadNullCount() {
+    return loadNullCount;
+  }
+
+  public long getTotalLoadNanos() {
+    return totalLoadNanos;
+  }
+
+  public double getAverageLoadNanos() {
+    final long loadCount = loadSuccessCount + loadFailureCount + loadNullCount;
+    return loadCount == 0 ? 0.0 : (double) totalLoadNanos / loadCount;
+  }
+
+  /**
+   * @return the number of values evicted to make room for new values or to bring a sparse cache
+   * back down to capacity.
+   */
+  public long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * @return the number of loaded or put values which were not cached because a strictly limited
+   * sparse cache was at capacity.
+   */
+  public long getRejectedAdmissionCount() {
+    return rejectedAdmissionCount;
+  }
+
+  @Override
+  public String toString() {
+    return "CacheStats{hitCount=" + hitCount
+        + ", missCount=" + missCount
+        + ", hitRate=" + getHitRate()
+        + ", loadSuccessCount=" + loadSuccessCount
+        + ", loadFailureCount=" + loadFailureCount
+        + ", loadNullCount=" + loadNullCount
+        + ", totalLoadNanos=" + totalLoadNanos
+        + ", evictionCount=" + evictionCount
+        + ", rejectedAdmissionCount=" + rejectedAdmissionCount + '}';
+  }
+}
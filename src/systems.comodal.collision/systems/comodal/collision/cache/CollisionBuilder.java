@@ -3,10 +3,13 @@ package systems.comodal.collision.cache;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.VarHandle;
 import java.lang.reflect.Array;
+import java.time.Duration;
+import java.util.concurrent.Executor;
 import java.util.function.BiFunction;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
 import java.util.function.IntFunction;
+import java.util.function.ToIntBiFunction;
 import java.util.function.ToIntFunction;
 
 public final class CollisionBuilder<V> {
@@ -17,6 +20,7 @@ public final class CollisionBuilder<V> {
   static final Function<?, ?> NULL_LOADER = key -> null;
   static final ToIntFunction<?> DEFAULT_HASH_CODER = key -> spread(key.hashCode());
   static final BiPredicate<?, ?> DEFAULT_IS_VAL_FOR_KEY = (val, key) -> val.equals(key);
+  static final ToIntBiFunction<?, ?> DEFAULT_WEIGHER = (key, val) -> 1;
 
   /**
    * Multiplied by the desired capacity to determine the hash table length.
@@ -31,8 +35,36 @@ public final class CollisionBuilder<V> {
   private int bucketSize = 0;
   private int initCount = 5;
   private int maxCounterVal = 1_048_576;
+  private int counterSampleRate = 1;
+  private boolean paddedCounters;
+  private int counterBits = Byte.SIZE;
+  private Duration counterAgingPeriod;
+  private boolean adaptiveCounters;
   private boolean lazyInitBuckets = false;
   private boolean storeKeys = true;
+  private boolean twoChoicePlacement = false;
+  private int overflowStashSize = 0;
+  private boolean resizable = false;
+  private double memoryPressureThreshold = 0;
+  private double memoryPressureCapacityFactor = 0.5;
+  private CacheGroup cacheGroup;
+  private boolean recordStats = false;
+  private boolean recordEvents = false;
+  private String name;
+  private long maximumWeight = 0;
+  private Duration expireAfterWrite;
+  private Duration expireAfterAccess;
+  private Duration refreshAfterWrite;
+  private Executor refreshExecutor;
+  private Duration staleGrace;
+  private double earlyRecomputeBeta;
+  private boolean cacheNulls = false;
+  private Duration negativeTtl;
+  private LoadBulkhead loadBulkhead;
+  private Function<?, V> loadFallback;
+  private Duration hedgeDelay;
+  private double hedgePercentile;
+  private Executor hedgeExecutor;
 
   CollisionBuilder(final int capacity) {
     this.capacity = capacity;
@@ -63,6 +95,8 @@ public final class CollisionBuilder<V> {
         sparseFactor,
         (ToIntFunction<K>) DEFAULT_HASH_CODER,
         (BiPredicate<K, V>) DEFAULT_IS_VAL_FOR_KEY,
+        (ToIntBiFunction<K, V>) DEFAULT_WEIGHER,
+        null,
         (Function<K, ?>) NULL_LOADER,
         null);
   }
@@ -71,36 +105,114 @@ public final class CollisionBuilder<V> {
       final double sparseFactor,
       final ToIntFunction<K> hashCoder,
       final BiPredicate<K, V> isValForKey,
+      final ToIntBiFunction<K, V> weigher,
+      final Expiry<K, V> expiry,
+      final Function<K, L> userLoader,
+      final BiFunction<K, L, V> mapper) {
+    final Function<K, L> loader = limitLoader(hedgeLoads(userLoader, mapper));
+    if (!cacheNulls) {
+      return limitLoads(resizable((capacity, stats) -> buildSparseCache(capacity, stats,
+          sparseFactor, hashCoder, isValForKey, weigher, expiry, loader, mapper)), mapper);
+    }
+    checkCacheNulls(mapper);
+    return limitLoads(new NullCachingCollisionCache<>(resizable((capacity, stats) ->
+        buildSparseCache(
+            capacity,
+            stats,
+            sparseFactor,
+            hashCoder,
+            storeKeys ? isValForKey : NullCachingCollisionCache.wrapIsValForKey(isValForKey),
+            weigher == DEFAULT_WEIGHER ? weigher : NullCachingCollisionCache.wrapWeigher(weigher),
+            expiry,
+            NullCachingCollisionCache.wrapLoader(loader),
+            NullCachingCollisionCache.wrapMapper(mapper, storeKeys))), storeKeys), mapper);
+  }
+
+  private <K, L> LoadingCollisionCache<K, L, V> buildSparseCache(
+      final int capacity,
+      final StatsCounter sharedStats,
+      final double sparseFactor,
+      final ToIntFunction<K> hashCoder,
+      final BiPredicate<K, V> isValForKey,
+      final ToIntBiFunction<K, V> weigher,
+      final Expiry<K, V> expiry,
       final Function<K, L> loader,
       final BiFunction<K, L, V> mapper) {
+    if (twoChoicePlacement) {
+      throw new IllegalStateException("Two-choice placement is only supported by packed caches.");
+    }
+    if (overflowStashSize > 0) {
+      throw new IllegalStateException("An overflow stash is only supported by packed caches.");
+    }
+    final long maxWeight;
+    if (weigher == DEFAULT_WEIGHER) {
+      if (maximumWeight > 0) {
+        throw new IllegalStateException("A weigher is needed to limit by maximumWeight.");
+      }
+      maxWeight = capacity;
+    } else if (maximumWeight <= 0) {
+      throw new IllegalStateException("maximumWeight needed.");
+    } else {
+      maxWeight = maximumWeight;
+    }
     final int bucketSize = this.bucketSize > 0 ? this.bucketSize : DEFAULT_SPARSE_BUCKET_SIZE;
     final int maxCollisions = Integer.highestOneBit(bucketSize - 1) << 1;
     final int maxCollisionsShift = Integer.numberOfTrailingZeros(maxCollisions);
-    final AtomicLogCounters counters = AtomicLogCounters.create(
+    final AtomicLogCounters counters = createCounters(
         Integer.highestOneBit((int) (capacity * Math.max(1.0, sparseFactor)) - 1) << 1,
-        initCount, maxCounterVal);
+        maxCollisions);
+    final ExpiryTimes<K, V> expiryTimes = createExpiryTimes(counters.getNumCounters(), expiry,
+        mapper);
     final int hashTableLength = counters.getNumCounters() >> maxCollisionsShift;
     if (isStoreKeys()) {
       final KeyVal<K, V>[][] hashTable = createEntryHashTable(hashTableLength, maxCollisions);
-      return new SparseEntryCollisionCache<>(
-          capacity,
+      final SparseEntryCollisionCache<K, L, V> cache = new SparseEntryCollisionCache<>(
+          maxWeight,
           strictCapacity,
+          weigher,
+          cacheGroup,
           maxCollisionsShift,
           hashTable,
           createEntryGetBucket(hashTable, maxCollisionsShift),
           counters,
-          hashCoder, loader, mapper);
+          expiryTimes,
+          hashCoder, createStatsCounter(sharedStats, counters), loader, mapper);
+      return shrinkUnderMemoryPressure(joinGroup(cache));
     }
     final V[][] hashTable = createHashTable(hashTableLength, maxCollisions);
-    return new SparseCollisionCache<>(
-        capacity,
+    final SparseCollisionCache<K, L, V> cache = new SparseCollisionCache<>(
+        maxWeight,
         strictCapacity,
+        weigher,
+        cacheGroup,
         valueType,
         maxCollisionsShift,
         hashTable,
         createGetBucket(hashTable, maxCollisionsShift),
         counters,
-        hashCoder, isValForKey, loader, mapper);
+        expiryTimes,
+        hashCoder, isValForKey, createStatsCounter(sharedStats, counters), loader, mapper);
+    return shrinkUnderMemoryPressure(joinGroup(cache));
+  }
+
+  private <C extends CacheGroup.Member> C joinGroup(final C cache) {
+    if (cacheGroup != null) {
+      cacheGroup.register(cache);
+    }
+    return cache;
+  }
+
+  private <C extends MemoryPressureListener.Shrinkable> C shrinkUnderMemoryPressure(
+      final C cache) {
+    if (memoryPressureThreshold > 0) {
+      if (!isManagementPresent()) {
+        throw new IllegalStateException(
+            "The java.management module is required to shrink under memory pressure.");
+      }
+      MemoryPressureListener.register(cache, memoryPressureThreshold,
+          memoryPressureCapacityFactor);
+    }
+    return cache;
   }
 
   @SuppressWarnings("unchecked")
@@ -108,20 +220,143 @@ public final class CollisionBuilder<V> {
     return buildPacked(
         (ToIntFunction<K>) DEFAULT_HASH_CODER,
         (BiPredicate<K, V>) DEFAULT_IS_VAL_FOR_KEY,
+        null,
         (Function<K, ?>) NULL_LOADER, null);
   }
 
   <K, L> LoadingCollisionCache<K, L, V> buildPacked(
       final ToIntFunction<K> hashCoder,
       final BiPredicate<K, V> isValForKey,
+      final Expiry<K, V> expiry,
+      final Function<K, L> userLoader,
+      final BiFunction<K, L, V> mapper) {
+    final Function<K, L> loader = limitLoader(hedgeLoads(userLoader, mapper));
+    if (!cacheNulls) {
+      return limitLoads(resizable((capacity, stats) -> buildPackedCache(capacity, stats,
+          hashCoder, isValForKey, expiry, loader, mapper)), mapper);
+    }
+    checkCacheNulls(mapper);
+    return limitLoads(new NullCachingCollisionCache<>(resizable((capacity, stats) ->
+        buildPackedCache(
+            capacity,
+            stats,
+            hashCoder,
+            storeKeys ? isValForKey : NullCachingCollisionCache.wrapIsValForKey(isValForKey),
+            expiry,
+            NullCachingCollisionCache.wrapLoader(loader),
+            NullCachingCollisionCache.wrapMapper(mapper, storeKeys))), storeKeys), mapper);
+  }
+
+  /**
+   * @param buildCache builds a cache for a capacity, sharing the given stats counter if not null.
+   */
+  private <K, L> LoadingCollisionCache<K, L, V> resizable(
+      final BiFunction<Integer, StatsCounter, LoadingCollisionCache<K, L, V>> buildCache) {
+    if (!resizable) {
+      return buildCache.apply(capacity, null);
+    }
+    if (adaptiveCounters) {
+      throw new IllegalStateException("Adaptive counters are not supported by resizable caches.");
+    }
+    if (memoryPressureThreshold > 0) {
+      throw new IllegalStateException(
+          "Shrinking under memory pressure is not supported by resizable caches.");
+    }
+    if (cacheGroup != null) {
+      throw new IllegalStateException("A cache group is not supported by resizable caches.");
+    }
+    // Shared across resizes so that stats are not reset.
+    final StatsCounter stats = createStatsCounter(null);
+    return new ResizingCollisionCache<>(capacity,
+        newCapacity -> buildCache.apply(newCapacity, stats));
+  }
+
+  private <K, L> Function<K, L> limitLoader(final Function<K, L> loader) {
+    return loadBulkhead == null ? loader : BulkheadCollisionCache.limitLoader(loader, loadBulkhead);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <K, L> LoadingCollisionCache<K, L, V> limitLoads(
+      final LoadingCollisionCache<K, L, V> cache, final BiFunction<K, L, V> mapper) {
+    return loadBulkhead == null ? cache : new BulkheadCollisionCache<>(cache, loadBulkhead, mapper,
+        (Function<K, V>) loadFallback);
+  }
+
+  private <K, L> Function<K, L> hedgeLoads(final Function<K, L> loader,
+      final BiFunction<K, L, V> mapper) {
+    if (hedgeExecutor == null) {
+      return loader;
+    }
+    if (mapper == null) {
+      throw new IllegalStateException("A loader is needed to hedge loads.");
+    }
+    return hedgeDelay == null
+        ? HedgedLoader.atPercentile(loader, hedgeExecutor, hedgePercentile)
+        : HedgedLoader.afterDelay(loader, hedgeExecutor, hedgeDelay.toNanos());
+  }
+
+  private void checkCacheNulls(final BiFunction<?, ?, V> mapper) {
+    if (mapper == null) {
+      throw new IllegalStateException("A loader is needed to cache nulls.");
+    }
+    if (negativeTtl != null && expireAfterAccess != null) {
+      throw new IllegalStateException("A negative TTL is not supported with expireAfterAccess.");
+    }
+  }
+
+  private <K, L> LoadingCollisionCache<K, L, V> buildPackedCache(
+      final int capacity,
+      final StatsCounter sharedStats,
+      final ToIntFunction<K> hashCoder,
+      final BiPredicate<K, V> isValForKey,
+      final Expiry<K, V> expiry,
       final Function<K, L> loader,
       final BiFunction<K, L, V> mapper) {
+    if (maximumWeight > 0) {
+      throw new IllegalStateException("Weighted capacity is only supported by sparse caches.");
+    }
+    if (memoryPressureThreshold > 0) {
+      throw new IllegalStateException(
+          "Shrinking under memory pressure is only supported by sparse caches.");
+    }
+    if (cacheGroup != null) {
+      throw new IllegalStateException("A cache group is only supported by sparse caches.");
+    }
     final int bucketSize = this.bucketSize > 0 ? this.bucketSize : DEFAULT_PACKED_BUCKET_SIZE;
     final int maxCollisions = Integer.highestOneBit(bucketSize - 1) << 1;
     final int maxCollisionsShift = Integer.numberOfTrailingZeros(maxCollisions);
-    final AtomicLogCounters counters = AtomicLogCounters.create(
-        Integer.highestOneBit(capacity - 1) << 1, initCount, maxCounterVal);
+    final AtomicLogCounters counters = createCounters(
+        Integer.highestOneBit(capacity - 1) << 1, maxCollisions);
+    final ExpiryTimes<K, V> expiryTimes = createExpiryTimes(counters.getNumCounters(), expiry,
+        mapper);
     final int hashTableLength = counters.getNumCounters() >> maxCollisionsShift;
+    if (overflowStashSize > 0) {
+      if (!isStoreKeys()) {
+        throw new IllegalStateException("An overflow stash requires storing keys.");
+      }
+      if (expiryTimes != null) {
+        throw new IllegalStateException("Expiration is not supported with an overflow stash.");
+      }
+      if (twoChoicePlacement) {
+        throw new IllegalStateException(
+            "An overflow stash is not supported with two-choice placement.");
+      }
+    }
+    if (twoChoicePlacement) {
+      if (!isStoreKeys()) {
+        throw new IllegalStateException("Two-choice placement requires storing keys.");
+      }
+      if (expiryTimes != null) {
+        throw new IllegalStateException("Expiration is not supported with two-choice placement.");
+      }
+      final KeyVal<K, V>[][] hashTable = createEntryHashTable(hashTableLength, maxCollisions);
+      return new TwoChoiceCollisionCache<>(
+          maxCollisionsShift,
+          hashTable,
+          createEntryGetBucket(hashTable, maxCollisionsShift),
+          counters,
+          hashCoder, createStatsCounter(sharedStats, counters), loader, mapper);
+    }
     if (isStoreKeys()) {
       final KeyVal<K, V>[][] hashTable = createEntryHashTable(hashTableLength, maxCollisions);
       return new PackedEntryCollisionCache<>(
@@ -129,7 +364,9 @@ public final class CollisionBuilder<V> {
           hashTable,
           createEntryGetBucket(hashTable, maxCollisionsShift),
           counters,
-          hashCoder, loader, mapper);
+          expiryTimes,
+          createOverflowStash(),
+          hashCoder, createStatsCounter(sharedStats, counters), loader, mapper);
     }
     final V[][] hashTable = createHashTable(hashTableLength, maxCollisions);
     return new PackedCollisionCache<>(
@@ -138,7 +375,69 @@ public final class CollisionBuilder<V> {
         hashTable,
         createGetBucket(hashTable, maxCollisionsShift),
         counters,
-        hashCoder, isValForKey, loader, mapper);
+        expiryTimes,
+        hashCoder, isValForKey, createStatsCounter(sharedStats, counters), loader, mapper);
+  }
+
+  private StatsCounter createStatsCounter(final StatsCounter sharedStats,
+      final AtomicLogCounters counters) {
+    return sharedStats == null ? createStatsCounter(counters) : sharedStats;
+  }
+
+  private StatsCounter createStatsCounter(final AtomicLogCounters counters) {
+    final StatsCounter recorded = recordStats
+        ? new ConcurrentStatsCounter() : StatsCounter.DISABLED;
+    final StatsCounter stats = adaptiveCounters
+        ? new AdaptiveStatsCounter(counters, initCount, maxCounterVal, recorded) : recorded;
+    return recordEvents && isFlightRecorderPresent()
+        ? new FlightRecorderStatsCounter(name, stats) : stats;
+  }
+
+  /**
+   * The jdk.jfr module is optional, so check that it has been resolved before loading any events.
+   */
+  private static boolean isFlightRecorderPresent() {
+    final ModuleLayer layer = CollisionBuilder.class.getModule().getLayer();
+    return (layer == null ? ModuleLayer.boot() : layer).findModule("jdk.jfr").isPresent();
+  }
+
+  /**
+   * The java.management module is optional, so check that it has been resolved before listening
+   * for memory pressure.
+   */
+  private static boolean isManagementPresent() {
+    final ModuleLayer layer = CollisionBuilder.class.getModule().getLayer();
+    return (layer == null ? ModuleLayer.boot() : layer).findModule("java.management").isPresent();
+  }
+
+  private AtomicLogCounters createCounters(final int numCounters, final int maxCollisions) {
+    final AtomicLogCounters counters = AtomicLogCounters.create(counterBits, numCounters,
+        paddedCounters ? maxCollisions : 0, initCount, maxCounterVal, counterSampleRate);
+    if (counterAgingPeriod != null) {
+      counters.setAgingPeriod(counterAgingPeriod.toNanos());
+    }
+    return counters;
+  }
+
+  private <K> OverflowStash<K, V> createOverflowStash() {
+    return overflowStashSize == 0 ? null : new OverflowStash<>(AtomicLogCounters.create(
+        counterBits, overflowStashSize, 0, initCount, maxCounterVal, counterSampleRate));
+  }
+
+  private <K> ExpiryTimes<K, V> createExpiryTimes(final int numCounters,
+      final Expiry<K, V> expiry, final BiFunction<K, ?, V> mapper) {
+    if ((refreshAfterWrite != null || staleGrace != null) && mapper == null) {
+      throw new IllegalStateException("A loader is needed to refresh entries.");
+    }
+    if (cacheNulls && (expiry != null || negativeTtl != null)
+        && (expiry == null || expireAfterWrite == null)) {
+      // Null entries must never reach a user supplied expiry.
+      return ExpiryTimes.create(numCounters, null, expireAfterAccess,
+          NullCachingCollisionCache.wrapExpiry(expiry, expireAfterWrite, negativeTtl),
+          refreshAfterWrite, staleGrace, refreshExecutor, earlyRecomputeBeta);
+    }
+    return ExpiryTimes.create(numCounters, expireAfterWrite, expireAfterAccess, expiry,
+        refreshAfterWrite, staleGrace, refreshExecutor, earlyRecomputeBeta);
   }
 
   @SuppressWarnings("unchecked")
@@ -175,26 +474,37 @@ public final class CollisionBuilder<V> {
     if (valueType == null) {
       throw new IllegalStateException("valueType needed.");
     }
+    final Class<?> slotType = getSlotType();
     if (lazyInitBuckets) {
-      final Class<?> valueArrayType = Array.newInstance(valueType, 0).getClass();
+      final Class<?> valueArrayType = Array.newInstance(slotType, 0).getClass();
       return (V[][]) Array.newInstance(valueArrayType, hashTableLength);
     }
-    return (V[][]) Array.newInstance(valueType, hashTableLength, maxCollisions);
+    return (V[][]) Array.newInstance(slotType, hashTableLength, maxCollisions);
+  }
+
+  /**
+   * Keyless caches store {@link NullEntry null entries} directly in value slots.
+   */
+  private Class<?> getSlotType() {
+    return cacheNulls ? Object.class : valueType;
   }
 
   @SuppressWarnings("unchecked")
   private <V> IntFunction<V[]> createGetBucket(final V[][] hashTable,
       final int maxCollisionsShift) {
-    return !lazyInitBuckets ? hash -> hashTable[hash]
-        : hash -> {
-          V[] collisions = hashTable[hash];
-          if (collisions == null) {
-            collisions = (V[]) Array.newInstance(valueType, 1 << maxCollisionsShift);
-            final Object witness = BUCKETS.compareAndExchange(hashTable, hash, null, collisions);
-            return witness == null ? collisions : (V[]) witness;
-          }
-          return collisions;
-        };
+    if (!lazyInitBuckets) {
+      return hash -> hashTable[hash];
+    }
+    final Class<?> slotType = getSlotType();
+    return hash -> {
+      V[] collisions = hashTable[hash];
+      if (collisions == null) {
+        collisions = (V[]) Array.newInstance(slotType, 1 << maxCollisionsShift);
+        final Object witness = BUCKETS.compareAndExchange(hashTable, hash, null, collisions);
+        return witness == null ? collisions : (V[]) witness;
+      }
+      return collisions;
+    };
   }
 
   /**
@@ -220,6 +530,46 @@ public final class CollisionBuilder<V> {
     return new KeyedCollisionBuilder<>(this, isValForKey);
   }
 
+  /**
+   * Sparse caches will limit the total weight of their entries to {@link #setMaximumWeight
+   * maximumWeight} instead of limiting the number of entries to capacity.  Capacity is still used
+   * to size the backing hash table, so it should be set to the expected number of entries.  The
+   * weight of an entry is computed once when it is cached and again when it is evicted, so it must
+   * not change over time.  If keys are not stored the weigher will be passed a null key.
+   *
+   * @param weigher computes the relative weight of an entry, e.g., its size in bytes.
+   * @return {@link KeyedCollisionBuilder KeyedCollisionBuilder} to continue building process.
+   */
+  public <K> KeyedCollisionBuilder<K, V> setWeigher(final ToIntBiFunction<K, V> weigher) {
+    return new KeyedCollisionBuilder<K, V>(this).setWeigher(weigher);
+  }
+
+  /**
+   * Computes a time to live for each entry as it is cached, after it has been loaded and mapped or
+   * put.  Expired entries are detected lazily as they are probed.  Mutually exclusive with
+   * expireAfterWrite and expireAfterAccess.
+   *
+   * @param expiry computes the time to live for an entry.
+   * @return {@link KeyedCollisionBuilder KeyedCollisionBuilder} to continue building process.
+   */
+  public <K> KeyedCollisionBuilder<K, V> setExpiry(final Expiry<K, V> expiry) {
+    return new KeyedCollisionBuilder<K, V>(this).setExpiry(expiry);
+  }
+
+  /**
+   * Consulted on cache misses before invoking a loader, so that definitely absent keys return null
+   * without a load.  The keys of all put values are added to the filter.  See
+   * {@link BlockedBloomFilter BlockedBloomFilter} for a compact built-in filter which can be built
+   * from the full universe of keys.
+   *
+   * @param membershipFilter tests whether a key may exist.
+   * @return {@link KeyedCollisionBuilder KeyedCollisionBuilder} to continue building process.
+   */
+  public <K> KeyedCollisionBuilder<K, V> setMembershipFilter(
+      final MembershipFilter<K> membershipFilter) {
+    return new KeyedCollisionBuilder<K, V>(this).setMembershipFilter(membershipFilter);
+  }
+
   /**
    * Set the loader used to initialize values if missing from the cache.  The loader may return null
    * values, the cache will simply return null as well.  The cache will provide methods to use the
@@ -308,6 +658,110 @@ public final class CollisionBuilder<V> {
     return this;
   }
 
+  public int getCounterSampleRate() {
+    return counterSampleRate;
+  }
+
+  /**
+   * Only attempts to increment the LFU counter for about one in this many hits, scaling the
+   * probability of each increment to compensate.  Hits on popular entries then rarely write to
+   * the shared counter array, which otherwise bounces its cache lines between cores under
+   * read-heavy load.  Rarely accessed entries are ranked less precisely.  Defaults to 1, which
+   * attempts every increment.
+   *
+   * @param counterSampleRate a power of two, e.g. 8 or 16.
+   * @return this builder.
+   */
+  public CollisionBuilder<V> setCounterSampleRate(final int counterSampleRate) {
+    if (counterSampleRate < 1 || Integer.bitCount(counterSampleRate) != 1) {
+      throw new IllegalStateException("The counter sample rate must be a power of two.");
+    }
+    this.counterSampleRate = counterSampleRate;
+    return this;
+  }
+
+  public boolean isPaddedCounters() {
+    return paddedCounters;
+  }
+
+  /**
+   * Gives the LFU counters for each hash bucket their own pair of cache lines, rather than
+   * packing the counters for many neighboring buckets into each line, so that hits on different
+   * buckets never contend for the same line.  Each bucket takes a 128 byte block whatever its
+   * size, so with 8-bit counters this costs {@code 128 / bucketSize} times the counter memory of
+   * the packed layout, e.g. 32 times, or 32 bytes per entry, for a bucket size of 4, and 16 times
+   * for a bucket size of 8.  Building fails if the padded counters would not fit in a single
+   * array, at about 16 million buckets.
+   *
+   * @param paddedCounters true to pad counters.
+   * @return this builder.
+   */
+  public CollisionBuilder<V> setPaddedCounters(final boolean paddedCounters) {
+    this.paddedCounters = paddedCounters;
+    return this;
+  }
+
+  public int getCounterBits() {
+    return counterBits;
+  }
+
+  /**
+   * Sets the width of each LFU counter.  4-bit counters halve the counter memory, which matters
+   * for large sparse caches, but only tell 16 levels of frequency apart.  16-bit counters double
+   * it and rank popular entries more finely for small, hot caches.  Defaults to 8.
+   *
+   * @param counterBits 4, 8 or 16.
+   * @return this builder.
+   */
+  public CollisionBuilder<V> setCounterBits(final int counterBits) {
+    if (counterBits != 4 && counterBits != Byte.SIZE && counterBits != Short.SIZE) {
+      throw new IllegalStateException("Counters must be 4, 8 or 16 bits.");
+    }
+    this.counterBits = counterBits;
+    return this;
+  }
+
+  public Duration getCounterAgingPeriod() {
+    return counterAgingPeriod;
+  }
+
+  /**
+   * Halves every LFU counter once per period, similar to Redis' lfu-decay-time, so that entries
+   * which were popular under a past workload can be evicted by a new one.  Otherwise counters
+   * only decay within a bucket when a new entry is swapped in.  The sweep is amortized across
+   * insertions, each halving at most one chunk of 1,024 counters once it is due.
+   *
+   * @param counterAgingPeriod the time to halve every counter, or null to disable aging.
+   * @return this builder.
+   */
+  public CollisionBuilder<V> setCounterAgingPeriod(final Duration counterAgingPeriod) {
+    if (counterAgingPeriod != null && (counterAgingPeriod.isNegative()
+        || counterAgingPeriod.isZero())) {
+      throw new IllegalStateException("The counter aging period must be > 0.");
+    }
+    this.counterAgingPeriod = counterAgingPeriod;
+    return this;
+  }
+
+  public boolean isAdaptiveCounters() {
+    return adaptiveCounters;
+  }
+
+  /**
+   * Hill climbs the initial counter count and max counter value from a sample of one in 64
+   * requests, starting from the configured values.  Every 1,024 sampled requests one of the two
+   * is stepped, the initial count by one or the max counter value by a factor of two, and the
+   * direction for that parameter is reversed if the hit rate drops over the next window.  Suited
+   * to traffic which shifts, e.g. between day and night, where no static setting is best.
+   *
+   * @param adaptiveCounters true to adapt counter parameters to the workload.
+   * @return this builder.
+   */
+  public CollisionBuilder<V> setAdaptiveCounters(final boolean adaptiveCounters) {
+    this.adaptiveCounters = adaptiveCounters;
+    return this;
+  }
+
   public boolean isLazyInitBuckets() {
     return lazyInitBuckets;
   }
@@ -325,4 +779,460 @@ public final class CollisionBuilder<V> {
     this.storeKeys = storeKeys;
     return this;
   }
+
+  public boolean isTwoChoicePlacement() {
+    return twoChoicePlacement;
+  }
+
+  /**
+   * Hashes each key to two candidate buckets for packed caches, placing new entries in the
+   * emptier of the two and evicting from the one with the lower minimum count once both are
+   * full.  Lookups check both buckets, filtered by a one byte fingerprint per entry, so hits cost
+   * a little more while far fewer entries are evicted before the cache is full.  Requires storing
+   * keys, and does not support expiration.
+   *
+   * @param twoChoicePlacement true to give each key two candidate buckets.
+   * @return this builder.
+   */
+  public CollisionBuilder<V> setTwoChoicePlacement(final boolean twoChoicePlacement) {
+    this.twoChoicePlacement = twoChoicePlacement;
+    return this;
+  }
+
+  public int getOverflowStashSize() {
+    return overflowStashSize;
+  }
+
+  /**
+   * Gives packed caches a small stash shared by all buckets, which entries evicted from a full
+   * bucket move to before being dropped.  Lookups which miss their bucket only scan the stash if
+   * a counting filter indexed by bucket says it may hold entries from that bucket.  A few hundred
+   * slots absorb the overflow of a handful of crowded buckets without growing the bucket size for
+   * every bucket.  Requires storing keys, and does not support expiration.
+   *
+   * @param overflowStashSize the number of stash slots, or 0 to disable the stash.
+   * @return this builder.
+   */
+  public CollisionBuilder<V> setOverflowStashSize(final int overflowStashSize) {
+    if (overflowStashSize < 0) {
+      throw new IllegalStateException("The overflow stash size must be >= 0.");
+    }
+    this.overflowStashSize = overflowStashSize;
+    return this;
+  }
+
+  public boolean isResizable() {
+    return resizable;
+  }
+
+  /**
+   * Allows the capacity to be changed after the cache is built with
+   * {@link CollisionCache#setCapacity setCapacity}.  A resize builds a new hash table and
+   * migrates the buckets of the previous table a chunk at a time as part of normal cache
+   * operations, while lookups check both tables, so that the cache stays warm.  Entries keep
+   * their counters as they move.  Requires storing keys, and does not support expiration,
+   * adaptive counters or two-choice placement.
+   *
+   * @param resizable true to allow the capacity to be changed.
+   * @return this builder.
+   */
+  public CollisionBuilder<V> setResizable(final boolean resizable) {
+    this.resizable = resizable;
+    return this;
+  }
+
+  public double getMemoryPressureThreshold() {
+    return memoryPressureThreshold;
+  }
+
+  public double getMemoryPressureCapacityFactor() {
+    return memoryPressureCapacityFactor;
+  }
+
+  /**
+   * Shrinks sparse caches while the heap is under pressure.  Once the usage of a heap memory pool
+   * which supports usage thresholds, typically the old generation, crosses the given fraction of
+   * its maximum size, capacity is lowered to {@code capacityFactor} of the configured capacity and
+   * the hash table is swept in parallel, decaying counters and dropping the lowest count entries
+   * first until the cache fits.  Capacity is restored once usage after a garbage collection falls
+   * back below the threshold.  Pool thresholds already set by other code are left alone, and
+   * thresholds set for caches are withdrawn once no cache needs them.  Requires the
+   * java.management module, and does not support resizable caches.
+   *
+   * @param usageThreshold the fraction of a heap pool's maximum size above which to shrink, or 0
+   * to disable.
+   * @param capacityFactor the fraction of the configured capacity to keep while shrunk.
+   * @return this builder.
+   */
+  public CollisionBuilder<V> setMemoryPressureThreshold(final double usageThreshold,
+      final double capacityFactor) {
+    if (usageThreshold < 0 || usageThreshold >= 1) {
+      throw new IllegalStateException("The memory pressure threshold must be in [0, 1).");
+    }
+    if (capacityFactor <= 0 || capacityFactor > 1) {
+      throw new IllegalStateException("The memory pressure capacity factor must be in (0, 1].");
+    }
+    this.memoryPressureThreshold = usageThreshold;
+    this.memoryPressureCapacityFactor = capacityFactor;
+    return this;
+  }
+
+  public CacheGroup getCacheGroup() {
+    return cacheGroup;
+  }
+
+  /**
+   * Builds sparse caches as members of a group sharing a single capacity budget.  Admission is
+   * based on the size of the whole group, so a member may grow past its fair share of the group
+   * while other members are not using theirs.  Once the group is over budget, members over their
+   * fair share evict as they write, and the member furthest over its fair share is swept in the
+   * background, dropping its lowest count entries first.  The capacity of each member still
+   * sizes its hash table and bounds its own size.  Does not support resizable caches.
+   *
+   * @param cacheGroup the group to join, or null to not join a group.
+   * @return this builder.
+   */
+  public CollisionBuilder<V> setCacheGroup(final CacheGroup cacheGroup) {
+    this.cacheGroup = cacheGroup;
+    return this;
+  }
+
+  public boolean isCacheNulls() {
+    return cacheNulls;
+  }
+
+  /**
+   * Null results from the registered loader are cached as a sentinel, which is counted and evicted
+   * like any other entry, so that repeated lookups of missing keys do not reach the loader.
+   * Callers still receive null.  Null entries follow the expiration policy of the cache, or never
+   * expire if using a per-entry {@link #setExpiry expiry}, unless a
+   * {@link #setCacheNulls(Duration) negative TTL} is given.  Requires a loader.
+   *
+   * <p>Entry caches share a single sentinel, which is matched by key equality.  Keyless caches
+   * cannot test a sentinel with isValForKey, so they store a sentinel holding only the hash code
+   * of the key.  Any other key with an equal hash code that maps to the same hash bucket then reads
+   * as a cached null, and its loader is not called until the null entry is evicted or expires.
+   * Only enable this for keyless caches if keys with equal hash codes are equal, or if such a
+   * false miss is acceptable.
+   *
+   * @param cacheNulls true to cache null loader results.
+   * @return this {@link CollisionBuilder CollisionBuilder} to continue building process.
+   */
+  public CollisionBuilder<V> setCacheNulls(final boolean cacheNulls) {
+    this.cacheNulls = cacheNulls;
+    if (!cacheNulls) {
+      this.negativeTtl = null;
+    }
+    return this;
+  }
+
+  public Duration getNegativeTtl() {
+    return negativeTtl;
+  }
+
+  /**
+   * Caches null loader results, see {@link #setCacheNulls(boolean) cacheNulls}, with a time to
+   * live separate from the expiration policy for values.  Not supported with expireAfterAccess.
+   *
+   * @param negativeTtl the time to live for cached null results.
+   * @return this {@link CollisionBuilder CollisionBuilder} to continue building process.
+   */
+  public CollisionBuilder<V> setCacheNulls(final Duration negativeTtl) {
+    checkExpiration(negativeTtl);
+    this.cacheNulls = true;
+    this.negativeTtl = negativeTtl;
+    return this;
+  }
+
+  public LoadBulkhead getLoadBulkhead() {
+    return loadBulkhead;
+  }
+
+  /**
+   * Limits concurrent loads across the cache.  Hits never acquire a permit.  Each call to a
+   * loader, including background refreshes and early recomputes, holds a permit, and if none are
+   * available either waits, fails fast with the {@link #setLoadFallback load fallback}, or waits
+   * behind the atomic get path, depending on the {@link LoadBulkhead.Policy policy}.  A refresh
+   * or early recompute which fails fast keeps the current value.
+   *
+   * @param loadBulkhead limits concurrent loads and tracks active loads and queue depth.
+   * @return this {@link CollisionBuilder CollisionBuilder} to continue building process.
+   */
+  public CollisionBuilder<V> setLoadBulkhead(final LoadBulkhead loadBulkhead) {
+    this.loadBulkhead = loadBulkhead;
+    return this;
+  }
+
+  Function<?, V> getLoadFallback() {
+    return loadFallback;
+  }
+
+  void putLoadFallback(final Function<?, V> loadFallback) {
+    this.loadFallback = loadFallback;
+  }
+
+  /**
+   * @param loadFallback computes the value returned for a miss rejected by a
+   * {@link LoadBulkhead.Policy#FAIL_FAST fail fast} bulkhead, the value is not cached.  Null is
+   * returned if not set.
+   * @return {@link KeyedCollisionBuilder KeyedCollisionBuilder} to continue building process.
+   */
+  public <K> KeyedCollisionBuilder<K, V> setLoadFallback(final Function<K, V> loadFallback) {
+    return new KeyedCollisionBuilder<K, V>(this).setLoadFallback(loadFallback);
+  }
+
+  public boolean isRecordStats() {
+    return recordStats;
+  }
+
+  /**
+   * Records hits, misses, loads, load time, evictions and rejected admissions, readable through
+   * {@link CollisionCache#stats() stats}.  Counters are striped to limit contention, and caches
+   * which do not record statistics use an empty counter implementation rather than checking a
+   * flag.
+   *
+   * @param recordStats true to record statistics.
+   * @return this {@link CollisionBuilder CollisionBuilder} to continue building process.
+   */
+  public CollisionBuilder<V> setRecordStats(final boolean recordStats) {
+    this.recordStats = recordStats;
+    return this;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @param name identifies the cache in {@link #setRecordEvents recorded events}.
+   * @return this {@link CollisionBuilder CollisionBuilder} to continue building process.
+   */
+  public CollisionBuilder<V> setName(final String name) {
+    this.name = name;
+    return this;
+  }
+
+  public boolean isRecordEvents() {
+    return recordEvents;
+  }
+
+  /**
+   * Emits JDK Flight Recorder events for loads slower than 20ms, a sample of evictions with the
+   * counter value of the evicted entry, and waits of 100us or more to synchronize on a hash
+   * bucket.  Events carry the cache {@link #setName name}, and the load threshold may be
+   * overridden in the recording settings.  While a recording is not running, or if the jdk.jfr
+   * module is not present, the cost is negligible.
+   *
+   * @param recordEvents true to emit JDK Flight Recorder events.
+   * @return this {@link CollisionBuilder CollisionBuilder} to continue building process.
+   */
+  public CollisionBuilder<V> setRecordEvents(final boolean recordEvents) {
+    this.recordEvents = recordEvents;
+    return this;
+  }
+
+  public Duration getHedgeDelay() {
+    return hedgeDelay;
+  }
+
+  public double getHedgePercentile() {
+    return hedgePercentile;
+  }
+
+  public Executor getHedgeExecutor() {
+    return hedgeExecutor;
+  }
+
+  /**
+   * Hedges loads to cut tail latency.  Loads run on the executor while the caller waits, and if a
+   * load has not completed after {@code hedgeDelay} a second load of the same key is issued.  The
+   * first result wins, is installed and is returned to the caller.  Concurrent loads of a key join
+   * the load in flight, so a key never has more than one load and one hedge in flight.  Only the
+   * loader registered with the builder is hedged.  The executor should have a thread for each
+   * concurrent load and hedge, and a load it rejects runs on the calling thread.
+   *
+   * @param hedgeDelay how long to wait on a load before hedging it.
+   * @param executor runs loads and hedges.
+   * @return this {@link CollisionBuilder CollisionBuilder} to continue building process.
+   */
+  public CollisionBuilder<V> setHedgedLoads(final Duration hedgeDelay, final Executor executor) {
+    if (hedgeDelay == null || hedgeDelay.isNegative() || hedgeDelay.isZero()) {
+      throw new IllegalStateException("Hedge delay must be > 0.");
+    }
+    if (executor == null) {
+      throw new IllegalStateException("A hedge executor is needed.");
+    }
+    this.hedgeDelay = hedgeDelay;
+    this.hedgePercentile = 0;
+    this.hedgeExecutor = executor;
+    return this;
+  }
+
+  /**
+   * Hedges loads, see {@link #setHedgedLoads(Duration, Executor) hedgedLoads}, once they take
+   * longer than the given percentile of recent load latencies.  Latencies are tracked in power of
+   * two buckets and loads are not hedged until enough latencies have been recorded.
+   *
+   * @param percentile the load latency percentile to hedge after, e.g., 0.95.
+   * @param executor runs loads and hedges.
+   * @return this {@link CollisionBuilder CollisionBuilder} to continue building process.
+   */
+  public CollisionBuilder<V> setHedgedLoads(final double percentile, final Executor executor) {
+    if (!(percentile > 0 && percentile < 1)) {
+      throw new IllegalStateException("Hedge percentile must be > 0 and < 1.");
+    }
+    if (executor == null) {
+      throw new IllegalStateException("A hedge executor is needed.");
+    }
+    this.hedgeDelay = null;
+    this.hedgePercentile = percentile;
+    this.hedgeExecutor = executor;
+    return this;
+  }
+
+  public long getMaximumWeight() {
+    return maximumWeight;
+  }
+
+  /**
+   * @param maximumWeight the maximum total weight of all entries for sparse caches configured with
+   * a weigher.
+   * @return this {@link CollisionBuilder CollisionBuilder} to continue building process.
+   */
+  public CollisionBuilder<V> setMaximumWeight(final long maximumWeight) {
+    if (maximumWeight <= 0) {
+      throw new IllegalStateException("Maximum weight must be > 0.");
+    }
+    this.maximumWeight = maximumWeight;
+    return this;
+  }
+
+  public Duration getExpireAfterWrite() {
+    return expireAfterWrite;
+  }
+
+  /**
+   * Entries will expire once this duration has elapsed since they were written.  Expired entries
+   * are detected lazily as they are probed; a get will load a new value, getIfPresent will return
+   * null, and expired entries are the first to be evicted.  Expiration is tracked with a precision
+   * of ~67ms and is mutually exclusive with {@link #setExpireAfterAccess expireAfterAccess} and
+   * {@link #setExpiry expiry}.
+   *
+   * @param expireAfterWrite the time to live for each entry after it is written.
+   * @return this {@link CollisionBuilder CollisionBuilder} to continue building process.
+   */
+  public CollisionBuilder<V> setExpireAfterWrite(final Duration expireAfterWrite) {
+    checkExpiration(expireAfterWrite);
+    this.expireAfterWrite = expireAfterWrite;
+    return this;
+  }
+
+  public Duration getExpireAfterAccess() {
+    return expireAfterAccess;
+  }
+
+  /**
+   * Entries will expire once this duration has elapsed since they were last written or read.
+   * Expired entries are detected lazily as they are probed; a get will load a new value,
+   * getIfPresent will return null, and expired entries are the first to be evicted.  Expiration is
+   * tracked with a precision of ~67ms and is mutually exclusive with
+   * {@link #setExpireAfterWrite expireAfterWrite} and {@link #setExpiry expiry}.
+   *
+   * @param expireAfterAccess the time to live for each entry after it is last accessed.
+   * @return this {@link CollisionBuilder CollisionBuilder} to continue building process.
+   */
+  public CollisionBuilder<V> setExpireAfterAccess(final Duration expireAfterAccess) {
+    checkExpiration(expireAfterAccess);
+    this.expireAfterAccess = expireAfterAccess;
+    return this;
+  }
+
+  public Duration getRefreshAfterWrite() {
+    return refreshAfterWrite;
+  }
+
+  public Executor getRefreshExecutor() {
+    return refreshExecutor;
+  }
+
+  /**
+   * Entries will be reloaded in the background once this duration has elapsed since they were
+   * written.  A get, getAggressive or getIfPresent hit on an entry past its refresh deadline
+   * returns the current value immediately and submits a single reload per key to the executor.
+   * The reloaded value is installed with {@link CollisionCache#replace replace} semantics, so
+   * entries evicted in the meantime are not re-cached.  Requires a loader.
+   *
+   * @param refreshAfterWrite the time after an entry is written that it should be reloaded.
+   * @param executor runs reloads.
+   * @return this {@link CollisionBuilder CollisionBuilder} to continue building process.
+   */
+  public CollisionBuilder<V> setRefreshAfterWrite(final Duration refreshAfterWrite,
+      final Executor executor) {
+    checkExpiration(refreshAfterWrite);
+    if (executor == null) {
+      throw new IllegalStateException("A refresh executor is needed.");
+    }
+    this.refreshAfterWrite = refreshAfterWrite;
+    this.refreshExecutor = executor;
+    return this;
+  }
+
+  public Duration getStaleGrace() {
+    return staleGrace;
+  }
+
+  /**
+   * Keeps serving expired values for a grace period while they are reloaded in the background.  A
+   * get, getAggressive or getIfPresent hit on an entry that expired less than {@code staleGrace}
+   * ago returns the stale value immediately and submits a single reload per key to the executor.
+   * If the reload throws or returns null the stale value is left in place and continues to be
+   * served, and reloaded, until the grace period ends.  Loader timeouts should be enforced by the
+   * loader itself.  Stale entries are still the first to be evicted.  Requires a loader and an
+   * expiration policy, and shares its executor with
+   * {@link #setRefreshAfterWrite refreshAfterWrite}.
+   *
+   * @param staleGrace how long after expiring that a value may still be served.
+   * @param executor runs reloads.
+   * @return this {@link CollisionBuilder CollisionBuilder} to continue building process.
+   */
+  public CollisionBuilder<V> setStaleWhileRevalidate(final Duration staleGrace,
+      final Executor executor) {
+    checkExpiration(staleGrace);
+    if (executor == null) {
+      throw new IllegalStateException("A refresh executor is needed.");
+    }
+    this.staleGrace = staleGrace;
+    this.refreshExecutor = executor;
+    return this;
+  }
+
+  public double getEarlyRecomputeBeta() {
+    return earlyRecomputeBeta;
+  }
+
+  /**
+   * Enables probabilistic early recomputation to prevent stampedes of loads as popular entries
+   * expire.  Each get hit on an expiring entry randomly decides to recompute its value ahead of
+   * its deadline, with a probability that rises as the deadline approaches and scales with the
+   * measured time it takes to load a value.  If a {@link #setRefreshAfterWrite refresh executor}
+   * is configured the value is reloaded in the background, otherwise the caller reloads it and
+   * returns the new value.  Requires an expiration policy.
+   *
+   * @param beta scales how early values are recomputed, 1.0 is a good default and values greater
+   *             than one favor earlier recomputation.
+   * @return this {@link CollisionBuilder CollisionBuilder} to continue building process.
+   */
+  public CollisionBuilder<V> setEarlyRecomputeBeta(final double beta) {
+    if (!(beta > 0)) {
+      throw new IllegalStateException("Early recompute beta must be > 0.");
+    }
+    this.earlyRecomputeBeta = beta;
+    return this;
+  }
+
+  private static void checkExpiration(final Duration duration) {
+    if (duration == null || duration.isNegative() || duration.isZero()) {
+      throw new IllegalStateException("Expiration duration must be > 0.");
+    }
+  }
 }
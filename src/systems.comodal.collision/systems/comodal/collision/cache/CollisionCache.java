@@ -1,5 +1,6 @@
 package systems.comodal.collision.cache;
 
+import java.util.List;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
@@ -142,4 +143,47 @@ public interface CollisionCache<K, V> {
    * Sets all hash table bucket slots to null.
    */
   void clear();
+
+  /**
+   * Reads hit, miss, load and eviction counts, which are only recorded if enabled with
+   * {@link CollisionBuilder#setRecordStats recordStats}.  Hits include getIfPresent hits, but
+   * getIfPresent misses are not counted, as it is also used to probe before loading.  Background
+   * refreshes are not counted.
+   *
+   * @return a snapshot of the statistics for this cache, all zero if not recording.
+   */
+  CacheStats stats();
+
+  /**
+   * Scans the hash table in parallel to report how entries are distributed across buckets and
+   * how their counters are distributed.  Intended for tuning, the scan visits every bucket.
+   *
+   * @return a snapshot of the hash table's occupancy.
+   */
+  CacheDiagnostics diagnostics();
+
+  /**
+   * Scans the hash table in parallel for the entries with the highest LFU counters, keeping a
+   * bounded heap of K entries per thread.  Expired entries are skipped.  Like
+   * {@link #diagnostics() diagnostics} the scan visits every bucket, see {@link HotKeySampler} to
+   * repeat it periodically.
+   *
+   * @param k the maximum number of entries to return.
+   * @return up to K entries in descending order of their counters, with null keys if this cache
+   * does not store keys.
+   */
+  List<HotEntry<K, V>> hotEntries(final int k);
+
+  /**
+   * Grows or shrinks the cache to a new capacity without dropping its entries.  Buckets of the
+   * previous hash table are migrated to the new one by subsequent cache operations, while lookups
+   * check both tables.  If a previous resize is still migrating, it is completed first.  Only
+   * supported by caches built with {@link CollisionBuilder#setResizable resizable}.
+   *
+   * @param capacity the new capacity.
+   * @throws UnsupportedOperationException if this cache is not resizable.
+   */
+  default void setCapacity(final int capacity) {
+    throw new UnsupportedOperationException("Only resizable caches can change capacity.");
+  }
 }
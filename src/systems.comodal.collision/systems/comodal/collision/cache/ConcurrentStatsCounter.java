@@ -0,0 +1,89 @@
+package systems.comodal.collision.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Records cache statistics with striped {@link LongAdder LongAdders} to keep contention between
+ * threads low.
+ *
+ * @author James P. Edwards
+ */
+final class ConcurrentStatsCounter implements StatsCounter {
+
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+  private final LongAdder loadSuccessCount = new LongAdder();
+  private final LongAdder loadFailureCount = new LongAdder();
+  private final LongAdder loadNullCount = new LongAdder();
+  private final LongAdder totalLoadNanos = new LongAdder();
+  private final LongAdder evictionCount = new LongAdder();
+  private final LongAdder rejectedAdmissionCount = new LongAdder();
+
+  @Override
+  public void recordHit() {
+    hitCount.increment();
+  }
+
+  @Override
+  public void recordMiss() {
+    missCount.increment();
+  }
+
+  @Override
+  public <K, I> I load(final K key, final Function<K, I> loader) {
+    missCount.increment();
+    return reload(key, loader);
+  }
+
+  @Override
+  public <K, I> I reload(final K key, final Function<K, I> loader) {
+    final long start = System.nanoTime();
+    LongAdder outcome = loadFailureCount;
+    try {
+      final I val = loader.apply(key);
+      outcome = val == null ? loadNullCount : loadSuccessCount;
+      return val;
+    } finally {
+      totalLoadNanos.add(System.nanoTime() - start);
+      outcome.increment();
+    }
+  }
+
+  @Override
+  public void recordEviction(final int count) {
+    evictionCount.increment();
+  }
+
+  @Override
+  public void recordRejectedAdmission() {
+    rejectedAdmissionCount.increment();
+  }
+
+  @Override
+  public long lockRequested() {
+    return 0;
+  }
+
+  @Override
+  public void lockAcquired(final int bucket, final long lockRequested) {
+  }
+
+  @Override
+  public CacheStats snapshot() {
+    return new CacheStats(
+        hitCount.sum(),
+        missCount.sum(),
+        loadSuccessCount.sum(),
+        loadFailureCount.sum(),
+        loadNullCount.sum(),
+        totalLoadNanos.sum(),
+        evictionCount.sum(),
+        rejectedAdmissionCount.sum());
+  }
+
+  @Override
+  public String toString() {
+    return snapshot().toString();
+  }
+}
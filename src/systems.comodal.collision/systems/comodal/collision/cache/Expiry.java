@@ -0,0 +1,24 @@
+package systems.comodal.collision.cache;
+
+/**
+ * Computes a time to live for each entry as it is cached, allowing entries with different freshness
+ * requirements to share a single cache.
+ *
+ * @param <K> the type of keys used to map to values
+ * @param <V> the type of mapped values
+ * @author James P. Edwards
+ */
+@FunctionalInterface
+public interface Expiry<K, V> {
+
+  /**
+   * Called once each time a value is cached, after it has been loaded and mapped or put.  The
+   * returned duration is rounded up to the ~67ms precision at which expiration is tracked.
+   *
+   * @param key used for table hash and stored key/value equality.
+   * @param val the newly cached value.
+   * @return the number of nanoseconds until the entry expires.  Values less than or equal to zero
+   * expire the entry immediately, and {@link Long#MAX_VALUE} indicates that it never expires.
+   */
+  long expireAfterWrite(final K key, final V val);
+}
@@ -0,0 +1,282 @@
+package systems.comodal.collision.cache;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Coarse expiration and refresh deadlines for each cache slot, indexed in parallel with the
+ * {@link AtomicLogCounters counters}.  Deadlines are stored as unsigned 32-bit ticks since the
+ * creation of this instance, where a tick is 2^26 nanoseconds (~67ms), allowing roughly nine years
+ * of uptime before ticks wrap.
+ *
+ * @param <K> the type of keys used to map to values
+ * @param <V> the type of mapped values
+ * @author James P. Edwards
+ */
+final class ExpiryTimes<K, V> {
+
+  static final int TICK_SHIFT = 26;
+  static final long MAX_TICKS = 0xffffffffL;
+  static final int NEVER = (int) MAX_TICKS;
+
+  private static final VarHandle DEADLINES = MethodHandles.arrayElementVarHandle(int[].class);
+
+  private final long start;
+  private final int[] deadlines;
+  private final int writeTicks;
+  private final int accessTicks;
+  private final Expiry<K, V> expiry;
+  private final int[] refreshes;
+  private final int refreshTicks;
+  private final Executor refreshExecutor;
+  private final Set<K> refreshing;
+  private final long graceTicks;
+  private final double earlyRecomputeBeta;
+  private volatile long loadNanos;
+
+  private ExpiryTimes(final int numSlots, final boolean expires, final int writeTicks,
+      final int accessTicks, final Expiry<K, V> expiry, final Duration refreshAfterWrite,
+      final Duration staleGrace, final Executor refreshExecutor,
+      final double earlyRecomputeBeta) {
+    this.start = System.nanoTime();
+    this.deadlines = expires ? new int[numSlots] : null;
+    this.writeTicks = writeTicks;
+    this.accessTicks = accessTicks;
+    this.expiry = expiry;
+    if (refreshAfterWrite == null) {
+      this.refreshes = null;
+      this.refreshTicks = 0;
+    } else {
+      this.refreshes = new int[numSlots];
+      this.refreshTicks = toTicks(refreshAfterWrite);
+    }
+    this.graceTicks = staleGrace == null ? 0 : Integer.toUnsignedLong(toTicks(staleGrace));
+    if (refreshes == null && graceTicks == 0) {
+      this.refreshExecutor = null;
+      this.refreshing = null;
+    } else {
+      this.refreshExecutor = refreshExecutor;
+      this.refreshing = ConcurrentHashMap.newKeySet();
+    }
+    this.earlyRecomputeBeta = earlyRecomputeBeta;
+  }
+
+  static <K, V> ExpiryTimes<K, V> create(final int numSlots, final Duration expireAfterWrite,
+      final Duration expireAfterAccess, final Expiry<K, V> expiry,
+      final Duration refreshAfterWrite, final Duration staleGrace,
+      final Executor refreshExecutor, final double earlyRecomputeBeta) {
+    if ((expireAfterWrite == null ? 0 : 1) + (expireAfterAccess == null ? 0 : 1)
+        + (expiry == null ? 0 : 1) > 1) {
+      throw new IllegalStateException(
+          "expireAfterWrite, expireAfterAccess and expiry are mutually exclusive.");
+    }
+    final boolean expires = expireAfterWrite != null || expireAfterAccess != null
+        || expiry != null;
+    if (!expires) {
+      if (earlyRecomputeBeta > 0) {
+        throw new IllegalStateException("An expiration policy is needed to recompute early.");
+      }
+      if (staleGrace != null) {
+        throw new IllegalStateException("An expiration policy is needed to serve stale values.");
+      }
+      if (refreshAfterWrite == null) {
+        return null;
+      }
+    }
+    final int writeTicks = expireAfterWrite != null ? toTicks(expireAfterWrite)
+        : expireAfterAccess != null ? toTicks(expireAfterAccess)
+        : expiry != null ? 0 : NEVER;
+    final int accessTicks = expireAfterAccess == null ? 0 : writeTicks;
+    return new ExpiryTimes<>(numSlots, expires, writeTicks, accessTicks, expiry,
+        refreshAfterWrite, staleGrace, refreshExecutor, earlyRecomputeBeta);
+  }
+
+  static int toTicks(final Duration duration) {
+    try {
+      return toTicks(duration.toNanos());
+    } catch (final ArithmeticException ex) {
+      return NEVER;
+    }
+  }
+
+  /**
+   * Rounds up to the nearest tick, plus one to account for the truncation of the current tick, so
+   * that entries never expire early.
+   *
+   * @param nanos the time to live, zero or less expires immediately.
+   * @return the time to live in ticks.
+   */
+  static int toTicks(final long nanos) {
+    if (nanos <= 0) {
+      return 0;
+    }
+    if (nanos >= MAX_TICKS << TICK_SHIFT) {
+      return NEVER;
+    }
+    final long ticks = ((nanos + (1L << TICK_SHIFT) - 1) >>> TICK_SHIFT) + 1;
+    return ticks >= MAX_TICKS ? NEVER : (int) ticks;
+  }
+
+  int now() {
+    return (int) ((System.nanoTime() - start) >>> TICK_SHIFT);
+  }
+
+  private int deadline(final int ticks) {
+    if (ticks == NEVER) {
+      return NEVER;
+    }
+    final long deadline = Integer.toUnsignedLong(now()) + ticks;
+    return deadline >= MAX_TICKS ? NEVER : (int) deadline;
+  }
+
+  /**
+   * Sets the deadlines for a newly written slot.
+   *
+   * @param index slot index, same as its counter index.
+   * @param key the key for the value written.
+   * @param val the value written.
+   */
+  void written(final int index, final K key, final V val) {
+    if (deadlines != null) {
+      final int ticks = expiry == null ? writeTicks : toTicks(expiry.expireAfterWrite(key, val));
+      DEADLINES.setOpaque(deadlines, index, deadline(ticks));
+    }
+    if (refreshes != null) {
+      DEADLINES.setOpaque(refreshes, index, deadline(refreshTicks));
+    }
+  }
+
+  /**
+   * Extends the deadline for a slot if configured to expire after access.
+   *
+   * @param index slot index, same as its counter index.
+   */
+  void accessed(final int index) {
+    if (accessTicks > 0) {
+      DEADLINES.setOpaque(deadlines, index, deadline(accessTicks));
+    }
+  }
+
+  boolean isExpired(final int index) {
+    return deadlines != null
+        && Integer.compareUnsigned(now(), (int) DEADLINES.getOpaque(deadlines, index)) >= 0;
+  }
+
+  boolean isRefreshDue(final int index) {
+    return refreshes != null
+        && Integer.compareUnsigned(now(), (int) DEADLINES.getOpaque(refreshes, index)) >= 0;
+  }
+
+  /**
+   * Only valid for slots which have expired.
+   *
+   * @param index slot index, same as its counter index.
+   * @return true if an expired slot is still within its stale grace period.
+   */
+  boolean isStale(final int index) {
+    return graceTicks > 0 && Integer.toUnsignedLong(now())
+        < Integer.toUnsignedLong((int) DEADLINES.getOpaque(deadlines, index)) + graceTicks;
+  }
+
+  boolean isRefreshing() {
+    return refreshes != null;
+  }
+
+  boolean isMeasuringLoads() {
+    return earlyRecomputeBeta > 0;
+  }
+
+  /**
+   * Records the duration of a load in an exponentially weighted moving average.  Concurrent
+   * updates may be lost, which is acceptable for an estimate.
+   *
+   * @param nanos the duration of a load.
+   */
+  void recordLoad(final long nanos) {
+    final long avg = loadNanos;
+    loadNanos = avg == 0 ? nanos : avg + ((nanos - avg) >> 3);
+  }
+
+  /**
+   * Probabilistic early expiration, "XFetch" from Vattani et al., Optimal Probabilistic Cache
+   * Stampede Prevention.  A value is recomputed early if
+   * {@code now - loadNanos * beta * ln(random) >= deadline}, so the probability increases as the
+   * deadline approaches and with the time it takes to recompute a value.
+   *
+   * @param index slot index, same as its counter index.
+   * @return true if the value for this slot should be recomputed.
+   */
+  boolean isEarlyRecompute(final int index) {
+    if (earlyRecomputeBeta <= 0) {
+      return false;
+    }
+    final int deadline = (int) DEADLINES.getOpaque(deadlines, index);
+    if (deadline == NEVER) {
+      return false;
+    }
+    final long remainingNanos = (Integer.toUnsignedLong(deadline)
+        - Integer.toUnsignedLong(now())) << TICK_SHIFT;
+    return remainingNanos
+        <= -loadNanos * earlyRecomputeBeta * Math.log(ThreadLocalRandom.current().nextDouble());
+  }
+
+  /**
+   * Asynchronously reloads the value for a key unless a reload is already in flight for it.
+   *
+   * @param key the key to reload.
+   * @param reload loads and replaces the value for the key.
+   */
+  void refresh(final K key, final Consumer<K> reload) {
+    if (!refreshing.add(key)) {
+      return;
+    }
+    try {
+      refreshExecutor.execute(() -> {
+        try {
+          reload.accept(key);
+        } finally {
+          refreshing.remove(key);
+        }
+      });
+    } catch (final RejectedExecutionException ex) {
+      refreshing.remove(key);
+    }
+  }
+
+  /**
+   * Used when an entry is shifted within its bucket after a removal.
+   */
+  void move(final int from, final int to) {
+    if (deadlines != null) {
+      DEADLINES.setOpaque(deadlines, to, (int) DEADLINES.getOpaque(deadlines, from));
+    }
+    if (refreshes != null) {
+      DEADLINES.setOpaque(refreshes, to, (int) DEADLINES.getOpaque(refreshes, from));
+    }
+  }
+
+  /**
+   * @return the estimated bytes retained by expiration and refresh deadlines.
+   */
+  long estimatedBytes() {
+    return (deadlines == null ? 0 : CacheDiagnostics.arrayBytes(deadlines.length, Integer.BYTES))
+        + (refreshes == null ? 0 : CacheDiagnostics.arrayBytes(refreshes.length, Integer.BYTES));
+  }
+
+  @Override
+  public String toString() {
+    return "ExpiryTimes{writeTicks=" + writeTicks
+        + ", accessTicks=" + accessTicks
+        + ", expiry=" + expiry
+        + ", refreshTicks=" + refreshTicks
+        + ", graceTicks=" + graceTicks
+        + ", earlyRecomputeBeta=" + earlyRecomputeBeta + '}';
+  }
+}
@@ -0,0 +1,185 @@
+package systems.comodal.collision.cache;
+
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Gates loaders with a {@link MembershipFilter MembershipFilter}, so that misses for definitely
+ * absent keys return null without a load, and adds the keys of all put values to the filter.
+ *
+ * @param <K> the type of keys used to map to values
+ * @param <L> the type of loaded values before being mapped to type V
+ * @param <V> the type of mapped values
+ * @author James P. Edwards
+ */
+final class FilteredCollisionCache<K, L, V> implements LoadingCollisionCache<K, L, V> {
+
+  private final LoadingCollisionCache<K, L, V> delegate;
+  private final MembershipFilter<K> filter;
+
+  FilteredCollisionCache(final LoadingCollisionCache<K, L, V> delegate,
+      final MembershipFilter<K> filter) {
+    this.delegate = delegate;
+    this.filter = filter;
+  }
+
+  /**
+   * The delegate cache should be built with the returned loader.
+   *
+   * @param loader the registered loader.
+   * @param filter consulted before each load.
+   * @return a loader which returns null without loading definitely absent keys.
+   */
+  static <K, L> Function<K, L> gateLoader(final Function<K, L> loader,
+      final MembershipFilter<K> filter) {
+    return key -> filter.mightContain(key) ? loader.apply(key) : null;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V getAggressive(final K key, final Function<K, L> loader) {
+    return delegate.getAggressive(key, gateLoader(loader, filter));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V get(final K key) {
+    return delegate.get(key);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V get(final K key, final Function<K, V> loadAndMap) {
+    return delegate.get(key, gateLoader(loadAndMap, filter));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V getAggressive(final K key) {
+    return delegate.getAggressive(key);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <I> V getAggressive(final K key, final Function<K, I> loader,
+      final BiFunction<K, I, V> mapper) {
+    return delegate.getAggressive(key, gateLoader(loader, filter), mapper);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V putReplace(final K key, final V val) {
+    filter.add(key);
+    return delegate.putReplace(key, val);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V replace(final K key, final V val) {
+    filter.add(key);
+    return delegate.replace(key, val);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V putIfAbsent(final K key, final V val) {
+    filter.add(key);
+    return delegate.putIfAbsent(key, val);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V putIfSpaceAbsent(final K key, final V val) {
+    filter.add(key);
+    return delegate.putIfSpaceAbsent(key, val);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V putIfSpaceReplace(final K key, final V val) {
+    filter.add(key);
+    return delegate.putIfSpaceReplace(key, val);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V getIfPresent(final K key) {
+    return delegate.getIfPresent(key);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean remove(final K key) {
+    return delegate.remove(key);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public CacheStats stats() {
+    return delegate.stats();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public CacheDiagnostics diagnostics() {
+    return delegate.diagnostics();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public List<HotEntry<K, V>> hotEntries(final int k) {
+    return delegate.hotEntries(k);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void setCapacity(final int capacity) {
+    delegate.setCapacity(capacity);
+  }
+
+  @Override
+  public String toString() {
+    return "FilteredCollisionCache{filter=" + filter + ", delegate=" + delegate + '}';
+  }
+}
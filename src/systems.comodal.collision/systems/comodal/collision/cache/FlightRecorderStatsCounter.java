@@ -0,0 +1,168 @@
+package systems.comodal.collision.cache;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Emits JDK Flight Recorder events for slow loads, a sample of evictions, and waits to
+ * synchronize on hash buckets, then delegates to another counter.  While the events are not
+ * enabled in a recording their checks are compiled away, leaving only the delegate's cost.
+ *
+ * @author James P. Edwards
+ */
+final class FlightRecorderStatsCounter implements StatsCounter {
+
+  private static final int EVICTION_SAMPLE_MASK = 64 - 1;
+  private static final long CONTENTION_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  private final String cacheName;
+  private final StatsCounter delegate;
+
+  FlightRecorderStatsCounter(final String cacheName, final StatsCounter delegate) {
+    this.cacheName = cacheName;
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void recordHit() {
+    delegate.recordHit();
+  }
+
+  @Override
+  public void recordMiss() {
+    delegate.recordMiss();
+  }
+
+  @Override
+  public <K, I> I load(final K key, final Function<K, I> loader) {
+    return load(key, loader, false);
+  }
+
+  @Override
+  public <K, I> I reload(final K key, final Function<K, I> loader) {
+    return load(key, loader, true);
+  }
+
+  private <K, I> I load(final K key, final Function<K, I> loader, final boolean reload) {
+    final LoadEvent event = new LoadEvent();
+    event.begin();
+    boolean loaded = false;
+    try {
+      final I val = reload ? delegate.reload(key, loader) : delegate.load(key, loader);
+      loaded = val != null;
+      return val;
+    } finally {
+      event.end();
+      if (event.shouldCommit()) {
+        event.cacheName = cacheName;
+        event.keyHash = key.hashCode();
+        event.loaded = loaded;
+        event.commit();
+      }
+    }
+  }
+
+  @Override
+  public void recordEviction(final int count) {
+    delegate.recordEviction(count);
+    final EvictionEvent event = new EvictionEvent();
+    if (event.isEnabled()
+        && (ThreadLocalRandom.current().nextInt() & EVICTION_SAMPLE_MASK) == 0) {
+      event.cacheName = cacheName;
+      event.count = count;
+      event.commit();
+    }
+  }
+
+  @Override
+  public void recordRejectedAdmission() {
+    delegate.recordRejectedAdmission();
+  }
+
+  @Override
+  public long lockRequested() {
+    return new BucketContentionEvent().isEnabled() ? System.nanoTime() : 0;
+  }
+
+  @Override
+  public void lockAcquired(final int bucket, final long lockRequested) {
+    if (lockRequested == 0) {
+      return;
+    }
+    final long waitNanos = System.nanoTime() - lockRequested;
+    if (waitNanos >= CONTENTION_THRESHOLD_NANOS) {
+      final BucketContentionEvent event = new BucketContentionEvent();
+      event.cacheName = cacheName;
+      event.bucket = bucket;
+      event.waitNanos = waitNanos;
+      event.commit();
+    }
+  }
+
+  @Override
+  public CacheStats snapshot() {
+    return delegate.snapshot();
+  }
+
+  @Override
+  public String toString() {
+    return "FlightRecorderStatsCounter{cacheName='" + cacheName + "', delegate=" + delegate + '}';
+  }
+
+  @Name("systems.comodal.collision.Load")
+  @Label("Cache Load")
+  @Description("A load of a missing or expired value which exceeded the threshold.")
+  @Category("Collision Cache")
+  @Threshold("20 ms")
+  static final class LoadEvent extends Event {
+
+    @Label("Cache Name")
+    String cacheName;
+
+    @Label("Key Hash")
+    int keyHash;
+
+    @Label("Loaded")
+    @Description("False if the loader threw or returned null.")
+    boolean loaded;
+  }
+
+  @Name("systems.comodal.collision.Eviction")
+  @Label("Cache Eviction")
+  @Description("A sample of one in 64 evictions.")
+  @Category("Collision Cache")
+  static final class EvictionEvent extends Event {
+
+    @Label("Cache Name")
+    String cacheName;
+
+    @Label("Count")
+    @Description("The LFU counter value of the evicted entry.")
+    int count;
+  }
+
+  @Name("systems.comodal.collision.BucketContention")
+  @Label("Cache Bucket Contention")
+  @Description("A wait of at least 100 microseconds to synchronize on a hash bucket.")
+  @Category("Collision Cache")
+  static final class BucketContentionEvent extends Event {
+
+    @Label("Cache Name")
+    String cacheName;
+
+    @Label("Bucket")
+    int bucket;
+
+    @Label("Wait Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long waitNanos;
+  }
+}
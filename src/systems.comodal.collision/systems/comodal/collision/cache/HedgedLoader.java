@@ -0,0 +1,153 @@
+package systems.comodal.collision.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * Wraps a loader to reduce tail latency.  Loads run on the executor while the calling thread
+ * waits, and if a load has not completed within the hedge delay a second, hedged, load is issued.
+ * The first to complete is cached and returned to the caller.  Concurrent loads of the same key
+ * join the load in flight, so that each key has at most one load and one hedge in flight.  If the
+ * executor rejects a load it runs on the calling thread instead.
+ *
+ * <p>The hedge delay is either fixed or estimated as a percentile of recent load latencies,
+ * recorded in a histogram of power of two buckets, so estimates are within a factor of two.  The
+ * latency of every load, including those which lose to a hedge, is measured from the original
+ * request.
+ *
+ * @param <K> the type of keys used to map to values
+ * @param <L> the type of loaded values before being mapped to type V
+ * @author James P. Edwards
+ */
+final class HedgedLoader<K, L> implements Function<K, L> {
+
+  private static final int MIN_SAMPLES = 64;
+
+  private final Function<K, L> loader;
+  private final Executor executor;
+  private final long hedgeDelayNanos;
+  private final double percentile;
+  private final AtomicLongArray latencies;
+  private final ConcurrentHashMap<K, CompletableFuture<L>> inFlight;
+
+  private HedgedLoader(final Function<K, L> loader, final Executor executor,
+      final long hedgeDelayNanos, final double percentile) {
+    this.loader = loader;
+    this.executor = executor;
+    this.hedgeDelayNanos = hedgeDelayNanos;
+    this.percentile = percentile;
+    this.latencies = percentile > 0 ? new AtomicLongArray(Long.SIZE) : null;
+    this.inFlight = new ConcurrentHashMap<>();
+  }
+
+  static <K, L> HedgedLoader<K, L> afterDelay(final Function<K, L> loader,
+      final Executor executor, final long hedgeDelayNanos) {
+    return new HedgedLoader<>(loader, executor, hedgeDelayNanos, 0);
+  }
+
+  static <K, L> HedgedLoader<K, L> atPercentile(final Function<K, L> loader,
+      final Executor executor, final double percentile) {
+    return new HedgedLoader<>(loader, executor, 0, percentile);
+  }
+
+  @Override
+  public L apply(final K key) {
+    final CompletableFuture<L> load = new CompletableFuture<>();
+    final CompletableFuture<L> witness = inFlight.putIfAbsent(key, load);
+    if (witness != null) {
+      return join(witness);
+    }
+    try {
+      final long start = System.nanoTime();
+      final long delay = hedgeDelayNanos();
+      if (delay != Long.MAX_VALUE) {
+        // The hedge is a no-op if the load has completed by the time it runs.
+        CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS, executor)
+            .execute(() -> load(load, key, start));
+      }
+      try {
+        executor.execute(() -> load(load, key, start));
+      } catch (final RejectedExecutionException ex) {
+        load(load, key, start);
+      }
+      return join(load);
+    } finally {
+      inFlight.remove(key, load);
+    }
+  }
+
+  /**
+   * @param start the {@link System#nanoTime() nanoTime} of the original request.
+   */
+  private void load(final CompletableFuture<L> load, final K key, final long start) {
+    if (load.isDone()) {
+      return;
+    }
+    try {
+      load.complete(loader.apply(key));
+    } catch (final Throwable ex) {
+      load.completeExceptionally(ex);
+    } finally {
+      if (latencies != null) {
+        record(System.nanoTime() - start);
+      }
+    }
+  }
+
+  private static <L> L join(final CompletableFuture<L> load) {
+    try {
+      return load.join();
+    } catch (final CompletionException ex) {
+      final Throwable cause = ex.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw ex;
+    }
+  }
+
+  private void record(final long nanos) {
+    latencies.incrementAndGet(Long.SIZE - 1 - Long.numberOfLeadingZeros(Math.max(1, nanos)));
+  }
+
+  /**
+   * @return the hedge delay in nanoseconds, or Long.MAX_VALUE if not enough latencies have been
+   * recorded to estimate a percentile.
+   */
+  long hedgeDelayNanos() {
+    if (latencies == null) {
+      return hedgeDelayNanos;
+    }
+    long total = 0;
+    for (int i = 0; i < Long.SIZE; ++i) {
+      total += latencies.get(i);
+    }
+    if (total < MIN_SAMPLES) {
+      return Long.MAX_VALUE;
+    }
+    final long rank = (long) Math.ceil(total * percentile);
+    long count = 0;
+    for (int i = 0; i < Long.SIZE - 1; ++i) {
+      count += latencies.get(i);
+      if (count >= rank) {
+        return 1L << (i + 1);
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+
+  @Override
+  public String toString() {
+    return "HedgedLoader{hedgeDelayNanos=" + hedgeDelayNanos
+        + ", percentile=" + percentile + '}';
+  }
+}
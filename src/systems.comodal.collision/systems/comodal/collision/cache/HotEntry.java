@@ -0,0 +1,96 @@
+package systems.comodal.collision.cache;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A cached entry and the value of its LFU counter at the time of a
+ * {@link CollisionCache#hotEntries(int) hot entry} scan.  Counters grow logarithmically with
+ * accesses, so counts rank entries by approximate frequency rather than measure it.
+ *
+ * @param <K> the type of keys used to map to values
+ * @param <V> the type of mapped values
+ * @author James P. Edwards
+ */
+public final class HotEntry<K, V> {
+
+  private static final Comparator<HotEntry<?, ?>> BY_COUNT
+      = Comparator.comparingInt(HotEntry::getCount);
+
+  private final K key;
+  private final V val;
+  private final int count;
+
+  HotEntry(final K key, final V val, final int count) {
+    this.key = key;
+    this.val = val;
+    this.count = count;
+  }
+
+  /**
+   * @return the key for this entry, or null if the cache does not store keys.
+   */
+  public K getKey() {
+    return key;
+  }
+
+  public V getVal() {
+    return val;
+  }
+
+  /**
+   * @return the LFU counter value for this entry, from 1 to the max count for the counter width.
+   */
+  public int getCount() {
+    return count;
+  }
+
+  @Override
+  public String toString() {
+    return "HotEntry{key=" + key + ", val=" + val + ", count=" + count + '}';
+  }
+
+  /**
+   * Keeps the K entries with the highest counts in a bounded min-heap, one per thread of a
+   * parallel scan.
+   */
+  static final class TopK<K, V> {
+
+    private final int k;
+    private final PriorityQueue<HotEntry<K, V>> heap;
+
+    TopK(final int k) {
+      this.k = k;
+      this.heap = new PriorityQueue<>(Math.min(k, 1 << 10) + 1, BY_COUNT);
+    }
+
+    void offer(final K key, final V val, final int count) {
+      if (count == 0) {
+        return;
+      }
+      if (heap.size() < k) {
+        heap.add(new HotEntry<>(key, val, count));
+      } else if (k > 0 && count > heap.peek().count) {
+        heap.poll();
+        heap.add(new HotEntry<>(key, val, count));
+      }
+    }
+
+    void merge(final TopK<K, V> other) {
+      for (final HotEntry<K, V> entry : other.heap) {
+        offer(entry.key, entry.val, entry.count);
+      }
+    }
+
+    /**
+     * @return the entries in descending order of count.
+     */
+    List<HotEntry<K, V>> toList() {
+      final List<HotEntry<K, V>> hottest = new ArrayList<>(heap);
+      hottest.sort(BY_COUNT.reversed());
+      return hottest;
+    }
+  }
+}
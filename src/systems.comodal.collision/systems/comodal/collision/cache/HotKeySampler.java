@@ -0,0 +1,105 @@
+package systems.comodal.collision.cache;
+
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Periodically scans a cache for its {@link CollisionCache#hotEntries(int) hottest entries},
+ * retaining the latest snapshot and passing each one to a listener, e.g. to shard hot tenants or
+ * pre-warm replicas.  Each scan visits every bucket, so the period should be long relative to
+ * the size of the cache.
+ *
+ * @param <K> the type of keys used to map to values
+ * @param <V> the type of mapped values
+ * @author James P. Edwards
+ */
+public final class HotKeySampler<K, V> implements AutoCloseable {
+
+  private static final Logger LOGGER = System.getLogger(HotKeySampler.class.getName());
+
+  private final CollisionCache<K, V> cache;
+  private final int k;
+  private final Consumer<List<HotEntry<K, V>>> listener;
+  private volatile List<HotEntry<K, V>> latest = List.of();
+  private volatile ScheduledFuture<?> sampling;
+
+  private HotKeySampler(final CollisionCache<K, V> cache, final int k,
+      final Consumer<List<HotEntry<K, V>>> listener) {
+    this.cache = cache;
+    this.k = k;
+    this.listener = listener;
+  }
+
+  /**
+   * Same as {@link #start(CollisionCache, int, Duration, ScheduledExecutorService, Consumer)
+   * start} without a listener.
+   */
+  public static <K, V> HotKeySampler<K, V> start(final CollisionCache<K, V> cache, final int k,
+      final Duration period, final ScheduledExecutorService scheduler) {
+    return start(cache, k, period, scheduler, null);
+  }
+
+  /**
+   * @param cache the cache to scan.
+   * @param k the maximum number of entries in each snapshot.
+   * @param period the delay between the end of one scan and the start of the next.
+   * @param scheduler runs the scans.
+   * @param listener receives each snapshot on the scheduler thread, may be null.  Exceptions it
+   * throws are logged and do not stop sampling.
+   * @return a running sampler, which should be closed to stop scanning.
+   */
+  public static <K, V> HotKeySampler<K, V> start(final CollisionCache<K, V> cache, final int k,
+      final Duration period, final ScheduledExecutorService scheduler,
+      final Consumer<List<HotEntry<K, V>>> listener) {
+    if (k <= 0) {
+      throw new IllegalStateException("K must be positive.");
+    }
+    final HotKeySampler<K, V> sampler = new HotKeySampler<>(cache, k, listener);
+    final long periodNanos = period.toNanos();
+    sampler.sampling = scheduler
+        .scheduleWithFixedDelay(sampler::sample, 0, periodNanos, TimeUnit.NANOSECONDS);
+    return sampler;
+  }
+
+  /**
+   * Exceptions are reported rather than thrown, as a scheduled task which throws is never run
+   * again.
+   */
+  private void sample() {
+    try {
+      final List<HotEntry<K, V>> hotEntries = List.copyOf(cache.hotEntries(k));
+      latest = hotEntries;
+      if (listener != null) {
+        listener.accept(hotEntries);
+      }
+    } catch (final RuntimeException ex) {
+      LOGGER.log(Level.WARNING, "Failed to sample hot entries.", ex);
+    }
+  }
+
+  /**
+   * @return the most recent snapshot, empty until the first scan completes.
+   */
+  public List<HotEntry<K, V>> getLatest() {
+    return latest;
+  }
+
+  /**
+   * Stops scanning, without interrupting a scan in progress.
+   */
+  @Override
+  public void close() {
+    sampling.cancel(false);
+  }
+
+  @Override
+  public String toString() {
+    return "HotKeySampler{k=" + k + ", latest=" + latest + '}';
+  }
+}
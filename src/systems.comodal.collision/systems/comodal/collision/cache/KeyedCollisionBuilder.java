@@ -2,10 +2,14 @@ package systems.comodal.collision.cache;
 
 import static systems.comodal.collision.cache.CollisionBuilder.DEFAULT_HASH_CODER;
 import static systems.comodal.collision.cache.CollisionBuilder.DEFAULT_IS_VAL_FOR_KEY;
+import static systems.comodal.collision.cache.CollisionBuilder.DEFAULT_WEIGHER;
 
+import java.time.Duration;
+import java.util.concurrent.Executor;
 import java.util.function.BiFunction;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
 import java.util.function.ToIntFunction;
 
 public final class KeyedCollisionBuilder<K, V> {
@@ -13,6 +17,9 @@ public final class KeyedCollisionBuilder<K, V> {
   private final CollisionBuilder<V> delegate;
   private ToIntFunction<K> hashCoder;
   private BiPredicate<K, V> isValForKey;
+  private ToIntBiFunction<K, V> weigher;
+  private Expiry<K, V> expiry;
+  private MembershipFilter<K> membershipFilter;
 
   KeyedCollisionBuilder(final CollisionBuilder<V> delegate, final ToIntFunction<K> hashCoder) {
     this(delegate, hashCoder, null);
@@ -54,7 +61,13 @@ public final class KeyedCollisionBuilder<K, V> {
       final double sparseFactor,
       final Function<K, L> loader,
       final BiFunction<K, L, V> mapper) {
-    return delegate.buildSparse(sparseFactor, getHashCoder(), getIsValForKey(), loader, mapper);
+    if (membershipFilter == null) {
+      return delegate.buildSparse(sparseFactor, getHashCoder(), getIsValForKey(), getWeigher(),
+          expiry, loader, mapper);
+    }
+    return new FilteredCollisionCache<>(delegate.buildSparse(sparseFactor, getHashCoder(),
+        getIsValForKey(), getWeigher(), expiry,
+        FilteredCollisionCache.gateLoader(loader, membershipFilter), mapper), membershipFilter);
   }
 
   public CollisionCache<K, V> buildPacked() {
@@ -64,7 +77,15 @@ public final class KeyedCollisionBuilder<K, V> {
   <L> LoadingCollisionCache<K, L, V> buildPacked(
       final Function<K, L> loader,
       final BiFunction<K, L, V> mapper) {
-    return delegate.buildPacked(getHashCoder(), getIsValForKey(), loader, mapper);
+    if (weigher != null) {
+      throw new IllegalStateException("Weighted capacity is only supported by sparse caches.");
+    }
+    if (membershipFilter == null) {
+      return delegate.buildPacked(getHashCoder(), getIsValForKey(), expiry, loader, mapper);
+    }
+    return new FilteredCollisionCache<>(delegate.buildPacked(getHashCoder(), getIsValForKey(),
+        expiry, FilteredCollisionCache.gateLoader(loader, membershipFilter), mapper),
+        membershipFilter);
   }
 
   public int getCapacity() {
@@ -136,6 +157,147 @@ public final class KeyedCollisionBuilder<K, V> {
     return this;
   }
 
+  @SuppressWarnings("unchecked")
+  public ToIntBiFunction<K, V> getWeigher() {
+    return weigher == null ? (ToIntBiFunction<K, V>) DEFAULT_WEIGHER : weigher;
+  }
+
+  /**
+   * Sparse caches will limit the total weight of their entries to {@link #setMaximumWeight
+   * maximumWeight} instead of limiting the number of entries to capacity.  Capacity is still used
+   * to size the backing hash table, so it should be set to the expected number of entries.  The
+   * weight of an entry is computed once when it is cached and again when it is evicted, so it must
+   * not change over time.  If keys are not stored the weigher will be passed a null key.
+   *
+   * @param weigher computes the relative weight of an entry, e.g., its size in bytes.
+   * @return {@link KeyedCollisionBuilder KeyedCollisionBuilder} to continue building process.
+   */
+  public KeyedCollisionBuilder<K, V> setWeigher(final ToIntBiFunction<K, V> weigher) {
+    this.weigher = weigher;
+    return this;
+  }
+
+  public Expiry<K, V> getExpiry() {
+    return expiry;
+  }
+
+  /**
+   * Computes a time to live for each entry as it is cached, after it has been loaded and mapped or
+   * put.  Expired entries are detected lazily as they are probed.  Mutually exclusive with
+   * expireAfterWrite and expireAfterAccess.
+   *
+   * @param expiry computes the time to live for an entry.
+   * @return {@link KeyedCollisionBuilder KeyedCollisionBuilder} to continue building process.
+   */
+  public KeyedCollisionBuilder<K, V> setExpiry(final Expiry<K, V> expiry) {
+    this.expiry = expiry;
+    return this;
+  }
+
+  public MembershipFilter<K> getMembershipFilter() {
+    return membershipFilter;
+  }
+
+  /**
+   * Consulted on cache misses before invoking a loader, so that definitely absent keys return null
+   * without a load.  The keys of all put values are added to the filter.  See
+   * {@link BlockedBloomFilter BlockedBloomFilter} for a compact built-in filter which can be built
+   * from the full universe of keys.
+   *
+   * @param membershipFilter tests whether a key may exist.
+   * @return {@link KeyedCollisionBuilder KeyedCollisionBuilder} to continue building process.
+   */
+  public KeyedCollisionBuilder<K, V> setMembershipFilter(
+      final MembershipFilter<K> membershipFilter) {
+    this.membershipFilter = membershipFilter;
+    return this;
+  }
+
+  public LoadBulkhead getLoadBulkhead() {
+    return delegate.getLoadBulkhead();
+  }
+
+  public KeyedCollisionBuilder<K, V> setLoadBulkhead(final LoadBulkhead loadBulkhead) {
+    delegate.setLoadBulkhead(loadBulkhead);
+    return this;
+  }
+
+  @SuppressWarnings("unchecked")
+  public Function<K, V> getLoadFallback() {
+    return (Function<K, V>) delegate.getLoadFallback();
+  }
+
+  /**
+   * @param loadFallback computes the value returned for a miss rejected by a
+   * {@link LoadBulkhead.Policy#FAIL_FAST fail fast} bulkhead, the value is not cached.  Null is
+   * returned if not set.
+   * @return {@link KeyedCollisionBuilder KeyedCollisionBuilder} to continue building process.
+   */
+  public KeyedCollisionBuilder<K, V> setLoadFallback(final Function<K, V> loadFallback) {
+    delegate.putLoadFallback(loadFallback);
+    return this;
+  }
+
+  public boolean isRecordStats() {
+    return delegate.isRecordStats();
+  }
+
+  public KeyedCollisionBuilder<K, V> setRecordStats(final boolean recordStats) {
+    delegate.setRecordStats(recordStats);
+    return this;
+  }
+
+  public String getName() {
+    return delegate.getName();
+  }
+
+  public KeyedCollisionBuilder<K, V> setName(final String name) {
+    delegate.setName(name);
+    return this;
+  }
+
+  public boolean isRecordEvents() {
+    return delegate.isRecordEvents();
+  }
+
+  public KeyedCollisionBuilder<K, V> setRecordEvents(final boolean recordEvents) {
+    delegate.setRecordEvents(recordEvents);
+    return this;
+  }
+
+  public Duration getHedgeDelay() {
+    return delegate.getHedgeDelay();
+  }
+
+  public double getHedgePercentile() {
+    return delegate.getHedgePercentile();
+  }
+
+  public Executor getHedgeExecutor() {
+    return delegate.getHedgeExecutor();
+  }
+
+  public KeyedCollisionBuilder<K, V> setHedgedLoads(final Duration hedgeDelay,
+      final Executor executor) {
+    delegate.setHedgedLoads(hedgeDelay, executor);
+    return this;
+  }
+
+  public KeyedCollisionBuilder<K, V> setHedgedLoads(final double percentile,
+      final Executor executor) {
+    delegate.setHedgedLoads(percentile, executor);
+    return this;
+  }
+
+  public long getMaximumWeight() {
+    return delegate.getMaximumWeight();
+  }
+
+  public KeyedCollisionBuilder<K, V> setMaximumWeight(final long maximumWeight) {
+    delegate.setMaximumWeight(maximumWeight);
+    return this;
+  }
+
   public boolean isStrictCapacity() {
     return delegate.isStrictCapacity();
   }
@@ -181,6 +343,101 @@ public final class KeyedCollisionBuilder<K, V> {
     return this;
   }
 
+  public int getCounterSampleRate() {
+    return delegate.getCounterSampleRate();
+  }
+
+  public KeyedCollisionBuilder<K, V> setCounterSampleRate(final int counterSampleRate) {
+    delegate.setCounterSampleRate(counterSampleRate);
+    return this;
+  }
+
+  public boolean isPaddedCounters() {
+    return delegate.isPaddedCounters();
+  }
+
+  public KeyedCollisionBuilder<K, V> setPaddedCounters(final boolean paddedCounters) {
+    delegate.setPaddedCounters(paddedCounters);
+    return this;
+  }
+
+  public int getCounterBits() {
+    return delegate.getCounterBits();
+  }
+
+  public KeyedCollisionBuilder<K, V> setCounterBits(final int counterBits) {
+    delegate.setCounterBits(counterBits);
+    return this;
+  }
+
+  public Duration getCounterAgingPeriod() {
+    return delegate.getCounterAgingPeriod();
+  }
+
+  public KeyedCollisionBuilder<K, V> setCounterAgingPeriod(final Duration counterAgingPeriod) {
+    delegate.setCounterAgingPeriod(counterAgingPeriod);
+    return this;
+  }
+
+  public boolean isAdaptiveCounters() {
+    return delegate.isAdaptiveCounters();
+  }
+
+  public KeyedCollisionBuilder<K, V> setAdaptiveCounters(final boolean adaptiveCounters) {
+    delegate.setAdaptiveCounters(adaptiveCounters);
+    return this;
+  }
+
+  public boolean isTwoChoicePlacement() {
+    return delegate.isTwoChoicePlacement();
+  }
+
+  public KeyedCollisionBuilder<K, V> setTwoChoicePlacement(final boolean twoChoicePlacement) {
+    delegate.setTwoChoicePlacement(twoChoicePlacement);
+    return this;
+  }
+
+  public int getOverflowStashSize() {
+    return delegate.getOverflowStashSize();
+  }
+
+  public KeyedCollisionBuilder<K, V> setOverflowStashSize(final int overflowStashSize) {
+    delegate.setOverflowStashSize(overflowStashSize);
+    return this;
+  }
+
+  public boolean isResizable() {
+    return delegate.isResizable();
+  }
+
+  public KeyedCollisionBuilder<K, V> setResizable(final boolean resizable) {
+    delegate.setResizable(resizable);
+    return this;
+  }
+
+  public double getMemoryPressureThreshold() {
+    return delegate.getMemoryPressureThreshold();
+  }
+
+  public double getMemoryPressureCapacityFactor() {
+    return delegate.getMemoryPressureCapacityFactor();
+  }
+
+  public KeyedCollisionBuilder<K, V> setMemoryPressureThreshold(final double usageThreshold,
+      final double capacityFactor) {
+    delegate.setMemoryPressureThreshold(usageThreshold, capacityFactor);
+    return this;
+  }
+
+  public CacheGroup getCacheGroup() {
+    return delegate.getCacheGroup();
+  }
+
+  public KeyedCollisionBuilder<K, V> setCacheGroup(final CacheGroup cacheGroup) {
+    delegate.setCacheGroup(cacheGroup);
+    return this;
+  }
+
   public boolean isLazyInitBuckets() {
     return delegate.isLazyInitBuckets();
   }
@@ -198,4 +455,73 @@ public final class KeyedCollisionBuilder<K, V> {
     delegate.setStoreKeys(storeKeys);
     return this;
   }
+
+  public boolean isCacheNulls() {
+    return delegate.isCacheNulls();
+  }
+
+  public KeyedCollisionBuilder<K, V> setCacheNulls(final boolean cacheNulls) {
+    delegate.setCacheNulls(cacheNulls);
+    return this;
+  }
+
+  public Duration getNegativeTtl() {
+    return delegate.getNegativeTtl();
+  }
+
+  public KeyedCollisionBuilder<K, V> setCacheNulls(final Duration negativeTtl) {
+    delegate.setCacheNulls(negativeTtl);
+    return this;
+  }
+
+  public Duration getExpireAfterWrite() {
+    return delegate.getExpireAfterWrite();
+  }
+
+  public KeyedCollisionBuilder<K, V> setExpireAfterWrite(final Duration expireAfterWrite) {
+    delegate.setExpireAfterWrite(expireAfterWrite);
+    return this;
+  }
+
+  public Duration getExpireAfterAccess() {
+    return delegate.getExpireAfterAccess();
+  }
+
+  public KeyedCollisionBuilder<K, V> setExpireAfterAccess(final Duration expireAfterAccess) {
+    delegate.setExpireAfterAccess(expireAfterAccess);
+    return this;
+  }
+
+  public Duration getRefreshAfterWrite() {
+    return delegate.getRefreshAfterWrite();
+  }
+
+  public Executor getRefreshExecutor() {
+    return delegate.getRefreshExecutor();
+  }
+
+  public Duration getStaleGrace() {
+    return delegate.getStaleGrace();
+  }
+
+  public KeyedCollisionBuilder<K, V> setStaleWhileRevalidate(final Duration staleGrace,
+      final Executor executor) {
+    delegate.setStaleWhileRevalidate(staleGrace, executor);
+    return this;
+  }
+
+  public double getEarlyRecomputeBeta() {
+    return delegate.getEarlyRecomputeBeta();
+  }
+
+  public KeyedCollisionBuilder<K, V> setEarlyRecomputeBeta(final double beta) {
+    delegate.setEarlyRecomputeBeta(beta);
+    return this;
+  }
+
+  public KeyedCollisionBuilder<K, V> setRefreshAfterWrite(final Duration refreshAfterWrite,
+      final Executor executor) {
+    delegate.setRefreshAfterWrite(refreshAfterWrite, executor);
+    return this;
+  }
 }
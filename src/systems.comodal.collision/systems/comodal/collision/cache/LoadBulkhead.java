@@ -0,0 +1,131 @@
+package systems.comodal.collision.cache;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the number of concurrent loads across a cache to protect the backing data source from
+ * herds of misses, e.g., after a cold start or mass invalidation.  Cache hits never acquire a
+ * permit.  A single bulkhead may be shared by multiple caches backed by the same data source.
+ *
+ * @author James P. Edwards
+ */
+public final class LoadBulkhead {
+
+  /**
+   * What to do with a load when all permits are in use.
+   */
+  public enum Policy {
+    /**
+     * Wait for a permit.
+     */
+    WAIT,
+    /**
+     * Return the configured load fallback, or null, without loading.
+     */
+    FAIL_FAST,
+    /**
+     * Wait for a permit, sending aggressive gets through the atomic get path once all permits are
+     * in use, which synchronizes loads behind each hash bucket so that concurrent misses for the
+     * same key do not each wait to load it.
+     */
+    ATOMIC
+  }
+
+  private final int maxConcurrentLoads;
+  private final Policy policy;
+  private final Semaphore permits;
+  private final LongAdder rejected;
+
+  private LoadBulkhead(final int maxConcurrentLoads, final Policy policy) {
+    this.maxConcurrentLoads = maxConcurrentLoads;
+    this.policy = policy;
+    this.permits = new Semaphore(maxConcurrentLoads);
+    this.rejected = new LongAdder();
+  }
+
+  public static LoadBulkhead create(final int maxConcurrentLoads, final Policy policy) {
+    if (maxConcurrentLoads <= 0) {
+      throw new IllegalStateException("Max concurrent loads must be > 0.");
+    }
+    if (policy == null) {
+      throw new IllegalStateException("A policy is needed.");
+    }
+    return new LoadBulkhead(maxConcurrentLoads, policy);
+  }
+
+  /**
+   * Waits unless configured to fail fast.  If interrupted while waiting the interrupt status is
+   * restored and the load is rejected.
+   *
+   * @return true if a permit was acquired, which must be released.
+   */
+  boolean acquire() {
+    if (policy != Policy.FAIL_FAST) {
+      try {
+        permits.acquire();
+        return true;
+      } catch (final InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    } else if (permits.tryAcquire()) {
+      return true;
+    }
+    rejected.increment();
+    return false;
+  }
+
+  void release() {
+    permits.release();
+  }
+
+  /**
+   * @return true if all permits are in use, counting the load as sent through the atomic get
+   * path.
+   */
+  boolean divert() {
+    if (permits.availablePermits() > 0) {
+      return false;
+    }
+    rejected.increment();
+    return true;
+  }
+
+  public int getMaxConcurrentLoads() {
+    return maxConcurrentLoads;
+  }
+
+  public Policy getPolicy() {
+    return policy;
+  }
+
+  /**
+   * @return the number of loads in progress.
+   */
+  public int getActiveLoads() {
+    return maxConcurrentLoads - permits.availablePermits();
+  }
+
+  /**
+   * @return an estimate of the number of threads waiting for a permit.
+   */
+  public int getQueueDepth() {
+    return permits.getQueueLength();
+  }
+
+  /**
+   * @return the number of loads which failed fast or were sent through the atomic get path.
+   */
+  public long getRejectedLoads() {
+    return rejected.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "LoadBulkhead{maxConcurrentLoads=" + maxConcurrentLoads
+        + ", policy=" + policy
+        + ", activeLoads=" + getActiveLoads()
+        + ", queueDepth=" + getQueueDepth()
+        + ", rejectedLoads=" + getRejectedLoads() + '}';
+  }
+}
@@ -1,8 +1,11 @@
 package systems.comodal.collision.cache;
 
+import java.time.Duration;
+import java.util.concurrent.Executor;
 import java.util.function.BiFunction;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
 import java.util.function.ToIntFunction;
 
 public final class LoadingCollisionBuilder<K, L, V> {
@@ -72,6 +75,145 @@ public final class LoadingCollisionBuilder<K, L, V> {
     return this;
   }
 
+  public ToIntBiFunction<K, V> getWeigher() {
+    return delegate.getWeigher();
+  }
+
+  /**
+   * Sparse caches will limit the total weight of their entries to {@link #setMaximumWeight
+   * maximumWeight} instead of limiting the number of entries to capacity.  Capacity is still used
+   * to size the backing hash table, so it should be set to the expected number of entries.  The
+   * weight of an entry is computed once when it is cached and again when it is evicted, so it must
+   * not change over time.  If keys are not stored the weigher will be passed a null key.
+   *
+   * @param weigher computes the relative weight of an entry, e.g., its size in bytes.
+   * @return {@link LoadingCollisionBuilder LoadingCollisionBuilder} to continue building process.
+   */
+  public LoadingCollisionBuilder<K, L, V> setWeigher(final ToIntBiFunction<K, V> weigher) {
+    delegate.setWeigher(weigher);
+    return this;
+  }
+
+  public Expiry<K, V> getExpiry() {
+    return delegate.getExpiry();
+  }
+
+  /**
+   * Computes a time to live for each entry as it is cached, after it has been loaded and mapped or
+   * put.  Expired entries are detected lazily as they are probed.  Mutually exclusive with
+   * expireAfterWrite and expireAfterAccess.
+   *
+   * @param expiry computes the time to live for an entry.
+   * @return {@link LoadingCollisionBuilder LoadingCollisionBuilder} to continue building process.
+   */
+  public LoadingCollisionBuilder<K, L, V> setExpiry(final Expiry<K, V> expiry) {
+    delegate.setExpiry(expiry);
+    return this;
+  }
+
+  public MembershipFilter<K> getMembershipFilter() {
+    return delegate.getMembershipFilter();
+  }
+
+  /**
+   * Consulted on cache misses before invoking a loader, so that definitely absent keys return null
+   * without a load.  The keys of all put values are added to the filter.  See
+   * {@link BlockedBloomFilter BlockedBloomFilter} for a compact built-in filter which can be built
+   * from the full universe of keys.
+   *
+   * @param membershipFilter tests whether a key may exist.
+   * @return {@link LoadingCollisionBuilder LoadingCollisionBuilder} to continue building process.
+   */
+  public LoadingCollisionBuilder<K, L, V> setMembershipFilter(
+      final MembershipFilter<K> membershipFilter) {
+    delegate.setMembershipFilter(membershipFilter);
+    return this;
+  }
+
+  public LoadBulkhead getLoadBulkhead() {
+    return delegate.getLoadBulkhead();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setLoadBulkhead(final LoadBulkhead loadBulkhead) {
+    delegate.setLoadBulkhead(loadBulkhead);
+    return this;
+  }
+
+  public Function<K, V> getLoadFallback() {
+    return delegate.getLoadFallback();
+  }
+
+  /**
+   * @param loadFallback computes the value returned for a miss rejected by a
+   * {@link LoadBulkhead.Policy#FAIL_FAST fail fast} bulkhead, the value is not cached.  Null is
+   * returned if not set.
+   * @return {@link LoadingCollisionBuilder LoadingCollisionBuilder} to continue building process.
+   */
+  public LoadingCollisionBuilder<K, L, V> setLoadFallback(final Function<K, V> loadFallback) {
+    delegate.setLoadFallback(loadFallback);
+    return this;
+  }
+
+  public boolean isRecordStats() {
+    return delegate.isRecordStats();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setRecordStats(final boolean recordStats) {
+    delegate.setRecordStats(recordStats);
+    return this;
+  }
+
+  public String getName() {
+    return delegate.getName();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setName(final String name) {
+    delegate.setName(name);
+    return this;
+  }
+
+  public boolean isRecordEvents() {
+    return delegate.isRecordEvents();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setRecordEvents(final boolean recordEvents) {
+    delegate.setRecordEvents(recordEvents);
+    return this;
+  }
+
+  public Duration getHedgeDelay() {
+    return delegate.getHedgeDelay();
+  }
+
+  public double getHedgePercentile() {
+    return delegate.getHedgePercentile();
+  }
+
+  public Executor getHedgeExecutor() {
+    return delegate.getHedgeExecutor();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setHedgedLoads(final Duration hedgeDelay,
+      final Executor executor) {
+    delegate.setHedgedLoads(hedgeDelay, executor);
+    return this;
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setHedgedLoads(final double percentile,
+      final Executor executor) {
+    delegate.setHedgedLoads(percentile, executor);
+    return this;
+  }
+
+  public long getMaximumWeight() {
+    return delegate.getMaximumWeight();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setMaximumWeight(final long maximumWeight) {
+    delegate.setMaximumWeight(maximumWeight);
+    return this;
+  }
+
   public boolean isStrictCapacity() {
     return delegate.isStrictCapacity();
   }
@@ -117,6 +259,101 @@ public final class LoadingCollisionBuilder<K, L, V> {
     return this;
   }
 
+  public int getCounterSampleRate() {
+    return delegate.getCounterSampleRate();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setCounterSampleRate(final int counterSampleRate) {
+    delegate.setCounterSampleRate(counterSampleRate);
+    return this;
+  }
+
+  public boolean isPaddedCounters() {
+    return delegate.isPaddedCounters();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setPaddedCounters(final boolean paddedCounters) {
+    delegate.setPaddedCounters(paddedCounters);
+    return this;
+  }
+
+  public int getCounterBits() {
+    return delegate.getCounterBits();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setCounterBits(final int counterBits) {
+    delegate.setCounterBits(counterBits);
+    return this;
+  }
+
+  public Duration getCounterAgingPeriod() {
+    return delegate.getCounterAgingPeriod();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setCounterAgingPeriod(final Duration counterAgingPeriod) {
+    delegate.setCounterAgingPeriod(counterAgingPeriod);
+    return this;
+  }
+
+  public boolean isAdaptiveCounters() {
+    return delegate.isAdaptiveCounters();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setAdaptiveCounters(final boolean adaptiveCounters) {
+    delegate.setAdaptiveCounters(adaptiveCounters);
+    return this;
+  }
+
+  public boolean isTwoChoicePlacement() {
+    return delegate.isTwoChoicePlacement();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setTwoChoicePlacement(final boolean twoChoicePlacement) {
+    delegate.setTwoChoicePlacement(twoChoicePlacement);
+    return this;
+  }
+
+  public int getOverflowStashSize() {
+    return delegate.getOverflowStashSize();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setOverflowStashSize(final int overflowStashSize) {
+    delegate.setOverflowStashSize(overflowStashSize);
+    return this;
+  }
+
+  public boolean isResizable() {
+    return delegate.isResizable();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setResizable(final boolean resizable) {
+    delegate.setResizable(resizable);
+    return this;
+  }
+
+  public double getMemoryPressureThreshold() {
+    return delegate.getMemoryPressureThreshold();
+  }
+
+  public double getMemoryPressureCapacityFactor() {
+    return delegate.getMemoryPressureCapacityFactor();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setMemoryPressureThreshold(final double usageThreshold,
+      final double capacityFactor) {
+    delegate.setMemoryPressureThreshold(usageThreshold, capacityFactor);
+    return this;
+  }
+
+  public CacheGroup getCacheGroup() {
+    return delegate.getCacheGroup();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setCacheGroup(final CacheGroup cacheGroup) {
+    delegate.setCacheGroup(cacheGroup);
+    return this;
+  }
+
   public boolean isLazyInitBuckets() {
     return delegate.isLazyInitBuckets();
   }
@@ -134,4 +371,73 @@ public final class LoadingCollisionBuilder<K, L, V> {
     delegate.setStoreKeys(storeKeys);
     return this;
   }
+
+  public boolean isCacheNulls() {
+    return delegate.isCacheNulls();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setCacheNulls(final boolean cacheNulls) {
+    delegate.setCacheNulls(cacheNulls);
+    return this;
+  }
+
+  public Duration getNegativeTtl() {
+    return delegate.getNegativeTtl();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setCacheNulls(final Duration negativeTtl) {
+    delegate.setCacheNulls(negativeTtl);
+    return this;
+  }
+
+  public Duration getExpireAfterWrite() {
+    return delegate.getExpireAfterWrite();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setExpireAfterWrite(final Duration expireAfterWrite) {
+    delegate.setExpireAfterWrite(expireAfterWrite);
+    return this;
+  }
+
+  public Duration getExpireAfterAccess() {
+    return delegate.getExpireAfterAccess();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setExpireAfterAccess(final Duration expireAfterAccess) {
+    delegate.setExpireAfterAccess(expireAfterAccess);
+    return this;
+  }
+
+  public Duration getRefreshAfterWrite() {
+    return delegate.getRefreshAfterWrite();
+  }
+
+  public Executor getRefreshExecutor() {
+    return delegate.getRefreshExecutor();
+  }
+
+  public Duration getStaleGrace() {
+    return delegate.getStaleGrace();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setStaleWhileRevalidate(final Duration staleGrace,
+      final Executor executor) {
+    delegate.setStaleWhileRevalidate(staleGrace, executor);
+    return this;
+  }
+
+  public double getEarlyRecomputeBeta() {
+    return delegate.getEarlyRecomputeBeta();
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setEarlyRecomputeBeta(final double beta) {
+    delegate.setEarlyRecomputeBeta(beta);
+    return this;
+  }
+
+  public LoadingCollisionBuilder<K, L, V> setRefreshAfterWrite(final Duration refreshAfterWrite,
+      final Executor executor) {
+    delegate.setRefreshAfterWrite(refreshAfterWrite, executor);
+    return this;
+  }
 }
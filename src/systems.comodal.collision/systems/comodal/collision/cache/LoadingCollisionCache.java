@@ -1,5 +1,12 @@
 package systems.comodal.collision.cache;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
 
 /**
@@ -21,4 +28,62 @@ public interface LoadingCollisionCache<K, L, V> extends CollisionCache<K, V> {
    * @return a value for the corresponding key.
    */
   V getAggressive(final K key, final Function<K, L> loader);
+
+  /**
+   * Same as {@link #getBefore(Object, long, Object, Executor) getBefore} with a null fallback and
+   * a deadline of now plus the timeout.
+   *
+   * @param key used for table hash and stored key/value equality.
+   * @param timeout how long to wait for a value to load.
+   * @param executor runs loads, which may outlive the timeout.
+   * @return a value for the corresponding key, or null if it could not be loaded in time.
+   */
+  default V getWithin(final K key, final Duration timeout, final Executor executor) {
+    return getBefore(key, System.nanoTime() + timeout.toNanos(), null, executor);
+  }
+
+  /**
+   * If a value, or a stale value within its grace period, already exists for the key it is
+   * returned.  Otherwise it is loaded on the executor through {@link #get(Object) get}, and if the
+   * load does not complete before the deadline the fallback is returned.  A load which misses the
+   * deadline keeps running and still fills the cache, and as loads are synchronized behind the
+   * hash bucket for this key, callers that miss their deadline do not multiply loads.  When
+   * statistics are recorded a key which has to be loaded counts a miss for the initial lookup as
+   * well as for the load.
+   *
+   * @param key used for table hash and stored key/value equality.
+   * @param deadlineNanos the {@link System#nanoTime() nanoTime} to stop waiting for a load.
+   * @param fallback returned if a value cannot be loaded before the deadline.
+   * @param executor runs loads, which may outlive the caller's deadline.
+   * @return a value for the corresponding key, or the fallback.
+   */
+  default V getBefore(final K key, final long deadlineNanos, final V fallback,
+      final Executor executor) {
+    final V val = getIfPresent(key);
+    if (val != null) {
+      return val;
+    }
+    final CompletableFuture<V> load = CompletableFuture.supplyAsync(() -> get(key), executor);
+    final long timeout = deadlineNanos - System.nanoTime();
+    if (timeout <= 0) {
+      return fallback;
+    }
+    try {
+      return load.get(timeout, TimeUnit.NANOSECONDS);
+    } catch (final TimeoutException ex) {
+      return fallback;
+    } catch (final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return fallback;
+    } catch (final ExecutionException ex) {
+      final Throwable cause = ex.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new CompletionException(cause);
+    }
+  }
 }
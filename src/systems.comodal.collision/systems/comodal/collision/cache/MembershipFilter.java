@@ -0,0 +1,26 @@
+package systems.comodal.collision.cache;
+
+/**
+ * Consulted before invoking the registered loader on a cache miss, so that keys known to be
+ * absent from the backing data set are answered with null without a load.  Implementations may
+ * return false positives but must never return false negatives.
+ *
+ * @param <K> the type of keys used to map to values
+ * @author James P. Edwards
+ * @see BlockedBloomFilter
+ */
+public interface MembershipFilter<K> {
+
+  /**
+   * @param key used for table hash and stored key/value equality.
+   * @return false if the key is definitely absent, true if it may be present.
+   */
+  boolean mightContain(final K key);
+
+  /**
+   * Called for each key put into the cache, and may be called concurrently.
+   *
+   * @param key a key known to be present.
+   */
+  void add(final K key);
+}
@@ -0,0 +1,308 @@
+package systems.comodal.collision.cache;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * Shrinks a sparse cache while the heap is under pressure, and restores its capacity once the
+ * pressure subsides.  Heap memory pools which support usage thresholds, typically the old
+ * generation, are armed with a threshold at a fraction of their maximum size.  Crossing it shrinks
+ * the cache immediately, while the usage left after each garbage collection decides whether to
+ * keep the cache shrunk or to restore it, so that the cache does not flap with short lived
+ * garbage.
+ *
+ * <p>Usage thresholds are JVM-wide and shared by every listener of a pool, so the lowest requested
+ * threshold wins and each listener compares usage against its own threshold.  A pool whose
+ * threshold was already set by other code is left alone, in which case only garbage collections
+ * are observed.  Once the last listener of a pool unregisters, the threshold the pool had before
+ * is restored, unless other code has changed it since.  The cache is only weakly reachable from
+ * the listener, which removes itself once the cache has been collected.
+ *
+ * @author James P. Edwards
+ */
+final class MemoryPressureListener implements NotificationListener {
+
+  /**
+   * Caches whose capacity can be lowered and restored without rebuilding their hash table.
+   */
+  interface Shrinkable {
+
+    /**
+     * Lowers capacity to a fraction of the configured capacity.  Entries are dropped by later
+     * writes, or by {@link #sweep()}.
+     *
+     * @param capacityFactor the fraction of the configured capacity to keep.
+     */
+    void shrinkCapacity(final double capacityFactor);
+
+    /**
+     * Decays counters and drops zero count entries across the hash table until the cache is no
+     * longer over capacity, so that the lowest count entries are dropped first.
+     */
+    void sweep();
+
+    /**
+     * Restores the configured capacity.
+     */
+    void restoreCapacity();
+  }
+
+  /**
+   * Post collection usage must fall this far below the threshold to restore capacity.
+   */
+  private static final double RELIEF_FACTOR = 0.9;
+  /**
+   * Pools armed by listeners by name, guarded by the class lock.
+   */
+  private static final Map<String, ArmedPool> ARMED_POOLS = new HashMap<>();
+
+  /**
+   * The thresholds requested of a pool by registered listeners.
+   */
+  private static final class ArmedPool {
+
+    private final long previous;
+    private final List<Long> requested;
+    private long armed;
+
+    private ArmedPool(final long previous) {
+      this.previous = previous;
+      this.requested = new ArrayList<>();
+      this.armed = previous;
+    }
+
+    private void arm(final MemoryPoolMXBean pool) {
+      final long threshold = requested.isEmpty()
+          ? previous : requested.stream().mapToLong(Long::longValue).min().getAsLong();
+      if (threshold != armed) {
+        pool.setUsageThreshold(threshold);
+        armed = threshold;
+      }
+    }
+  }
+
+  private final WeakReference<Shrinkable> cache;
+  private final double usageThreshold;
+  private final double capacityFactor;
+  private final List<MemoryPoolMXBean> pools;
+  private final List<NotificationEmitter> emitters;
+  /**
+   * The threshold requested of each pool, or 0 if the pool was left alone.  Guarded by the class
+   * lock, and null once unregistered.
+   */
+  private long[] thresholds;
+  private boolean shrunk;
+
+  /**
+   * Creates a listener which neither arms nor listens to any pool, see {@link #register register}.
+   */
+  MemoryPressureListener(final Shrinkable cache,
+      final double usageThreshold,
+      final double capacityFactor,
+      final List<MemoryPoolMXBean> pools) {
+    this.cache = new WeakReference<>(cache);
+    this.usageThreshold = usageThreshold;
+    this.capacityFactor = capacityFactor;
+    this.pools = pools;
+    this.emitters = new ArrayList<>();
+    this.thresholds = new long[pools.size()];
+  }
+
+  /**
+   * @param cache the cache to shrink.
+   * @param usageThreshold the fraction of a heap pool's maximum size above which to shrink.
+   * @param capacityFactor the fraction of the configured capacity to keep while shrunk.
+   * @return the registered listener.
+   */
+  static MemoryPressureListener register(final Shrinkable cache,
+      final double usageThreshold,
+      final double capacityFactor) {
+    final List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans().stream()
+        .filter(pool -> pool.getType() == MemoryType.HEAP
+            && pool.isUsageThresholdSupported()
+            && pool.getUsage().getMax() > 0)
+        .collect(Collectors.toList());
+    if (pools.isEmpty()) {
+      throw new IllegalStateException(
+          "No heap memory pool supports usage thresholds for memory pressure shrinking.");
+    }
+    final MemoryPressureListener listener
+        = new MemoryPressureListener(cache, usageThreshold, capacityFactor, pools);
+    listener.arm();
+    listener.listen(ManagementFactory.getMemoryMXBean());
+    for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      listener.listen(collector);
+    }
+    return listener;
+  }
+
+  private void arm() {
+    synchronized (MemoryPressureListener.class) {
+      for (int i = 0; i < pools.size(); ++i) {
+        final MemoryPoolMXBean pool = pools.get(i);
+        ArmedPool armedPool = ARMED_POOLS.get(pool.getName());
+        if (armedPool == null || armedPool.armed != pool.getUsageThreshold()) {
+          final long previous = pool.getUsageThreshold();
+          if (previous != 0) {
+            continue; // Set by other code.
+          }
+          armedPool = new ArmedPool(previous);
+          ARMED_POOLS.put(pool.getName(), armedPool);
+        }
+        final long threshold = Math.max(1, (long) (pool.getUsage().getMax() * usageThreshold));
+        thresholds[i] = threshold;
+        armedPool.requested.add(threshold);
+        armedPool.arm(pool);
+      }
+    }
+  }
+
+  /**
+   * Withdraws the thresholds requested by this listener, restoring the previous threshold of each
+   * pool once no listener requests one.
+   */
+  private void disarm() {
+    synchronized (MemoryPressureListener.class) {
+      if (thresholds == null) {
+        return;
+      }
+      for (int i = 0; i < pools.size(); ++i) {
+        final MemoryPoolMXBean pool = pools.get(i);
+        final ArmedPool armedPool = ARMED_POOLS.get(pool.getName());
+        if (thresholds[i] == 0 || armedPool == null
+            || !armedPool.requested.remove(Long.valueOf(thresholds[i]))) {
+          continue;
+        }
+        if (armedPool.armed != pool.getUsageThreshold()) {
+          ARMED_POOLS.remove(pool.getName()); // Changed by other code.
+          continue;
+        }
+        armedPool.arm(pool);
+        if (armedPool.requested.isEmpty()) {
+          ARMED_POOLS.remove(pool.getName());
+        }
+      }
+      thresholds = null;
+    }
+  }
+
+  private void listen(final Object bean) {
+    if (bean instanceof NotificationEmitter) {
+      final NotificationEmitter emitter = (NotificationEmitter) bean;
+      emitter.addNotificationListener(this, null, null);
+      synchronized (emitters) {
+        emitters.add(emitter);
+      }
+    }
+  }
+
+  /**
+   * Stops listening, withdraws the usage thresholds requested by this listener and restores the
+   * capacity of the cache if it is shrunk.
+   */
+  void unregister() {
+    synchronized (emitters) {
+      for (final NotificationEmitter emitter : emitters) {
+        try {
+          emitter.removeNotificationListener(this);
+        } catch (final ListenerNotFoundException ex) {
+          // Already removed.
+        }
+      }
+      emitters.clear();
+    }
+    disarm();
+    final Shrinkable cache = this.cache.get();
+    synchronized (this) {
+      if (shrunk) {
+        shrunk = false;
+        if (cache != null) {
+          cache.restoreCapacity();
+        }
+      }
+    }
+  }
+
+  private boolean exceeds(final MemoryUsage usage, final double factor) {
+    return usage != null && usage.getMax() > 0
+        && usage.getUsed() > usage.getMax() * usageThreshold * factor;
+  }
+
+  /**
+   * Threshold notifications are checked against current usage, while any other notification,
+   * such as the end of a garbage collection, is checked against usage after the last collection.
+   */
+  @Override
+  public void handleNotification(final Notification notification, final Object handback) {
+    final Shrinkable cache = this.cache.get();
+    if (cache == null) {
+      unregister();
+      return;
+    }
+    final boolean exceeded = MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED
+        .equals(notification.getType());
+    final List<MemoryUsage> usages = new ArrayList<>(pools.size());
+    for (final MemoryPoolMXBean pool : pools) {
+      usages.add(exceeded ? pool.getUsage() : pool.getCollectionUsage());
+    }
+    handleUsage(cache, exceeded, usages);
+  }
+
+  /**
+   * Shrinks the cache if any usage is over the threshold, or restores it once every usage after
+   * a collection is below the relief level.
+   *
+   * @param cache the cache to shrink or restore.
+   * @param exceeded true if the usages are current usages after a threshold was crossed, false if
+   * they are usages after the last collection.
+   * @param usages the usage of each heap pool.
+   */
+  void handleUsage(final Shrinkable cache, final boolean exceeded,
+      final List<MemoryUsage> usages) {
+    boolean overThreshold = false;
+    boolean overRelief = false;
+    for (final MemoryUsage usage : usages) {
+      overThreshold |= exceeds(usage, 1.0);
+      overRelief |= exceeds(usage, RELIEF_FACTOR);
+    }
+    synchronized (this) {
+      if (overThreshold) {
+        if (!shrunk) {
+          shrunk = true;
+          cache.shrinkCapacity(capacityFactor);
+          // Sweep off of the notification thread.
+          ForkJoinPool.commonPool().execute(cache::sweep);
+        }
+      } else if (shrunk && !exceeded && !overRelief) {
+        shrunk = false;
+        cache.restoreCapacity();
+      }
+    }
+  }
+
+  synchronized boolean isShrunk() {
+    return shrunk;
+  }
+
+  @Override
+  public String toString() {
+    return "MemoryPressureListener{usageThreshold=" + usageThreshold
+        + ", capacityFactor=" + capacityFactor
+        + ", shrunk=" + isShrunk() + '}';
+  }
+}
@@ -0,0 +1,253 @@
+package systems.comodal.collision.cache;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * Caches null loader results as {@link NullEntry NullEntry} sentinels, which are counted and
+ * evicted like any other entry, and translates them back to null for callers.  The delegate cache
+ * is built with loader, mapper, isValForKey and weigher functions wrapped by this class so that
+ * sentinels never reach user supplied functions.
+ *
+ * @param <K> the type of keys used to map to values
+ * @param <L> the type of loaded values before being mapped to type V
+ * @param <V> the type of mapped values
+ * @author James P. Edwards
+ */
+final class NullCachingCollisionCache<K, L, V> implements LoadingCollisionCache<K, L, V> {
+
+  /**
+   * Passed from a wrapped loader to a wrapped mapper in place of null.
+   */
+  private static final Object NULL_LOADED = new Object();
+
+  private final LoadingCollisionCache<K, L, V> delegate;
+  private final boolean storeKeys;
+
+  NullCachingCollisionCache(final LoadingCollisionCache<K, L, V> delegate,
+      final boolean storeKeys) {
+    this.delegate = delegate;
+    this.storeKeys = storeKeys;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <K, L> Function<K, L> wrapLoader(final Function<K, L> loader) {
+    return key -> {
+      final L loaded = loader.apply(key);
+      return loaded == null ? (L) NULL_LOADED : loaded;
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  static <K, L, V> BiFunction<K, L, V> wrapMapper(final BiFunction<K, L, V> mapper,
+      final boolean storeKeys) {
+    return (key, loaded) -> loaded == NULL_LOADED
+        ? (V) NullEntry.forKey(key, storeKeys) : mapper.apply(key, loaded);
+  }
+
+  static <K, V> BiPredicate<K, V> wrapIsValForKey(final BiPredicate<K, V> isValForKey) {
+    return (key, val) -> val instanceof NullEntry
+        ? ((NullEntry) val).isForKey(key) : isValForKey.test(key, val);
+  }
+
+  static <K, V> ToIntBiFunction<K, V> wrapWeigher(final ToIntBiFunction<K, V> weigher) {
+    return (key, val) -> val instanceof NullEntry ? 1 : weigher.applyAsInt(key, val);
+  }
+
+  /**
+   * @param expiry per-entry expiry for values, may be null.
+   * @param expireAfterWrite time to live for values if no expiry is given, may be null.
+   * @param negativeTtl time to live for null entries, may be null to never expire.
+   * @return an expiry which applies the negative TTL to null entries.
+   */
+  static <K, V> Expiry<K, V> wrapExpiry(final Expiry<K, V> expiry,
+      final Duration expireAfterWrite, final Duration negativeTtl) {
+    final long negativeNanos = toNanos(negativeTtl);
+    if (expiry != null) {
+      return (key, val) -> val instanceof NullEntry
+          ? negativeNanos : expiry.expireAfterWrite(key, val);
+    }
+    final long nanos = toNanos(expireAfterWrite);
+    return (key, val) -> val instanceof NullEntry ? negativeNanos : nanos;
+  }
+
+  private static long toNanos(final Duration duration) {
+    if (duration == null) {
+      return Long.MAX_VALUE;
+    }
+    try {
+      return duration.toNanos();
+    } catch (final ArithmeticException ex) {
+      return Long.MAX_VALUE;
+    }
+  }
+
+  private V unwrap(final V val) {
+    return val instanceof NullEntry ? null : val;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Function<K, V> wrapLoadAndMap(final Function<K, V> loadAndMap) {
+    return key -> {
+      final V val = loadAndMap.apply(key);
+      return val == null ? (V) NullEntry.forKey(key, storeKeys) : val;
+    };
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V getAggressive(final K key, final Function<K, L> loader) {
+    return unwrap(delegate.getAggressive(key, wrapLoader(loader)));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V get(final K key) {
+    return unwrap(delegate.get(key));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V get(final K key, final Function<K, V> loadAndMap) {
+    return unwrap(delegate.get(key, wrapLoadAndMap(loadAndMap)));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V getAggressive(final K key) {
+    return unwrap(delegate.getAggressive(key));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <I> V getAggressive(final K key, final Function<K, I> loader,
+      final BiFunction<K, I, V> mapper) {
+    return unwrap(delegate.getAggressive(key, wrapLoader(loader), wrapMapper(mapper, storeKeys)));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V putReplace(final K key, final V val) {
+    return unwrap(delegate.putReplace(key, val));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V replace(final K key, final V val) {
+    return unwrap(delegate.replace(key, val));
+  }
+
+  /**
+   * A null entry is not considered a value, and will be replaced.
+   *
+   * {@inheritDoc}
+   */
+  @Override
+  public V putIfAbsent(final K key, final V val) {
+    final V cached = delegate.putIfAbsent(key, val);
+    return cached instanceof NullEntry ? unwrap(delegate.replace(key, val)) : cached;
+  }
+
+  /**
+   * A null entry is not considered a value, and will be replaced.
+   *
+   * {@inheritDoc}
+   */
+  @Override
+  public V putIfSpaceAbsent(final K key, final V val) {
+    final V cached = delegate.putIfSpaceAbsent(key, val);
+    return cached instanceof NullEntry ? unwrap(delegate.replace(key, val)) : cached;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V putIfSpaceReplace(final K key, final V val) {
+    return unwrap(delegate.putIfSpaceReplace(key, val));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V getIfPresent(final K key) {
+    return unwrap(delegate.getIfPresent(key));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean remove(final K key) {
+    return delegate.remove(key);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public CacheStats stats() {
+    return delegate.stats();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public CacheDiagnostics diagnostics() {
+    return delegate.diagnostics();
+  }
+
+  /**
+   * Null entries are left out, so fewer than K entries may be returned.
+   *
+   * @param k the maximum number of entries to return.
+   * @return up to K non-null entries in descending order of their counters.
+   */
+  @Override
+  public List<HotEntry<K, V>> hotEntries(final int k) {
+    final List<HotEntry<K, V>> hotEntries = delegate.hotEntries(k);
+    hotEntries.removeIf(entry -> entry.getVal() instanceof NullEntry);
+    return hotEntries;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void setCapacity(final int capacity) {
+    delegate.setCapacity(capacity);
+  }
+
+  @Override
+  public String toString() {
+    return "NullCachingCollisionCache{" + delegate + '}';
+  }
+}
@@ -0,0 +1,41 @@
+package systems.comodal.collision.cache;
+
+/**
+ * Cached in place of a value when a loader returns null.  Entry caches store keys alongside values,
+ * so they share a single instance.  Keyless caches cannot test a sentinel with isValForKey, so each
+ * null entry holds a fingerprint of its key instead, and a different key with an equal hash code
+ * reads as the same cached null.
+ *
+ * @author James P. Edwards
+ */
+final class NullEntry {
+
+  static final NullEntry SHARED = new NullEntry(0);
+
+  final int fingerprint;
+
+  private NullEntry(final int fingerprint) {
+    this.fingerprint = fingerprint;
+  }
+
+  static NullEntry forKey(final Object key, final boolean storeKeys) {
+    return storeKeys ? SHARED : new NullEntry(fingerprint(key));
+  }
+
+  /**
+   * Uses the full hash code of the key, rather than the masked bucket index, so keys sharing a hash
+   * bucket only share a fingerprint if their hash codes are equal.
+   */
+  static int fingerprint(final Object key) {
+    return key.hashCode();
+  }
+
+  boolean isForKey(final Object key) {
+    return fingerprint == fingerprint(key);
+  }
+
+  @Override
+  public String toString() {
+    return "NullEntry{fingerprint=" + fingerprint + '}';
+  }
+}
@@ -0,0 +1,289 @@
+package systems.comodal.collision.cache;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * A small, fully associative stash shared by every bucket of a packed cache, similar to the stash
+ * of a cuckoo hash table.  Entries evicted from a full bucket are moved here rather than dropped,
+ * so that a few overcrowded buckets can borrow space without growing every bucket.  Once full, a
+ * stashed entry is only replaced by a newly evicted one if it has the lowest count of a small
+ * sample of slots taken from a rotating hand, and each sampled count is halved as the hand
+ * passes.
+ *
+ * <p>Lookups that miss their bucket first consult a counting filter of the buckets with stashed
+ * entries, so buckets that have never overflowed skip the stash entirely.  Nothing synchronizes
+ * on the stash, so that it may be written while holding a bucket lock.  Each write claims its slot
+ * with a single compare and exchange, and an evicted entry which loses a race for its slot is
+ * dropped.  Filter counts are raised before an entry is installed and lowered after it is
+ * replaced, so the filter never hides a stashed entry.
+ *
+ * <p>Entries are tagged with their hash bucket, which is also mirrored in a plain int array so
+ * that lookups only dereference slots holding entries from their own bucket.
+ *
+ * @param <K> the type of keys used to map to values
+ * @param <V> the type of mapped values
+ * @author James P. Edwards
+ */
+final class OverflowStash<K, V> {
+
+  private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(Stashed[].class);
+  private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+  private static final VarHandle HAND;
+  private static final int FILTER_FACTOR_SHIFT = 3;
+  private static final int SAMPLE_SIZE = 8;
+  private static final int EMPTY = -1;
+
+  static {
+    try {
+      HAND = MethodHandles.lookup().findVarHandle(OverflowStash.class, "hand", int.class);
+    } catch (final ReflectiveOperationException ex) {
+      throw new ExceptionInInitializerError(ex);
+    }
+  }
+
+  private static final class Stashed<K, V> {
+
+    private final KeyVal<K, V> entry;
+    private final int bucket;
+
+    private Stashed(final KeyVal<K, V> entry, final int bucket) {
+      this.entry = entry;
+      this.bucket = bucket;
+    }
+  }
+
+  private final Stashed<K, V>[] entries;
+  private final int[] buckets;
+  private final AtomicLogCounters counters;
+  private final int[] filter;
+  private final int filterShift;
+  private volatile int hand;
+
+  @SuppressWarnings("unchecked")
+  OverflowStash(final AtomicLogCounters counters) {
+    final int numSlots = counters.getNumCounters();
+    this.entries = (Stashed<K, V>[]) new Stashed<?, ?>[numSlots];
+    this.buckets = new int[numSlots];
+    Arrays.fill(buckets, EMPTY);
+    this.counters = counters;
+    final int filterLength = Integer.highestOneBit(Math.max(1, numSlots - 1))
+        << (1 + FILTER_FACTOR_SHIFT);
+    this.filter = new int[filterLength];
+    this.filterShift = Integer.SIZE - Integer.numberOfTrailingZeros(filterLength);
+  }
+
+  private int filterIndex(final int bucket) {
+    return (bucket * 0x9E3779B9) >>> filterShift;
+  }
+
+  private boolean mayContain(final int bucket) {
+    return (int) INTS.getVolatile(filter, filterIndex(bucket)) != 0;
+  }
+
+  private void filter(final int bucket) {
+    INTS.getAndAdd(filter, filterIndex(bucket), 1);
+  }
+
+  private void unfilter(final int bucket) {
+    INTS.getAndAdd(filter, filterIndex(bucket), -1);
+  }
+
+  @SuppressWarnings("unchecked")
+  private Stashed<K, V> slot(final int slot) {
+    return (Stashed<K, V>) SLOTS.getVolatile(entries, slot);
+  }
+
+  /**
+   * Installs an entry in a slot if it still holds the expected entry, keeping the filter and the
+   * mirrored bucket in step with the winner of any race for the slot.
+   *
+   * @return true if the entry was installed.
+   */
+  private boolean exchange(final int slot, final Stashed<K, V> expected,
+      final Stashed<K, V> stashed) {
+    if (stashed != null && (expected == null || expected.bucket != stashed.bucket)) {
+      filter(stashed.bucket);
+    }
+    if (!SLOTS.compareAndSet(entries, slot, expected, stashed)) {
+      if (stashed != null && (expected == null || expected.bucket != stashed.bucket)) {
+        unfilter(stashed.bucket);
+      }
+      return false;
+    }
+    if (expected != null && (stashed == null || expected.bucket != stashed.bucket)) {
+      unfilter(expected.bucket);
+    }
+    // Republish until the mirrored bucket matches the slot, as later exchanges may interleave.
+    for (Stashed<K, V> current = stashed; ; ) {
+      INTS.setVolatile(buckets, slot, current == null ? EMPTY : current.bucket);
+      final Stashed<K, V> witness = slot(slot);
+      if (witness == current) {
+        return true;
+      }
+      current = witness;
+    }
+  }
+
+  /**
+   * @param key used for stored key equality.
+   * @param bucket the hash bucket the key maps to.
+   * @return the stashed value for the key, or null if it is not stashed.
+   */
+  V get(final K key, final int bucket) {
+    if (!mayContain(bucket)) {
+      return null;
+    }
+    for (int slot = 0; slot < entries.length; ++slot) {
+      if ((int) INTS.getOpaque(buckets, slot) == bucket) {
+        final Stashed<K, V> stashed = slot(slot);
+        if (stashed != null && stashed.bucket == bucket && key.equals(stashed.entry.key)) {
+          counters.increment(slot);
+          return stashed.entry.val;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Stashes an entry evicted from a full bucket, carrying over its count.  Dropped if every
+   * sampled slot holds an entry with a higher count, or if another write claims the slot first.
+   *
+   * @param evicted the entry evicted from its bucket.
+   * @param bucket the hash bucket the entry was evicted from.
+   * @param count the count of the evicted entry.
+   */
+  void put(final KeyVal<K, V> evicted, final int bucket, final int count) {
+    final Stashed<K, V> stashed = new Stashed<>(evicted, bucket);
+    if (mayContain(bucket)) {
+      for (int slot = 0; slot < entries.length; ++slot) {
+        final Stashed<K, V> current = slot(slot);
+        if (current != null && current.bucket == bucket && evicted.key.equals(current.entry.key)) {
+          if (exchange(slot, current, stashed)) {
+            counters.setOpaque(slot, count);
+          }
+          return;
+        }
+      }
+    }
+    final int slot = sampleVictim(count);
+    if (slot >= 0) {
+      if (exchange(slot, slot(slot), stashed)) {
+        counters.setOpaque(slot, count);
+      }
+    }
+  }
+
+  /**
+   * @return an empty slot, or the slot with the lowest count of those sampled if it is no
+   * higher than the given count, otherwise -1.
+   */
+  private int sampleVictim(final int count) {
+    int minSlot = -1;
+    int minCount = Integer.MAX_VALUE;
+    final int start = (int) HAND.getAndAdd(this, SAMPLE_SIZE);
+    for (int i = 0; i < SAMPLE_SIZE; ++i) {
+      final int slot = Integer.remainderUnsigned(start + i, entries.length);
+      if (slot(slot) == null) {
+        return slot;
+      }
+      final int sampled = counters.getOpaque(slot);
+      // Counter misses may occur between these two calls.
+      counters.setOpaque(slot, sampled >> 1);
+      if (sampled < minCount) {
+        minCount = sampled;
+        minSlot = slot;
+      }
+    }
+    return minCount <= count ? minSlot : -1;
+  }
+
+  /**
+   * Replaces every stashed entry for the key, as racing writes may have stashed it twice.
+   *
+   * @return the new value, or null if the key is not stashed.
+   */
+  V replace(final K key, final int bucket, final V val) {
+    if (!mayContain(bucket)) {
+      return null;
+    }
+    final Stashed<K, V> replacement = new Stashed<>(new KeyVal<>(key, val), bucket);
+    boolean replaced = false;
+    for (int slot = 0; slot < entries.length; ++slot) {
+      for (Stashed<K, V> current = slot(slot);
+          current != null && current.bucket == bucket && key.equals(current.entry.key);
+          current = slot(slot)) {
+        if (exchange(slot, current, replacement)) {
+          replaced = true;
+          break;
+        }
+      }
+    }
+    return replaced ? val : null;
+  }
+
+  /**
+   * Removes every stashed entry for the key, as racing writes may have stashed it twice.
+   *
+   * @return true if the key was stashed.
+   */
+  boolean remove(final K key, final int bucket) {
+    if (!mayContain(bucket)) {
+      return false;
+    }
+    boolean removed = false;
+    for (int slot = 0; slot < entries.length; ++slot) {
+      for (Stashed<K, V> current = slot(slot);
+          current != null && current.bucket == bucket && key.equals(current.entry.key);
+          current = slot(slot)) {
+        if (exchange(slot, current, null)) {
+          removed = true;
+          break;
+        }
+      }
+    }
+    return removed;
+  }
+
+  void clear() {
+    for (int slot = 0; slot < entries.length; ++slot) {
+      for (Stashed<K, V> current = slot(slot); current != null; current = slot(slot)) {
+        if (exchange(slot, current, null)) {
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the number of stashed entries.
+   */
+  int size() {
+    int size = 0;
+    for (int slot = 0; slot < entries.length; ++slot) {
+      if (slot(slot) != null) {
+        ++size;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @return the estimated bytes retained by the stash, excluding the keys and values themselves.
+   */
+  long estimatedBytes() {
+    return CacheDiagnostics.arrayBytes(entries.length, CacheDiagnostics.REFERENCE_BYTES)
+        // Each entry is wrapped with its bucket in an object the size of a KeyVal.
+        + (long) size() * (CacheDiagnostics.KEY_VAL_BYTES << 1)
+        + CacheDiagnostics.arrayBytes(buckets.length, Integer.BYTES)
+        + CacheDiagnostics.arrayBytes(filter.length, Integer.BYTES)
+        + counters.estimatedBytes();
+  }
+
+  @Override
+  public String toString() {
+    return "OverflowStash{numSlots=" + entries.length + ", filterLength=" + filter.length + '}';
+  }
+}
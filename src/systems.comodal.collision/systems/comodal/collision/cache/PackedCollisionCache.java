@@ -1,7 +1,5 @@
 package systems.comodal.collision.cache;
 
-import static systems.comodal.collision.cache.AtomicLogCounters.MAX_COUNT;
-
 import java.util.function.BiFunction;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
@@ -22,12 +20,14 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
       final V[][] hashTable,
       final IntFunction<V[]> getBucket,
       final AtomicLogCounters counters,
+      final ExpiryTimes<K, V> expiry,
       final ToIntFunction<K> hashCoder,
       final BiPredicate<K, V> isValForKey,
+      final StatsCounter stats,
       final Function<K, L> loader,
       final BiFunction<K, L, V> mapper) {
-    super(valueType, maxCollisionsShift, hashTable, getBucket, counters, hashCoder, isValForKey,
-        loader, mapper);
+    super(valueType, maxCollisionsShift, hashTable, getBucket, counters, expiry, hashCoder,
+        isValForKey, stats, loader, mapper);
   }
 
   /**
@@ -44,7 +44,7 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
     do {
       V collision = (V) COLLISIONS.getOpaque(collisions, index);
       if (collision == null) {
-        final I loaded = loader.apply(key);
+        final I loaded = load(key, loader);
         if (loaded == null) {
           return null;
         }
@@ -52,22 +52,31 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
         do {
           collision = (V) COLLISIONS.compareAndExchange(collisions, index, null, val);
           if (collision == null) {
-            counters.initializeOpaque(counterOffset + index);
+            initialize(counterOffset + index, key, val);
             return val;
           }
           if (isValForKey.test(key, collision)) {
-            counters.increment(counterOffset + index);
+            increment(counterOffset + index);
             return collision;
           }
         } while (++index < collisions.length);
         return checkDecayAndProbSwap(counterOffset, collisions, key, val);
       }
       if (isValForKey.test(key, collision)) {
-        counters.increment(counterOffset + index);
+        if (isExpired(counterOffset + index)) {
+          if (serveStale(counterOffset + index, key)) {
+            return collision;
+          }
+          final I loaded = load(key, loader);
+          return swapExpired(counterOffset + index, collisions, index, collision, key,
+              loaded == null ? null : mapper.apply(key, loaded));
+        }
+        increment(counterOffset + index);
+        refreshIfDue(counterOffset + index, key);
         return collision;
       }
     } while (++index < collisions.length);
-    final I loaded = loader.apply(key);
+    final I loaded = load(key, loader);
     return loaded == null ? null
         : checkDecayAndProbSwap(counterOffset, collisions, key, loaded, mapper);
   }
@@ -78,35 +87,38 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
     int index = 0;
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) {
         V collision = (V) COLLISIONS.getOpaque(collisions, index);
         if (collision == null) { // Assume over capacity.
           if (index == 0) { // Strict capacity checked in parent call.
             collision = (V) COLLISIONS.compareAndExchange(collisions, index, null, val);
             if (collision == null) {
-              counters.initializeOpaque(counterIndex);
+              initialize(counterIndex, key, val);
               return val;
             }
             if (isValForKey.test(key, collision)) {
-              counters.increment(counterIndex);
+              increment(counterIndex);
               return collision;
             }
             return val; // Don't cache, lost tie breaker.
           }
           COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, val);
-          counters.initializeOpaque(minCounterIndex);
+          stats.recordEviction(minCount);
+          initialize(minCounterIndex, key, val);
           counters.decay(counterOffset, counterIndex, minCounterIndex);
           return val;
         }
 
         if (isValForKey.test(key, collision)) {
-          counters.increment(counterIndex);
+          increment(counterIndex);
           return collision;
         }
 
-        int count = counters.getOpaque(counterIndex);
+        int count = count(counterIndex);
         if (count < minCount) {
           minCount = count;
           minCounterIndex = counterIndex;
@@ -114,7 +126,8 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
         ++counterIndex;
         if (++index == collisions.length) {
           COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, val);
-          counters.initializeOpaque(minCounterIndex);
+          stats.recordEviction(minCount);
+          initialize(minCounterIndex, key, val);
           counters.decay(counterOffset, counterIndex, minCounterIndex);
           return val;
         }
@@ -131,8 +144,10 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
     int index = 0;
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) {
         V collision = (V) COLLISIONS.getOpaque(collisions, index);
         if (collision == null) { // Assume over capacity.
@@ -140,27 +155,28 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
           if (index == 0) { // Strict capacity checked in parent call.
             collision = (V) COLLISIONS.compareAndExchange(collisions, index, null, val);
             if (collision == null) {
-              counters.initializeOpaque(counterIndex);
+              initialize(counterIndex, key, val);
               return val;
             }
             if (isValForKey.test(key, collision)) {
-              counters.increment(counterIndex);
+              increment(counterIndex);
               return collision;
             }
             return val; // Don't cache, lost tie breaker.
           }
           COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, val);
-          counters.initializeOpaque(minCounterIndex);
+          stats.recordEviction(minCount);
+          initialize(minCounterIndex, key, val);
           counters.decay(counterOffset, counterIndex, minCounterIndex);
           return val;
         }
 
         if (isValForKey.test(key, collision)) {
-          counters.increment(counterIndex);
+          increment(counterIndex);
           return collision;
         }
 
-        int count = counters.getOpaque(counterIndex);
+        int count = count(counterIndex);
         if (count < minCount) {
           minCount = count;
           minCounterIndex = counterIndex;
@@ -169,7 +185,8 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
         if (++index == collisions.length) {
           final V val = mapper.apply(key, loaded);
           COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, val);
-          counters.initializeOpaque(minCounterIndex);
+          stats.recordEviction(minCount);
+          initialize(minCounterIndex, key, val);
           counters.decay(counterOffset, counterIndex, minCounterIndex);
           return val;
         }
@@ -185,38 +202,40 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
   V checkDecayAndSwap(final int counterOffset, final V[] collisions, final K key,
       final Function<K, V> loadAndMap) {
     int index = 0;
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) { // Double-check locked volatile before swapping LFU to help prevent duplicates.
         V collision = (V) COLLISIONS.getOpaque(collisions, index);
         if (collision == null) {
-          final V val = loadAndMap.apply(key);
+          final V val = load(key, loadAndMap);
           if (val == null) {
             return null;
           }
           do {
             collision = (V) COLLISIONS.compareAndExchange(collisions, index, null, val);
             if (collision == null) {
-              counters.initializeOpaque(counterOffset + index);
+              initialize(counterOffset + index, key, val);
               return val;
             }
             if (isValForKey.test(key, collision)) {
-              counters.increment(counterOffset + index);
+              increment(counterOffset + index);
               return collision;
             }
           } while (++index == collisions.length);
-          decayAndSwap(counterOffset, counterOffset + collisions.length, collisions, val);
+          decayAndSwap(counterOffset, counterOffset + collisions.length, collisions, key, val);
           return val;
         }
         if (isValForKey.test(key, collision)) {
-          counters.increment(counterOffset + index);
+          increment(counterOffset + index);
           return collision;
         }
         if (++index == collisions.length) {
-          final V val = loadAndMap.apply(key);
+          final V val = load(key, loadAndMap);
           if (val == null) {
             return null;
           }
-          decayAndSwap(counterOffset, counterOffset + collisions.length, collisions, val);
+          decayAndSwap(counterOffset, counterOffset + collisions.length, collisions, key, val);
           return val;
         }
       }
@@ -233,50 +252,54 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
     int index = 0;
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) {
         V collision = (V) COLLISIONS.getOpaque(collisions, index);
         if (collision == null) {
-          final V val = loadAndMap.apply(key);
+          final V val = load(key, loadAndMap);
           if (val == null) {
             return null;
           }
           do {
             collision = (V) COLLISIONS.compareAndExchange(collisions, index, null, val);
             if (collision == null) {
-              counters.initializeOpaque(counterOffset + index);
+              initialize(counterOffset + index, key, val);
               return val;
             }
             if (isValForKey.test(key, collision)) {
-              counters.increment(counterOffset + index);
+              increment(counterOffset + index);
               return collision;
             }
           } while (++index == collisions.length);
           COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, val);
-          counters.initializeOpaque(minCounterIndex);
+          stats.recordEviction(minCount);
+          initialize(minCounterIndex, key, val);
           counters.decay(counterOffset, counterOffset + collisions.length, minCounterIndex);
           return val;
         }
 
         if (isValForKey.test(key, collision)) {
-          counters.increment(counterIndex);
+          increment(counterIndex);
           return collision;
         }
 
-        int count = counters.getOpaque(counterIndex);
+        int count = count(counterIndex);
         if (count < minCount) {
           minCount = count;
           minCounterIndex = counterIndex;
         }
         ++counterIndex;
         if (++index == collisions.length) {
-          final V val = loadAndMap.apply(key);
+          final V val = load(key, loadAndMap);
           if (val == null) {
             return null;
           }
           COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, val);
-          counters.initializeOpaque(minCounterIndex);
+          stats.recordEviction(minCount);
+          initialize(minCounterIndex, key, val);
           counters.decay(counterOffset, counterIndex, minCounterIndex);
           return val;
         }
@@ -302,7 +325,7 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
         do {
           collision = (V) COLLISIONS.compareAndExchange(collisions, index, null, val);
           if (collision == null) {
-            counters.initializeOpaque((hash << maxCollisionsShift) + index);
+            initialize((hash << maxCollisionsShift) + index, key, val);
             return val;
           }
           if (isValForKey.test(key, collision)) {
@@ -317,6 +340,7 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
       if (isValForKey.test(key, collision)) {
         final V witness = (V) COLLISIONS.compareAndExchange(collisions, index, collision, val);
         if (witness == collision) {
+          written((hash << maxCollisionsShift) + index, key, val);
           return val;
         }
         if (isValForKey.test(key, witness)) {
@@ -329,8 +353,10 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
     final int counterOffset = hash << maxCollisionsShift;
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) {
         final V collision = (V) COLLISIONS.getOpaque(collisions, index);
         if (collision == val) {
@@ -340,6 +366,7 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
           final V witness = (V) COLLISIONS
               .compareAndExchange(collisions, index, collision, val);
           if (witness == collision) {
+            written(counterIndex, key, val);
             return val;
           }
           if (isValForKey.test(key, witness)) {
@@ -347,7 +374,7 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
           }
         }
 
-        int count = counters.getOpaque(counterIndex);
+        int count = count(counterIndex);
         if (count < minCount) {
           minCount = count;
           minCounterIndex = counterIndex;
@@ -355,7 +382,8 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
         ++counterIndex;
         if (++index == collisions.length) {
           COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, val);
-          counters.initializeOpaque(minCounterIndex);
+          stats.recordEviction(minCount);
+          initialize(minCounterIndex, key, val);
           counters.decay(counterOffset, counterIndex, minCounterIndex);
           return val;
         }
@@ -381,7 +409,7 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
         do {
           collision = (V) COLLISIONS.compareAndExchange(collisions, index, null, val);
           if (collision == null) {
-            counters.initializeOpaque((hash << maxCollisionsShift) + index);
+            initialize((hash << maxCollisionsShift) + index, key, val);
             return val;
           }
           if (isValForKey.test(key, collision)) {
@@ -391,7 +419,9 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
         break;
       }
       if (isValForKey.test(key, collision)) {
-        return collision;
+        final int counterIndex = (hash << maxCollisionsShift) + index;
+        return isExpired(counterIndex)
+            ? swapExpired(counterIndex, collisions, index, collision, key, val) : collision;
       }
     } while (++index < collisions.length);
 
@@ -399,14 +429,17 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
     final int counterOffset = hash << maxCollisionsShift;
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) {
         final V collision = (V) COLLISIONS.getOpaque(collisions, index);
         if (isValForKey.test(key, collision)) {
-          return collision;
+          return isExpired(counterIndex)
+              ? swapExpired(counterIndex, collisions, index, collision, key, val) : collision;
         }
-        int count = counters.getOpaque(counterIndex);
+        int count = count(counterIndex);
         if (count < minCount) {
           minCount = count;
           minCounterIndex = counterIndex;
@@ -414,7 +447,8 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
         ++counterIndex;
         if (++index == collisions.length) {
           COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, val);
-          counters.initializeOpaque(minCounterIndex);
+          stats.recordEviction(minCount);
+          initialize(minCounterIndex, key, val);
           counters.decay(counterOffset, counterIndex, minCounterIndex);
           return val;
         }
@@ -440,7 +474,7 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
         do {
           collision = (V) COLLISIONS.compareAndExchange(collisions, index, null, val);
           if (collision == null) {
-            counters.initializeOpaque((hash << maxCollisionsShift) + index);
+            initialize((hash << maxCollisionsShift) + index, key, val);
             return val;
           }
           if (isValForKey.test(key, collision)) {
@@ -450,7 +484,9 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
         return null;
       }
       if (isValForKey.test(key, collision)) {
-        return collision;
+        final int counterIndex = (hash << maxCollisionsShift) + index;
+        return isExpired(counterIndex)
+            ? swapExpired(counterIndex, collisions, index, collision, key, val) : collision;
       }
     } while (++index < collisions.length);
     return null;
@@ -474,7 +510,7 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
         do {
           collision = (V) COLLISIONS.compareAndExchange(collisions, index, null, val);
           if (collision == null) {
-            counters.initializeOpaque((hash << maxCollisionsShift) + index);
+            initialize((hash << maxCollisionsShift) + index, key, val);
             return val;
           }
           if (isValForKey.test(key, collision)) {
@@ -489,6 +525,7 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
       if (isValForKey.test(key, collision)) {
         final V witness = (V) COLLISIONS.compareAndExchange(collisions, index, collision, val);
         if (witness == collision) {
+          written((hash << maxCollisionsShift) + index, key, val);
           return val;
         }
         if (key.equals(witness)) {
@@ -507,7 +544,9 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
   public boolean remove(final K key) {
     final int hash = hashCoder.applyAsInt(key) & mask;
     final V[] collisions = getBucket.apply(hash);
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(hash << maxCollisionsShift, requested);
       int index = 0;
       do {
         V collision = (V) COLLISIONS.getOpaque(collisions, index);
@@ -534,8 +573,7 @@ final class PackedCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
               COLLISIONS.setOpaque(collisions, index, next);
             }
             // Counter misses may occur during this transition.
-            final int count = counters.getOpaque(++counterIndex);
-            counters.setOpaque(counterIndex - 1, count >> 1);
+            shift(++counterIndex);
           }
         }
       } while (++index < collisions.length);
@@ -1,7 +1,5 @@
 package systems.comodal.collision.cache;
 
-import static systems.comodal.collision.cache.AtomicLogCounters.MAX_COUNT;
-
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.IntFunction;
@@ -20,10 +18,30 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
       final KeyVal<K, V>[][] hashTable,
       final IntFunction<KeyVal<K, V>[]> getBucket,
       final AtomicLogCounters counters,
+      final ExpiryTimes<K, V> expiry,
+      final OverflowStash<K, V> stash,
       final ToIntFunction<K> hashCoder,
+      final StatsCounter stats,
       final Function<K, L> loader,
       final BiFunction<K, L, V> mapper) {
-    super(maxCollisionsShift, hashTable, getBucket, counters, hashCoder, loader, mapper);
+    super(maxCollisionsShift, hashTable, getBucket, counters, expiry, stash, hashCoder, stats,
+        loader, mapper);
+  }
+
+  /**
+   * Swaps an entry in place of the least frequently used entry of a full bucket, moving the
+   * evicted entry to the overflow stash if configured.  Must be called while synchronized on the
+   * bucket.
+   */
+  @SuppressWarnings("unchecked")
+  private void evict(final KeyVal<K, V>[] collisions, final int counterOffset,
+      final int minCounterIndex, final int minCount, final KeyVal<K, V> entry) {
+    if (stash != null) {
+      stash((KeyVal<K, V>) COLLISIONS.getOpaque(collisions, minCounterIndex - counterOffset),
+          counterOffset, minCount);
+    }
+    COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, entry);
+    stats.recordEviction(minCount);
   }
 
   /**
@@ -40,7 +58,11 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
     do {
       KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
       if (collision == null) {
-        final I loaded = loader.apply(key);
+        final V stashed = stashed(key, hash);
+        if (stashed != null) {
+          return stashed;
+        }
+        final I loaded = load(key, loader);
         if (loaded == null) {
           return null;
         }
@@ -49,22 +71,35 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
           collision = (KeyVal<K, V>) COLLISIONS
               .compareAndExchange(collisions, index, null, entry);
           if (collision == null) {
-            counters.initializeOpaque(counterOffset + index);
+            initialize(counterOffset + index, entry);
             return entry.val;
           }
           if (key.equals(collision.key)) {
-            counters.increment(counterOffset + index);
+            increment(counterOffset + index);
             return collision.val;
           }
         } while (++index < collisions.length);
         return checkDecayAndProbSwap(counterOffset, collisions, entry);
       }
       if (key.equals(collision.key)) {
-        counters.increment(counterOffset + index);
+        if (isExpired(counterOffset + index)) {
+          if (serveStale(counterOffset + index, key)) {
+            return collision.val;
+          }
+          final I loaded = load(key, loader);
+          return swapExpired(counterOffset + index, collisions, index, collision, key,
+              loaded == null ? null : mapper.apply(key, loaded));
+        }
+        increment(counterOffset + index);
+        refreshIfDue(counterOffset + index, key);
         return collision.val;
       }
     } while (++index < collisions.length);
-    final I loaded = loader.apply(key);
+    final V stashed = stashed(key, hash);
+    if (stashed != null) {
+      return stashed;
+    }
+    final I loaded = load(key, loader);
     return loaded == null ? null
         : checkDecayAndProbSwap(counterOffset, collisions, key, loaded, mapper);
   }
@@ -75,8 +110,10 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
     int index = 0;
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) {
         KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
         if (collision == null) { // Assume over capacity.
@@ -84,35 +121,35 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
             collision = (KeyVal<K, V>) COLLISIONS
                 .compareAndExchange(collisions, index, null, entry);
             if (collision == null) {
-              counters.initializeOpaque(counterIndex);
+              initialize(counterIndex, entry);
               return entry.val;
             }
             if (entry.key.equals(collision.key)) {
-              counters.increment(counterIndex);
+              increment(counterIndex);
               return collision.val;
             }
             return entry.val; // Don't cache, lost tie breaker.
           }
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, entry);
-          counters.initializeOpaque(minCounterIndex);
+          evict(collisions, counterOffset, minCounterIndex, minCount, entry);
+          initialize(minCounterIndex, entry);
           counters.decay(counterOffset, counterIndex, minCounterIndex);
           return entry.val;
         }
 
         if (entry.key.equals(collision.key)) {
-          counters.increment(counterIndex);
+          increment(counterIndex);
           return collision.val;
         }
 
-        int count = counters.getOpaque(counterIndex);
+        int count = count(counterIndex);
         if (count < minCount) {
           minCount = count;
           minCounterIndex = counterIndex;
         }
         ++counterIndex;
         if (++index == collisions.length) {
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, entry);
-          counters.initializeOpaque(minCounterIndex);
+          evict(collisions, counterOffset, minCounterIndex, minCount, entry);
+          initialize(minCounterIndex, entry);
           counters.decay(counterOffset, counterIndex, minCounterIndex);
           return entry.val;
         }
@@ -129,8 +166,10 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
     int index = 0;
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) {
         KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
         if (collision == null) { // Assume over capacity.
@@ -140,27 +179,27 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
             collision = (KeyVal<K, V>) COLLISIONS
                 .compareAndExchange(collisions, index, null, entry);
             if (collision == null) {
-              counters.initializeOpaque(counterIndex);
+              initialize(counterIndex, entry);
               return val;
             }
             if (key.equals(collision.key)) {
-              counters.increment(counterIndex);
+              increment(counterIndex);
               return collision.val;
             }
             return val; // Don't cache, lost tie breaker.
           }
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, entry);
-          counters.initializeOpaque(minCounterIndex);
+          evict(collisions, counterOffset, minCounterIndex, minCount, entry);
+          initialize(minCounterIndex, entry);
           counters.decay(counterOffset, counterIndex, minCounterIndex);
           return val;
         }
 
         if (key.equals(collision.key)) {
-          counters.increment(counterIndex);
+          increment(counterIndex);
           return collision.val;
         }
 
-        int count = counters.getOpaque(counterIndex);
+        int count = count(counterIndex);
         if (count < minCount) {
           minCount = count;
           minCounterIndex = counterIndex;
@@ -168,8 +207,8 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
         ++counterIndex;
         if (++index == collisions.length) {
           final V val = mapper.apply(key, loaded);
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, new KeyVal<>(key, val));
-          counters.initializeOpaque(minCounterIndex);
+          evict(collisions, counterOffset, minCounterIndex, minCount, new KeyVal<>(key, val));
+          initialize(minCounterIndex, key, val);
           counters.decay(counterOffset, counterIndex, minCounterIndex);
           return val;
         }
@@ -184,12 +223,18 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
   @SuppressWarnings("unchecked")
   V checkDecayAndSwap(final int counterOffset, final KeyVal<K, V>[] collisions, final K key,
       final Function<K, V> loadAndMap) {
+    final V stashed = stashed(key, counterOffset >> maxCollisionsShift);
+    if (stashed != null) {
+      return stashed;
+    }
     int index = 0;
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) { // Double-check locked volatile before swapping LFU to help prevent duplicates.
         KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
         if (collision == null) {
-          final V val = loadAndMap.apply(key);
+          final V val = load(key, loadAndMap);
           if (val == null) {
             return null;
           }
@@ -198,11 +243,11 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
             collision = (KeyVal<K, V>) COLLISIONS
                 .compareAndExchange(collisions, index, null, entry);
             if (collision == null) {
-              counters.initializeOpaque(counterOffset + index);
+              initialize(counterOffset + index, entry);
               return val;
             }
             if (key.equals(collision.key)) {
-              counters.increment(counterOffset + index);
+              increment(counterOffset + index);
               return collision.val;
             }
           } while (++index == collisions.length);
@@ -210,11 +255,11 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
           return val;
         }
         if (key.equals(collision.key)) {
-          counters.increment(counterOffset + index);
+          increment(counterOffset + index);
           return collision.val;
         }
         if (++index == collisions.length) {
-          final V val = loadAndMap.apply(key);
+          final V val = load(key, loadAndMap);
           if (val == null) {
             return null;
           }
@@ -233,15 +278,21 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
   @SuppressWarnings("unchecked")
   V checkDecayAndProbSwap(final int counterOffset, final KeyVal<K, V>[] collisions, final K key,
       final Function<K, V> loadAndMap) {
+    final V stashed = stashed(key, counterOffset >> maxCollisionsShift);
+    if (stashed != null) {
+      return stashed;
+    }
     int index = 0;
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) {
         KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
         if (collision == null) {
-          final V val = loadAndMap.apply(key);
+          final V val = load(key, loadAndMap);
           if (val == null) {
             return null;
           }
@@ -250,38 +301,38 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
             collision = (KeyVal<K, V>) COLLISIONS
                 .compareAndExchange(collisions, index, null, entry);
             if (collision == null) {
-              counters.initializeOpaque(counterOffset + index);
+              initialize(counterOffset + index, entry);
               return val;
             }
             if (key.equals(collision.key)) {
-              counters.increment(counterOffset + index);
+              increment(counterOffset + index);
               return collision.val;
             }
           } while (++index == collisions.length);
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, entry);
-          counters.initializeOpaque(minCounterIndex);
+          evict(collisions, counterOffset, minCounterIndex, minCount, entry);
+          initialize(minCounterIndex, entry);
           counters.decay(counterOffset, counterOffset + collisions.length, minCounterIndex);
           return val;
         }
 
         if (key.equals(collision.key)) {
-          counters.increment(counterIndex);
+          increment(counterIndex);
           return collision.val;
         }
 
-        int count = counters.getOpaque(counterIndex);
+        int count = count(counterIndex);
         if (count < minCount) {
           minCount = count;
           minCounterIndex = counterIndex;
         }
         ++counterIndex;
         if (++index == collisions.length) {
-          final V val = loadAndMap.apply(key);
+          final V val = load(key, loadAndMap);
           if (val == null) {
             return null;
           }
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, new KeyVal<>(key, val));
-          counters.initializeOpaque(minCounterIndex);
+          evict(collisions, counterOffset, minCounterIndex, minCount, new KeyVal<>(key, val));
+          initialize(minCounterIndex, key, val);
           counters.decay(counterOffset, counterIndex, minCounterIndex);
           return val;
         }
@@ -309,7 +360,8 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
           collision = (KeyVal<K, V>) COLLISIONS
               .compareAndExchange(collisions, index, null, entry);
           if (collision == null) {
-            counters.initializeOpaque((hash << maxCollisionsShift) + index);
+            initialize((hash << maxCollisionsShift) + index, entry);
+            unstash(key, hash);
             return val;
           }
           if (key.equals(collision.key)) {
@@ -328,8 +380,12 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
         final KeyVal<K, V> witness = (KeyVal<K, V>) COLLISIONS
             .compareAndExchange(collisions, index, collision, entry);
         if (witness == collision) {
+          written((hash << maxCollisionsShift) + index, key, val);
           return val;
         }
+        if (witness == null) {
+          return val; // Removed concurrently, as if after this PUT.
+        }
         if (key.equals(witness.key)) {
           return witness.val; // If another thread raced to PUT, let it win.
         }
@@ -340,8 +396,10 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
     final int counterOffset = hash << maxCollisionsShift;
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) {
         final KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
         if (collision.val == val) {
@@ -354,14 +412,18 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
           final KeyVal<K, V> witness = (KeyVal<K, V>) COLLISIONS
               .compareAndExchange(collisions, index, collision, entry);
           if (witness == collision) {
+            written(counterIndex, key, val);
             return val;
           }
+          if (witness == null) {
+            return val; // Removed concurrently, as if after this PUT.
+          }
           if (key.equals(witness.key)) {
             return witness.val; // If another thread raced to PUT, let it win.
           }
         }
 
-        int count = counters.getOpaque(counterIndex);
+        int count = count(counterIndex);
         if (count < minCount) {
           minCount = count;
           minCounterIndex = counterIndex;
@@ -371,8 +433,9 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
           if (entry == null) {
             entry = new KeyVal<>(key, val);
           }
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, entry);
-          counters.initializeOpaque(minCounterIndex);
+          evict(collisions, counterOffset, minCounterIndex, minCount, entry);
+          initialize(minCounterIndex, key, val);
+          unstash(key, hash);
           counters.decay(counterOffset, counterIndex, minCounterIndex);
           return val;
         }
@@ -393,12 +456,16 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
     do {
       KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
       if (collision == null) {
+        final V stashed = stashed(key, hash);
+        if (stashed != null) {
+          return stashed;
+        }
         entry = new KeyVal<>(key, val);
         do {
           collision = (KeyVal<K, V>) COLLISIONS
               .compareAndExchange(collisions, index, null, entry);
           if (collision == null) {
-            counters.initializeOpaque((hash << maxCollisionsShift) + index);
+            initialize((hash << maxCollisionsShift) + index, entry);
             return val;
           }
           if (key.equals(collision.key)) {
@@ -408,22 +475,32 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
         break;
       }
       if (key.equals(collision.key)) {
-        return collision.val;
+        final int counterIndex = (hash << maxCollisionsShift) + index;
+        return isExpired(counterIndex)
+            ? swapExpired(counterIndex, collisions, index, collision, key, val) : collision.val;
       }
     } while (++index < collisions.length);
 
+    final V stashed = stashed(key, hash);
+    if (stashed != null) {
+      return stashed;
+    }
+
     index = 0;
     final int counterOffset = hash << maxCollisionsShift;
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) {
         final KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
         if (key.equals(collision.key)) {
-          return collision.val;
+          return isExpired(counterIndex)
+              ? swapExpired(counterIndex, collisions, index, collision, key, val) : collision.val;
         }
-        int count = counters.getOpaque(counterIndex);
+        int count = count(counterIndex);
         if (count < minCount) {
           minCount = count;
           minCounterIndex = counterIndex;
@@ -433,8 +510,8 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
           if (entry == null) {
             entry = new KeyVal<>(key, val);
           }
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, entry);
-          counters.initializeOpaque(minCounterIndex);
+          evict(collisions, counterOffset, minCounterIndex, minCount, entry);
+          initialize(minCounterIndex, key, val);
           counters.decay(counterOffset, counterIndex, minCounterIndex);
           return val;
         }
@@ -454,25 +531,31 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
     do {
       KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
       if (collision == null) {
+        final V stashed = stashed(key, hash);
+        if (stashed != null) {
+          return stashed;
+        }
         final KeyVal<K, V> entry = new KeyVal<>(key, val);
         do {
           collision = (KeyVal<K, V>) COLLISIONS
               .compareAndExchange(collisions, index, null, entry);
           if (collision == null) {
-            counters.initializeOpaque((hash << maxCollisionsShift) + index);
+            initialize((hash << maxCollisionsShift) + index, entry);
             return val;
           }
           if (key.equals(collision.key)) {
             return collision.val;
           }
         } while (++index < collisions.length);
-        return null;
+        return stashed(key, hash);
       }
       if (key.equals(collision.key)) {
-        return collision.val;
+        final int counterIndex = (hash << maxCollisionsShift) + index;
+        return isExpired(counterIndex)
+            ? swapExpired(counterIndex, collisions, index, collision, key, val) : collision.val;
       }
     } while (++index < collisions.length);
-    return null;
+    return stashed(key, hash);
   }
 
   /**
@@ -495,14 +578,15 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
           collision = (KeyVal<K, V>) COLLISIONS
               .compareAndExchange(collisions, index, null, entry);
           if (collision == null) {
-            counters.initializeOpaque((hash << maxCollisionsShift) + index);
+            initialize((hash << maxCollisionsShift) + index, entry);
+            unstash(key, hash);
             return val;
           }
           if (key.equals(collision.key)) {
             return collision.val; // If another thread raced to PUT, let it win.
           }
         } while (++index < collisions.length);
-        return null;
+        return stash == null ? null : stash.replace(key, hash, val);
       }
       if (collision.val == val) {
         return val;
@@ -514,14 +598,18 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
         final KeyVal<K, V> witness = (KeyVal<K, V>) COLLISIONS
             .compareAndExchange(collisions, index, collision, entry);
         if (witness == collision) {
+          written((hash << maxCollisionsShift) + index, key, val);
           return val;
         }
+        if (witness == null) {
+          return val; // Removed concurrently, as if after this PUT.
+        }
         if (key.equals(witness.key)) {
           return witness.val; // If another thread raced to PUT, let it win.
         }
       }
     } while (++index < collisions.length);
-    return null;
+    return stash == null ? null : stash.replace(key, hash, val);
   }
 
   /**
@@ -532,12 +620,14 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
   public boolean remove(final K key) {
     final int hash = hashCoder.applyAsInt(key) & mask;
     final KeyVal<K, V>[] collisions = getBucket.apply(hash);
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(hash << maxCollisionsShift, requested);
       int index = 0;
       do {
         KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
         if (collision == null) {
-          return false;
+          return stash != null && stash.remove(key, hash);
         }
         if (key.equals(collision.key)) {
           final int counterOffset = hash << maxCollisionsShift;
@@ -559,13 +649,12 @@ final class PackedEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
               COLLISIONS.setOpaque(collisions, index, next);
             }
             // Counter misses may occur during this transition.
-            final int count = counters.getOpaque(++counterIndex);
-            counters.setOpaque(counterIndex - 1, count >> 1);
+            shift(++counterIndex);
           }
         }
       } while (++index < collisions.length);
     }
-    return false;
+    return stash != null && stash.remove(key, hash);
   }
 
   @Override
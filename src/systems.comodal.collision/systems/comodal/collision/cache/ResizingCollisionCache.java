@@ -0,0 +1,385 @@
+package systems.comodal.collision.cache;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Changes capacity by building a new cache and migrating the previous one to it incrementally,
+ * similar to a {@link java.util.concurrent.ConcurrentHashMap ConcurrentHashMap} transfer.  While
+ * migrating, each operation first claims and moves the next chunk of hash buckets, then moves the
+ * hash bucket of its key if the key is still in the previous cache, before a single lookup of the
+ * new cache.  Writes go to the new cache and then remove the key from the previous one, while
+ * removals go to the previous cache first, so that a bucket moved in between can neither restore a
+ * removed entry nor replace a newer value.  Once every chunk has moved, the previous cache is
+ * dropped.
+ *
+ * <p>A write which races the start of a resize may land in the previous cache after its bucket has
+ * moved, so every write re-checks the tables afterwards and repeats itself against the new cache
+ * if a resize has started.  Loads which race the start of a resize are not repeated and may be
+ * lost, like an eviction.  Entries in an overflow stash are not migrated.
+ *
+ * @param <K> the type of keys used to map to values
+ * @param <L> the type of loaded values before being mapped to type V
+ * @param <V> the type of mapped values
+ * @author James P. Edwards
+ */
+final class ResizingCollisionCache<K, L, V> implements LoadingCollisionCache<K, L, V> {
+
+  static final int TRANSFER_CHUNK = 1 << 6;
+
+  private static final VarHandle TABLES;
+
+  static {
+    try {
+      TABLES = MethodHandles.lookup()
+          .findVarHandle(ResizingCollisionCache.class, "tables", Tables.class);
+    } catch (final ReflectiveOperationException ex) {
+      throw new ExceptionInInitializerError(ex);
+    }
+  }
+
+  private final IntFunction<LoadingCollisionCache<K, L, V>> buildCache;
+  private volatile Tables<K, L, V> tables;
+
+  ResizingCollisionCache(final int capacity,
+      final IntFunction<LoadingCollisionCache<K, L, V>> buildCache) {
+    this.buildCache = buildCache;
+    this.tables = new Tables<>(capacity, build(capacity), null);
+  }
+
+  private BaseEntryCollisionCache<K, L, V> build(final int capacity) {
+    final LoadingCollisionCache<K, L, V> cache = buildCache.apply(capacity);
+    if (!(cache instanceof BaseEntryCollisionCache)) {
+      throw new IllegalStateException(
+          "Resizing is only supported by packed and sparse caches which store keys.");
+    }
+    final BaseEntryCollisionCache<K, L, V> entryCache = (BaseEntryCollisionCache<K, L, V>) cache;
+    if (entryCache.expiry != null) {
+      throw new IllegalStateException("Expiration is not supported by resizable caches.");
+    }
+    return entryCache;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized void setCapacity(final int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be > 0.");
+    }
+    Tables<K, L, V> tables = this.tables;
+    while (tables.previous != null) {
+      if (!helpTransfer(tables)) {
+        Thread.onSpinWait(); // Wait for other threads to finish their claimed chunks.
+      }
+      tables = this.tables;
+    }
+    if (capacity != tables.capacity) {
+      this.tables = new Tables<>(capacity, build(capacity), tables.current);
+    }
+  }
+
+  /**
+   * Claims and moves the next chunk of hash buckets from the previous cache.
+   *
+   * @return false if every chunk has already been claimed.
+   */
+  private boolean helpTransfer(final Tables<K, L, V> tables) {
+    final int numBuckets = tables.previous.getNumBuckets();
+    final int fromBucket = tables.transferIndex.getAndAdd(TRANSFER_CHUNK);
+    if (fromBucket >= numBuckets) {
+      return false;
+    }
+    final int toBucket = Math.min(numBuckets, fromBucket + TRANSFER_CHUNK);
+    tables.previous.transfer(fromBucket, toBucket, tables.current);
+    if (tables.transferred.addAndGet(toBucket - fromBucket) == numBuckets) {
+      TABLES.compareAndSet(this, tables, new Tables<>(tables.capacity, tables.current, null));
+    }
+    return true;
+  }
+
+  /**
+   * Must only be called while migrating.  Helps migrate, then moves the hash bucket of the key if
+   * it is still in the previous cache, so that a single lookup of the new cache finds it.  The
+   * previous cache is probed without recording stats or touching counters.
+   *
+   * @return true if the hash bucket of the key was moved.
+   */
+  private boolean migrate(final Tables<K, L, V> tables, final K key) {
+    helpTransfer(tables);
+    if (tables.previous.contains(key)) {
+      tables.previous.transfer(key, tables.current);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Writes are repeated against the latest tables if their current cache changed while writing.
+   *
+   * @param tables the tables a write was applied to.
+   * @return true if the current cache of the tables is still current.
+   */
+  private boolean isCurrent(final Tables<K, L, V> tables) {
+    return this.tables.current == tables.current;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V get(final K key) {
+    final Tables<K, L, V> tables = this.tables;
+    if (tables.previous == null) {
+      return tables.current.get(key);
+    }
+    migrate(tables, key);
+    return tables.current.get(key);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V get(final K key, final Function<K, V> loadAndMap) {
+    final Tables<K, L, V> tables = this.tables;
+    if (tables.previous == null) {
+      return tables.current.get(key, loadAndMap);
+    }
+    migrate(tables, key);
+    return tables.current.get(key, loadAndMap);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V getAggressive(final K key) {
+    final Tables<K, L, V> tables = this.tables;
+    if (tables.previous == null) {
+      return tables.current.getAggressive(key);
+    }
+    migrate(tables, key);
+    return tables.current.getAggressive(key);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V getAggressive(final K key, final Function<K, L> loader) {
+    final Tables<K, L, V> tables = this.tables;
+    if (tables.previous == null) {
+      return tables.current.getAggressive(key, loader);
+    }
+    migrate(tables, key);
+    return tables.current.getAggressive(key, loader);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <I> V getAggressive(final K key, final Function<K, I> loader,
+      final BiFunction<K, I, V> mapper) {
+    final Tables<K, L, V> tables = this.tables;
+    if (tables.previous == null) {
+      return tables.current.getAggressive(key, loader, mapper);
+    }
+    migrate(tables, key);
+    return tables.current.getAggressive(key, loader, mapper);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V getIfPresent(final K key) {
+    final Tables<K, L, V> tables = this.tables;
+    if (tables.previous != null) {
+      migrate(tables, key);
+    }
+    return tables.current.getIfPresent(key);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V putReplace(final K key, final V val) {
+    for (Tables<K, L, V> tables = this.tables; ; tables = this.tables) {
+      final V put = tables.current.putReplace(key, val);
+      if (tables.previous != null) {
+        tables.previous.remove(key);
+        helpTransfer(tables);
+      }
+      if (isCurrent(tables)) {
+        return put;
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V putIfSpaceReplace(final K key, final V val) {
+    for (Tables<K, L, V> tables = this.tables; ; tables = this.tables) {
+      final V put = tables.current.putIfSpaceReplace(key, val);
+      if (tables.previous != null) {
+        tables.previous.remove(key);
+        helpTransfer(tables);
+      }
+      if (isCurrent(tables)) {
+        return put;
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V replace(final K key, final V val) {
+    for (Tables<K, L, V> tables = this.tables; ; tables = this.tables) {
+      V replaced = tables.current.replace(key, val);
+      if (replaced == null && tables.previous != null && migrate(tables, key)) {
+        replaced = tables.current.replace(key, val);
+      }
+      if (isCurrent(tables)) {
+        return replaced;
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V putIfAbsent(final K key, final V val) {
+    for (Tables<K, L, V> tables = this.tables; ; tables = this.tables) {
+      if (tables.previous != null) {
+        migrate(tables, key);
+      }
+      final V put = tables.current.putIfAbsent(key, val);
+      if (isCurrent(tables)) {
+        return put;
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V putIfSpaceAbsent(final K key, final V val) {
+    for (Tables<K, L, V> tables = this.tables; ; tables = this.tables) {
+      if (tables.previous != null) {
+        migrate(tables, key);
+      }
+      final V put = tables.current.putIfSpaceAbsent(key, val);
+      if (isCurrent(tables)) {
+        return put;
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean remove(final K key) {
+    boolean removed = false;
+    for (Tables<K, L, V> tables = this.tables; ; tables = this.tables) {
+      if (tables.previous != null) {
+        removed |= tables.previous.remove(key);
+      }
+      removed |= tables.current.remove(key);
+      if (isCurrent(tables)) {
+        return removed;
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void clear() {
+    final Tables<K, L, V> tables = this.tables;
+    tables.current.clear();
+    if (tables.previous != null) {
+      tables.previous.clear();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public CacheStats stats() {
+    return tables.current.stats();
+  }
+
+  /**
+   * Only the new cache is scanned while migrating.
+   *
+   * @return a snapshot of the hash table's occupancy.
+   */
+  @Override
+  public CacheDiagnostics diagnostics() {
+    return tables.current.diagnostics();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public List<HotEntry<K, V>> hotEntries(final int k) {
+    final Tables<K, L, V> tables = this.tables;
+    if (tables.previous == null) {
+      return tables.current.hotEntries(k);
+    }
+    final HotEntry.TopK<K, V> top = new HotEntry.TopK<>(k);
+    for (final HotEntry<K, V> entry : tables.current.hotEntries(k)) {
+      top.offer(entry.getKey(), entry.getVal(), entry.getCount());
+    }
+    for (final HotEntry<K, V> entry : tables.previous.hotEntries(k)) {
+      top.offer(entry.getKey(), entry.getVal(), entry.getCount());
+    }
+    return top.toList();
+  }
+
+  @Override
+  public String toString() {
+    final Tables<K, L, V> tables = this.tables;
+    return "ResizingCollisionCache{capacity=" + tables.capacity
+        + ", migrating=" + (tables.previous != null)
+        + ", current=" + tables.current + '}';
+  }
+
+  /**
+   * An immutable pairing of the current cache with the previous cache it is migrating from.
+   */
+  private static final class Tables<K, L, V> {
+
+    private final int capacity;
+    private final BaseEntryCollisionCache<K, L, V> current;
+    private final BaseEntryCollisionCache<K, L, V> previous;
+    private final AtomicInteger transferIndex = new AtomicInteger();
+    private final AtomicInteger transferred = new AtomicInteger();
+
+    private Tables(final int capacity, final BaseEntryCollisionCache<K, L, V> current,
+        final BaseEntryCollisionCache<K, L, V> previous) {
+      this.capacity = capacity;
+      this.current = current;
+      this.previous = previous;
+    }
+  }
+}
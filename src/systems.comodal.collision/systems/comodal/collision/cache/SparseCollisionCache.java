@@ -1,12 +1,11 @@
 package systems.comodal.collision.cache;
 
-import static systems.comodal.collision.cache.AtomicLogCounters.MAX_COUNT;
-
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiFunction;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
 import java.util.function.IntFunction;
+import java.util.function.ToIntBiFunction;
 import java.util.function.ToIntFunction;
 import java.util.stream.IntStream;
 
@@ -16,28 +15,76 @@ import java.util.stream.IntStream;
  * @param <V> the type of mapped values
  * @author James P. Edwards
  */
-final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
+final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V>
+    implements MemoryPressureListener.Shrinkable, CacheGroup.Member {
 
-  private final int capacity;
+  private final long maxCapacity;
+  private volatile long capacity;
   private final boolean strict;
-  private final AtomicInteger size;
+  private final ToIntBiFunction<K, V> weigher;
+  private final CacheGroup group;
+  private final LongAdder size;
+  private int shedHand;
 
   SparseCollisionCache(
-      final int capacity, final boolean strictCapacity,
+      final long capacity, final boolean strictCapacity,
+      final ToIntBiFunction<K, V> weigher,
+      final CacheGroup group,
       final Class<V> valueType,
       final int maxCollisionsShift,
       final V[][] hashTable,
       final IntFunction<V[]> getBucket,
       final AtomicLogCounters counters,
+      final ExpiryTimes<K, V> expiry,
       final ToIntFunction<K> hashCoder,
       final BiPredicate<K, V> isValForKey,
+      final StatsCounter stats,
       final Function<K, L> loader,
       final BiFunction<K, L, V> finalizer) {
-    super(valueType, maxCollisionsShift, hashTable, getBucket, counters, hashCoder, isValForKey,
-        loader, finalizer);
+    super(valueType, maxCollisionsShift, hashTable, getBucket, counters, expiry, hashCoder,
+        isValForKey, stats, loader, finalizer);
+    this.maxCapacity = capacity;
     this.capacity = capacity;
     this.strict = strictCapacity;
-    this.size = new AtomicInteger();
+    this.weigher = weigher;
+    this.group = group;
+    this.size = new LongAdder();
+  }
+
+  /**
+   * @return true if over capacity, or over this cache's fair share of an over budget group.
+   */
+  private boolean isOverCapacity() {
+    final long size = this.size.sum();
+    return size > capacity || (group != null && group.isOverCapacity(size));
+  }
+
+  private void addSize(final long weight) {
+    size.add(weight);
+    if (group != null) {
+      group.add(weight);
+    }
+  }
+
+  /**
+   * Keys are not stored, so values are always weighed without them.
+   */
+  private int weigh(final V val) {
+    return weigher.applyAsInt(null, val);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void swap(final V[] collisions, final int index, final V val, final int count) {
+    final V evicted = evicted((V) COLLISIONS.getAndSet(collisions, index, val), count);
+    addSize(weigh(val) - weigh(evicted));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  void replaced(final V evicted, final V val) {
+    addSize(weigh(val) - weigh(evicted));
   }
 
   /**
@@ -54,39 +101,49 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
     do {
       V collision = (V) COLLISIONS.getOpaque(collisions, index);
       if (collision == null) {
-        final I loaded = loader.apply(key);
+        final I loaded = load(key, loader);
         if (loaded == null) {
           return null;
         }
         if (index == 0) {
           // If not strict, allow first entry into first collision index.
-          if (strict && size.get() > capacity) {  // Nothing to swap with and over capacity.
+          if (strict && isOverCapacity()) {  // Nothing to swap with and over capacity.
+            stats.recordRejectedAdmission();
             return mapper.apply(key, loaded);
           }
-        } else if (size.get() > capacity) {
+        } else if (isOverCapacity()) {
           return checkDecayAndProbSwap(counterOffset, collisions, key, loaded, mapper);
         }
         final V val = mapper.apply(key, loaded);
         do {
           collision = (V) COLLISIONS.compareAndExchange(collisions, index, null, val);
           if (collision == null) {
-            counters.initializeOpaque(counterOffset + index);
-            size.getAndIncrement();
+            initialize(counterOffset + index, key, val);
+            addSize(weigh(val));
             return val;
           }
           if (isValForKey.test(key, collision)) {
-            counters.increment(counterOffset + index);
+            increment(counterOffset + index);
             return collision;
           }
-        } while (++index < collisions.length && size.get() <= capacity);
+        } while (++index < collisions.length && !isOverCapacity());
         return checkDecayAndProbSwap(counterOffset, collisions, key, val);
       }
       if (isValForKey.test(key, collision)) {
-        counters.increment(counterOffset + index);
+        if (isExpired(counterOffset + index)) {
+          if (serveStale(counterOffset + index, key)) {
+            return collision;
+          }
+          final I loaded = load(key, loader);
+          return swapExpired(counterOffset + index, collisions, index, collision, key,
+              loaded == null ? null : mapper.apply(key, loaded));
+        }
+        increment(counterOffset + index);
+        refreshIfDue(counterOffset + index, key);
         return collision;
       }
     } while (++index < collisions.length);
-    final I loaded = loader.apply(key);
+    final I loaded = load(key, loader);
     return loaded == null ? null
         : checkDecayAndProbSwap(counterOffset, collisions, key, loaded, mapper);
   }
@@ -100,8 +157,10 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
     int index = 0;
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) {
         V collision = (V) COLLISIONS.getOpaque(collisions, index);
         if (collision == null) { // Assume over capacity.
@@ -109,28 +168,28 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
           if (index == 0) { // Strict capacity checked in parent call.
             collision = (V) COLLISIONS.compareAndExchange(collisions, index, null, val);
             if (collision == null) {
-              counters.initializeOpaque(counterIndex);
-              size.getAndIncrement();
+              initialize(counterIndex, key, val);
+              addSize(weigh(val));
               return val;
             }
             if (isValForKey.test(key, collision)) {
-              counters.increment(counterIndex);
+              increment(counterIndex);
               return collision;
             }
             return val; // Don't cache, lost tie breaker.
           }
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, val);
-          counters.initializeOpaque(minCounterIndex);
+          swap(collisions, minCounterIndex - counterOffset, val, minCount);
+          initialize(minCounterIndex, key, val);
           decayAndDrop(counterOffset, counterIndex, minCounterIndex, collisions);
           return val;
         }
 
         if (isValForKey.test(key, collision)) {
-          counters.increment(counterIndex);
+          increment(counterIndex);
           return collision;
         }
 
-        int count = counters.getOpaque(counterIndex);
+        int count = count(counterIndex);
         if (count < minCount) {
           minCount = count;
           minCounterIndex = counterIndex;
@@ -138,9 +197,9 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
         ++counterIndex;
         if (++index == collisions.length) {
           final V val = mapper.apply(key, loaded);
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, val);
-          counters.initializeOpaque(minCounterIndex);
-          if (size.get() > capacity) {
+          swap(collisions, minCounterIndex - counterOffset, val, minCount);
+          initialize(minCounterIndex, key, val);
+          if (isOverCapacity()) {
             decayAndDrop(counterOffset, counterIndex, minCounterIndex, collisions);
             return val;
           }
@@ -157,45 +216,47 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
     int index = 0;
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) {
         V collision = (V) COLLISIONS.getOpaque(collisions, index);
         if (collision == null) { // Assume over capacity.
           if (index == 0) { // Strict capacity checked in parent call.
             collision = (V) COLLISIONS.compareAndExchange(collisions, index, null, val);
             if (collision == null) {
-              counters.initializeOpaque(counterIndex);
-              size.getAndIncrement();
+              initialize(counterIndex, key, val);
+              addSize(weigh(val));
               return val;
             }
             if (isValForKey.test(key, collision)) {
-              counters.increment(counterIndex);
+              increment(counterIndex);
               return collision;
             }
             return val; // Don't cache, lost tie breaker.
           }
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, val);
-          counters.initializeOpaque(minCounterIndex);
+          swap(collisions, minCounterIndex - counterOffset, val, minCount);
+          initialize(minCounterIndex, key, val);
           decayAndDrop(counterOffset, counterIndex, minCounterIndex, collisions);
           return val;
         }
 
         if (isValForKey.test(key, collision)) {
-          counters.increment(counterIndex);
+          increment(counterIndex);
           return collision;
         }
 
-        int count = counters.getOpaque(counterIndex);
+        int count = count(counterIndex);
         if (count < minCount) {
           minCount = count;
           minCounterIndex = counterIndex;
         }
         ++counterIndex;
         if (++index == collisions.length) {
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, val);
-          counters.initializeOpaque(minCounterIndex);
-          if (size.get() > capacity) {
+          swap(collisions, minCounterIndex - counterOffset, val, minCount);
+          initialize(minCounterIndex, key, val);
+          if (isOverCapacity()) {
             decayAndDrop(counterOffset, counterIndex, minCounterIndex, collisions);
             return val;
           }
@@ -213,57 +274,65 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
   @SuppressWarnings("unchecked")
   V checkDecayAndSwap(final int counterOffset, final V[] collisions, final K key,
       final Function<K, V> loadAndMap) {
-    if (size.get() > capacity) {
+    if (isOverCapacity()) {
       return checkDecayAndProbSwap(counterOffset, collisions, key, loadAndMap);
     }
     int index = 0;
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) {
         V collision = (V) COLLISIONS.getOpaque(collisions, index);
         if (collision == null) {
-          final V val = loadAndMap.apply(key);
+          final V val = load(key, loadAndMap);
           if (val == null) {
             return null;
           }
           if (index == 0) {
             // If not strict, allow first entry into first collision index.
-            if (strict && size.get() > capacity) {
+            if (strict && isOverCapacity()) {
+              stats.recordRejectedAdmission();
               // Nothing to swap with and over capacity.
               return val;
             }
-          } else if (size.get() > capacity) {
-            decaySwapAndDrop(counterOffset, counterOffset + index, collisions, val);
+          } else if (isOverCapacity()) {
+            decaySwapAndDrop(counterOffset, counterOffset + index, collisions, key, val);
             return val;
           }
           do {
             collision = (V) COLLISIONS.compareAndExchange(collisions, index, null, val);
             if (collision == null) {
-              counters.initializeOpaque(counterOffset + index);
-              size.getAndIncrement();
+              initialize(counterOffset + index, key, val);
+              addSize(weigh(val));
               return val;
             }
             if (isValForKey.test(key, collision)) {
-              counters.increment(counterOffset + index);
+              increment(counterOffset + index);
               return collision;
             }
           } while (++index == collisions.length);
-          decayAndSwap(counterOffset, counterOffset + collisions.length, collisions, val);
+          final V evicted = decayAndSwap(counterOffset, counterOffset + collisions.length,
+              collisions, key, val);
+          addSize(weigh(val) - weigh(evicted));
           return val;
         }
         if (isValForKey.test(key, collision)) {
-          counters.increment(counterOffset + index);
+          increment(counterOffset + index);
           return collision;
         }
         if (++index == collisions.length) {
-          final V val = loadAndMap.apply(key);
+          final V val = load(key, loadAndMap);
           if (val == null) {
             return null;
           }
-          if (size.get() > capacity) {
-            decaySwapAndDrop(counterOffset, counterOffset + collisions.length, collisions, val);
+          if (isOverCapacity()) {
+            decaySwapAndDrop(counterOffset, counterOffset + collisions.length, collisions,
+                key, val);
             return val;
           }
-          decayAndSwap(counterOffset, counterOffset + collisions.length, collisions, val);
+          final V evicted = decayAndSwap(counterOffset, counterOffset + collisions.length,
+              collisions, key, val);
+          addSize(weigh(val) - weigh(evicted));
           return val;
         }
       }
@@ -280,63 +349,66 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
     int index = 0;
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) {
         V collision = (V) COLLISIONS.getOpaque(collisions, index);
         if (collision == null) {
-          final V val = loadAndMap.apply(key);
+          final V val = load(key, loadAndMap);
           if (val == null) {
             return null;
           }
           if (index == 0) {
             // If not strict, allow first entry into first collision index.
-            if (strict && size.get() > capacity) { // Nothing to swap with and over capacity.
+            if (strict && isOverCapacity()) { // Nothing to swap with and over capacity.
+              stats.recordRejectedAdmission();
               return val;
             }
-          } else if (size.get() > capacity) {
-            COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, val);
-            counters.initializeOpaque(minCounterIndex);
+          } else if (isOverCapacity()) {
+            swap(collisions, minCounterIndex - counterOffset, val, minCount);
+            initialize(minCounterIndex, key, val);
             decayAndDrop(counterOffset, counterIndex, minCounterIndex, collisions);
             return val;
           }
           do {
             collision = (V) COLLISIONS.compareAndExchange(collisions, index, null, val);
             if (collision == null) {
-              counters.initializeOpaque(counterOffset + index);
-              size.getAndIncrement();
+              initialize(counterOffset + index, key, val);
+              addSize(weigh(val));
               return val;
             }
             if (isValForKey.test(key, collision)) {
-              counters.increment(counterOffset + index);
+              increment(counterOffset + index);
               return collision;
             }
           } while (++index == collisions.length);
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, val);
-          counters.initializeOpaque(minCounterIndex);
+          swap(collisions, minCounterIndex - counterOffset, val, minCount);
+          initialize(minCounterIndex, key, val);
           counters.decay(counterOffset, counterOffset + collisions.length, minCounterIndex);
           return val;
         }
 
         if (isValForKey.test(key, collision)) {
-          counters.increment(counterIndex);
+          increment(counterIndex);
           return collision;
         }
 
-        int count = counters.getOpaque(counterIndex);
+        int count = count(counterIndex);
         if (count < minCount) {
           minCount = count;
           minCounterIndex = counterIndex;
         }
         ++counterIndex;
         if (++index == collisions.length) {
-          final V val = loadAndMap.apply(key);
+          final V val = load(key, loadAndMap);
           if (val == null) {
             return null;
           }
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, val);
-          counters.initializeOpaque(minCounterIndex);
-          if (size.get() > capacity) {
+          swap(collisions, minCounterIndex - counterOffset, val, minCount);
+          initialize(minCounterIndex, key, val);
+          if (isOverCapacity()) {
             decayAndDrop(counterOffset, counterIndex, minCounterIndex, collisions);
             return val;
           }
@@ -348,47 +420,18 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
   }
 
   private void decaySwapAndDrop(final int counterOffset, final int maxCounterIndex,
-      final V[] collisions, final V val) {
+      final V[] collisions, final K key, final V val) {
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
     do {
-      int count = counters.getOpaque(counterIndex);
+      final int count = count(counterIndex);
       if (count == 0) {
-        COLLISIONS.setOpaque(collisions, counterIndex - counterOffset, val);
-        counters.initializeOpaque(counterIndex);
-        while (++counterIndex < maxCounterIndex) {
-          count = counters.getOpaque(counterIndex);
-          if (count > 0) {
-            counters.setOpaque(counterIndex, count >> 1);
-            continue;
-          }
-          if (size.getAndDecrement() <= capacity) {
-            size.getAndIncrement();
-            continue;
-          }
-          for (int collisionIndex = counterIndex - counterOffset,
-              nextCollisionIndex = collisionIndex + 1; ; ++collisionIndex, ++nextCollisionIndex) {
-            if (nextCollisionIndex == collisions.length) {
-              COLLISIONS.setOpaque(collisions, collisionIndex, null);
-              return;
-            }
-            Object next = COLLISIONS.getOpaque(collisions, nextCollisionIndex);
-            if (next == null) {
-              COLLISIONS.setOpaque(collisions, collisionIndex, null);
-              next = COLLISIONS.getOpaque(collisions, nextCollisionIndex);
-              if (next == null
-                  || COLLISIONS.compareAndExchange(collisions, collisionIndex, null, next)
-                  != null) {
-                return;
-              }
-            } else {
-              COLLISIONS.setOpaque(collisions, collisionIndex, next);
-            }
-            // Counter misses may occur during this transition.
-            count = counters.getOpaque(++counterIndex);
-            counters.setOpaque(counterIndex - 1, count >> 1);
-          }
+        swap(collisions, counterIndex - counterOffset, val, 0);
+        initialize(counterIndex, key, val);
+        if (decayAndDropFirst(counterOffset, counterIndex + 1, maxCounterIndex, counterIndex,
+            collisions) >= 0 && isOverCapacity()) {
+          decayAndDrop(counterOffset, maxCounterIndex - 1, counterIndex, collisions);
         }
         return;
       }
@@ -399,8 +442,8 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
         minCounterIndex = counterIndex;
       }
     } while (++counterIndex < maxCounterIndex);
-    COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, val);
-    counters.initializeOpaque(minCounterIndex);
+    swap(collisions, minCounterIndex - counterOffset, val, minCount);
+    initialize(minCounterIndex, key, val);
   }
 
   /**
@@ -420,23 +463,24 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
       if (collision == null) {
         if (index == 0) {
           // If not strict, allow first entry into first collision index.
-          if (strict && size.get() > capacity) { // Nothing to swap with and over capacity.
+          if (strict && isOverCapacity()) { // Nothing to swap with and over capacity.
+            stats.recordRejectedAdmission();
             return val;
           }
-        } else if (size.get() > capacity) {
+        } else if (isOverCapacity()) {
           break;
         }
         do {
           collision = (V) COLLISIONS.compareAndExchange(collisions, index, null, val);
           if (collision == null) {
-            counters.initializeOpaque((hash << maxCollisionsShift) + index);
-            size.getAndIncrement();
+            initialize((hash << maxCollisionsShift) + index, key, val);
+            addSize(weigh(val));
             return val;
           }
           if (isValForKey.test(key, collision)) {
             return collision; // If another thread raced to PUT, let it win.
           }
-        } while (++index < collisions.length && size.get() <= capacity);
+        } while (++index < collisions.length && !isOverCapacity());
         break;
       }
       if (collision == val) {
@@ -445,6 +489,8 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
       if (isValForKey.test(key, collision)) {
         final V witness = (V) COLLISIONS.compareAndExchange(collisions, index, collision, val);
         if (witness == collision) {
+          addSize(weigh(val) - weigh(collision));
+          written((hash << maxCollisionsShift) + index, key, val);
           return val;
         }
         if (isValForKey.test(key, witness)) {
@@ -457,16 +503,18 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
     final int counterOffset = hash << maxCollisionsShift;
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) {
         V collision = (V) COLLISIONS.getOpaque(collisions, index);
         if (collision == null) {  // Assume over capacity.
           if (index == 0) {  // Strict capacity checked above.
             collision = (V) COLLISIONS.compareAndExchange(collisions, index, null, val);
             if (collision == null) {
-              counters.initializeOpaque(counterIndex);
-              size.getAndIncrement();
+              initialize(counterIndex, key, val);
+              addSize(weigh(val));
               return val;
             }
             if (isValForKey.test(key, collision)) {
@@ -474,8 +522,8 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
             }
             return val; // Don't cache, lost tie breaker.
           }
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, val);
-          counters.initializeOpaque(minCounterIndex);
+          swap(collisions, minCounterIndex - counterOffset, val, minCount);
+          initialize(minCounterIndex, key, val);
           decayAndDrop(counterOffset, counterIndex, minCounterIndex, collisions);
           return val;
         }
@@ -487,6 +535,8 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
         if (isValForKey.test(key, collision)) {
           final V witness = (V) COLLISIONS.compareAndExchange(collisions, index, collision, val);
           if (witness == collision) {
+            addSize(weigh(val) - weigh(collision));
+            written(counterIndex, key, val);
             return val;
           }
           if (isValForKey.test(key, witness)) {
@@ -494,16 +544,16 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
           }
         }
 
-        int count = counters.getOpaque(counterIndex);
+        int count = count(counterIndex);
         if (count < minCount) {
           minCount = count;
           minCounterIndex = counterIndex;
         }
         ++counterIndex;
         if (++index == collisions.length) {
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, val);
-          counters.initializeOpaque(minCounterIndex);
-          if (size.get() > capacity) {
+          swap(collisions, minCounterIndex - counterOffset, val, minCount);
+          initialize(minCounterIndex, key, val);
+          if (isOverCapacity()) {
             decayAndDrop(counterOffset, counterIndex, minCounterIndex, collisions);
             return val;
           }
@@ -531,27 +581,30 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
       if (collision == null) {
         if (index == 0) {
           // If not strict, allow first entry into first collision index.
-          if (strict && size.get() > capacity) { // Nothing to swap with and over capacity.
+          if (strict && isOverCapacity()) { // Nothing to swap with and over capacity.
+            stats.recordRejectedAdmission();
             return val;
           }
-        } else if (size.get() > capacity) {
+        } else if (isOverCapacity()) {
           break;
         }
         do {
           collision = (V) COLLISIONS.compareAndExchange(collisions, index, null, val);
           if (collision == null) {
-            counters.initializeOpaque((hash << maxCollisionsShift) + index);
-            size.getAndIncrement();
+            initialize((hash << maxCollisionsShift) + index, key, val);
+            addSize(weigh(val));
             return val;
           }
           if (isValForKey.test(key, collision)) {
             return collision;
           }
-        } while (++index < collisions.length && size.get() <= capacity);
+        } while (++index < collisions.length && !isOverCapacity());
         break;
       }
       if (isValForKey.test(key, collision)) {
-        return collision;
+        final int counterIndex = (hash << maxCollisionsShift) + index;
+        return isExpired(counterIndex)
+            ? swapExpired(counterIndex, collisions, index, collision, key, val) : collision;
       }
     } while (++index < collisions.length);
 
@@ -559,16 +612,18 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
     final int counterOffset = hash << maxCollisionsShift;
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) {
         V collision = (V) COLLISIONS.getOpaque(collisions, index);
         if (collision == null) {  // Assume over capacity.
           if (index == 0) {  // Strict capacity checked above.
             collision = (V) COLLISIONS.compareAndExchange(collisions, index, null, val);
             if (collision == null) {
-              counters.initializeOpaque(counterIndex);
-              size.getAndIncrement();
+              initialize(counterIndex, key, val);
+              addSize(weigh(val));
               return val;
             }
             if (isValForKey.test(key, collision)) {
@@ -576,26 +631,27 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
             }
             return val; // Don't cache, lost tie breaker.
           }
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, val);
-          counters.initializeOpaque(minCounterIndex);
+          swap(collisions, minCounterIndex - counterOffset, val, minCount);
+          initialize(minCounterIndex, key, val);
           decayAndDrop(counterOffset, counterIndex, minCounterIndex, collisions);
           return val;
         }
 
         if (isValForKey.test(key, collision)) {
-          return collision;
+          return isExpired(counterIndex)
+              ? swapExpired(counterIndex, collisions, index, collision, key, val) : collision;
         }
 
-        int count = counters.getOpaque(counterIndex);
+        int count = count(counterIndex);
         if (count < minCount) {
           minCount = count;
           minCounterIndex = counterIndex;
         }
         ++counterIndex;
         if (++index == collisions.length) {
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, val);
-          counters.initializeOpaque(minCounterIndex);
-          if (size.get() > capacity) {
+          swap(collisions, minCounterIndex - counterOffset, val, minCount);
+          initialize(minCounterIndex, key, val);
+          if (isOverCapacity()) {
             decayAndDrop(counterOffset, counterIndex, minCounterIndex, collisions);
             return val;
           }
@@ -606,27 +662,54 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
     }
   }
 
-  private void decayAndDrop(final int counterOffset, final int maxCounterIndex, final int skipIndex,
+  /**
+   * Repeatedly decays and drops zero count entries from a hash bucket until the cache is no
+   * longer over capacity or there is nothing left to drop.
+   */
+  private void decayAndDrop(final int counterOffset, final int maxCounterIndex, int skipIndex,
       final V[] collisions) {
-    int counterIndex = counterOffset;
-    do {
+    for (int to = maxCounterIndex; ; --to) {
+      final int dropped = decayAndDropFirst(counterOffset, counterOffset, to, skipIndex,
+          collisions);
+      if (dropped < 0 || !isOverCapacity()) {
+        return;
+      }
+      if (dropped < skipIndex) {
+        --skipIndex;
+      }
+    }
+  }
+
+  /**
+   * Divides all counters within [from, to) by two, skipping skipIndex, and drops the first zero
+   * count entry if over capacity.
+   *
+   * @return the counter index of the dropped entry, or -1 if nothing was dropped.
+   */
+  @SuppressWarnings("unchecked")
+  private int decayAndDropFirst(final int counterOffset, final int from, final int to,
+      final int skipIndex, final V[] collisions) {
+    for (int counterIndex = from; counterIndex < to; ++counterIndex) {
       if (counterIndex == skipIndex) {
         continue;
       }
-      int count = counters.getOpaque(counterIndex);
+      int count = count(counterIndex);
       if (count == 0) {
-        if (counterIndex < skipIndex) {
+        if (!isOverCapacity()) {
           continue;
         }
-        if (size.getAndDecrement() <= capacity) {
-          size.getAndIncrement();
-          continue;
+        final V drop = (V) COLLISIONS.getOpaque(collisions, counterIndex - counterOffset);
+        if (drop == null) {
+          return -1;
         }
+        addSize(-weigh(drop));
+        stats.recordEviction(0);
+        final int dropped = counterIndex;
         for (int collisionIndex = counterIndex - counterOffset,
             nextCollisionIndex = collisionIndex + 1; ; ++collisionIndex, ++nextCollisionIndex) {
           if (nextCollisionIndex == collisions.length) {
             COLLISIONS.setOpaque(collisions, collisionIndex, null);
-            return;
+            return dropped;
           }
           Object next = COLLISIONS.getOpaque(collisions, nextCollisionIndex);
           if (next == null) {
@@ -635,19 +718,19 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
             if (next == null
                 || COLLISIONS.compareAndExchange(collisions, collisionIndex, null, next)
                 != null) {
-              return;
+              return dropped;
             }
           } else {
             COLLISIONS.setOpaque(collisions, collisionIndex, next);
           }
           // Counter misses may occur during this transition.
-          count = counters.getOpaque(++counterIndex);
-          counters.setOpaque(counterIndex - 1, count >> 1);
+          shift(++counterIndex);
         }
       }
       // Counter misses may occur between these two calls.
       counters.setOpaque(counterIndex, count >> 1);
-    } while (++counterIndex < maxCounterIndex);
+    }
+    return -1;
   }
 
   /**
@@ -665,11 +748,11 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
     do {
       V collision = (V) COLLISIONS.getOpaque(collisions, index);
       if (collision == null) {
-        for (; size.get() <= capacity; ) {
+        for (; !isOverCapacity(); ) {
           collision = (V) COLLISIONS.compareAndExchange(collisions, index, null, val);
           if (collision == null) {
-            counters.initializeOpaque((hash << maxCollisionsShift) + index);
-            size.getAndIncrement();
+            initialize((hash << maxCollisionsShift) + index, key, val);
+            addSize(weigh(val));
             return val;
           }
           if (isValForKey.test(key, collision)) {
@@ -682,7 +765,9 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
         return null;
       }
       if (isValForKey.test(key, collision)) {
-        return collision;
+        final int counterIndex = (hash << maxCollisionsShift) + index;
+        return isExpired(counterIndex)
+            ? swapExpired(counterIndex, collisions, index, collision, key, val) : collision;
       }
     } while (++index < collisions.length);
     return null;
@@ -703,11 +788,11 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
     do {
       V collision = (V) COLLISIONS.getOpaque(collisions, index);
       if (collision == null) {
-        for (; size.get() <= capacity; ) {
+        for (; !isOverCapacity(); ) {
           collision = (V) COLLISIONS.compareAndExchange(collisions, index, null, val);
           if (collision == null) {
-            counters.initializeOpaque((hash << maxCollisionsShift) + index);
-            size.getAndIncrement();
+            initialize((hash << maxCollisionsShift) + index, key, val);
+            addSize(weigh(val));
             return val;
           }
           if (isValForKey.test(key, collision)) {
@@ -725,6 +810,8 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
       if (isValForKey.test(key, collision)) {
         final V witness = (V) COLLISIONS.compareAndExchange(collisions, index, collision, val);
         if (witness == collision) {
+          addSize(weigh(val) - weigh(collision));
+          written((hash << maxCollisionsShift) + index, key, val);
           return val;
         }
         if (isValForKey.test(key, witness)) {
@@ -743,7 +830,9 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
   public boolean remove(final K key) {
     final int hash = hashCoder.applyAsInt(key) & mask;
     final V[] collisions = getBucket.apply(hash);
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(hash << maxCollisionsShift, requested);
       int index = 0;
       do {
         V collision = (V) COLLISIONS.getOpaque(collisions, index);
@@ -751,7 +840,7 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
           return false;
         }
         if (isValForKey.test(key, collision)) {
-          size.getAndDecrement();
+          addSize(-weigh(collision));
           final int counterOffset = hash << maxCollisionsShift;
           int counterIndex = counterOffset + index;
           for (int nextIndex = index + 1; ; ++index, ++nextIndex) {
@@ -771,8 +860,7 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
               COLLISIONS.setOpaque(collisions, index, next);
             }
             // Counter misses may occur during this transition.
-            final int count = counters.getOpaque(++counterIndex);
-            counters.setOpaque(counterIndex - 1, count >> 1);
+            shift(++counterIndex);
           }
         }
       } while (++index < collisions.length);
@@ -794,20 +882,86 @@ final class SparseCollisionCache<K, L, V> extends BaseCollisionCache<K, L, V> {
         }
         int index = 0;
         do {
-          final Object collision = COLLISIONS.getAndSet(collisions, index, null);
+          final V collision = (V) COLLISIONS.getAndSet(collisions, index, null);
           if (collision != null) {
-            size.getAndDecrement();
+            addSize(-weigh(collision));
           }
         } while (++index < collisions.length);
       });
     }
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void shrinkCapacity(final double capacityFactor) {
+    this.capacity = Math.max(1, (long) (maxCapacity * capacityFactor));
+  }
+
+  /**
+   * Each pass decays every hash bucket at least once, so entries are dropped in order of their
+   * counts across the table rather than bucket by bucket.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public void sweep() {
+    for (int pass = 0; pass <= Short.SIZE && isOverCapacity(); ++pass) {
+      IntStream.range(0, hashTable.length).parallel().forEach(bucket -> {
+        final V[] collisions = (V[]) COLLISIONS.getOpaque(hashTable, bucket);
+        if (collisions == null || !isOverCapacity()) {
+          return;
+        }
+        final int counterOffset = bucket << maxCollisionsShift;
+        synchronized (collisions) {
+          decayAndDrop(counterOffset, counterOffset + collisions.length, -1, collisions);
+        }
+      });
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void restoreCapacity() {
+    this.capacity = maxCapacity;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public LongAdder getSize() {
+    return size;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public void shed() {
+    // Only called by the single sweeping task of the group.
+    for (int i = 0; i < CacheGroup.SHED_BUCKETS && isOverCapacity(); ++i) {
+      final int bucket = shedHand++ & mask;
+      final V[] collisions = (V[]) COLLISIONS.getOpaque(hashTable, bucket);
+      if (collisions != null) {
+        final int counterOffset = bucket << maxCollisionsShift;
+        synchronized (collisions) {
+          decayAndDrop(counterOffset, counterOffset + collisions.length, -1, collisions);
+        }
+      }
+    }
+  }
+
   @Override
   public String toString() {
     return "SparseCollisionCache{capacity=" + capacity
+        + ", maxCapacity=" + maxCapacity
         + ", strictCapacity=" + strict
-        + ", size=" + size.get()
+        + ", size=" + size.sum()
+        + ", group=" + group
         + ", " + super.toString() + '}';
   }
 }
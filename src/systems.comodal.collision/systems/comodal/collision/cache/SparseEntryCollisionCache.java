@@ -1,11 +1,10 @@
 package systems.comodal.collision.cache;
 
-import static systems.comodal.collision.cache.AtomicLogCounters.MAX_COUNT;
-
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.IntFunction;
+import java.util.function.ToIntBiFunction;
 import java.util.function.ToIntFunction;
 import java.util.stream.IntStream;
 
@@ -15,26 +14,74 @@ import java.util.stream.IntStream;
  * @param <V> the type of mapped values
  * @author James P. Edwards
  */
-final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K, L, V> {
+final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K, L, V>
+    implements MemoryPressureListener.Shrinkable, CacheGroup.Member {
 
-  private final int capacity;
+  private final long maxCapacity;
+  private volatile long capacity;
   private final boolean strict;
-  private final AtomicInteger size;
+  private final ToIntBiFunction<K, V> weigher;
+  private final CacheGroup group;
+  private final LongAdder size;
+  private int shedHand;
 
   SparseEntryCollisionCache(
-      final int capacity,
+      final long capacity,
       final boolean strictCapacity,
+      final ToIntBiFunction<K, V> weigher,
+      final CacheGroup group,
       final int maxCollisionsShift,
       final KeyVal<K, V>[][] hashTable,
       final IntFunction<KeyVal<K, V>[]> getBucket,
       final AtomicLogCounters counters,
+      final ExpiryTimes<K, V> expiry,
       final ToIntFunction<K> hashCoder,
+      final StatsCounter stats,
       final Function<K, L> loader,
       final BiFunction<K, L, V> mapper) {
-    super(maxCollisionsShift, hashTable, getBucket, counters, hashCoder, loader, mapper);
+    super(maxCollisionsShift, hashTable, getBucket, counters, expiry, null, hashCoder, stats,
+        loader, mapper);
+    this.maxCapacity = capacity;
     this.capacity = capacity;
     this.strict = strictCapacity;
-    this.size = new AtomicInteger();
+    this.weigher = weigher;
+    this.group = group;
+    this.size = new LongAdder();
+  }
+
+  /**
+   * @return true if over capacity, or over this cache's fair share of an over budget group.
+   */
+  private boolean isOverCapacity() {
+    final long size = this.size.sum();
+    return size > capacity || (group != null && group.isOverCapacity(size));
+  }
+
+  private void addSize(final long weight) {
+    size.add(weight);
+    if (group != null) {
+      group.add(weight);
+    }
+  }
+
+  private int weigh(final KeyVal<K, V> entry) {
+    return weigher.applyAsInt(entry.key, entry.val);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void swap(final KeyVal<K, V>[] collisions, final int index, final KeyVal<K, V> entry,
+      final int count) {
+    final KeyVal<K, V> evicted = evicted(
+        (KeyVal<K, V>) COLLISIONS.getAndSet(collisions, index, entry), count);
+    addSize(weigh(entry) - weigh(evicted));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  void replaced(final KeyVal<K, V> evicted, final V val) {
+    addSize(weigher.applyAsInt(evicted.key, val) - weigh(evicted));
   }
 
   /**
@@ -51,39 +98,49 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
     do {
       KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
       if (collision == null) {
-        final I loaded = loader.apply(key);
+        final I loaded = load(key, loader);
         if (loaded == null) {
           return null;
         }
         if (index == 0) {
           // If not strict, allow first entry into first collision index.
-          if (strict && size.get() > capacity) {  // Nothing to swap with and over capacity.
+          if (strict && isOverCapacity()) {  // Nothing to swap with and over capacity.
+            stats.recordRejectedAdmission();
             return mapper.apply(key, loaded);
           }
-        } else if (size.get() > capacity) {
+        } else if (isOverCapacity()) {
           return checkDecayAndProbSwap(counterOffset, collisions, key, loaded, mapper);
         }
         final KeyVal<K, V> entry = new KeyVal<>(key, mapper.apply(key, loaded));
         do {
           collision = (KeyVal<K, V>) COLLISIONS.compareAndExchange(collisions, index, null, entry);
           if (collision == null) {
-            counters.initializeOpaque(counterOffset + index);
-            size.getAndIncrement();
+            initialize(counterOffset + index, entry);
+            addSize(weigh(entry));
             return entry.val;
           }
           if (key.equals(collision.key)) {
-            counters.increment(counterOffset + index);
+            increment(counterOffset + index);
             return collision.val;
           }
-        } while (++index < collisions.length && size.get() <= capacity);
+        } while (++index < collisions.length && !isOverCapacity());
         return checkDecayAndProbSwap(counterOffset, collisions, entry);
       }
       if (key.equals(collision.key)) {
-        counters.increment(counterOffset + index);
+        if (isExpired(counterOffset + index)) {
+          if (serveStale(counterOffset + index, key)) {
+            return collision.val;
+          }
+          final I loaded = load(key, loader);
+          return swapExpired(counterOffset + index, collisions, index, collision, key,
+              loaded == null ? null : mapper.apply(key, loaded));
+        }
+        increment(counterOffset + index);
+        refreshIfDue(counterOffset + index, key);
         return collision.val;
       }
     } while (++index < collisions.length);
-    final I loaded = loader.apply(key);
+    final I loaded = load(key, loader);
     return loaded == null ? null
         : checkDecayAndProbSwap(counterOffset, collisions, key, loaded, mapper);
   }
@@ -97,8 +154,10 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
     int index = 0;
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) {
         KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
         if (collision == null) { // Assume over capacity.
@@ -108,28 +167,28 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
             collision = (KeyVal<K, V>) COLLISIONS
                 .compareAndExchange(collisions, index, null, entry);
             if (collision == null) {
-              counters.initializeOpaque(counterIndex);
-              size.getAndIncrement();
+              initialize(counterIndex, entry);
+              addSize(weigh(entry));
               return val;
             }
             if (key.equals(collision.key)) {
-              counters.increment(counterIndex);
+              increment(counterIndex);
               return collision.val;
             }
             return val; // Don't cache, lost tie breaker.
           }
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, entry);
-          counters.initializeOpaque(minCounterIndex);
+          swap(collisions, minCounterIndex - counterOffset, entry, minCount);
+          initialize(minCounterIndex, entry);
           decayAndDrop(counterOffset, counterIndex, minCounterIndex, collisions);
           return val;
         }
 
         if (key.equals(collision.key)) {
-          counters.increment(counterIndex);
+          increment(counterIndex);
           return collision.val;
         }
 
-        int count = counters.getOpaque(counterIndex);
+        int count = count(counterIndex);
         if (count < minCount) {
           minCount = count;
           minCounterIndex = counterIndex;
@@ -137,9 +196,9 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
         ++counterIndex;
         if (++index == collisions.length) {
           final V val = mapper.apply(key, loaded);
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, new KeyVal<>(key, val));
-          counters.initializeOpaque(minCounterIndex);
-          if (size.get() > capacity) {
+          swap(collisions, minCounterIndex - counterOffset, new KeyVal<>(key, val), minCount);
+          initialize(minCounterIndex, key, val);
+          if (isOverCapacity()) {
             decayAndDrop(counterOffset, counterIndex, minCounterIndex, collisions);
             return val;
           }
@@ -156,8 +215,10 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
     int index = 0;
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) {
         KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
         if (collision == null) { // Assume over capacity.
@@ -165,37 +226,37 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
             collision = (KeyVal<K, V>) COLLISIONS
                 .compareAndExchange(collisions, index, null, entry);
             if (collision == null) {
-              counters.initializeOpaque(counterIndex);
-              size.getAndIncrement();
+              initialize(counterIndex, entry);
+              addSize(weigh(entry));
               return entry.val;
             }
             if (entry.key.equals(collision.key)) {
-              counters.increment(counterIndex);
+              increment(counterIndex);
               return collision.val;
             }
             return entry.val; // Don't cache, lost tie breaker.
           }
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, entry);
-          counters.initializeOpaque(minCounterIndex);
+          swap(collisions, minCounterIndex - counterOffset, entry, minCount);
+          initialize(minCounterIndex, entry);
           decayAndDrop(counterOffset, counterIndex, minCounterIndex, collisions);
           return entry.val;
         }
 
         if (entry.key.equals(collision.key)) {
-          counters.increment(counterIndex);
+          increment(counterIndex);
           return collision.val;
         }
 
-        int count = counters.getOpaque(counterIndex);
+        int count = count(counterIndex);
         if (count < minCount) {
           minCount = count;
           minCounterIndex = counterIndex;
         }
         ++counterIndex;
         if (++index == collisions.length) {
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, entry);
-          counters.initializeOpaque(minCounterIndex);
-          if (size.get() > capacity) {
+          swap(collisions, minCounterIndex - counterOffset, entry, minCount);
+          initialize(minCounterIndex, entry);
+          if (isOverCapacity()) {
             decayAndDrop(counterOffset, counterIndex, minCounterIndex, collisions);
             return entry.val;
           }
@@ -213,25 +274,28 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
   @SuppressWarnings("unchecked")
   V checkDecayAndSwap(final int counterOffset, final KeyVal<K, V>[] collisions, final K key,
       final Function<K, V> loadAndMap) {
-    if (size.get() > capacity) {
+    if (isOverCapacity()) {
       return checkDecayAndProbSwap(counterOffset, collisions, key, loadAndMap);
     }
     int index = 0;
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) {
         KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
         if (collision == null) {
-          final V val = loadAndMap.apply(key);
+          final V val = load(key, loadAndMap);
           if (val == null) {
             return null;
           }
           if (index == 0) {
             // If not strict, allow first entry into first collision index.
-            if (strict && size.get() > capacity) {
+            if (strict && isOverCapacity()) {
+              stats.recordRejectedAdmission();
               // Nothing to swap with and over capacity.
               return val;
             }
-          } else if (size.get() > capacity) {
+          } else if (isOverCapacity()) {
             decaySwapAndDrop(counterOffset, counterOffset + index, collisions,
                 new KeyVal<>(key, val));
             return val;
@@ -241,34 +305,38 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
             collision = (KeyVal<K, V>) COLLISIONS
                 .compareAndExchange(collisions, index, null, entry);
             if (collision == null) {
-              counters.initializeOpaque(counterOffset + index);
-              size.getAndIncrement();
+              initialize(counterOffset + index, entry);
+              addSize(weigh(entry));
               return val;
             }
             if (key.equals(collision.key)) {
-              counters.increment(counterOffset + index);
+              increment(counterOffset + index);
               return collision.val;
             }
           } while (++index == collisions.length);
-          decayAndSwap(counterOffset, counterOffset + collisions.length, collisions, entry);
+          final KeyVal<K, V> evicted = decayAndSwap(counterOffset,
+              counterOffset + collisions.length, collisions, entry);
+          addSize(weigh(entry) - weigh(evicted));
           return val;
         }
         if (key.equals(collision.key)) {
-          counters.increment(counterOffset + index);
+          increment(counterOffset + index);
           return collision.val;
         }
         if (++index == collisions.length) {
-          final V val = loadAndMap.apply(key);
+          final V val = load(key, loadAndMap);
           if (val == null) {
             return null;
           }
-          if (size.get() > capacity) {
+          if (isOverCapacity()) {
             decaySwapAndDrop(counterOffset, counterOffset + collisions.length, collisions,
                 new KeyVal<>(key, val));
             return val;
           }
-          decayAndSwap(counterOffset, counterOffset + collisions.length, collisions,
-              new KeyVal<>(key, val));
+          final KeyVal<K, V> entry = new KeyVal<>(key, val);
+          final KeyVal<K, V> evicted = decayAndSwap(counterOffset,
+              counterOffset + collisions.length, collisions, entry);
+          addSize(weigh(entry) - weigh(evicted));
           return val;
         }
       }
@@ -285,23 +353,27 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
     int index = 0;
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) {
         KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
         if (collision == null) {
-          final V val = loadAndMap.apply(key);
+          final V val = load(key, loadAndMap);
           if (val == null) {
             return null;
           }
           if (index == 0) {
             // If not strict, allow first entry into first collision index.
-            if (strict && size.get() > capacity) { // Nothing to swap with and over capacity.
+            if (strict && isOverCapacity()) { // Nothing to swap with and over capacity.
+              stats.recordRejectedAdmission();
               return val;
             }
-          } else if (size.get() > capacity) {
-            COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, new KeyVal<>(key, val));
-            counters.initializeOpaque(minCounterIndex);
+          } else if (isOverCapacity()) {
+            swap(collisions, minCounterIndex - counterOffset, new KeyVal<>(key, val),
+                minCount);
+            initialize(minCounterIndex, key, val);
             decayAndDrop(counterOffset, counterIndex, minCounterIndex, collisions);
             return val;
           }
@@ -310,40 +382,40 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
             collision = (KeyVal<K, V>) COLLISIONS
                 .compareAndExchange(collisions, index, null, entry);
             if (collision == null) {
-              counters.initializeOpaque(counterOffset + index);
-              size.getAndIncrement();
+              initialize(counterOffset + index, entry);
+              addSize(weigh(entry));
               return val;
             }
             if (key.equals(collision.key)) {
-              counters.increment(counterOffset + index);
+              increment(counterOffset + index);
               return collision.val;
             }
           } while (++index == collisions.length);
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, entry);
-          counters.initializeOpaque(minCounterIndex);
+          swap(collisions, minCounterIndex - counterOffset, entry, minCount);
+          initialize(minCounterIndex, entry);
           counters.decay(counterOffset, counterOffset + collisions.length, minCounterIndex);
           return val;
         }
 
         if (key.equals(collision.key)) {
-          counters.increment(counterIndex);
+          increment(counterIndex);
           return collision.val;
         }
 
-        int count = counters.getOpaque(counterIndex);
+        int count = count(counterIndex);
         if (count < minCount) {
           minCount = count;
           minCounterIndex = counterIndex;
         }
         ++counterIndex;
         if (++index == collisions.length) {
-          final V val = loadAndMap.apply(key);
+          final V val = load(key, loadAndMap);
           if (val == null) {
             return null;
           }
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, new KeyVal<>(key, val));
-          counters.initializeOpaque(minCounterIndex);
-          if (size.get() > capacity) {
+          swap(collisions, minCounterIndex - counterOffset, new KeyVal<>(key, val), minCount);
+          initialize(minCounterIndex, key, val);
+          if (isOverCapacity()) {
             decayAndDrop(counterOffset, counterIndex, minCounterIndex, collisions);
             return val;
           }
@@ -354,27 +426,55 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
     }
   }
 
-  private void decayAndDrop(final int counterOffset, final int maxCounterIndex,
+  /**
+   * Repeatedly decays and drops zero count entries from a hash bucket until the cache is no
+   * longer over capacity or there is nothing left to drop.
+   */
+  private void decayAndDrop(final int counterOffset, final int maxCounterIndex, int skipIndex,
+      final KeyVal<K, V>[] collisions) {
+    for (int to = maxCounterIndex; ; --to) {
+      final int dropped = decayAndDropFirst(counterOffset, counterOffset, to, skipIndex,
+          collisions);
+      if (dropped < 0 || !isOverCapacity()) {
+        return;
+      }
+      if (dropped < skipIndex) {
+        --skipIndex;
+      }
+    }
+  }
+
+  /**
+   * Divides all counters within [from, to) by two, skipping skipIndex, and drops the first zero
+   * count entry if over capacity.
+   *
+   * @return the counter index of the dropped entry, or -1 if nothing was dropped.
+   */
+  @SuppressWarnings("unchecked")
+  private int decayAndDropFirst(final int counterOffset, final int from, final int to,
       final int skipIndex, final KeyVal<K, V>[] collisions) {
-    int counterIndex = counterOffset;
-    do {
+    for (int counterIndex = from; counterIndex < to; ++counterIndex) {
       if (counterIndex == skipIndex) {
         continue;
       }
-      int count = counters.getOpaque(counterIndex);
+      int count = count(counterIndex);
       if (count == 0) {
-        if (counterIndex < skipIndex) {
+        if (!isOverCapacity()) {
           continue;
         }
-        if (size.getAndDecrement() <= capacity) {
-          size.getAndIncrement();
-          continue;
+        final KeyVal<K, V> drop = (KeyVal<K, V>) COLLISIONS
+            .getOpaque(collisions, counterIndex - counterOffset);
+        if (drop == null) {
+          return -1;
         }
+        addSize(-weigh(drop));
+        stats.recordEviction(0);
+        final int dropped = counterIndex;
         for (int collisionIndex = counterIndex - counterOffset,
             nextCollisionIndex = collisionIndex + 1; ; ++collisionIndex, ++nextCollisionIndex) {
           if (nextCollisionIndex == collisions.length) {
             COLLISIONS.setOpaque(collisions, collisionIndex, null);
-            return;
+            return dropped;
           }
           Object next = COLLISIONS.getOpaque(collisions, nextCollisionIndex);
           if (next == null) {
@@ -382,63 +482,34 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
             next = COLLISIONS.getOpaque(collisions, nextCollisionIndex);
             if (next == null
                 || COLLISIONS.compareAndExchange(collisions, collisionIndex, null, next) != null) {
-              return;
+              return dropped;
             }
           } else {
             COLLISIONS.setOpaque(collisions, collisionIndex, next);
           }
           // Counter misses may occur during this transition.
-          count = counters.getOpaque(++counterIndex);
-          counters.setOpaque(counterIndex - 1, count >> 1);
+          shift(++counterIndex);
         }
       }
       // Counter misses may occur between these two calls.
       counters.setOpaque(counterIndex, count >> 1);
-    } while (++counterIndex < maxCounterIndex);
+    }
+    return -1;
   }
 
   private void decaySwapAndDrop(final int counterOffset, final int maxCounterIndex,
       final KeyVal<K, V>[] collisions, final KeyVal<K, V> entry) {
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
     do {
-      int count = counters.getOpaque(counterIndex);
+      final int count = count(counterIndex);
       if (count == 0) {
-        COLLISIONS.setOpaque(collisions, counterIndex - counterOffset, entry);
-        counters.initializeOpaque(counterIndex);
-        while (++counterIndex < maxCounterIndex) {
-          count = counters.getOpaque(counterIndex);
-          if (count > 0) {
-            counters.setOpaque(counterIndex, count >> 1);
-            continue;
-          }
-          if (size.getAndDecrement() <= capacity) {
-            size.getAndIncrement();
-            continue;
-          }
-          for (int collisionIndex = counterIndex - counterOffset,
-              nextCollisionIndex = collisionIndex + 1; ; ++collisionIndex, ++nextCollisionIndex) {
-            if (nextCollisionIndex == collisions.length) {
-              COLLISIONS.setOpaque(collisions, collisionIndex, null);
-              return;
-            }
-            Object next = COLLISIONS.getOpaque(collisions, nextCollisionIndex);
-            if (next == null) {
-              COLLISIONS.setOpaque(collisions, collisionIndex, null);
-              next = COLLISIONS.getOpaque(collisions, nextCollisionIndex);
-              if (next == null
-                  || COLLISIONS.compareAndExchange(collisions, collisionIndex, null, next)
-                  != null) {
-                return;
-              }
-            } else {
-              COLLISIONS.setOpaque(collisions, collisionIndex, next);
-            }
-            // Counter misses may occur during this transition.
-            count = counters.getOpaque(++counterIndex);
-            counters.setOpaque(counterIndex - 1, count >> 1);
-          }
+        swap(collisions, counterIndex - counterOffset, entry, 0);
+        initialize(counterIndex, entry);
+        if (decayAndDropFirst(counterOffset, counterIndex + 1, maxCounterIndex, counterIndex,
+            collisions) >= 0 && isOverCapacity()) {
+          decayAndDrop(counterOffset, maxCounterIndex - 1, counterIndex, collisions);
         }
         return;
       }
@@ -449,8 +520,8 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
         minCounterIndex = counterIndex;
       }
     } while (++counterIndex < maxCounterIndex);
-    COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, entry);
-    counters.initializeOpaque(minCounterIndex);
+    swap(collisions, minCounterIndex - counterOffset, entry, minCount);
+    initialize(minCounterIndex, entry);
   }
 
   /**
@@ -468,10 +539,11 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
       if (collision == null) {
         if (index == 0) {
           // If not strict, allow first entry into first collision index.
-          if (strict && size.get() > capacity) { // Nothing to swap with and over capacity.
+          if (strict && isOverCapacity()) { // Nothing to swap with and over capacity.
+            stats.recordRejectedAdmission();
             return val;
           }
-        } else if (size.get() > capacity) {
+        } else if (isOverCapacity()) {
           break;
         }
         if (entry == null) {
@@ -480,14 +552,14 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
         do {
           collision = (KeyVal<K, V>) COLLISIONS.compareAndExchange(collisions, index, null, entry);
           if (collision == null) {
-            counters.initializeOpaque((hash << maxCollisionsShift) + index);
-            size.getAndIncrement();
+            initialize((hash << maxCollisionsShift) + index, entry);
+            addSize(weigh(entry));
             return val;
           }
           if (key.equals(collision.key)) {
             return collision.val; // If another thread raced to PUT, let it win.
           }
-        } while (++index < collisions.length && size.get() <= capacity);
+        } while (++index < collisions.length && !isOverCapacity());
         break;
       }
       if (collision.val == val) {
@@ -500,8 +572,13 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
         final KeyVal<K, V> witness = (KeyVal<K, V>) COLLISIONS
             .compareAndExchange(collisions, index, collision, entry);
         if (witness == collision) {
+          written((hash << maxCollisionsShift) + index, key, val);
+          addSize(weigh(entry) - weigh(collision));
           return val;
         }
+        if (witness == null) {
+          return val; // Removed concurrently, as if after this PUT.
+        }
         if (key.equals(witness.key)) {
           return witness.val; // If another thread raced to PUT, let it win.
         }
@@ -512,8 +589,10 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
     final int counterOffset = hash << maxCollisionsShift;
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ++counterIndex) {
         KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
         if (collision == null) {  // Assume over capacity.
@@ -524,8 +603,8 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
             collision = (KeyVal<K, V>) COLLISIONS
                 .compareAndExchange(collisions, index, null, entry);
             if (collision == null) {
-              counters.initializeOpaque(counterIndex);
-              size.getAndIncrement();
+              initialize(counterIndex, entry);
+              addSize(weigh(entry));
               return val;
             }
             if (key.equals(collision.key)) {
@@ -533,8 +612,8 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
             }
             return val; // Don't cache, lost tie breaker.
           }
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, entry);
-          counters.initializeOpaque(minCounterIndex);
+          swap(collisions, minCounterIndex - counterOffset, entry, minCount);
+          initialize(minCounterIndex, entry);
           decayAndDrop(counterOffset, counterIndex, minCounterIndex, collisions);
           return val;
         }
@@ -550,14 +629,19 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
           final KeyVal<K, V> witness = (KeyVal<K, V>) COLLISIONS
               .compareAndExchange(collisions, index, collision, entry);
           if (witness == collision) {
+            written(counterIndex, key, val);
+            addSize(weigh(entry) - weigh(collision));
             return val;
           }
+          if (witness == null) {
+            return val; // Removed concurrently, as if after this PUT.
+          }
           if (key.equals(witness.key)) {
             return witness.val; // If another thread raced to PUT, let it win.
           }
         }
 
-        int count = counters.getOpaque(counterIndex);
+        int count = count(counterIndex);
         if (count < minCount) {
           minCount = count;
           minCounterIndex = counterIndex;
@@ -567,9 +651,9 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
           if (entry == null) {
             entry = new KeyVal<>(key, val);
           }
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, entry);
-          counters.initializeOpaque(minCounterIndex);
-          if (size.get() > capacity) {
+          swap(collisions, minCounterIndex - counterOffset, entry, minCount);
+          initialize(minCounterIndex, key, val);
+          if (isOverCapacity()) {
             decayAndDrop(counterOffset, counterIndex, minCounterIndex, collisions);
             return val;
           }
@@ -595,10 +679,11 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
       if (collision == null) {
         if (index == 0) {
           // If not strict, allow first entry into first collision index.
-          if (strict && size.get() > capacity) { // Nothing to swap with and over capacity.
+          if (strict && isOverCapacity()) { // Nothing to swap with and over capacity.
+            stats.recordRejectedAdmission();
             return val;
           }
-        } else if (size.get() > capacity) {
+        } else if (isOverCapacity()) {
           break;
         }
         entry = new KeyVal<>(key, val);
@@ -606,18 +691,20 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
           collision = (KeyVal<K, V>) COLLISIONS
               .compareAndExchange(collisions, index, null, entry);
           if (collision == null) {
-            counters.initializeOpaque((hash << maxCollisionsShift) + index);
-            size.getAndIncrement();
+            initialize((hash << maxCollisionsShift) + index, entry);
+            addSize(weigh(entry));
             return val;
           }
           if (key.equals(collision.key)) {
             return collision.val;
           }
-        } while (++index < collisions.length && size.get() <= capacity);
+        } while (++index < collisions.length && !isOverCapacity());
         break;
       }
       if (key.equals(collision.key)) {
-        return collision.val;
+        final int counterIndex = (hash << maxCollisionsShift) + index;
+        return isExpired(counterIndex)
+            ? swapExpired(counterIndex, collisions, index, collision, key, val) : collision.val;
       }
     } while (++index < collisions.length);
 
@@ -625,8 +712,10 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
     final int counterOffset = hash << maxCollisionsShift;
     int counterIndex = counterOffset;
     int minCounterIndex = counterOffset;
-    int minCount = MAX_COUNT;
+    int minCount = counters.getMaxCount();
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(counterOffset, requested);
       for (; ; ) {
         KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
         if (collision == null) {  // Assume over capacity.
@@ -637,8 +726,8 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
             collision = (KeyVal<K, V>) COLLISIONS
                 .compareAndExchange(collisions, index, null, entry);
             if (collision == null) {
-              counters.initializeOpaque(counterIndex);
-              size.getAndIncrement();
+              initialize(counterIndex, entry);
+              addSize(weigh(entry));
               return val;
             }
             if (key.equals(collision.key)) {
@@ -646,17 +735,18 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
             }
             return val; // Don't cache, lost tie breaker.
           }
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, entry);
-          counters.initializeOpaque(minCounterIndex);
+          swap(collisions, minCounterIndex - counterOffset, entry, minCount);
+          initialize(minCounterIndex, entry);
           decayAndDrop(counterOffset, counterIndex, minCounterIndex, collisions);
           return val;
         }
 
         if (key.equals(collision.key)) {
-          return collision.val;
+          return isExpired(counterIndex)
+              ? swapExpired(counterIndex, collisions, index, collision, key, val) : collision.val;
         }
 
-        int count = counters.getOpaque(counterIndex);
+        int count = count(counterIndex);
         if (count < minCount) {
           minCount = count;
           minCounterIndex = counterIndex;
@@ -666,9 +756,9 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
           if (entry == null) {
             entry = new KeyVal<>(key, val);
           }
-          COLLISIONS.setOpaque(collisions, minCounterIndex - counterOffset, entry);
-          counters.initializeOpaque(minCounterIndex);
-          if (size.get() > capacity) {
+          swap(collisions, minCounterIndex - counterOffset, entry, minCount);
+          initialize(minCounterIndex, key, val);
+          if (isOverCapacity()) {
             decayAndDrop(counterOffset, counterIndex, minCounterIndex, collisions);
             return val;
           }
@@ -691,7 +781,7 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
     do {
       KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
       if (collision == null) {
-        if (size.get() > capacity) {
+        if (isOverCapacity()) {
           return null;
         }
         final KeyVal<K, V> entry = new KeyVal<>(key, val);
@@ -699,18 +789,20 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
           collision = (KeyVal<K, V>) COLLISIONS
               .compareAndExchange(collisions, index, null, entry);
           if (collision == null) {
-            counters.initializeOpaque((hash << maxCollisionsShift) + index);
-            size.getAndIncrement();
+            initialize((hash << maxCollisionsShift) + index, entry);
+            addSize(weigh(entry));
             return val;
           }
           if (key.equals(collision.key)) {
             return collision.val;
           }
-        } while (++index < collisions.length && size.get() <= capacity);
+        } while (++index < collisions.length && !isOverCapacity());
         return null;
       }
       if (key.equals(collision.key)) {
-        return collision.val;
+        final int counterIndex = (hash << maxCollisionsShift) + index;
+        return isExpired(counterIndex)
+            ? swapExpired(counterIndex, collisions, index, collision, key, val) : collision.val;
       }
     } while (++index < collisions.length);
     return null;
@@ -729,7 +821,7 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
     do {
       KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
       if (collision == null) {
-        if (size.get() > capacity) {
+        if (isOverCapacity()) {
           return null;
         }
         if (entry == null) {
@@ -739,14 +831,14 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
           collision = (KeyVal<K, V>) COLLISIONS
               .compareAndExchange(collisions, index, null, entry);
           if (collision == null) {
-            counters.initializeOpaque((hash << maxCollisionsShift) + index);
-            size.getAndIncrement();
+            initialize((hash << maxCollisionsShift) + index, entry);
+            addSize(weigh(entry));
             return val;
           }
           if (key.equals(collision.key)) {
             return collision.val; // If another thread raced to PUT, let it win.
           }
-        } while (++index < collisions.length && size.get() <= capacity);
+        } while (++index < collisions.length && !isOverCapacity());
         return null;
       }
       if (collision.val == val) {
@@ -759,8 +851,13 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
         final KeyVal<K, V> witness = (KeyVal<K, V>) COLLISIONS
             .compareAndExchange(collisions, index, collision, entry);
         if (witness == collision) {
+          written((hash << maxCollisionsShift) + index, key, val);
+          addSize(weigh(entry) - weigh(collision));
           return val;
         }
+        if (witness == null) {
+          return val; // Removed concurrently, as if after this PUT.
+        }
         if (key.equals(witness.key)) {
           return witness.val; // If another thread raced to PUT, let it win.
         }
@@ -777,7 +874,9 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
   public boolean remove(final K key) {
     final int hash = hashCoder.applyAsInt(key) & mask;
     final KeyVal<K, V>[] collisions = getBucket.apply(hash);
+    final long requested = lockRequested();
     synchronized (collisions) {
+      lockAcquired(hash << maxCollisionsShift, requested);
       int index = 0;
       do {
         KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
@@ -785,7 +884,7 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
           return false;
         }
         if (key.equals(collision.key)) {
-          size.getAndDecrement();
+          addSize(-weigh(collision));
           final int counterOffset = hash << maxCollisionsShift;
           int counterIndex = counterOffset + index;
           for (int nextIndex = index + 1; ; ++index, ++nextIndex) {
@@ -805,8 +904,7 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
               COLLISIONS.setOpaque(collisions, index, next);
             }
             // Counter misses may occur during this transition.
-            final int count = counters.getOpaque(++counterIndex);
-            counters.setOpaque(counterIndex - 1, count >> 1);
+            shift(++counterIndex);
           }
         }
       } while (++index < collisions.length);
@@ -828,20 +926,87 @@ final class SparseEntryCollisionCache<K, L, V> extends BaseEntryCollisionCache<K
         }
         int index = 0;
         do {
-          final Object collision = COLLISIONS.getAndSet(collisions, index, null);
+          final KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS
+              .getAndSet(collisions, index, null);
           if (collision != null) {
-            size.getAndDecrement();
+            addSize(-weigh(collision));
           }
         } while (++index < collisions.length);
       });
     }
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void shrinkCapacity(final double capacityFactor) {
+    this.capacity = Math.max(1, (long) (maxCapacity * capacityFactor));
+  }
+
+  /**
+   * Each pass decays every hash bucket at least once, so entries are dropped in order of their
+   * counts across the table rather than bucket by bucket.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public void sweep() {
+    for (int pass = 0; pass <= Short.SIZE && isOverCapacity(); ++pass) {
+      IntStream.range(0, hashTable.length).parallel().forEach(bucket -> {
+        final KeyVal<K, V>[] collisions = (KeyVal<K, V>[]) COLLISIONS.getOpaque(hashTable, bucket);
+        if (collisions == null || !isOverCapacity()) {
+          return;
+        }
+        final int counterOffset = bucket << maxCollisionsShift;
+        synchronized (collisions) {
+          decayAndDrop(counterOffset, counterOffset + collisions.length, -1, collisions);
+        }
+      });
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void restoreCapacity() {
+    this.capacity = maxCapacity;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public LongAdder getSize() {
+    return size;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public void shed() {
+    // Only called by the single sweeping task of the group.
+    for (int i = 0; i < CacheGroup.SHED_BUCKETS && isOverCapacity(); ++i) {
+      final int bucket = shedHand++ & mask;
+      final KeyVal<K, V>[] collisions = (KeyVal<K, V>[]) COLLISIONS.getOpaque(hashTable, bucket);
+      if (collisions != null) {
+        final int counterOffset = bucket << maxCollisionsShift;
+        synchronized (collisions) {
+          decayAndDrop(counterOffset, counterOffset + collisions.length, -1, collisions);
+        }
+      }
+    }
+  }
+
   @Override
   public String toString() {
     return "SparseEntryCollisionCache{capacity=" + capacity
+        + ", maxCapacity=" + maxCapacity
         + ", strictCapacity=" + strict
-        + ", size=" + size.get()
+        + ", size=" + size.sum()
+        + ", group=" + group
         + ", " + super.toString() + '}';
   }
 }
@@ -0,0 +1,115 @@
+package systems.comodal.collision.cache;
+
+import java.util.function.Function;
+
+/**
+ * Records cache statistics and events.  The implementation is selected when a cache is built so
+ * that caches not recording statistics only pay for calls to the empty
+ * {@link #DISABLED DISABLED} counter.
+ *
+ * @author James P. Edwards
+ */
+interface StatsCounter {
+
+  StatsCounter DISABLED = new StatsCounter() {
+
+    @Override
+    public void recordHit() {
+    }
+
+    @Override
+    public void recordMiss() {
+    }
+
+    @Override
+    public <K, I> I load(final K key, final Function<K, I> loader) {
+      return loader.apply(key);
+    }
+
+    @Override
+    public <K, I> I reload(final K key, final Function<K, I> loader) {
+      return loader.apply(key);
+    }
+
+    @Override
+    public void recordEviction(final int count) {
+    }
+
+    @Override
+    public void recordRejectedAdmission() {
+    }
+
+    @Override
+    public long lockRequested() {
+      return 0;
+    }
+
+    @Override
+    public void lockAcquired(final int bucket, final long lockRequested) {
+    }
+
+    @Override
+    public CacheStats snapshot() {
+      return CacheStats.EMPTY;
+    }
+
+    @Override
+    public String toString() {
+      return "DISABLED";
+    }
+  };
+
+  void recordHit();
+
+  /**
+   * Records a read which found no value and did not load one, such as a getIfPresent miss.
+   */
+  void recordMiss();
+
+  /**
+   * Records a miss and the outcome and duration of its load.
+   *
+   * @param key the key to load.
+   * @param loader loads the value for the key.
+   * @param <K> the type of keys used to map to values
+   * @param <I> the type of loaded values
+   * @return the loaded value.
+   */
+  <K, I> I load(final K key, final Function<K, I> loader);
+
+  /**
+   * Records the outcome and duration of a load without a miss, for keys whose read was already
+   * recorded as a hit, such as background refreshes.
+   *
+   * @param key the key to load.
+   * @param loader loads the value for the key.
+   * @param <K> the type of keys used to map to values
+   * @param <I> the type of loaded values
+   * @return the loaded value.
+   */
+  <K, I> I reload(final K key, final Function<K, I> loader);
+
+  /**
+   * @param count the counter value of the evicted entry.
+   */
+  void recordEviction(final int count);
+
+  void recordRejectedAdmission();
+
+  /**
+   * Called before synchronizing on a hash bucket.
+   *
+   * @return a token to pass to {@link #lockAcquired lockAcquired}.
+   */
+  long lockRequested();
+
+  /**
+   * Called after synchronizing on a hash bucket.
+   *
+   * @param bucket the index of the hash bucket.
+   * @param lockRequested the token returned by {@link #lockRequested lockRequested}.
+   */
+  void lockAcquired(final int bucket, final long lockRequested);
+
+  CacheStats snapshot();
+}
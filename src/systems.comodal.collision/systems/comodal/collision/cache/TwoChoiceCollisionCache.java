@@ -0,0 +1,533 @@
+package systems.comodal.collision.cache;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * A packed cache which hashes each key to two candidate buckets.  New entries are placed in the
+ * emptier of the two, or once both are full, swapped in for the least frequently used entry of
+ * the two.  A second choice makes it far less likely that a popular bucket evicts entries while
+ * its neighbors sit half empty, so more of the capacity holds entries.
+ *
+ * <p>Each slot also has a one byte fingerprint of its key, zero if empty, so that lookups, which
+ * may check both buckets, only dereference entries with a matching fingerprint.  Lookups are
+ * lock free, whereas writes synchronize on both buckets in index order.  Fingerprints are written
+ * after their entries, so a lookup racing a write may miss, in which case loads re-check behind
+ * the locks before loading.
+ *
+ * @param <K> the type of keys used to map to values
+ * @param <L> the type of loaded values before being mapped to type V
+ * @param <V> the type of mapped values
+ * @author James P. Edwards
+ */
+final class TwoChoiceCollisionCache<K, L, V> implements LoadingCollisionCache<K, L, V> {
+
+  private static final VarHandle COLLISIONS = BaseEntryCollisionCache.COLLISIONS;
+  private static final VarHandle FINGERPRINTS = MethodHandles
+      .arrayElementVarHandle(byte[].class);
+
+  private final int maxCollisionsShift;
+  private final KeyVal<K, V>[][] hashTable;
+  private final int mask;
+  private final IntFunction<KeyVal<K, V>[]> getBucket;
+  private final byte[] fingerprints;
+  private final AtomicLogCounters counters;
+  private final ToIntFunction<K> hashCoder;
+  private final StatsCounter stats;
+  private final Function<K, L> loader;
+  private final BiFunction<K, L, V> mapper;
+  private final Function<K, V> loadAndMap;
+
+  TwoChoiceCollisionCache(
+      final int maxCollisionsShift,
+      final KeyVal<K, V>[][] hashTable,
+      final IntFunction<KeyVal<K, V>[]> getBucket,
+      final AtomicLogCounters counters,
+      final ToIntFunction<K> hashCoder,
+      final StatsCounter stats,
+      final Function<K, L> loader,
+      final BiFunction<K, L, V> mapper) {
+    this.maxCollisionsShift = maxCollisionsShift;
+    this.hashTable = hashTable;
+    this.mask = hashTable.length - 1;
+    this.getBucket = getBucket;
+    this.fingerprints = new byte[counters.getNumCounters()];
+    this.counters = counters;
+    this.hashCoder = hashCoder;
+    this.stats = stats;
+    this.loader = loader;
+    this.mapper = mapper;
+    this.loadAndMap = key -> {
+      final L loaded = loader.apply(key);
+      return loaded == null ? null : mapper.apply(key, loaded);
+    };
+  }
+
+  /**
+   * @return a non-zero fingerprint taken from the high bits of a golden ratio rehash.
+   */
+  private static byte fingerprint(final int hash) {
+    return (byte) (((hash * 0x9E3779B9) >>> 24) | 1);
+  }
+
+  /**
+   * Rehashes with a different multiplier than {@link #fingerprint fingerprint} so that the
+   * alternate bucket is independent of both the primary bucket and the fingerprint.
+   */
+  private int alternate(final int hash, final int primary) {
+    final int rehash = hash * 0x85EBCA6B;
+    final int alternate = (rehash ^ (rehash >>> 16)) & mask;
+    return alternate == primary ? (primary + 1) & mask : alternate;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V getAggressive(final K key) {
+    return getAggressive(key, loader, mapper);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V getAggressive(final K key, final Function<K, L> loader) {
+    return getAggressive(key, loader, mapper);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <I> V getAggressive(final K key, final Function<K, I> loader,
+      final BiFunction<K, I, V> mapper) {
+    final int hash = hashCoder.applyAsInt(key);
+    final byte fingerprint = fingerprint(hash);
+    final int primary = hash & mask;
+    V val = getIfPresent(key, fingerprint, primary);
+    if (val != null) {
+      return val;
+    }
+    final int alternate = alternate(hash, primary);
+    val = getIfPresent(key, fingerprint, alternate);
+    if (val != null) {
+      return val;
+    }
+    final I loaded = stats.load(key, loader);
+    return loaded == null ? null
+        : putIfAbsent(key, fingerprint, primary, alternate, mapper.apply(key, loaded), true);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V get(final K key) {
+    return get(key, loadAndMap);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public V get(final K key, final Function<K, V> loadAndMap) {
+    final int hash = hashCoder.applyAsInt(key);
+    final byte fingerprint = fingerprint(hash);
+    final int primary = hash & mask;
+    V val = getIfPresent(key, fingerprint, primary);
+    if (val != null) {
+      return val;
+    }
+    final int alternate = alternate(hash, primary);
+    val = getIfPresent(key, fingerprint, alternate);
+    if (val != null) {
+      return val;
+    }
+    final long requested = stats.lockRequested();
+    synchronized (getBucket.apply(Math.min(primary, alternate))) {
+      synchronized (getBucket.apply(Math.max(primary, alternate))) {
+        stats.lockAcquired(Math.min(primary, alternate), requested);
+        final int counterIndex = find(key, fingerprint, primary, alternate);
+        if (counterIndex >= 0) {
+          increment(counterIndex);
+          return entry(counterIndex).val;
+        }
+        val = stats.load(key, loadAndMap);
+        if (val == null) {
+          return null;
+        }
+        place(new KeyVal<>(key, val), fingerprint, primary, alternate, true);
+        return val;
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V getIfPresent(final K key) {
+    final int hash = hashCoder.applyAsInt(key);
+    final byte fingerprint = fingerprint(hash);
+    final int primary = hash & mask;
+    final V val = getIfPresent(key, fingerprint, primary);
+    if (val != null) {
+      return val;
+    }
+    final V alternate = getIfPresent(key, fingerprint, alternate(hash, primary));
+    if (alternate == null) {
+      stats.recordMiss();
+    }
+    return alternate;
+  }
+
+  /**
+   * Lock free lookup within a single bucket, only dereferencing entries with a matching
+   * fingerprint.
+   *
+   * @return the value for the key, or null if it is not in this bucket.
+   */
+  @SuppressWarnings("unchecked")
+  private V getIfPresent(final K key, final byte fingerprint, final int bucket) {
+    final KeyVal<K, V>[] collisions = getBucket.apply(bucket);
+    final int counterOffset = bucket << maxCollisionsShift;
+    for (int index = 0; index < collisions.length; ++index) {
+      final byte slot = (byte) FINGERPRINTS.getOpaque(fingerprints, counterOffset + index);
+      if (slot == 0) {
+        return null;
+      }
+      if (slot == fingerprint) {
+        final KeyVal<K, V> collision = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
+        if (collision != null && key.equals(collision.key)) {
+          increment(counterOffset + index);
+          return collision.val;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V putReplace(final K key, final V val) {
+    return put(key, val, true);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V putIfSpaceReplace(final K key, final V val) {
+    return put(key, val, false);
+  }
+
+  private V put(final K key, final V val, final boolean evict) {
+    final int hash = hashCoder.applyAsInt(key);
+    final byte fingerprint = fingerprint(hash);
+    final int primary = hash & mask;
+    final int alternate = alternate(hash, primary);
+    final long requested = stats.lockRequested();
+    synchronized (getBucket.apply(Math.min(primary, alternate))) {
+      synchronized (getBucket.apply(Math.max(primary, alternate))) {
+        stats.lockAcquired(Math.min(primary, alternate), requested);
+        final KeyVal<K, V> entry = new KeyVal<>(key, val);
+        final int counterIndex = find(key, fingerprint, primary, alternate);
+        if (counterIndex >= 0) {
+          COLLISIONS.setOpaque(getBucket.apply(counterIndex >> maxCollisionsShift),
+              counterIndex & ((1 << maxCollisionsShift) - 1), entry);
+          return val;
+        }
+        return place(entry, fingerprint, primary, alternate, evict) ? val : null;
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V replace(final K key, final V val) {
+    final int hash = hashCoder.applyAsInt(key);
+    final byte fingerprint = fingerprint(hash);
+    final int primary = hash & mask;
+    final int alternate = alternate(hash, primary);
+    final long requested = stats.lockRequested();
+    synchronized (getBucket.apply(Math.min(primary, alternate))) {
+      synchronized (getBucket.apply(Math.max(primary, alternate))) {
+        stats.lockAcquired(Math.min(primary, alternate), requested);
+        final int counterIndex = find(key, fingerprint, primary, alternate);
+        if (counterIndex < 0) {
+          return null;
+        }
+        COLLISIONS.setOpaque(getBucket.apply(counterIndex >> maxCollisionsShift),
+            counterIndex & ((1 << maxCollisionsShift) - 1), new KeyVal<>(key, val));
+        return val;
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V putIfAbsent(final K key, final V val) {
+    final int hash = hashCoder.applyAsInt(key);
+    final int primary = hash & mask;
+    return putIfAbsent(key, fingerprint(hash), primary, alternate(hash, primary), val, true);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public V putIfSpaceAbsent(final K key, final V val) {
+    final int hash = hashCoder.applyAsInt(key);
+    final int primary = hash & mask;
+    return putIfAbsent(key, fingerprint(hash), primary, alternate(hash, primary), val, false);
+  }
+
+  private V putIfAbsent(final K key, final byte fingerprint, final int primary,
+      final int alternate, final V val, final boolean evict) {
+    final long requested = stats.lockRequested();
+    synchronized (getBucket.apply(Math.min(primary, alternate))) {
+      synchronized (getBucket.apply(Math.max(primary, alternate))) {
+        stats.lockAcquired(Math.min(primary, alternate), requested);
+        final int counterIndex = find(key, fingerprint, primary, alternate);
+        if (counterIndex >= 0) {
+          return entry(counterIndex).val;
+        }
+        return place(new KeyVal<>(key, val), fingerprint, primary, alternate, evict) ? val : null;
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean remove(final K key) {
+    final int hash = hashCoder.applyAsInt(key);
+    final byte fingerprint = fingerprint(hash);
+    final int primary = hash & mask;
+    final int alternate = alternate(hash, primary);
+    final long requested = stats.lockRequested();
+    synchronized (getBucket.apply(Math.min(primary, alternate))) {
+      synchronized (getBucket.apply(Math.max(primary, alternate))) {
+        stats.lockAcquired(Math.min(primary, alternate), requested);
+        final int counterIndex = find(key, fingerprint, primary, alternate);
+        if (counterIndex < 0) {
+          return false;
+        }
+        final int bucket = counterIndex >> maxCollisionsShift;
+        final KeyVal<K, V>[] collisions = getBucket.apply(bucket);
+        final int counterOffset = bucket << maxCollisionsShift;
+        int index = counterIndex - counterOffset;
+        for (int nextIndex = index + 1; nextIndex < collisions.length; ++index, ++nextIndex) {
+          final byte next = (byte) FINGERPRINTS.getOpaque(fingerprints, counterOffset + nextIndex);
+          if (next == 0) {
+            break;
+          }
+          // Lookups may miss during this transition.
+          COLLISIONS.setOpaque(collisions, index, COLLISIONS.getOpaque(collisions, nextIndex));
+          FINGERPRINTS.setOpaque(fingerprints, counterOffset + index, next);
+          counters.setOpaque(counterOffset + index,
+              counters.getOpaque(counterOffset + nextIndex) >> 1);
+        }
+        FINGERPRINTS.setOpaque(fingerprints, counterOffset + index, (byte) 0);
+        COLLISIONS.setOpaque(collisions, index, null);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Must be called while synchronized on both buckets.
+   *
+   * @return the counter index of the entry for the key, or -1 if it is not cached.
+   */
+  private int find(final K key, final byte fingerprint, final int primary, final int alternate) {
+    final int counterIndex = find(key, fingerprint, primary);
+    return counterIndex < 0 ? find(key, fingerprint, alternate) : counterIndex;
+  }
+
+  private int find(final K key, final byte fingerprint, final int bucket) {
+    final int counterOffset = bucket << maxCollisionsShift;
+    final int maxCounterIndex = counterOffset + (1 << maxCollisionsShift);
+    for (int counterIndex = counterOffset; counterIndex < maxCounterIndex; ++counterIndex) {
+      final byte slot = (byte) FINGERPRINTS.getOpaque(fingerprints, counterIndex);
+      if (slot == 0) {
+        return -1;
+      }
+      if (slot == fingerprint && key.equals(entry(counterIndex).key)) {
+        return counterIndex;
+      }
+    }
+    return -1;
+  }
+
+  @SuppressWarnings("unchecked")
+  private KeyVal<K, V> entry(final int counterIndex) {
+    return (KeyVal<K, V>) COLLISIONS.getOpaque(getBucket.apply(counterIndex >> maxCollisionsShift),
+        counterIndex & ((1 << maxCollisionsShift) - 1));
+  }
+
+  /**
+   * Must be called while synchronized on both buckets.  Places the entry in the emptier bucket,
+   * favoring the primary.  If both are full and eviction is allowed, the counters of the bucket
+   * holding the lower minimum count are decayed and the entry is swapped in for that minimum.
+   *
+   * @return true if the entry was cached.
+   */
+  private boolean place(final KeyVal<K, V> entry, final byte fingerprint, final int primary,
+      final int alternate, final boolean evict) {
+    final int maxCollisions = 1 << maxCollisionsShift;
+    final int primaryFill = fill(primary);
+    final int alternateFill = fill(alternate);
+    if (primaryFill < maxCollisions || alternateFill < maxCollisions) {
+      final int counterIndex = alternateFill < primaryFill
+          ? (alternate << maxCollisionsShift) + alternateFill
+          : (primary << maxCollisionsShift) + primaryFill;
+      swap(counterIndex, entry, fingerprint);
+      return true;
+    }
+    if (!evict) {
+      return false;
+    }
+    final int primaryMin = minCounterIndex(primary);
+    final int alternateMin = minCounterIndex(alternate);
+    final int minCounterIndex = counters.getOpaque(alternateMin) < counters.getOpaque(primaryMin)
+        ? alternateMin : primaryMin;
+    final int counterOffset = (minCounterIndex >> maxCollisionsShift) << maxCollisionsShift;
+    stats.recordEviction(counters.getOpaque(minCounterIndex));
+    swap(minCounterIndex, entry, fingerprint);
+    counters.decay(counterOffset, counterOffset + maxCollisions, minCounterIndex);
+    return true;
+  }
+
+  private int fill(final int bucket) {
+    final int counterOffset = bucket << maxCollisionsShift;
+    int fill = 0;
+    while (fill < 1 << maxCollisionsShift
+        && (byte) FINGERPRINTS.getOpaque(fingerprints, counterOffset + fill) != 0) {
+      ++fill;
+    }
+    return fill;
+  }
+
+  private int minCounterIndex(final int bucket) {
+    final int counterOffset = bucket << maxCollisionsShift;
+    final int maxCounterIndex = counterOffset + (1 << maxCollisionsShift);
+    int minCounterIndex = counterOffset;
+    int minCount = counters.getOpaque(counterOffset);
+    for (int counterIndex = counterOffset + 1; counterIndex < maxCounterIndex; ++counterIndex) {
+      final int count = counters.getOpaque(counterIndex);
+      if (count < minCount) {
+        minCount = count;
+        minCounterIndex = counterIndex;
+      }
+    }
+    return minCounterIndex;
+  }
+
+  private void swap(final int counterIndex, final KeyVal<K, V> entry, final byte fingerprint) {
+    COLLISIONS.setOpaque(getBucket.apply(counterIndex >> maxCollisionsShift),
+        counterIndex & ((1 << maxCollisionsShift) - 1), entry);
+    FINGERPRINTS.setOpaque(fingerprints, counterIndex, fingerprint);
+    counters.initializeOpaque(counterIndex);
+    counters.age();
+  }
+
+  private void increment(final int counterIndex) {
+    stats.recordHit();
+    counters.increment(counterIndex);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void clear() {
+    IntStream.range(0, hashTable.length)
+        .parallel()
+        .forEach(i -> {
+          final KeyVal<K, V>[] collisions = hashTable[i];
+          if (collisions == null) {
+            return;
+          }
+          final int counterOffset = i << maxCollisionsShift;
+          int index = 0;
+          do {
+            FINGERPRINTS.setOpaque(fingerprints, counterOffset + index, (byte) 0);
+            COLLISIONS.setOpaque(collisions, index++, null);
+          } while (index < collisions.length);
+        });
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public CacheStats stats() {
+    return stats.snapshot();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public CacheDiagnostics diagnostics() {
+    final long tableBytes = CacheDiagnostics
+        .arrayBytes(hashTable.length, CacheDiagnostics.REFERENCE_BYTES)
+        + CacheDiagnostics.arrayBytes(fingerprints.length, Byte.BYTES)
+        + counters.estimatedBytes();
+    final int maxCount = counters.getMaxCount();
+    return IntStream.range(0, hashTable.length)
+        .parallel()
+        .collect(() -> new CacheDiagnostics.Scan(1 << maxCollisionsShift, maxCount),
+            (scan, i) -> scan.bucket(hashTable[i], i << maxCollisionsShift, counters,
+                CacheDiagnostics.KEY_VAL_BYTES),
+            CacheDiagnostics.Scan::merge)
+        .toDiagnostics(tableBytes);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<HotEntry<K, V>> hotEntries(final int k) {
+    return IntStream.range(0, hashTable.length)
+        .parallel()
+        .collect(() -> new HotEntry.TopK<K, V>(k), (top, i) -> {
+          final KeyVal<K, V>[] collisions = hashTable[i];
+          if (collisions == null) {
+            return;
+          }
+          final int counterOffset = i << maxCollisionsShift;
+          for (int index = 0; index < collisions.length; ++index) {
+            final KeyVal<K, V> entry = (KeyVal<K, V>) COLLISIONS.getOpaque(collisions, index);
+            if (entry != null) {
+              top.offer(entry.key, entry.val, counters.getOpaque(counterOffset + index));
+            }
+          }
+        }, HotEntry.TopK::merge)
+        .toList();
+  }
+
+  @Override
+  public String toString() {
+    return "TwoChoiceCollisionCache{maxCollisions=" + (1 << maxCollisionsShift)
+        + ", hashTableLength=" + hashTable.length
+        + ", counters=" + counters + '}';
+  }
+}
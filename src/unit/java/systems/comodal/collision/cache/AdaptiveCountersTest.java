@@ -0,0 +1,66 @@
+package systems.comodal.collision.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+public final class AdaptiveCountersTest {
+
+  @Test
+  public void testHillClimb() {
+    final AtomicLogCounters counters = AtomicLogCounters.create(64, 5, 1 << 20);
+    final AdaptiveStatsCounter adaptive = new AdaptiveStatsCounter(counters, 5, 1 << 20,
+        StatsCounter.DISABLED);
+    adaptive.step(500);
+    assertEquals(6, adaptive.getInitCount());
+    assertEquals(1 << 20, adaptive.getMaxCounterVal());
+    counters.initializeOpaque(0);
+    assertEquals(6, counters.getOpaque(0));
+    // The hit rate dropped after raising the initial count, so it will be lowered next.
+    adaptive.step(400);
+    assertEquals(6, adaptive.getInitCount());
+    assertEquals(1 << 21, adaptive.getMaxCounterVal());
+    adaptive.step(450);
+    assertEquals(5, adaptive.getInitCount());
+    assertEquals(1 << 21, adaptive.getMaxCounterVal());
+    // The hit rate dropped after lowering the initial count, so it will be raised next.
+    adaptive.step(300);
+    assertEquals(5, adaptive.getInitCount());
+    assertEquals(1 << 22, adaptive.getMaxCounterVal());
+    adaptive.step(300);
+    assertEquals(6, adaptive.getInitCount());
+  }
+
+  @Test
+  public void testBounds() {
+    final AtomicLogCounters counters = AtomicLogCounters.create(4, 16, 0, 5, 1 << 8, 1);
+    final AdaptiveStatsCounter adaptive = new AdaptiveStatsCounter(counters, 5, 1 << 8,
+        StatsCounter.DISABLED);
+    for (int i = 0; i < 1_000; ++i) {
+      adaptive.step(i);
+      assertTrue(adaptive.getInitCount() >= 0);
+      assertTrue(adaptive.getInitCount() <= 14);
+      assertTrue(adaptive.getMaxCounterVal() >= AdaptiveStatsCounter.MIN_MAX_COUNTER_VAL);
+      assertTrue(adaptive.getMaxCounterVal() <= AdaptiveStatsCounter.MAX_MAX_COUNTER_VAL);
+    }
+  }
+
+  @Test
+  public void testAdaptiveCache() {
+    final LoadingCollisionCache<Long, Long, Long> cache = CollisionCache
+        .withCapacity(256, Long.class)
+        .setAdaptiveCounters(true)
+        .setRecordStats(true)
+        .<Long>setLoader(key -> key)
+        .buildSparse();
+    final Random random = new Random(7);
+    for (int i = 0; i < 1 << 18; ++i) {
+      final double skewed = random.nextDouble();
+      final Long key = (long) (skewed * skewed * skewed * 4096);
+      assertEquals(key, cache.get(key));
+    }
+    assertEquals(1 << 18, cache.stats().getRequestCount());
+  }
+}
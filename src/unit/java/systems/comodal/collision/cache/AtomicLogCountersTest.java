@@ -2,6 +2,7 @@ package systems.comodal.collision.cache;
 
 import static java.lang.System.Logger.Level.INFO;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static systems.comodal.collision.cache.AtomicLogCounters.MAX_COUNT;
 
@@ -10,6 +11,8 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -97,6 +100,139 @@ public class AtomicLogCountersTest {
     }
   }
 
+  @Test
+  public void testSampledIncrements() {
+    final AtomicLogCounters sampled = AtomicLogCounters
+        .create(numCounters, initCount, maxCounterVal, 16);
+    for (int i = 0; i < numCounters; ++i) {
+      counters.initializeOpaque(i);
+      sampled.initializeOpaque(i);
+    }
+    final int[] increments = {1 << 12, 1 << 14, 1 << 16, 1 << 18};
+    for (int i = 0; i < increments.length; ++i) {
+      for (int j = 0; j < increments[i]; ++j) {
+        counters.increment(i);
+        sampled.increment(i);
+      }
+      final int expected = counters.getOpaque(i);
+      assertEquals(expected, sampled.getOpaque(i), 7 + expected * .2);
+    }
+    assertEquals(initCount, sampled.getOpaque(numCounters - 1));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testSampleRatePowerOfTwo() {
+    AtomicLogCounters.create(numCounters, initCount, maxCounterVal, 12);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testPaddedTooLarge() {
+    AtomicLogCounters.createPadded(1 << 26, 4, initCount, maxCounterVal, 1);
+  }
+
+  @Test
+  public void testPadded() {
+    final int bucketSize = 4;
+    final AtomicLogCounters padded = AtomicLogCounters
+        .createPadded(64, bucketSize, initCount, maxCounterVal, 1);
+    assertEquals(64, padded.getNumCounters());
+    for (int i = 0; i < padded.getNumCounters(); ++i) {
+      padded.setOpaque(i, i + 1);
+    }
+    for (int i = 0; i < padded.getNumCounters(); ++i) {
+      assertEquals(i + 1, padded.getOpaque(i));
+    }
+    padded.decay(bucketSize, bucketSize << 1, bucketSize + 1);
+    assertEquals(bucketSize, padded.getOpaque(bucketSize - 1));
+    assertEquals((bucketSize + 1) >> 1, padded.getOpaque(bucketSize));
+    assertEquals(bucketSize + 2, padded.getOpaque(bucketSize + 1));
+    assertEquals((bucketSize << 1) >> 1, padded.getOpaque((bucketSize << 1) - 1));
+    assertEquals((bucketSize << 1) + 1, padded.getOpaque(bucketSize << 1));
+    padded.initializeOpaque(63);
+    padded.increment(63);
+    assertEquals(initCount + 1, padded.getOpaque(63));
+    assertEquals(63, padded.getOpaque(62));
+  }
+
+  @Test
+  public void testCounterWidths() {
+    for (final int counterBits : new int[]{4, 8, 16}) {
+      final AtomicLogCounters widthCounters = AtomicLogCounters
+          .create(counterBits, numCounters, 0, initCount, maxCounterVal, 1);
+      final int maxCount = (1 << counterBits) - 1;
+      assertEquals(maxCount, widthCounters.getMaxCount());
+      assertEquals(numCounters, widthCounters.getNumCounters());
+      final int counterIndex = 5;
+      widthCounters.initializeOpaque(counterIndex);
+      assertEquals(initCount, widthCounters.getOpaque(counterIndex));
+      for (int i = 0; i < maxCounterVal << 2; ++i) {
+        widthCounters.increment(counterIndex);
+      }
+      assertEquals(maxCount, widthCounters.getOpaque(counterIndex));
+      assertEquals(0, widthCounters.getOpaque(counterIndex - 1));
+      assertEquals(0, widthCounters.getOpaque(counterIndex + 1));
+      widthCounters.setOpaque(counterIndex + 1, maxCount);
+      widthCounters.decay(0, numCounters);
+      assertEquals(maxCount >> 1, widthCounters.getOpaque(counterIndex));
+      assertEquals(maxCount >> 1, widthCounters.getOpaque(counterIndex + 1));
+      assertEquals(0, widthCounters.getOpaque(counterIndex - 1));
+    }
+  }
+
+  @Test
+  public void testNibbleNeighbors() throws InterruptedException {
+    final int maxCount = 15;
+    final AtomicLogCounters nibbles = AtomicLogCounters
+        .create(4, 2, 0, maxCount, maxCounterVal, 1);
+    final AtomicBoolean lostUpdate = new AtomicBoolean();
+    final Thread[] threads = new Thread[2];
+    for (int t = 0; t < threads.length; ++t) {
+      final int counterIndex = t;
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 100_000; ++i) {
+          nibbles.setOpaque(counterIndex, 0);
+          for (int j = 0; j < maxCount; ++j) {
+            nibbles.increment(counterIndex);
+          }
+          if (nibbles.getOpaque(counterIndex) != maxCount) {
+            lostUpdate.set(true);
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    assertFalse(lostUpdate.get());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testCounterBits() {
+    AtomicLogCounters.create(12, numCounters, 0, initCount, maxCounterVal, 1);
+  }
+
+  @Test
+  public void testAging() throws InterruptedException {
+    final int numAgingCounters = AtomicLogCounters.AGING_CHUNK_SIZE << 2;
+    final AtomicLogCounters aging = AtomicLogCounters
+        .create(numAgingCounters, initCount, maxCounterVal);
+    for (int i = 0; i < numAgingCounters; ++i) {
+      aging.setOpaque(i, MAX_COUNT);
+    }
+    aging.age();
+    assertEquals(MAX_COUNT, aging.getOpaque(0));
+    aging.setAgingPeriod(TimeUnit.MILLISECONDS.toNanos(20));
+    final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+    while (System.nanoTime() < end) {
+      aging.age();
+      Thread.sleep(1);
+    }
+    for (int i = 0; i < numAgingCounters; ++i) {
+      assertTrue(aging.getOpaque(i) <= MAX_COUNT >> 1);
+    }
+  }
+
   @Test
   public void testDecay() {
     int initCount = 2;
@@ -0,0 +1,90 @@
+package systems.comodal.collision.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+import org.junit.Test;
+
+public final class BlockedBloomFilterTest {
+
+  private static final int NUM_KEYS = 1 << 16;
+
+  @Test
+  public void testFalsePositiveRate() {
+    final BlockedBloomFilter<Long> filter = BlockedBloomFilter
+        .create(LongStream.range(0, NUM_KEYS).boxed().parallel(), NUM_KEYS, 0.01);
+    for (long key = 0; key < NUM_KEYS; ++key) {
+      assertTrue(filter.mightContain(key));
+    }
+    int falsePositives = 0;
+    for (long key = NUM_KEYS; key < NUM_KEYS << 1; ++key) {
+      if (filter.mightContain(key)) {
+        ++falsePositives;
+      }
+    }
+    assertTrue(falsePositives < NUM_KEYS * 0.03);
+  }
+
+  @Test
+  public void testNumBlocksClamped() {
+    assertEquals(1, BlockedBloomFilter.numBlocks(1));
+    assertEquals(2, BlockedBloomFilter.numBlocks(513));
+    final double ln2 = Math.log(2);
+    final int maxBlocks = BlockedBloomFilter.numBlocks(
+        -(double) Long.MAX_VALUE * Math.log(Double.MIN_VALUE) / (ln2 * ln2));
+    assertEquals(BlockedBloomFilter.MAX_BLOCKS, maxBlocks);
+    // The word array length must not overflow.
+    assertTrue((long) maxBlocks << 3 <= Integer.MAX_VALUE);
+    assertTrue(maxBlocks << 3 > 0);
+  }
+
+  @Test
+  public void testLoaderGate() {
+    final AtomicInteger loads = new AtomicInteger();
+    final BlockedBloomFilter<Long> filter = BlockedBloomFilter.create(
+        LongStream.range(0, 1024).map(key -> key << 1).boxed(), 1024, 0.001);
+    final List<LoadingCollisionCache<Long, Long, Long>> caches = List.of(
+        CollisionCache.withCapacity(64, Long.class)
+            .setMembershipFilter(filter)
+            .<Long>setLoader(key -> {
+              loads.getAndIncrement();
+              return key;
+            })
+            .buildSparse(),
+        CollisionCache.withCapacity(64, Long.class)
+            .<Long>setIsValForKey(Long::equals)
+            .setMembershipFilter(filter)
+            .setLoader(key -> {
+              loads.getAndIncrement();
+              return key;
+            })
+            .buildPacked());
+    for (final LoadingCollisionCache<Long, Long, Long> cache : caches) {
+      loads.set(0);
+      final Long absent = 1_000_001L;
+      assertFalse(filter.mightContain(absent));
+      assertNull(cache.get(absent));
+      assertNull(cache.getAggressive(absent));
+      assertNull(cache.get(absent, key -> key));
+      assertEquals(0, loads.get());
+
+      final Long present = 42L;
+      assertEquals(present, cache.get(present));
+      assertEquals(1, loads.get());
+
+      final Long put = 1_000_003L;
+      assertEquals(put, cache.putReplace(put, put));
+      assertTrue(filter.mightContain(put));
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testInvalidFalsePositiveRate() {
+    BlockedBloomFilter.create(NUM_KEYS, 1.0);
+  }
+}
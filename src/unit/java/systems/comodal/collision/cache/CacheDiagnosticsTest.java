@@ -0,0 +1,59 @@
+package systems.comodal.collision.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import org.junit.Test;
+
+public final class CacheDiagnosticsTest {
+
+  @Test
+  public void testDiagnostics() {
+    final List<CollisionCache<Long, Long>> caches = List.of(
+        CollisionCache.withCapacity(1024, Long.class)
+            .setMaxCounterVal(1 << 15)
+            .<Long>setLoader(key -> key)
+            .buildSparse(),
+        CollisionCache.withCapacity(1024, Long.class)
+            .setMaxCounterVal(1 << 15)
+            .<Long>setLoader(key -> key)
+            .buildPacked(),
+        CollisionCache.withCapacity(1024, Long.class)
+            .setMaxCounterVal(1 << 15)
+            .<Long>setIsValForKey(Long::equals)
+            .setLoader(key -> key)
+            .buildSparse(),
+        CollisionCache.withCapacity(1024, Long.class)
+            .setMaxCounterVal(1 << 15)
+            .setLazyInitBuckets(true)
+            .<Long>setIsValForKey(Long::equals)
+            .setLoader(key -> key)
+            .buildSparse(5.0));
+    for (final CollisionCache<Long, Long> cache : caches) {
+      final CacheDiagnostics empty = cache.diagnostics();
+      assertEquals(0, empty.getNumEntries());
+      assertEquals(1.0, empty.getEmptyBucketFraction(), 0.0);
+      for (long key = 0; key < 256; ++key) {
+        cache.get(key);
+      }
+      for (int i = 0; i < 100_000; ++i) {
+        cache.get(7L);
+      }
+      final CacheDiagnostics diagnostics = cache.diagnostics();
+      final long numEntries = diagnostics.getNumEntries();
+      assertTrue(diagnostics.toString(), numEntries > 200 && numEntries <= 256);
+      final long[] fill = diagnostics.getBucketFillHistogram();
+      long filled = 0;
+      for (int i = 0; i < fill.length; ++i) {
+        filled += i * fill[i];
+      }
+      assertEquals(numEntries, filled);
+      assertEquals(diagnostics.getNumBuckets(), empty.getNumBuckets());
+      assertTrue(diagnostics.getEmptyBucketFraction() < 1.0);
+      assertEquals(1, diagnostics.getSaturatedCounters());
+      assertTrue(empty.getEstimatedBytes() > 0);
+      assertTrue(diagnostics.getEstimatedBytes() >= empty.getEstimatedBytes());
+    }
+  }
+}
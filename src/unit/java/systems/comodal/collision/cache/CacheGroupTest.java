@@ -0,0 +1,97 @@
+package systems.comodal.collision.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public final class CacheGroupTest {
+
+  private static final int CAPACITY = 1 << 10;
+
+  private static LoadingCollisionCache<Integer, Integer, Integer> member(final CacheGroup group) {
+    return CollisionCache
+        .<Integer>withCapacity(CAPACITY)
+        .setStrictCapacity(true)
+        .setCacheGroup(group)
+        .<Integer>setLoader(key -> key)
+        .buildSparse();
+  }
+
+  private static void awaitWithinBudget(final CacheGroup group) throws InterruptedException {
+    for (int i = 0; i < 1_000 && group.size() > group.getCapacity(); ++i) {
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  public void testSharedBudget() throws InterruptedException {
+    final CacheGroup group = CacheGroup.create(CAPACITY);
+    final LoadingCollisionCache<Integer, Integer, Integer> busy = member(group);
+    final LoadingCollisionCache<Integer, Integer, Integer> idle = member(group);
+    assertEquals(2, group.getNumMembers());
+    assertEquals(CAPACITY / 2, group.getFairShare());
+
+    // Unused capacity goes to the busy cache.
+    for (int key = 0; key < CAPACITY; ++key) {
+      busy.get(key);
+    }
+    final long busySize = busy.diagnostics().getNumEntries();
+    assertTrue(busySize > CAPACITY * 3 / 4);
+    assertEquals(busySize, group.size());
+
+    // Once the group is full, the cache over its fair share gives way.
+    for (int key = 0; key < CAPACITY; ++key) {
+      idle.get(key);
+    }
+    awaitWithinBudget(group);
+    final long idleSize = idle.diagnostics().getNumEntries();
+    assertTrue(idleSize >= CAPACITY / 2);
+    assertTrue(busy.diagnostics().getNumEntries() < busySize);
+    // An admission may exceed the budget by one entry before another is dropped.
+    assertTrue(group.size() <= CAPACITY + 1);
+    assertEquals(group.size(),
+        busy.diagnostics().getNumEntries() + idle.diagnostics().getNumEntries());
+
+    busy.clear();
+    assertEquals(idleSize, group.size());
+  }
+
+  @Test
+  public void testHotEntriesSurvive() throws InterruptedException {
+    final CacheGroup group = CacheGroup.create(CAPACITY);
+    final LoadingCollisionCache<Integer, Integer, Integer> busy = member(group);
+    final LoadingCollisionCache<Integer, Integer, Integer> idle = member(group);
+    for (int key = 0; key < CAPACITY; ++key) {
+      busy.get(key);
+    }
+    for (int i = 0; i < 1 << 14; ++i) {
+      busy.get(7);
+    }
+    for (int key = 0; key < CAPACITY; ++key) {
+      idle.get(key);
+    }
+    awaitWithinBudget(group);
+    assertEquals(7, busy.getIfPresent(7).intValue());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testPackedUnsupported() {
+    CollisionCache.<Integer>withCapacity(64)
+        .setCacheGroup(CacheGroup.create(64))
+        .buildPacked();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testResizableUnsupported() {
+    CollisionCache.<Integer>withCapacity(64)
+        .setCacheGroup(CacheGroup.create(64))
+        .setResizable(true)
+        .buildSparse();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testInvalidCapacity() {
+    CacheGroup.create(0);
+  }
+}
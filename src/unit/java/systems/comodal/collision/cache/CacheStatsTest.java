@@ -0,0 +1,140 @@
+package systems.comodal.collision.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import org.junit.Test;
+
+public final class CacheStatsTest {
+
+  private static List<LoadingCollisionCache<Long, Long, Long>> createCaches(final int capacity) {
+    return List.of(
+        CollisionCache.withCapacity(capacity, Long.class)
+            .setRecordStats(true)
+            .setStrictCapacity(true)
+            .<Long>setLoader(key -> key < 0 ? null : key)
+            .buildSparse(),
+        CollisionCache.withCapacity(capacity, Long.class)
+            .setRecordStats(true)
+            .<Long>setLoader(key -> key < 0 ? null : key)
+            .buildPacked(),
+        CollisionCache.withCapacity(capacity, Long.class)
+            .setRecordStats(true)
+            .setStrictCapacity(true)
+            .<Long>setIsValForKey(Long::equals)
+            .setLoader(key -> key < 0 ? null : key)
+            .buildSparse(),
+        CollisionCache.withCapacity(capacity, Long.class)
+            .setRecordStats(true)
+            .<Long>setIsValForKey(Long::equals)
+            .setLoader(key -> key < 0 ? null : key)
+            .buildPacked());
+  }
+
+  @Test
+  public void testHitsMissesAndLoads() {
+    for (final LoadingCollisionCache<Long, Long, Long> cache : createCaches(64)) {
+      assertEquals(1L, cache.get(1L).longValue());
+      assertEquals(1L, cache.get(1L).longValue());
+      assertEquals(1L, cache.getAggressive(1L).longValue());
+      assertEquals(1L, cache.getIfPresent(1L).longValue());
+      assertEquals(2L, cache.getAggressive(2L).longValue());
+      assertNull(cache.get(-1L));
+      final CacheStats stats = cache.stats();
+      assertEquals(3, stats.getHitCount());
+      assertEquals(3, stats.getMissCount());
+      assertEquals(0.5, stats.getHitRate(), 0.0);
+      assertEquals(2, stats.getLoadSuccessCount());
+      assertEquals(0, stats.getLoadFailureCount());
+      assertEquals(1, stats.getLoadNullCount());
+      assertTrue(stats.getTotalLoadNanos() > 0);
+      assertEquals(0, stats.getEvictionCount());
+    }
+  }
+
+  @Test
+  public void testGetIfPresentMisses() {
+    for (final LoadingCollisionCache<Long, Long, Long> cache : createCaches(64)) {
+      assertNull(cache.getIfPresent(1L));
+      cache.get(1L);
+      assertEquals(1L, cache.getIfPresent(1L).longValue());
+      final CacheStats stats = cache.stats();
+      assertEquals(1, stats.getHitCount());
+      assertEquals(2, stats.getMissCount());
+      assertEquals(1, stats.getLoadSuccessCount());
+    }
+  }
+
+  @Test
+  public void testLoadFailures() {
+    final LoadingCollisionCache<Long, Long, Long> cache = CollisionCache
+        .withCapacity(64, Long.class)
+        .setRecordStats(true)
+        .<Long>setLoader(key -> {
+          throw new IllegalStateException("Backend unavailable.");
+        })
+        .buildSparse();
+    try {
+      cache.get(1L);
+    } catch (final IllegalStateException ex) {
+      assertEquals("Backend unavailable.", ex.getMessage());
+    }
+    final CacheStats stats = cache.stats();
+    assertEquals(1, stats.getMissCount());
+    assertEquals(1, stats.getLoadFailureCount());
+    assertEquals(0, stats.getLoadNullCount());
+  }
+
+  @Test
+  public void testFilteredKeysAreNullLoads() {
+    final LoadingCollisionCache<Long, Long, Long> cache = CollisionCache
+        .withCapacity(64, Long.class)
+        .setRecordStats(true)
+        .setMembershipFilter(new MembershipFilter<Long>() {
+          @Override
+          public boolean mightContain(final Long key) {
+            return key >= 0;
+          }
+
+          @Override
+          public void add(final Long key) {
+          }
+        })
+        .<Long>setLoader(key -> key)
+        .buildSparse();
+    assertNull(cache.get(-1L));
+    assertEquals(1L, cache.get(1L).longValue());
+    final CacheStats stats = cache.stats();
+    assertEquals(2, stats.getMissCount());
+    assertEquals(1, stats.getLoadSuccessCount());
+    assertEquals(0, stats.getLoadFailureCount());
+    assertEquals(1, stats.getLoadNullCount());
+  }
+
+  @Test
+  public void testEvictions() {
+    for (final LoadingCollisionCache<Long, Long, Long> cache : createCaches(8)) {
+      for (long key = 0; key < 1024; ++key) {
+        cache.get(key);
+      }
+      final CacheStats stats = cache.stats();
+      assertEquals(1024, stats.getMissCount());
+      assertTrue(stats.toString(), stats.getEvictionCount() > 0
+          || stats.getRejectedAdmissionCount() > 0);
+    }
+  }
+
+  @Test
+  public void testDisabled() {
+    final CollisionCache<Long, Long> cache = CollisionCache
+        .withCapacity(64, Long.class)
+        .<Long>setLoader(key -> key)
+        .buildSparse();
+    cache.get(1L);
+    cache.get(1L);
+    assertSame(CacheStats.EMPTY, cache.stats());
+  }
+}
@@ -0,0 +1,70 @@
+package systems.comodal.collision.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public final class DeadlineGetCacheTest {
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final AtomicInteger loads = new AtomicInteger();
+  private final CountDownLatch unblock = new CountDownLatch(1);
+  private final LoadingCollisionCache<Long, Long, Long> cache = CollisionCache
+      .withCapacity(64, Long.class)
+      .<Long>setLoader(key -> {
+        loads.getAndIncrement();
+        if (key < 0) {
+          throw new IllegalArgumentException();
+        }
+        try {
+          unblock.await();
+        } catch (final InterruptedException ex) {
+          throw new IllegalStateException(ex);
+        }
+        return key;
+      })
+      .buildSparse();
+
+  @After
+  public void after() {
+    unblock.countDown();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testFallback() throws InterruptedException {
+    final Long key = 1L;
+    assertNull(cache.getWithin(key, Duration.ofMillis(10), executor));
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+    assertEquals(-1L, cache.getBefore(key, deadline, -1L, executor).longValue());
+    assertEquals(-1L, cache.getBefore(key, System.nanoTime(), -1L, executor).longValue());
+    unblock.countDown();
+    for (int i = 0; i < 1_000 && cache.getIfPresent(key) == null; ++i) {
+      Thread.sleep(5);
+    }
+    // Timed out loads still fill the cache, and waiting callers never multiply loads.
+    assertEquals(key, cache.getIfPresent(key));
+    assertEquals(key, cache.getBefore(key, System.nanoTime(), -1L, executor));
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void testLoadedInTime() {
+    unblock.countDown();
+    assertEquals(2L, cache.getWithin(2L, Duration.ofSeconds(10), executor).longValue());
+    assertEquals(1, loads.get());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testLoaderException() {
+    cache.getWithin(-1L, Duration.ofSeconds(10), executor);
+  }
+}
@@ -0,0 +1,133 @@
+package systems.comodal.collision.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.junit.Test;
+
+public final class EarlyRecomputeCacheTest {
+
+  private static final long LOAD_MILLIS = 20;
+
+  private static Function<Long, Long> slowLoader(final AtomicLong loads) {
+    return key -> {
+      try {
+        Thread.sleep(LOAD_MILLIS);
+      } catch (final InterruptedException ex) {
+        throw new IllegalStateException(ex);
+      }
+      return loads.incrementAndGet();
+    };
+  }
+
+  private static List<LoadingCollisionCache<Long, Long, Long>> createCaches(
+      final Function<LoadingCollisionBuilder<Long, Long, Long>,
+          LoadingCollisionBuilder<Long, Long, Long>> configure,
+      final Function<Long, Long> loader) {
+    return List.of(
+        configure.apply(CollisionCache.withCapacity(64, Long.class)
+            .setLoader(loader)).buildSparse(),
+        configure.apply(CollisionCache.withCapacity(64, Long.class)
+            .setLoader(loader)).buildPacked(),
+        configure.apply(CollisionCache.withCapacity(64, Long.class)
+            .<Long>setIsValForKey((key, val) -> true)
+            .setLoader(loader)).buildSparse(),
+        configure.apply(CollisionCache.withCapacity(64, Long.class)
+            .<Long>setIsValForKey((key, val) -> true)
+            .setLoader(loader)).buildPacked());
+  }
+
+  @Test
+  public void testRecomputeBeforeDeadline() {
+    final AtomicLong loads = new AtomicLong();
+    for (final LoadingCollisionCache<Long, Long, Long> cache : createCaches(
+        builder -> builder.setExpireAfterWrite(Duration.ofMillis(500)).setEarlyRecomputeBeta(100),
+        slowLoader(loads))) {
+      loads.set(0);
+      final Long key = 1L;
+      assertEquals(1L, cache.get(key).longValue());
+      long val = 1;
+      for (int i = 0; i < 64 && val == 1; ++i) {
+        val = cache.get(key);
+      }
+      assertEquals(2L, val);
+      assertEquals(2L, cache.getIfPresent(key).longValue());
+    }
+  }
+
+  @Test
+  public void testRecomputeRecordsLoad() {
+    final AtomicLong loads = new AtomicLong();
+    for (final LoadingCollisionCache<Long, Long, Long> cache : createCaches(
+        builder -> builder.setRecordStats(true)
+            .setExpireAfterWrite(Duration.ofMillis(500))
+            .setEarlyRecomputeBeta(100),
+        slowLoader(loads))) {
+      final Long key = 1L;
+      cache.get(key);
+      long val = 1;
+      for (int i = 0; i < 64 && val == 1; ++i) {
+        val = cache.get(key);
+      }
+      assertEquals(2L, val);
+      assertEquals(2L, cache.stats().getLoadSuccessCount());
+      // Early recomputes happen on hits, so only the first load is a miss.
+      assertEquals(1L, cache.stats().getMissCount());
+      loads.set(0);
+    }
+  }
+
+  @Test
+  public void testNoRecomputeFarFromDeadline() {
+    final AtomicLong loads = new AtomicLong();
+    for (final LoadingCollisionCache<Long, Long, Long> cache : createCaches(
+        builder -> builder.setExpireAfterWrite(Duration.ofHours(1)).setEarlyRecomputeBeta(1),
+        slowLoader(loads))) {
+      loads.set(0);
+      final Long key = 1L;
+      for (int i = 0; i < 1024; ++i) {
+        assertEquals(1L, cache.get(key).longValue());
+      }
+      assertEquals(1L, loads.get());
+    }
+  }
+
+  @Test
+  public void testRecomputeWithRefreshExecutor() {
+    final AtomicLong loads = new AtomicLong();
+    final List<Runnable> queued = new ArrayList<>();
+    for (final LoadingCollisionCache<Long, Long, Long> cache : createCaches(
+        builder -> builder.setExpireAfterWrite(Duration.ofMillis(500)).setEarlyRecomputeBeta(100)
+            .setRefreshAfterWrite(Duration.ofHours(1), queued::add),
+        slowLoader(loads))) {
+      loads.set(0);
+      queued.clear();
+      final Long key = 1L;
+      assertEquals(1L, cache.get(key).longValue());
+      for (int i = 0; i < 64; ++i) {
+        // The current value is returned while a single reload is queued.
+        assertEquals(1L, cache.get(key).longValue());
+      }
+      assertEquals(1, queued.size());
+      queued.remove(0).run();
+      assertEquals(2L, cache.getIfPresent(key).longValue());
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testMissingExpiration() {
+    CollisionCache.withCapacity(64, Long.class)
+        .setEarlyRecomputeBeta(1)
+        .buildSparse();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testInvalidBeta() {
+    CollisionCache.withCapacity(64, Long.class)
+        .setEarlyRecomputeBeta(0);
+  }
+}
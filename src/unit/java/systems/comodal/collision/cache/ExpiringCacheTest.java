@@ -0,0 +1,169 @@
+package systems.comodal.collision.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.Test;
+
+public final class ExpiringCacheTest {
+
+  private static final Duration TTL = Duration.ofMillis(100);
+  private static final long SLEEP_PAST_TTL = 400;
+
+  private static List<LoadingCollisionCache<Long, Long, Long>> createCaches(
+      final Function<LoadingCollisionBuilder<Long, Long, Long>,
+          LoadingCollisionBuilder<Long, Long, Long>> configure,
+      final Function<Long, Long> loader) {
+    return List.of(
+        configure.apply(CollisionCache.withCapacity(64, Long.class)
+            .setLoader(loader)).buildSparse(),
+        configure.apply(CollisionCache.withCapacity(64, Long.class)
+            .setLoader(loader)).buildPacked(),
+        configure.apply(CollisionCache.withCapacity(64, Long.class)
+            .<Long>setIsValForKey(Long::equals)
+            .setLoader(loader)).buildSparse(),
+        configure.apply(CollisionCache.withCapacity(64, Long.class)
+            .<Long>setIsValForKey(Long::equals)
+            .setLoader(loader)).buildPacked());
+  }
+
+  @Test
+  public void testExpireAfterWrite() throws InterruptedException {
+    final AtomicInteger loads = new AtomicInteger();
+    final List<LoadingCollisionCache<Long, Long, Long>> caches = createCaches(
+        builder -> builder.setExpireAfterWrite(TTL),
+        key -> {
+          loads.getAndIncrement();
+          return key;
+        });
+    final Long key = 1_000L;
+    for (final LoadingCollisionCache<Long, Long, Long> cache : caches) {
+      loads.set(0);
+      assertEquals(key, cache.get(key));
+      assertEquals(key, cache.get(key));
+      assertEquals(1, loads.get());
+      final Long val = cache.getIfPresent(key);
+      assertEquals(key, val);
+      Thread.sleep(SLEEP_PAST_TTL);
+      assertNull(cache.getIfPresent(key));
+      assertEquals(key, cache.get(key));
+      assertEquals(2, loads.get());
+      assertEquals(key, cache.getIfPresent(key));
+
+      Thread.sleep(SLEEP_PAST_TTL);
+      assertEquals(key, cache.getAggressive(key));
+      assertEquals(3, loads.get());
+
+      Thread.sleep(SLEEP_PAST_TTL);
+      final Long replacement = Long.valueOf(1_000L);
+      assertSame(replacement, cache.putIfAbsent(key, replacement));
+      assertSame(replacement, cache.getIfPresent(key));
+      assertEquals(3, loads.get());
+    }
+  }
+
+  @Test
+  public void testExpireAfterAccess() throws InterruptedException {
+    final List<LoadingCollisionCache<Long, Long, Long>> caches = createCaches(
+        builder -> builder.setExpireAfterAccess(Duration.ofMillis(300)),
+        key -> key);
+    final Long key = 42L;
+    for (final LoadingCollisionCache<Long, Long, Long> cache : caches) {
+      assertEquals(key, cache.get(key));
+      for (int i = 0; i < 6; ++i) {
+        Thread.sleep(100);
+        assertEquals(key, cache.getIfPresent(key));
+      }
+      Thread.sleep(800);
+      assertNull(cache.getIfPresent(key));
+    }
+  }
+
+  @Test
+  public void testVariableExpiry() throws InterruptedException {
+    final long ttlNanos = TTL.toNanos();
+    final List<LoadingCollisionCache<Long, Long, Long>> caches = createCaches(
+        builder -> builder.setExpiry((key, val) -> (val & 1) == 0 ? ttlNanos : Long.MAX_VALUE),
+        key -> key);
+    for (final LoadingCollisionCache<Long, Long, Long> cache : caches) {
+      for (long key = 0; key < 8; ++key) {
+        assertEquals(Long.valueOf(key), cache.get(key));
+      }
+      Thread.sleep(SLEEP_PAST_TTL);
+      for (long key = 0; key < 8; ++key) {
+        if ((key & 1) == 0) {
+          assertNull(cache.getIfPresent(key));
+        } else {
+          assertEquals(Long.valueOf(key), cache.getIfPresent(key));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testImmediateExpiry() {
+    final CollisionCache<Long, Long> cache = CollisionCache.withCapacity(64, Long.class)
+        .<Long>setExpiry((key, val) -> 0)
+        .buildSparse();
+    final Long key = 1L;
+    assertSame(key, cache.putReplace(key, key));
+    assertNull(cache.getIfPresent(key));
+  }
+
+  @Test
+  public void testExpiredEvictedFirst() throws InterruptedException {
+    final LoadingCollisionCache<Long, Long, Long> cache = CollisionCache
+        .withCapacity(8, Long.class)
+        .setBucketSize(8)
+        .<Long>setLoader(key -> key)
+        .setExpireAfterWrite(TTL)
+        .buildPacked();
+    fillAndBump(cache, 0, 4);
+    Thread.sleep(SLEEP_PAST_TTL);
+    fillAndBump(cache, 4, 8);
+    for (long key = 8; key < 12; ++key) {
+      cache.get(key);
+    }
+    for (long key = 4; key < 12; ++key) {
+      assertEquals(Long.valueOf(key), cache.getIfPresent(key));
+    }
+  }
+
+  private static void fillAndBump(final CollisionCache<Long, Long> cache, final long from,
+      final long to) {
+    for (long key = from; key < to; ++key) {
+      cache.get(key);
+      // Bump counts so that expiration is the only difference between entries.
+      for (int i = 0; i < 32; ++i) {
+        cache.getIfPresent(key);
+      }
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testMutuallyExclusive() {
+    CollisionCache.withCapacity(64, Long.class)
+        .setExpireAfterWrite(TTL)
+        .setExpireAfterAccess(TTL)
+        .buildSparse();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testExpiryMutuallyExclusive() {
+    CollisionCache.withCapacity(64, Long.class)
+        .setExpireAfterWrite(TTL)
+        .<Long>setExpiry((key, val) -> 0)
+        .buildPacked();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNegativeDuration() {
+    CollisionCache.withCapacity(64, Long.class)
+        .setExpireAfterWrite(Duration.ofMillis(-1));
+  }
+}
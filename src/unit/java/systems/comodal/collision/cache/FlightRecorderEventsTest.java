@@ -0,0 +1,50 @@
+package systems.comodal.collision.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+public final class FlightRecorderEventsTest {
+
+  @Test
+  public void testLoadAndEvictionEvents() throws IOException {
+    final LoadingCollisionCache<Long, Long, Long> cache = CollisionCache
+        .withCapacity(8, Long.class)
+        .setName("test")
+        .setRecordEvents(true)
+        .setRecordStats(true)
+        .<Long>setLoader(key -> key)
+        .buildPacked();
+    final Path dump = Files.createTempFile("collision", ".jfr");
+    try (final Recording recording = new Recording()) {
+      recording.enable("systems.comodal.collision.Load").withThreshold(Duration.ZERO);
+      recording.enable("systems.comodal.collision.Eviction");
+      recording.start();
+      for (long key = 0; key < 4096; ++key) {
+        assertEquals(key, cache.get(key).longValue());
+      }
+      recording.stop();
+      recording.dump(dump);
+      final List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+      final long loads = events.stream()
+          .filter(event -> event.getEventType().getName().endsWith(".Load"))
+          .peek(event -> assertEquals("test", event.getString("cacheName")))
+          .count();
+      assertEquals(4096, loads);
+      assertTrue(events.stream()
+          .anyMatch(event -> event.getEventType().getName().endsWith(".Eviction")));
+      assertEquals(4096, cache.stats().getMissCount());
+    } finally {
+      Files.deleteIfExists(dump);
+    }
+  }
+}
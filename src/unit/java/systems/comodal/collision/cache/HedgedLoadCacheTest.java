@@ -0,0 +1,174 @@
+package systems.comodal.collision.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public final class HedgedLoadCacheTest {
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final AtomicInteger loads = new AtomicInteger();
+  private final CountDownLatch unblock = new CountDownLatch(1);
+
+  @After
+  public void after() {
+    unblock.countDown();
+    executor.shutdownNow();
+  }
+
+  /**
+   * The primary load waits for the hedge to complete before returning a stale value.
+   */
+  private Long slowFirstLoad(final Long key) {
+    if (loads.getAndIncrement() == 0) {
+      try {
+        unblock.await();
+        Thread.sleep(50);
+      } catch (final InterruptedException ex) {
+        throw new IllegalStateException(ex);
+      }
+      return -key;
+    }
+    unblock.countDown();
+    return key;
+  }
+
+  @Test
+  public void testHedgeWins() {
+    final LoadingCollisionCache<Long, Long, Long> cache = CollisionCache
+        .withCapacity(64, Long.class)
+        .setHedgedLoads(Duration.ofMillis(10), executor)
+        .<Long>setLoader(this::slowFirstLoad)
+        .buildSparse();
+    assertEquals(1L, cache.get(1L).longValue());
+    assertEquals(2, loads.get());
+    assertEquals(1L, cache.getIfPresent(1L).longValue());
+  }
+
+  @Test
+  public void testCallerReturnsFirstResult() {
+    final LoadingCollisionCache<Long, Long, Long> cache = CollisionCache
+        .withCapacity(64, Long.class)
+        .setHedgedLoads(Duration.ofMillis(10), executor)
+        .<Long>setLoader(key -> {
+          if (loads.getAndIncrement() == 0) {
+            // Blocks until the test completes.
+            try {
+              unblock.await();
+            } catch (final InterruptedException ex) {
+              throw new IllegalStateException(ex);
+            }
+            return -key;
+          }
+          return key;
+        })
+        .buildSparse();
+    assertEquals(1L, cache.get(1L).longValue());
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void testRejectedLoadsRunOnCaller() {
+    final Thread caller = Thread.currentThread();
+    final LoadingCollisionCache<Long, Long, Long> cache = CollisionCache
+        .withCapacity(64, Long.class)
+        .setHedgedLoads(Duration.ofMillis(1), task -> {
+          throw new RejectedExecutionException();
+        })
+        .<Long>setLoader(key -> {
+          assertEquals(caller, Thread.currentThread());
+          loads.getAndIncrement();
+          return key;
+        })
+        .buildSparse();
+    assertEquals(1L, cache.get(1L).longValue());
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void testHedgesDoNotMultiply() throws InterruptedException, ExecutionException {
+    final CountDownLatch hedged = new CountDownLatch(1);
+    final LoadingCollisionCache<Long, Long, Long> cache = CollisionCache
+        .withCapacity(64, Long.class)
+        .setHedgedLoads(Duration.ofMillis(10), executor)
+        .<Long>setLoader(key -> {
+          loads.getAndIncrement();
+          hedged.countDown();
+          try {
+            unblock.await();
+          } catch (final InterruptedException ex) {
+            throw new IllegalStateException(ex);
+          }
+          return key;
+        })
+        .buildSparse();
+    final CompletableFuture<Long> first = CompletableFuture.supplyAsync(() -> cache.get(1L));
+    hedged.await();
+    Thread.sleep(50);
+    final CompletableFuture<Long> second = CompletableFuture
+        .supplyAsync(() -> cache.getAggressive(1L));
+    Thread.sleep(50);
+    assertEquals(2, loads.get());
+    unblock.countDown();
+    assertEquals(1L, first.get().longValue());
+    assertEquals(1L, second.get().longValue());
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void testPercentile() {
+    final HedgedLoader<Long, Long> loader = HedgedLoader
+        .atPercentile(key -> key, executor, 0.5);
+    assertEquals(Long.MAX_VALUE, loader.hedgeDelayNanos());
+    for (long key = 0; key < 128; ++key) {
+      assertEquals(key, loader.apply(key).longValue());
+    }
+    final long hedgeDelay = loader.hedgeDelayNanos();
+    assertTrue(hedgeDelay > 0 && hedgeDelay < Long.MAX_VALUE);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testLoaderException() {
+    CollisionCache.withCapacity(64, Long.class)
+        .setHedgedLoads(Duration.ofMillis(10), executor)
+        .<Long>setLoader(key -> {
+          throw new IllegalArgumentException();
+        })
+        .buildSparse()
+        .get(1L);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNoLoader() {
+    CollisionCache.withCapacity(64, Long.class)
+        .setHedgedLoads(Duration.ofMillis(10), executor)
+        .buildSparse();
+  }
+
+  @Test
+  public void testInvalidDelay() {
+    try {
+      CollisionCache.withCapacity(64, Long.class).setHedgedLoads(Duration.ZERO, executor);
+    } catch (final IllegalStateException ex) {
+      assertEquals("Hedge delay must be > 0.", ex.getMessage());
+      return;
+    }
+    fail();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testInvalidPercentile() {
+    CollisionCache.withCapacity(64, Long.class).setHedgedLoads(1.0, executor);
+  }
+}
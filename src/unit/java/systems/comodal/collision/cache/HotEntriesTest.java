@@ -0,0 +1,165 @@
+package systems.comodal.collision.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public final class HotEntriesTest {
+
+  private static void access(final CollisionCache<Long, Long> cache) {
+    for (long key = 0; key < 256; ++key) {
+      cache.get(key);
+    }
+    for (int i = 0; i < 10_000; ++i) {
+      cache.get(7L);
+    }
+    for (int i = 0; i < 500; ++i) {
+      cache.get(42L);
+    }
+  }
+
+  @Test
+  public void testHotEntries() {
+    final List<CollisionCache<Long, Long>> caches = List.of(
+        CollisionCache.withCapacity(1024, Long.class)
+            .<Long>setLoader(key -> key)
+            .buildSparse(),
+        CollisionCache.withCapacity(1024, Long.class)
+            .<Long>setLoader(key -> key)
+            .buildPacked(),
+        CollisionCache.withCapacity(1024, Long.class)
+            .setPaddedCounters(true)
+            .<Long>setLoader(key -> key)
+            .buildSparse(),
+        CollisionCache.withCapacity(1024, Long.class)
+            .setCounterBits(16)
+            .<Long>setLoader(key -> key)
+            .buildPacked(),
+        CollisionCache.withCapacity(1024, Long.class)
+            .setStoreKeys(false)
+            .<Long>setIsValForKey(Long::equals)
+            .setLoader(key -> key)
+            .buildSparse(),
+        CollisionCache.withCapacity(1024, Long.class)
+            .setStoreKeys(false)
+            .<Long>setIsValForKey(Long::equals)
+            .setLoader(key -> key)
+            .buildPacked());
+    for (final CollisionCache<Long, Long> cache : caches) {
+      assertTrue(cache.hotEntries(8).isEmpty());
+      access(cache);
+      final List<HotEntry<Long, Long>> hotEntries = cache.hotEntries(2);
+      assertEquals(2, hotEntries.size());
+      assertEquals(7L, hotEntries.get(0).getVal().longValue());
+      assertEquals(42L, hotEntries.get(1).getVal().longValue());
+      assertTrue(hotEntries.get(0).getCount() > hotEntries.get(1).getCount());
+      final List<HotEntry<Long, Long>> all = cache.hotEntries(1 << 10);
+      assertTrue(all.size() > 200 && all.size() <= 256);
+      for (int i = 1; i < all.size(); ++i) {
+        assertTrue(all.get(i - 1).getCount() >= all.get(i).getCount());
+      }
+      assertTrue(cache.hotEntries(0).isEmpty());
+    }
+  }
+
+  @Test
+  public void testKeys() {
+    final CollisionCache<Long, Long> keyed = CollisionCache
+        .withCapacity(1024, Long.class)
+        .<Long>setLoader(key -> key)
+        .buildSparse();
+    access(keyed);
+    assertEquals(7L, keyed.hotEntries(1).get(0).getKey().longValue());
+
+    final CollisionCache<Long, Long> keyless = CollisionCache
+        .withCapacity(1024, Long.class)
+        .setStoreKeys(false)
+        .<Long>setIsValForKey(Long::equals)
+        .setLoader(key -> key)
+        .buildSparse();
+    access(keyless);
+    assertNull(keyless.hotEntries(1).get(0).getKey());
+  }
+
+  @Test
+  public void testNullEntriesExcluded() {
+    final CollisionCache<Long, Long> cache = CollisionCache
+        .withCapacity(1024, Long.class)
+        .setCacheNulls(true)
+        .<Long>setLoader(key -> key == 7L ? null : key)
+        .buildSparse();
+    access(cache);
+    final List<HotEntry<Long, Long>> hotEntries = cache.hotEntries(1);
+    assertTrue(hotEntries.isEmpty());
+    assertEquals(42L, cache.hotEntries(2).get(0).getVal().longValue());
+  }
+
+  @Test
+  public void testAging() throws InterruptedException {
+    final CollisionCache<Long, Long> cache = CollisionCache
+        .withCapacity(1024, Long.class)
+        .setCounterAgingPeriod(Duration.ofMillis(10))
+        .<Long>setLoader(key -> key)
+        .buildSparse();
+    access(cache);
+    final int hotCount = cache.hotEntries(1).get(0).getCount();
+    Thread.sleep(50);
+    for (long key = 1_000; key < 2_000; ++key) {
+      cache.get(key);
+      if (key % 100 == 0) {
+        Thread.sleep(5);
+      }
+    }
+    final HotEntry<Long, Long> hottest = cache.hotEntries(1).get(0);
+    assertTrue(hottest.toString(), hottest.getVal() != 7L || hottest.getCount() < hotCount);
+  }
+
+  @Test
+  public void testSampler() throws InterruptedException {
+    final CollisionCache<Long, Long> cache = CollisionCache
+        .withCapacity(1024, Long.class)
+        .<Long>setLoader(key -> key)
+        .buildPacked();
+    access(cache);
+    final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    final CountDownLatch sampled = new CountDownLatch(2);
+    try (final HotKeySampler<Long, Long> sampler = HotKeySampler
+        .start(cache, 4, Duration.ofMillis(10), scheduler, hotEntries -> sampled.countDown())) {
+      assertTrue(sampled.await(10, TimeUnit.SECONDS));
+      final List<HotEntry<Long, Long>> latest = sampler.getLatest();
+      assertEquals(4, latest.size());
+      assertEquals(7L, latest.get(0).getKey().longValue());
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testSamplerSurvivesListenerException() throws InterruptedException {
+    final CollisionCache<Long, Long> cache = CollisionCache
+        .withCapacity(1024, Long.class)
+        .<Long>setLoader(key -> key)
+        .buildPacked();
+    access(cache);
+    final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    final CountDownLatch sampled = new CountDownLatch(3);
+    try (final HotKeySampler<Long, Long> sampler = HotKeySampler
+        .start(cache, 4, Duration.ofMillis(10), scheduler, hotEntries -> {
+          sampled.countDown();
+          throw new IllegalStateException();
+        })) {
+      assertTrue(sampled.await(10, TimeUnit.SECONDS));
+      assertEquals(4, sampler.getLatest().size());
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+}
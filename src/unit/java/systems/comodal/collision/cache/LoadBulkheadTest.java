@@ -0,0 +1,143 @@
+package systems.comodal.collision.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.Test;
+
+public final class LoadBulkheadTest {
+
+  private static final Long BLOCKED_KEY = 1L;
+
+  private final AtomicInteger loads = new AtomicInteger();
+  private final CountDownLatch unblock = new CountDownLatch(1);
+
+  private LoadingCollisionCache<Long, Long, Long> createCache(final LoadBulkhead bulkhead) {
+    return CollisionCache.withCapacity(64, Long.class)
+        .setLoadBulkhead(bulkhead)
+        .<Long>setLoadFallback(key -> -key)
+        .<Long>setLoader(key -> {
+          loads.getAndIncrement();
+          if (BLOCKED_KEY.equals(key)) {
+            try {
+              unblock.await();
+            } catch (final InterruptedException ex) {
+              throw new IllegalStateException(ex);
+            }
+          }
+          return key;
+        })
+        .buildSparse();
+  }
+
+  private static void awaitTrue(final BooleanSupplier condition) throws InterruptedException {
+    for (int i = 0; i < 1_000 && !condition.getAsBoolean(); ++i) {
+      Thread.sleep(5);
+    }
+    assertTrue(condition.getAsBoolean());
+  }
+
+  @Test
+  public void testFailFast() throws InterruptedException, ExecutionException {
+    final LoadBulkhead bulkhead = LoadBulkhead.create(1, LoadBulkhead.Policy.FAIL_FAST);
+    final LoadingCollisionCache<Long, Long, Long> cache = createCache(bulkhead);
+    assertEquals(3L, cache.get(3L).longValue());
+    final CompletableFuture<Long> blocked = CompletableFuture
+        .supplyAsync(() -> cache.get(BLOCKED_KEY));
+    awaitTrue(() -> bulkhead.getActiveLoads() == 1);
+    // Hits never need a permit.
+    assertEquals(3L, cache.get(3L).longValue());
+    assertEquals(-2L, cache.get(2L).longValue());
+    assertEquals(-2L, cache.getAggressive(2L).longValue());
+    assertEquals(2, bulkhead.getRejectedLoads());
+    unblock.countDown();
+    assertEquals(BLOCKED_KEY, blocked.get());
+    assertEquals(2L, cache.get(2L).longValue());
+    assertEquals(3, loads.get());
+    assertEquals(0, bulkhead.getActiveLoads());
+  }
+
+  @Test
+  public void testWait() throws InterruptedException, ExecutionException {
+    final LoadBulkhead bulkhead = LoadBulkhead.create(1, LoadBulkhead.Policy.WAIT);
+    final LoadingCollisionCache<Long, Long, Long> cache = createCache(bulkhead);
+    final CompletableFuture<Long> blocked = CompletableFuture
+        .supplyAsync(() -> cache.getAggressive(BLOCKED_KEY));
+    awaitTrue(() -> bulkhead.getActiveLoads() == 1);
+    final CompletableFuture<Long> waiting = CompletableFuture
+        .supplyAsync(() -> cache.getAggressive(2L));
+    awaitTrue(() -> bulkhead.getQueueDepth() == 1);
+    assertEquals(1, loads.get());
+    unblock.countDown();
+    assertEquals(BLOCKED_KEY, blocked.get());
+    assertEquals(2L, waiting.get().longValue());
+    assertEquals(2, loads.get());
+    assertEquals(0, bulkhead.getRejectedLoads());
+  }
+
+  @Test
+  public void testAtomic() throws InterruptedException, ExecutionException {
+    final LoadBulkhead bulkhead = LoadBulkhead.create(1, LoadBulkhead.Policy.ATOMIC);
+    final LoadingCollisionCache<Long, Long, Long> cache = createCache(bulkhead);
+    final CompletableFuture<Long> blocked = CompletableFuture
+        .supplyAsync(() -> cache.getAggressive(BLOCKED_KEY));
+    awaitTrue(() -> bulkhead.getActiveLoads() == 1);
+    final CompletableFuture<Long> waiting = CompletableFuture
+        .supplyAsync(() -> cache.getAggressive(2L));
+    awaitTrue(() -> bulkhead.getQueueDepth() == 1);
+    assertEquals(1, bulkhead.getRejectedLoads());
+    assertEquals(1, loads.get());
+    unblock.countDown();
+    assertEquals(BLOCKED_KEY, blocked.get());
+    assertEquals(2L, waiting.get().longValue());
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void testCachedNullsNeverNeedPermits() throws InterruptedException, ExecutionException {
+    final LoadBulkhead bulkhead = LoadBulkhead.create(1, LoadBulkhead.Policy.FAIL_FAST);
+    final LoadingCollisionCache<Long, Long, Long> cache = CollisionCache
+        .withCapacity(64, Long.class)
+        .setCacheNulls(Duration.ofMinutes(1))
+        .setLoadBulkhead(bulkhead)
+        .<Long>setLoadFallback(key -> -key)
+        .<Long>setLoader(key -> {
+          loads.getAndIncrement();
+          if (BLOCKED_KEY.equals(key)) {
+            try {
+              unblock.await();
+            } catch (final InterruptedException ex) {
+              throw new IllegalStateException(ex);
+            }
+            return key;
+          }
+          return null;
+        })
+        .buildSparse();
+    assertNull(cache.get(2L));
+    final CompletableFuture<Long> blocked = CompletableFuture
+        .supplyAsync(() -> cache.get(BLOCKED_KEY));
+    awaitTrue(() -> bulkhead.getActiveLoads() == 1);
+    assertNull(cache.get(2L));
+    assertNull(cache.getAggressive(2L));
+    assertEquals(-3L, cache.getAggressive(3L).longValue());
+    assertEquals(-3L, cache.get(3L, key -> key).longValue());
+    assertEquals(2, bulkhead.getRejectedLoads());
+    unblock.countDown();
+    assertEquals(BLOCKED_KEY, blocked.get());
+    assertEquals(3L, cache.get(3L, key -> key).longValue());
+    assertEquals(2, loads.get());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testInvalidPermits() {
+    LoadBulkhead.create(0, LoadBulkhead.Policy.WAIT);
+  }
+}
@@ -0,0 +1,202 @@
+package systems.comodal.collision.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+public final class MemoryPressureTest {
+
+  private static final int CAPACITY = 1 << 12;
+
+  private static LoadingCollisionCache<Integer, Integer, Integer> keyed() {
+    return CollisionCache
+        .<Integer>withCapacity(CAPACITY)
+        .setStrictCapacity(true)
+        .<Integer>setLoader(key -> key)
+        .buildSparse();
+  }
+
+  private static LoadingCollisionCache<Integer, Integer, Integer> keyless() {
+    return CollisionCache
+        .withCapacity(CAPACITY, Integer.class)
+        .setStrictCapacity(true)
+        .setStoreKeys(false)
+        .<Integer>setIsValForKey(Integer::equals)
+        .setLoader(key -> key)
+        .buildSparse();
+  }
+
+  private static LoadingCollisionCache<Integer, Integer, Integer> fill(
+      final LoadingCollisionCache<Integer, Integer, Integer> cache) {
+    for (int key = 0; key < CAPACITY; ++key) {
+      cache.get(key);
+    }
+    for (int i = 0; i < 1 << 14; ++i) {
+      cache.get(7);
+    }
+    return cache;
+  }
+
+  private static void testShrink(final LoadingCollisionCache<Integer, Integer, Integer> cache) {
+    fill(cache);
+    final MemoryPressureListener.Shrinkable shrinkable = (MemoryPressureListener.Shrinkable) cache;
+    shrinkable.shrinkCapacity(0.25);
+    shrinkable.sweep();
+    long numEntries = cache.diagnostics().getNumEntries();
+    assertTrue(numEntries <= CAPACITY / 4);
+    assertTrue(numEntries > CAPACITY / 8);
+    assertEquals(7, cache.getIfPresent(7).intValue());
+    for (int key = CAPACITY; key < CAPACITY << 1; ++key) {
+      cache.get(key);
+    }
+    // An insert may exceed capacity by one entry before dropping another.
+    assertTrue(cache.diagnostics().getNumEntries() <= CAPACITY / 4 + 1);
+
+    shrinkable.restoreCapacity();
+    for (int key = 0; key < CAPACITY << 1; ++key) {
+      cache.get(key);
+    }
+    numEntries = cache.diagnostics().getNumEntries();
+    assertTrue(numEntries > CAPACITY / 2);
+    assertTrue(numEntries <= CAPACITY + 1);
+  }
+
+  @Test
+  public void testShrinkEntries() {
+    testShrink(keyed());
+  }
+
+  @Test
+  public void testShrinkKeyless() {
+    testShrink(keyless());
+  }
+
+  private static List<MemoryUsage> usage(final double fraction) {
+    final long max = 1L << 30;
+    return List.of(new MemoryUsage(0, (long) (max * fraction), max, max));
+  }
+
+  @Test
+  public void testListener() {
+    final LoadingCollisionCache<Integer, Integer, Integer> cache = fill(keyed());
+    final MemoryPressureListener.Shrinkable shrinkable = (MemoryPressureListener.Shrinkable) cache;
+    // Not registered, so that real collections cannot change its state.
+    final MemoryPressureListener listener
+        = new MemoryPressureListener(shrinkable, 0.8, 0.5, List.of());
+    try {
+      listener.handleUsage(shrinkable, true, usage(0.7));
+      assertFalse(listener.isShrunk());
+
+      listener.handleUsage(shrinkable, true, usage(0.9));
+      assertTrue(listener.isShrunk());
+      // Sweep on this thread rather than waiting on the background sweep.
+      shrinkable.sweep();
+      assertTrue(cache.diagnostics().getNumEntries() <= CAPACITY / 2);
+      assertEquals(7, cache.getIfPresent(7).intValue());
+
+      // Post collection usage must fall below the relief level to restore capacity.
+      listener.handleUsage(shrinkable, false, usage(0.75));
+      assertTrue(listener.isShrunk());
+      listener.handleUsage(shrinkable, false, usage(0.5));
+      assertFalse(listener.isShrunk());
+
+      listener.handleUsage(shrinkable, true, usage(0.9));
+      assertTrue(listener.isShrunk());
+    } finally {
+      listener.unregister();
+    }
+    assertFalse(listener.isShrunk());
+    for (int key = 0; key < CAPACITY << 1; ++key) {
+      cache.get(key);
+    }
+    assertTrue(cache.diagnostics().getNumEntries() > CAPACITY / 2);
+  }
+
+  private static List<MemoryPoolMXBean> thresholdPools() {
+    return ManagementFactory.getMemoryPoolMXBeans().stream()
+        .filter(pool -> pool.getType() == MemoryType.HEAP
+            && pool.isUsageThresholdSupported()
+            && pool.getUsage().getMax() > 0)
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  public void testThresholdsRestored() {
+    final List<MemoryPoolMXBean> pools = thresholdPools();
+    final long[] previous = pools.stream().mapToLong(MemoryPoolMXBean::getUsageThreshold).toArray();
+    final MemoryPressureListener.Shrinkable cache = (MemoryPressureListener.Shrinkable) keyed();
+    final MemoryPressureListener first = MemoryPressureListener.register(cache, 0.9, 0.5);
+    final MemoryPressureListener second = MemoryPressureListener.register(cache, 0.8, 0.5);
+    try {
+      for (int i = 0; i < pools.size(); ++i) {
+        if (previous[i] == 0) {
+          final MemoryPoolMXBean pool = pools.get(i);
+          assertEquals((long) (pool.getUsage().getMax() * 0.8), pool.getUsageThreshold());
+        }
+      }
+      second.unregister();
+      for (int i = 0; i < pools.size(); ++i) {
+        if (previous[i] == 0) {
+          final MemoryPoolMXBean pool = pools.get(i);
+          assertEquals((long) (pool.getUsage().getMax() * 0.9), pool.getUsageThreshold());
+        }
+      }
+    } finally {
+      second.unregister();
+      first.unregister();
+    }
+    assertArrayEquals(previous,
+        pools.stream().mapToLong(MemoryPoolMXBean::getUsageThreshold).toArray());
+  }
+
+  @Test
+  public void testThresholdsOfOthersKept() {
+    final List<MemoryPoolMXBean> pools = thresholdPools();
+    final long[] previous = pools.stream().mapToLong(MemoryPoolMXBean::getUsageThreshold).toArray();
+    try {
+      for (final MemoryPoolMXBean pool : pools) {
+        pool.setUsageThreshold(pool.getUsage().getMax() - 1);
+      }
+      final long[] others = pools.stream()
+          .mapToLong(MemoryPoolMXBean::getUsageThreshold).toArray();
+      final MemoryPressureListener listener = MemoryPressureListener
+          .register((MemoryPressureListener.Shrinkable) keyed(), 0.5, 0.5);
+      assertArrayEquals(others,
+          pools.stream().mapToLong(MemoryPoolMXBean::getUsageThreshold).toArray());
+      listener.unregister();
+      assertArrayEquals(others,
+          pools.stream().mapToLong(MemoryPoolMXBean::getUsageThreshold).toArray());
+    } finally {
+      for (int i = 0; i < pools.size(); ++i) {
+        pools.get(i).setUsageThreshold(previous[i]);
+      }
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testPackedUnsupported() {
+    CollisionCache.<Integer>withCapacity(64).setMemoryPressureThreshold(0.9, 0.5).buildPacked();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testResizableUnsupported() {
+    CollisionCache.<Integer>withCapacity(64)
+        .setMemoryPressureThreshold(0.9, 0.5)
+        .setResizable(true)
+        .buildSparse();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testInvalidThreshold() {
+    CollisionCache.<Integer>withCapacity(64).setMemoryPressureThreshold(1.0, 0.5);
+  }
+}
@@ -0,0 +1,159 @@
+package systems.comodal.collision.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.Test;
+
+public final class NullCachingCacheTest {
+
+  private static final Duration TTL = Duration.ofMillis(100);
+  private static final long SLEEP_PAST_TTL = 400;
+
+  private static List<LoadingCollisionCache<Long, Long, Long>> createCaches(
+      final Function<LoadingCollisionBuilder<Long, Long, Long>,
+          LoadingCollisionBuilder<Long, Long, Long>> configure,
+      final Function<Long, Long> loader) {
+    return List.of(
+        configure.apply(CollisionCache.withCapacity(64, Long.class)
+            .setLoader(loader)).buildSparse(),
+        configure.apply(CollisionCache.withCapacity(64, Long.class)
+            .setLoader(loader)).buildPacked(),
+        configure.apply(CollisionCache.withCapacity(64, Long.class)
+            .<Long>setIsValForKey(Long::equals)
+            .setLoader(loader)).buildSparse(),
+        configure.apply(CollisionCache.withCapacity(64, Long.class)
+            .<Long>setIsValForKey(Long::equals)
+            .setLoader(loader)).buildPacked());
+  }
+
+  private static Function<Long, Long> oddKeysMissing(final AtomicInteger loads) {
+    return key -> {
+      loads.getAndIncrement();
+      return (key & 1) == 0 ? key : null;
+    };
+  }
+
+  @Test
+  public void testCacheNulls() {
+    final AtomicInteger loads = new AtomicInteger();
+    for (final LoadingCollisionCache<Long, Long, Long> cache
+        : createCaches(builder -> builder.setCacheNulls(true), oddKeysMissing(loads))) {
+      loads.set(0);
+      for (long key = 0; key < 8; ++key) {
+        for (int i = 0; i < 4; ++i) {
+          assertEquals((key & 1) == 0 ? Long.valueOf(key) : null, cache.get(key));
+          assertEquals((key & 1) == 0 ? Long.valueOf(key) : null, cache.getAggressive(key));
+          assertEquals((key & 1) == 0 ? Long.valueOf(key) : null, cache.getIfPresent(key));
+        }
+      }
+      assertEquals(8, loads.get());
+
+      final Long key = 1L;
+      assertEquals(key, cache.putIfAbsent(key, key));
+      assertEquals(key, cache.get(key));
+      assertEquals(8, loads.get());
+
+      final Long missing = 3L;
+      assertEquals(missing, cache.putIfSpaceAbsent(missing, missing));
+      assertEquals(missing, cache.getIfPresent(missing));
+
+      assertNull(cache.getAggressive(101L, k -> null));
+      assertNull(cache.getAggressive(101L));
+      assertEquals(8, loads.get());
+    }
+  }
+
+  @Test
+  public void testKeylessHashCollision() {
+    final AtomicInteger loads = new AtomicInteger();
+    final List<LoadingCollisionCache<Long, Long, Long>> caches = createCaches(
+        builder -> builder.setCacheNulls(true), oddKeysMissing(loads));
+    // Shares a hash code with 1L.
+    final Long colliding = 1L << 32;
+    for (int i = 0; i < caches.size(); ++i) {
+      final LoadingCollisionCache<Long, Long, Long> cache = caches.get(i);
+      loads.set(0);
+      assertNull(cache.get(1L));
+      if (i < 2) {
+        assertEquals(colliding, cache.get(colliding));
+        assertEquals(2, loads.get());
+      } else {
+        // Keyless caches read the null entry of 1L as a cached null for the colliding key.
+        assertNull(cache.get(colliding));
+        assertEquals(1, loads.get());
+      }
+    }
+  }
+
+  @Test
+  public void testNegativeTtl() throws InterruptedException {
+    final AtomicInteger loads = new AtomicInteger();
+    for (final LoadingCollisionCache<Long, Long, Long> cache
+        : createCaches(builder -> builder.setCacheNulls(TTL), oddKeysMissing(loads))) {
+      loads.set(0);
+      assertNull(cache.get(1L));
+      assertEquals(0L, cache.get(0L).longValue());
+      assertNull(cache.get(1L));
+      assertEquals(2, loads.get());
+      Thread.sleep(SLEEP_PAST_TTL);
+      assertNull(cache.getIfPresent(1L));
+      assertNull(cache.get(1L));
+      assertEquals(3, loads.get());
+      assertEquals(0L, cache.getIfPresent(0L).longValue());
+    }
+  }
+
+  @Test
+  public void testNegativeTtlWithExpiry() throws InterruptedException {
+    final AtomicInteger loads = new AtomicInteger();
+    for (final LoadingCollisionCache<Long, Long, Long> cache : createCaches(
+        builder -> builder.setCacheNulls(Duration.ofHours(1)).setExpireAfterWrite(TTL),
+        oddKeysMissing(loads))) {
+      loads.set(0);
+      assertNull(cache.get(1L));
+      assertEquals(0L, cache.get(0L).longValue());
+      Thread.sleep(SLEEP_PAST_TTL);
+      assertNull(cache.get(1L));
+      assertEquals(0L, cache.get(0L).longValue());
+      assertEquals(3, loads.get());
+    }
+  }
+
+  @Test
+  public void testWeighted() {
+    final AtomicInteger loads = new AtomicInteger();
+    final LoadingCollisionCache<Long, Long, Long> cache = CollisionCache
+        .withCapacity(64, Long.class)
+        .setMaximumWeight(256)
+        .<Long>setWeigher((key, val) -> val.intValue() + 1)
+        .setLoader(oddKeysMissing(loads))
+        .setCacheNulls(true)
+        .buildSparse();
+    for (long key = 0; key < 8; ++key) {
+      cache.get(key);
+      cache.get(key);
+    }
+    assertEquals(8, loads.get());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testMissingLoader() {
+    CollisionCache.withCapacity(64, Long.class)
+        .setCacheNulls(true)
+        .buildSparse();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNegativeTtlWithExpireAfterAccess() {
+    CollisionCache.withCapacity(64, Long.class)
+        .<Long>setLoader(key -> key)
+        .setExpireAfterAccess(TTL)
+        .setCacheNulls(TTL)
+        .buildPacked();
+  }
+}
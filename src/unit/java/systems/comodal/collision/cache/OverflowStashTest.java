@@ -0,0 +1,122 @@
+package systems.comodal.collision.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.Test;
+
+public final class OverflowStashTest {
+
+  private static LoadingCollisionCache<Integer, Integer, Integer> crowdedCache(
+      final int overflowStashSize, final AtomicInteger loads) {
+    return CollisionCache
+        .<Integer>withCapacity(64)
+        .setBucketSize(8)
+        .setOverflowStashSize(overflowStashSize)
+        .<Integer>setHashCoder(key -> 0)
+        .setLoader(key -> {
+          loads.getAndIncrement();
+          return key;
+        })
+        .buildPacked();
+  }
+
+  @Test
+  public void testStashAbsorbsOverflow() {
+    final AtomicInteger loads = new AtomicInteger();
+    final LoadingCollisionCache<Integer, Integer, Integer> cache = crowdedCache(16, loads);
+    for (int key = 0; key < 24; ++key) {
+      assertEquals(key, cache.get(key).intValue());
+    }
+    for (int key = 0; key < 24; ++key) {
+      assertEquals(key, cache.getIfPresent(key).intValue());
+      assertEquals(key, cache.get(key).intValue());
+    }
+    assertEquals(24, loads.get());
+    assertTrue(cache.diagnostics().getEstimatedBytes() > 0);
+  }
+
+  @Test
+  public void testWithoutStash() {
+    final AtomicInteger loads = new AtomicInteger();
+    final LoadingCollisionCache<Integer, Integer, Integer> cache = crowdedCache(0, loads);
+    for (int key = 0; key < 24; ++key) {
+      assertEquals(key, cache.get(key).intValue());
+    }
+    int present = 0;
+    for (int key = 0; key < 24; ++key) {
+      if (cache.getIfPresent(key) != null) {
+        ++present;
+      }
+    }
+    assertEquals(8, present);
+  }
+
+  @Test
+  public void testStashedWrites() {
+    final AtomicInteger loads = new AtomicInteger();
+    final LoadingCollisionCache<Integer, Integer, Integer> cache = crowdedCache(16, loads);
+    for (int key = 0; key < 24; ++key) {
+      cache.get(key);
+    }
+    final OverflowStash<Integer, Integer> stash
+        = ((BaseEntryCollisionCache<Integer, Integer, Integer>) cache).stash;
+    assertEquals(16, stash.size());
+    int stashedKey = 0;
+    while (stash.get(stashedKey, 0) == null) {
+      ++stashedKey;
+    }
+    assertEquals(-stashedKey, cache.replace(stashedKey, -stashedKey).intValue());
+    assertEquals(-stashedKey, cache.getIfPresent(stashedKey).intValue());
+    assertEquals(-stashedKey, cache.putIfAbsent(stashedKey, 7).intValue());
+    assertTrue(cache.remove(stashedKey));
+    assertFalse(cache.remove(stashedKey));
+    assertNull(cache.getIfPresent(stashedKey));
+    assertEquals(15, stash.size());
+    cache.clear();
+    assertEquals(0, stash.size());
+    for (int key = 0; key < 24; ++key) {
+      assertNull(cache.getIfPresent(key));
+    }
+  }
+
+  @Test
+  public void testConcurrentWrites() {
+    final OverflowStash<Integer, Integer> stash
+        = new OverflowStash<>(AtomicLogCounters.create(16, 5, 255));
+    IntStream.range(0, 1 << 14).parallel().forEach(key -> {
+      final int bucket = key & 3;
+      stash.put(new KeyVal<>(key, key), bucket, 5);
+      final Integer stashed = stash.get(key, bucket);
+      if (stashed != null) {
+        assertEquals(key, stashed.intValue());
+      }
+      stash.remove(key, bucket);
+    });
+    assertEquals(0, stash.size());
+    for (int bucket = 0; bucket < 4; ++bucket) {
+      stash.put(new KeyVal<>(bucket, bucket), bucket, 5);
+      assertEquals(bucket, stash.get(bucket, bucket).intValue());
+    }
+    stash.clear();
+    assertEquals(0, stash.size());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testSparseUnsupported() {
+    CollisionCache.<Integer>withCapacity(64).setOverflowStashSize(16).buildSparse();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testExpiryUnsupported() {
+    CollisionCache.<Integer>withCapacity(64)
+        .setOverflowStashSize(16)
+        .setExpireAfterAccess(Duration.ofMinutes(1))
+        .buildPacked();
+  }
+}
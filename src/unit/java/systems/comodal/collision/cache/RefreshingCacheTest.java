@@ -0,0 +1,124 @@
+package systems.comodal.collision.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public final class RefreshingCacheTest {
+
+  private static final Duration REFRESH = Duration.ofMillis(100);
+  private static final long SLEEP_PAST_REFRESH = 400;
+
+  private static List<LoadingCollisionCache<Long, Long, Long>> createCaches(
+      final AtomicLong loads, final Executor executor) {
+    return List.of(
+        CollisionCache.withCapacity(64, Long.class)
+            .<Long>setLoader(key -> loads.incrementAndGet())
+            .setRefreshAfterWrite(REFRESH, executor)
+            .buildSparse(),
+        CollisionCache.withCapacity(64, Long.class)
+            .<Long>setLoader(key -> loads.incrementAndGet())
+            .setRefreshAfterWrite(REFRESH, executor)
+            .buildPacked());
+  }
+
+  @Test
+  public void testRefreshAfterWrite() throws InterruptedException {
+    final AtomicLong loads = new AtomicLong();
+    for (final LoadingCollisionCache<Long, Long, Long> cache
+        : createCaches(loads, Runnable::run)) {
+      loads.set(0);
+      final Long key = 1L;
+      assertEquals(1L, cache.get(key).longValue());
+      assertEquals(1L, cache.get(key).longValue());
+      assertEquals(1L, loads.get());
+      Thread.sleep(SLEEP_PAST_REFRESH);
+      // The current value is returned while the reload is triggered.
+      assertEquals(1L, cache.get(key).longValue());
+      assertEquals(2L, loads.get());
+      assertEquals(2L, cache.getIfPresent(key).longValue());
+      assertEquals(2L, cache.getAggressive(key).longValue());
+      assertEquals(2L, loads.get());
+    }
+  }
+
+  @Test
+  public void testDeduplicatedRefresh() throws InterruptedException {
+    final AtomicLong loads = new AtomicLong();
+    final List<Runnable> queued = new ArrayList<>();
+    for (final LoadingCollisionCache<Long, Long, Long> cache
+        : createCaches(loads, queued::add)) {
+      loads.set(0);
+      queued.clear();
+      final Long key = 1L;
+      assertEquals(1L, cache.get(key).longValue());
+      Thread.sleep(SLEEP_PAST_REFRESH);
+      for (int i = 0; i < 8; ++i) {
+        assertEquals(1L, cache.get(key).longValue());
+        assertEquals(1L, cache.getIfPresent(key).longValue());
+      }
+      assertEquals(1, queued.size());
+      queued.remove(0).run();
+      assertEquals(2L, loads.get());
+      assertEquals(2L, cache.get(key).longValue());
+      assertEquals(0, queued.size());
+    }
+  }
+
+  @Test
+  public void testRefreshAfterRemoval() throws InterruptedException {
+    final AtomicLong loads = new AtomicLong();
+    final List<Runnable> queued = new ArrayList<>();
+    for (final LoadingCollisionCache<Long, Long, Long> cache
+        : createCaches(loads, queued::add)) {
+      loads.set(0);
+      queued.clear();
+      final Long key = 1L;
+      assertEquals(1L, cache.get(key).longValue());
+      Thread.sleep(SLEEP_PAST_REFRESH);
+      assertEquals(1L, cache.getIfPresent(key).longValue());
+      cache.remove(key);
+      queued.remove(0).run();
+      assertNull(cache.getIfPresent(key));
+    }
+  }
+
+  @Test
+  public void testRefreshRecordsLoad() throws InterruptedException {
+    final AtomicLong loads = new AtomicLong();
+    final List<LoadingCollisionCache<Long, Long, Long>> caches = List.of(
+        CollisionCache.withCapacity(64, Long.class)
+            .setRecordStats(true)
+            .<Long>setLoader(key -> loads.incrementAndGet())
+            .setRefreshAfterWrite(REFRESH, Runnable::run)
+            .buildSparse(),
+        CollisionCache.<Long>withCapacity(64)
+            .setRecordStats(true)
+            .<Long>setLoader(key -> loads.incrementAndGet())
+            .setRefreshAfterWrite(REFRESH, Runnable::run)
+            .buildPacked());
+    for (final LoadingCollisionCache<Long, Long, Long> cache : caches) {
+      cache.get(1L);
+      assertEquals(1L, cache.stats().getLoadSuccessCount());
+      Thread.sleep(SLEEP_PAST_REFRESH);
+      cache.get(1L);
+      assertEquals(2L, cache.stats().getLoadSuccessCount());
+      // The refresh is triggered by a hit, not a miss.
+      assertEquals(1L, cache.stats().getMissCount());
+      assertEquals(1L, cache.stats().getHitCount());
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testMissingLoader() {
+    CollisionCache.withCapacity(64, Long.class)
+        .setRefreshAfterWrite(REFRESH, Runnable::run)
+        .buildSparse();
+  }
+}
@@ -0,0 +1,193 @@
+package systems.comodal.collision.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.Test;
+
+public final class ResizableCacheTest {
+
+  private static LoadingCollisionCache<Integer, Integer, Integer> resizableCache(
+      final int capacity, final AtomicInteger loads, final boolean packed) {
+    final LoadingCollisionBuilder<Integer, Integer, Integer> builder = CollisionCache
+        .<Integer>withCapacity(capacity)
+        .setResizable(true)
+        .setLoader(key -> {
+          loads.getAndIncrement();
+          return key;
+        });
+    return packed ? builder.buildPacked() : builder.buildSparse();
+  }
+
+  private static void testGrow(final boolean packed) {
+    final AtomicInteger loads = new AtomicInteger();
+    final LoadingCollisionCache<Integer, Integer, Integer> cache
+        = resizableCache(1 << 10, loads, packed);
+    for (int key = 0; key < 256; ++key) {
+      assertEquals(key, cache.get(key).intValue());
+    }
+    cache.setCapacity(1 << 14);
+    for (int key = 0; key < 256; ++key) {
+      assertEquals(key, cache.get(key).intValue());
+    }
+    assertEquals(256, loads.get());
+    for (int key = 256; key < 1 << 13; ++key) {
+      cache.get(key);
+    }
+    assertTrue(cache.diagnostics().getNumEntries() > 1 << 12);
+  }
+
+  @Test
+  public void testGrowPacked() {
+    testGrow(true);
+  }
+
+  @Test
+  public void testGrowSparse() {
+    testGrow(false);
+  }
+
+  @Test
+  public void testShrink() {
+    final AtomicInteger loads = new AtomicInteger();
+    final LoadingCollisionCache<Integer, Integer, Integer> cache
+        = resizableCache(1 << 12, loads, true);
+    for (int key = 0; key < 1 << 12; ++key) {
+      cache.get(key);
+    }
+    cache.setCapacity(1 << 8);
+    cache.setCapacity(1 << 8);
+    for (int key = 0; key < 1 << 12; ++key) {
+      cache.getIfPresent(key);
+    }
+    assertTrue(cache.diagnostics().getNumEntries() <= 1 << 8);
+  }
+
+  @Test
+  public void testCountsCarryOver() {
+    final LoadingCollisionCache<Integer, Integer, Integer> cache = resizableCache(
+        64, new AtomicInteger(), true);
+    for (int i = 0; i < 100; ++i) {
+      cache.get(7);
+    }
+    final int count = cache.hotEntries(1).get(0).getCount();
+    cache.setCapacity(128);
+    cache.get(8);
+    final HotEntry<Integer, Integer> hottest = cache.hotEntries(1).get(0);
+    assertEquals(7, hottest.getKey().intValue());
+    assertTrue(hottest.getCount() >= count);
+  }
+
+  @Test
+  public void testWritesDuringMigration() {
+    final LoadingCollisionCache<Integer, Integer, Integer> cache = resizableCache(
+        1 << 12, new AtomicInteger(), false);
+    for (int key = 0; key < 1 << 10; ++key) {
+      cache.get(key);
+    }
+    cache.setCapacity(1 << 13);
+    assertEquals(-1, cache.putReplace(1, -1).intValue());
+    assertEquals(-2, cache.replace(2, -2).intValue());
+    assertEquals(3, cache.putIfAbsent(3, -3).intValue());
+    assertTrue(cache.remove(4));
+    assertFalse(cache.remove(4));
+    for (int key = 0; key < 1 << 10; ++key) {
+      cache.getIfPresent(key);
+    }
+    assertEquals(-1, cache.getIfPresent(1).intValue());
+    assertEquals(-2, cache.getIfPresent(2).intValue());
+    assertEquals(3, cache.getIfPresent(3).intValue());
+    assertNull(cache.getIfPresent(4));
+    assertEquals(1023, cache.diagnostics().getNumEntries());
+    cache.clear();
+    assertNull(cache.getIfPresent(1));
+  }
+
+  @Test
+  public void testMigratedHitsCountOnce() {
+    final LoadingCollisionCache<Integer, Integer, Integer> cache = CollisionCache
+        .<Integer>withCapacity(1 << 12)
+        .setResizable(true)
+        .setRecordStats(true)
+        .<Integer>setLoader(key -> key)
+        .buildSparse();
+    for (int key = 0; key < 1 << 10; ++key) {
+      cache.get(key);
+    }
+    final CacheStats before = cache.stats();
+    cache.setCapacity(1 << 13);
+    for (int key = 0; key < 1 << 10; ++key) {
+      assertEquals(key, cache.getIfPresent(key).intValue());
+    }
+    final CacheStats after = cache.stats();
+    assertEquals(1 << 10, after.getHitCount() - before.getHitCount());
+    assertEquals(before.getMissCount(), after.getMissCount());
+  }
+
+  @Test
+  public void testWritesRacingResize() {
+    final LoadingCollisionCache<Integer, Integer, Integer> cache = resizableCache(
+        1 << 12, new AtomicInteger(), false);
+    final int numWriters = 4;
+    final int keysPerWriter = 1 << 4;
+    final int[] latest = new int[numWriters * keysPerWriter];
+    final ExecutorService executor = Executors.newFixedThreadPool(numWriters);
+    try {
+      final CompletableFuture<?>[] writers = IntStream.range(0, numWriters)
+          .mapToObj(writer -> CompletableFuture.runAsync(() -> {
+            for (int i = 1; i <= 1 << 16; ++i) {
+              final int key = writer * keysPerWriter + i % keysPerWriter;
+              if ((i & 7) == 0) {
+                cache.remove(key);
+                latest[key] = 0;
+              } else {
+                cache.putReplace(key, i);
+                latest[key] = i;
+              }
+            }
+          }, executor))
+          .toArray(CompletableFuture<?>[]::new);
+      final CompletableFuture<Void> written = CompletableFuture.allOf(writers);
+      for (int i = 0; !written.isDone(); ++i) {
+        cache.setCapacity((i & 1) == 0 ? 1 << 10 : 1 << 12);
+      }
+      written.join();
+    } finally {
+      executor.shutdownNow();
+    }
+    for (int key = 0; key < latest.length; ++key) {
+      final Integer val = cache.getIfPresent(key);
+      // Writes and removals are never undone by a racing migration.
+      assertEquals(latest[key], val == null ? 0 : val.intValue());
+    }
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testNotResizable() {
+    CollisionCache.<Integer>withCapacity(64).buildPacked().setCapacity(128);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testKeylessUnsupported() {
+    CollisionCache.withCapacity(64, Integer.class)
+        .setResizable(true)
+        .setStoreKeys(false)
+        .buildPacked();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testExpiryUnsupported() {
+    CollisionCache.<Integer>withCapacity(64)
+        .setResizable(true)
+        .setExpireAfterWrite(Duration.ofMinutes(1))
+        .buildSparse();
+  }
+}
@@ -0,0 +1,133 @@
+package systems.comodal.collision.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.junit.Test;
+
+public final class StaleWhileRevalidateCacheTest {
+
+  private static final Duration TTL = Duration.ofMillis(100);
+  private static final long SLEEP_PAST_TTL = 400;
+
+  private static List<LoadingCollisionCache<Long, Long, Long>> createCaches(
+      final Duration staleGrace, final Executor executor, final Function<Long, Long> loader) {
+    return List.of(
+        CollisionCache.withCapacity(64, Long.class)
+            .setLoader(loader)
+            .setExpireAfterWrite(TTL)
+            .setStaleWhileRevalidate(staleGrace, executor)
+            .buildSparse(),
+        CollisionCache.withCapacity(64, Long.class)
+            .setLoader(loader)
+            .setExpireAfterWrite(TTL)
+            .setStaleWhileRevalidate(staleGrace, executor)
+            .buildPacked(),
+        CollisionCache.withCapacity(64, Long.class)
+            .<Long>setIsValForKey((key, val) -> true)
+            .setLoader(loader)
+            .setExpireAfterWrite(TTL)
+            .setStaleWhileRevalidate(staleGrace, executor)
+            .buildSparse(),
+        CollisionCache.withCapacity(64, Long.class)
+            .<Long>setIsValForKey((key, val) -> true)
+            .setLoader(loader)
+            .setExpireAfterWrite(TTL)
+            .setStaleWhileRevalidate(staleGrace, executor)
+            .buildPacked());
+  }
+
+  @Test
+  public void testServeStaleWhileReloading() throws InterruptedException {
+    final AtomicLong loads = new AtomicLong();
+    final List<Runnable> queued = new ArrayList<>();
+    for (final LoadingCollisionCache<Long, Long, Long> cache
+        : createCaches(Duration.ofMinutes(1), queued::add, key -> loads.incrementAndGet())) {
+      loads.set(0);
+      queued.clear();
+      final Long key = 1L;
+      assertEquals(1L, cache.get(key).longValue());
+      Thread.sleep(SLEEP_PAST_TTL);
+      for (int i = 0; i < 8; ++i) {
+        assertEquals(1L, cache.get(key).longValue());
+        assertEquals(1L, cache.getIfPresent(key).longValue());
+        assertEquals(1L, cache.getAggressive(key).longValue());
+      }
+      assertEquals(1L, loads.get());
+      assertEquals(1, queued.size());
+      queued.remove(0).run();
+      assertEquals(2L, cache.getIfPresent(key).longValue());
+      assertEquals(2L, cache.get(key).longValue());
+      assertEquals(0, queued.size());
+    }
+  }
+
+  @Test
+  public void testServeStaleOnLoaderFailure() throws InterruptedException {
+    final AtomicLong loads = new AtomicLong();
+    final List<Runnable> queued = new ArrayList<>();
+    for (final LoadingCollisionCache<Long, Long, Long> cache
+        : createCaches(Duration.ofMinutes(1), queued::add, key -> {
+          if (loads.incrementAndGet() > 1) {
+            throw new IllegalStateException("Backend unavailable.");
+          }
+          return 1L;
+        })) {
+      loads.set(0);
+      queued.clear();
+      final Long key = 1L;
+      assertEquals(1L, cache.get(key).longValue());
+      Thread.sleep(SLEEP_PAST_TTL);
+      for (int i = 0; i < 4; ++i) {
+        assertEquals(1L, cache.get(key).longValue());
+        assertEquals(1, queued.size());
+        try {
+          queued.remove(0).run();
+        } catch (final IllegalStateException ex) {
+          assertEquals("Backend unavailable.", ex.getMessage());
+        }
+        assertEquals(1L, cache.getIfPresent(key).longValue());
+      }
+      assertEquals(5L, loads.get());
+    }
+  }
+
+  @Test
+  public void testPastGracePeriod() throws InterruptedException {
+    final AtomicLong loads = new AtomicLong();
+    final List<Runnable> queued = new ArrayList<>();
+    for (final LoadingCollisionCache<Long, Long, Long> cache
+        : createCaches(TTL, queued::add, key -> loads.incrementAndGet())) {
+      loads.set(0);
+      queued.clear();
+      final Long key = 1L;
+      assertEquals(1L, cache.get(key).longValue());
+      Thread.sleep(SLEEP_PAST_TTL << 1);
+      assertNull(cache.getIfPresent(key));
+      assertEquals(2L, cache.get(key).longValue());
+      assertEquals(0, queued.size());
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testMissingExpiration() {
+    CollisionCache.withCapacity(64, Long.class)
+        .<Long>setLoader(key -> key)
+        .setStaleWhileRevalidate(TTL, Runnable::run)
+        .buildSparse();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testMissingLoader() {
+    CollisionCache.withCapacity(64, Long.class)
+        .setExpireAfterWrite(TTL)
+        .setStaleWhileRevalidate(TTL, Runnable::run)
+        .buildSparse();
+  }
+}
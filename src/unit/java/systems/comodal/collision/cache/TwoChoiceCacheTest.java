@@ -0,0 +1,109 @@
+package systems.comodal.collision.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public final class TwoChoiceCacheTest {
+
+  private static final int CAPACITY = 1 << 12;
+
+  private static long fillWithoutEvicting(final CollisionCache<Integer, Integer> cache) {
+    final Random random = new Random(7);
+    for (int i = 0; i < CAPACITY; ++i) {
+      final Integer key = random.nextInt();
+      cache.putIfSpaceAbsent(key, key);
+    }
+    return cache.diagnostics().getNumEntries();
+  }
+
+  @Test
+  public void testUtilization() {
+    final long single = fillWithoutEvicting(CollisionCache
+        .<Integer>withCapacity(CAPACITY)
+        .buildPacked());
+    final long twoChoice = fillWithoutEvicting(CollisionCache
+        .<Integer>withCapacity(CAPACITY)
+        .setTwoChoicePlacement(true)
+        .buildPacked());
+    assertTrue(twoChoice > single);
+    assertTrue(twoChoice > CAPACITY * 0.95);
+  }
+
+  @Test
+  public void testGetPutRemove() {
+    final AtomicInteger loads = new AtomicInteger();
+    final LoadingCollisionCache<Integer, Integer, Integer> cache = CollisionCache
+        .<Integer>withCapacity(64)
+        .setTwoChoicePlacement(true)
+        .<Integer>setLoader(key -> {
+          loads.getAndIncrement();
+          return key;
+        })
+        .buildPacked();
+    for (int key = 0; key < 32; ++key) {
+      assertEquals(key, cache.get(key).intValue());
+      assertEquals(key, cache.get(key).intValue());
+    }
+    assertEquals(32, loads.get());
+    assertNull(cache.getIfPresent(-1));
+    assertNull(cache.replace(-1, 1));
+    assertEquals(2, cache.replace(1, 2).intValue());
+    assertEquals(2, cache.getIfPresent(1).intValue());
+    assertEquals(3, cache.putReplace(1, 3).intValue());
+    assertEquals(3, cache.putIfAbsent(1, 4).intValue());
+    assertTrue(cache.remove(1));
+    assertFalse(cache.remove(1));
+    assertNull(cache.getIfPresent(1));
+    for (int key = 2; key < 32; ++key) {
+      assertEquals(key, cache.getIfPresent(key).intValue());
+    }
+    cache.clear();
+    assertNull(cache.getIfPresent(2));
+    assertEquals(0, cache.diagnostics().getNumEntries());
+  }
+
+  @Test
+  public void testEviction() {
+    final LoadingCollisionCache<Integer, Integer, Integer> cache = CollisionCache
+        .<Integer>withCapacity(64)
+        .setTwoChoicePlacement(true)
+        .<Integer>setLoader(key -> key)
+        .buildPacked();
+    for (int i = 0; i < 100; ++i) {
+      cache.get(7);
+    }
+    for (int key = 0; key < 1024; ++key) {
+      assertEquals(key, cache.get(key).intValue());
+    }
+    assertEquals(64, cache.diagnostics().getNumEntries());
+    assertEquals(7, cache.getIfPresent(7).intValue());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testSparseUnsupported() {
+    CollisionCache.<Integer>withCapacity(64).setTwoChoicePlacement(true).buildSparse();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testKeylessUnsupported() {
+    CollisionCache.withCapacity(64, Integer.class)
+        .setTwoChoicePlacement(true)
+        .setStoreKeys(false)
+        .buildPacked();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testExpiryUnsupported() {
+    CollisionCache.<Integer>withCapacity(64)
+        .setTwoChoicePlacement(true)
+        .setExpireAfterWrite(Duration.ofMinutes(1))
+        .buildPacked();
+  }
+}
@@ -0,0 +1,75 @@
+package systems.comodal.collision.cache;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToIntBiFunction;
+import org.junit.Test;
+
+public final class WeightedSparseCacheTest {
+
+  private static final int NUM_KEYS = 4096;
+  private static final int MAX_ENTRY_WEIGHT = 32;
+  private static final long MAX_WEIGHT = 1024;
+  private static final ToIntBiFunction<Long, Long> WEIGHER = (key, val) ->
+      (int) (val % MAX_ENTRY_WEIGHT) + 1;
+
+  private static long fillAndWeigh(final CollisionCache<Long, Long> cache) {
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = 0; i < NUM_KEYS << 5; ++i) {
+      final Long key = (long) random.nextInt(NUM_KEYS);
+      cache.putReplace(key, key);
+      cache.getIfPresent((long) random.nextInt(NUM_KEYS));
+    }
+    long weight = 0;
+    for (long key = 0; key < NUM_KEYS; ++key) {
+      final Long val = cache.getIfPresent(key);
+      if (val != null) {
+        weight += WEIGHER.applyAsInt(key, val);
+      }
+    }
+    return weight;
+  }
+
+  @Test
+  public void testStrictMaximumWeight() {
+    final CollisionCache<Long, Long> cache = CollisionCache
+        .withCapacity(64, Long.class)
+        .setMaximumWeight(MAX_WEIGHT)
+        .setStrictCapacity(true)
+        .setWeigher(WEIGHER)
+        .buildSparse();
+    final long weight = fillAndWeigh(cache);
+    assertTrue(weight > MAX_WEIGHT / 2);
+    assertTrue(weight <= MAX_WEIGHT + MAX_ENTRY_WEIGHT);
+  }
+
+  @Test
+  public void testStrictMaximumWeightKeyless() {
+    final CollisionCache<Long, Long> cache = CollisionCache
+        .withCapacity(64, Long.class)
+        .setMaximumWeight(MAX_WEIGHT)
+        .setStrictCapacity(true)
+        .setIsValForKey(Long::equals)
+        .setWeigher(WEIGHER)
+        .buildSparse();
+    final long weight = fillAndWeigh(cache);
+    assertTrue(weight > MAX_WEIGHT / 2);
+    assertTrue(weight <= MAX_WEIGHT + MAX_ENTRY_WEIGHT);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testMissingMaximumWeight() {
+    CollisionCache.withCapacity(64, Long.class)
+        .setWeigher(WEIGHER)
+        .buildSparse();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testPackedWeigher() {
+    CollisionCache.withCapacity(64, Long.class)
+        .setMaximumWeight(MAX_WEIGHT)
+        .setWeigher(WEIGHER)
+        .buildPacked();
+  }
+}